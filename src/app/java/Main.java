@@ -26,6 +26,17 @@ public class Main {
 			options.windowOptions.showFPS = true;
 			options.windowOptions.vSync = true;
 			options.graphicsOptions.polygonMode = false;
+
+			// Lets the GPU culling be checked against the CPU on any driver
+			// (i.e. Mesa's llvmpipe) without changing the defaults
+			for (String arg : args) {
+				if (arg.equals("--gpu-culling")) {
+					options.graphicsOptions.gpuCulling = true;
+				} else if (arg.equals("--validate-gpu-culling")) {
+					options.graphicsOptions.gpuCulling = true;
+					options.graphicsOptions.validateGPUCulling = true;
+				}
+			}
 			
 			engine = new Engine(new GameInitializer(), GAME_TITLE, WIDTH, HEIGHT, options);
 			engine.run();
@@ -48,11 +48,11 @@ public class GameInitializer implements IGameInitializer {
 	}
 
 	/**
-	 * Dispose all game-generated textures and meshes
+	 * Release all game textures and meshes, the asset registry frees them
 	 */
 	@Override
 	public void dispose() {
-		GameResources.Textures.disposeAll();
-		GameResources.Meshes.disposeAll();
+		GameResources.Textures.releaseAll();
+		GameResources.Meshes.releaseAll();
 	}
 }
@@ -2,8 +2,8 @@ package game;
 
 import engine.graphics.geometry.Mesh;
 import engine.graphics.geometry.Texture;
-import engine.resources.loaders.MeshLoader;
-import engine.resources.loaders.TextureLoader;
+import engine.resources.AssetHandle;
+import engine.resources.AssetRegistry;
 
 /**
  * Static class to reference game resources
@@ -27,36 +27,33 @@ public final class GameResources {
 		/**
 		 * The cube grass block
 		 */
-		public static final Texture GRASS_BLOCK = new Texture("grassblock.png");
+		public static final AssetHandle<Texture> GRASS_BLOCK = AssetRegistry.getTexture("grassblock.png");
 
-		// List of all textures for simple loading/destroying
-		private static final Texture[] _texturesToLoad = new Texture[] { GRASS_BLOCK };
+		// List of all textures for simple loading/releasing
+		private static final AssetHandle<?>[] _texturesToLoad = new AssetHandle<?>[] { GRASS_BLOCK };
 
 		// Static class
 		private Textures() {
 		}
 
 		/**
-		 * Loads all textures, should only be called at the beginning of the
-		 * game
+		 * Starts loading all textures on the resource workers and holds on to
+		 * them for the whole game, should only be called at the beginning of
+		 * the game
 		 * 
 		 * @throws Exception
 		 */
 		public static void loadAll() throws Exception {
-			for (Texture texture : _texturesToLoad) {
-				if (!texture.isLoaded())
-					TextureLoader.loadTexture(texture, texture.getName());
-			}
+			for (AssetHandle<?> texture : _texturesToLoad)
+				texture.acquireAsync();
 		}
 
 		/**
-		 * Disposes all textures, should only be called when the game closes
+		 * Releases all textures, should only be called when the game closes
 		 */
-		public static void disposeAll() {
-			for (Texture texture : _texturesToLoad) {
-				if (texture.isLoaded())
-					texture.dispose();
-			}
+		public static void releaseAll() {
+			for (AssetHandle<?> texture : _texturesToLoad)
+				texture.release();
 		}
 	}
 
@@ -70,39 +67,37 @@ public final class GameResources {
 		/**
 		 * The 6 sided cube
 		 */
-		public static final Mesh CUBE = new Mesh("cube.obj");
+		public static final AssetHandle<Mesh> CUBE = AssetRegistry.getMesh("cube.obj");
 		/**
 		 * Stanford test bunny
 		 */
-		public static final Mesh BUNNY = new Mesh("bunny.obj");
+		public static final AssetHandle<Mesh> BUNNY = AssetRegistry.getMesh("bunny.obj");
 
-		// List of all meshes for simple loading/destroying
-		private static final Mesh[] _meshesToLoad = new Mesh[] { CUBE, BUNNY };
+		// List of all meshes for simple loading/releasing
+		private static final AssetHandle<?>[] _meshesToLoad = new AssetHandle<?>[] { CUBE, BUNNY };
 
 		// Static class
 		private Meshes() {
 		}
 
 		/**
-		 * Loads all meshes, should only be called at the beginning of the game
+		 * Starts loading all meshes on the resource workers and holds on to
+		 * them for the whole game, should only be called at the beginning of
+		 * the game
 		 * 
 		 * @throws Exception
 		 */
 		public static void loadAll() throws Exception {
-			for (Mesh mesh : _meshesToLoad) {
-				if (!mesh.isLoaded())
-					MeshLoader.loadMesh(mesh, mesh.getName());
-			}
+			for (AssetHandle<?> mesh : _meshesToLoad)
+				mesh.acquireAsync();
 		}
 
 		/**
-		 * Disposes all meshes, should only be called when the game closes
+		 * Releases all meshes, should only be called when the game closes
 		 */
-		public static void disposeAll() {
-			for (Mesh mesh : _meshesToLoad) {
-				if (mesh.isLoaded())
-					mesh.dispose();
-			}
+		public static void releaseAll() {
+			for (AssetHandle<?> mesh : _meshesToLoad)
+				mesh.release();
 		}
 	}
 }
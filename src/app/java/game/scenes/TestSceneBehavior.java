@@ -7,6 +7,8 @@ import java.util.concurrent.ThreadLocalRandom;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
+import engine.Display;
+import engine.GraphicsController;
 import engine.Input;
 import engine.TimeManager;
 import engine.common.Behavior;
@@ -14,6 +16,7 @@ import engine.common.Camera;
 import engine.common.GameObject;
 import engine.graphics.components.MeshRenderer;
 import engine.lighting.Light;
+import engine.utils.Debug;
 import engine.utils.inputs.Key;
 import game.scenes.loaders.TestSceneLoader;
 
@@ -78,6 +81,8 @@ public class TestSceneBehavior extends Behavior {
 		moveCamera(deltaTime);
 		// Can manually position sun for testing
 		rotateSun(deltaTime);
+		// Can compare culling on the GPU and the CPU
+		toggleGPUCulling();
 
 		// Game object updates
 		updateGameObjects(deltaTime);
@@ -106,6 +111,17 @@ public class TestSceneBehavior extends Behavior {
 		}
 	}
 
+	// Switches between culling on the GPU and the CPU on input, both should
+	// draw the same image
+	private void toggleGPUCulling() {
+		if (!Input.keyPressed(Key.G))
+			return;
+
+		GraphicsController.GraphicsOptions options = Display.MAIN.getGraphicsController().getGraphicsOptions();
+		options.gpuCulling = !options.gpuCulling;
+		Debug.log("Culling on the " + (options.gpuCulling ? "GPU" : "CPU"));
+	}
+
 	// Test script that rotates our "sun" directional light on input
 	private void rotateSun(float deltaTime) {
 		float rotSpeed = SUN_ROT_STEP * deltaTime;
@@ -7,8 +7,6 @@ import java.util.List;
 import engine.common.GameObject;
 import engine.graphics.components.MeshRenderer;
 import engine.graphics.geometry.Material;
-import engine.resources.loaders.MeshLoader;
-import engine.resources.loaders.TextureLoader;
 import engine.scenes.ApplicationSplashLoader;
 import game.GameResources;
 import game.scenes.SplashSceneBehavior;
@@ -24,6 +22,9 @@ public class SplashLoader extends ApplicationSplashLoader {
 
 	private static final double MIN_TIME_DISPLAYED_MS = -1;
 
+	// Whether the splash holds references to its resources
+	private boolean _resourcesAcquired = false;
+
 	/**
 	 * Creates a new splash scene loader
 	 */
@@ -40,8 +41,8 @@ public class SplashLoader extends ApplicationSplashLoader {
 		
 		// Set a cube in middle of screen slanted
 		GameObject cube = new GameObject("Cube");
-		cube.addComponent(
-				new MeshRenderer(GameResources.Meshes.CUBE, new Material(GameResources.Textures.GRASS_BLOCK)));
+		cube.addComponent(new MeshRenderer(GameResources.Meshes.CUBE.get(),
+				new Material(GameResources.Textures.GRASS_BLOCK.get())));
 		cube.getTransform().setPosition(0, 0.2f, -5);
 		cube.getTransform().setRotX(-45);
 
@@ -52,11 +53,25 @@ public class SplashLoader extends ApplicationSplashLoader {
 		return new ArrayList<>(Arrays.asList(cube, script));
 	}
 
+	/**
+	 * Releases the splash resources along with the scene
+	 */
+	@Override
+	protected synchronized void clearScene() {
+		super.clearScene();
+		if (_resourcesAcquired) {
+			GameResources.Meshes.CUBE.release();
+			GameResources.Textures.GRASS_BLOCK.release();
+			_resourcesAcquired = false;
+		}
+	}
+
 	// Loads the resources for the splash synchronously. This should be as
 	// bare-bone as possible so we can get a splash displayed quickly
 	private void loadResourcesForSceneSync() throws Exception {
 		// Load cube mesh and textures
-		MeshLoader.loadMesh(GameResources.Meshes.CUBE, GameResources.Meshes.CUBE.getName());
-		TextureLoader.loadTexture(GameResources.Textures.GRASS_BLOCK, GameResources.Textures.GRASS_BLOCK.getName());
+		GameResources.Meshes.CUBE.acquire();
+		GameResources.Textures.GRASS_BLOCK.acquire();
+		_resourcesAcquired = true;
 	}
 }
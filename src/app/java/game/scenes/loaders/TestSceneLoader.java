@@ -11,6 +11,7 @@ import engine.graphics.geometry.Mesh;
 import engine.lighting.DirectionalLight;
 import engine.lighting.PointLight;
 import engine.lighting.SpotLight;
+import engine.resources.AssetDependencies;
 import engine.scenes.SceneLoader;
 import engine.utils.Debug;
 import engine.utils.performance.SceneOptimizer;
@@ -33,6 +34,15 @@ public class TestSceneLoader extends SceneLoader {
 		super(NAME);
 	}
 
+	/**
+	 * The test scene batches its meshes, so they must be resident first
+	 */
+	@Override
+	protected void declareAssetDependencies(AssetDependencies dependencies) {
+		dependencies.require(GameResources.Meshes.CUBE, GameResources.Meshes.BUNNY)
+				.require(GameResources.Textures.GRASS_BLOCK);
+	}
+
 	/**
 	 * Loads the game objects for the Test Scene
 	 */
@@ -43,8 +53,8 @@ public class TestSceneLoader extends SceneLoader {
 		GameObject cubes = new GameObject("Cubes");
 		
 		// Create mesh and set texture material
-		Mesh mesh = GameResources.Meshes.CUBE;
-		Material mat = new Material(GameResources.Textures.GRASS_BLOCK);
+		Mesh mesh = GameResources.Meshes.CUBE.get();
+		Material mat = new Material(GameResources.Textures.GRASS_BLOCK.get());
 
 		String cubeName = "Cube";
 		// Create dynamic placed cubes
@@ -67,7 +77,7 @@ public class TestSceneLoader extends SceneLoader {
 		Material bunnyMaterial = new Material(Material.DEFAULT);
 		bunnyMaterial.setSpecularColor(0, 0, 1);
 		bunnyMaterial.setShininess(1);
-		bunny.addComponent(new MeshRenderer(GameResources.Meshes.BUNNY, bunnyMaterial));
+		bunny.addComponent(new MeshRenderer(GameResources.Meshes.BUNNY.get(), bunnyMaterial));
 		bunny.getTransform().setPosZ(-10);
 		bunny.getTransform().setPosY(-0.5f);
 		
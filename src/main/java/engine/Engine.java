@@ -2,7 +2,11 @@ package engine;
 
 import engine.common.Defaults;
 import engine.graphics.GraphicsManager;
+import engine.resources.AssetRegistry;
+import engine.resources.IRequestProcessor;
 import engine.resources.RequestManager;
+import engine.resources.ResourceManager;
+import engine.resources.loaders.TextureLoader;
 
 /**
  *
@@ -82,18 +86,36 @@ public class Engine {
 	 */
 	public Engine(IGameInitializer gameInitializer, String title, int width, int height, EngineOptions options)
 			throws Exception {
+		// Start the resource request workers before anything can request
+		if (options.resourceRequestProcessor != null)
+			RequestManager.init(options.resourceRequestProcessor);
+		else
+			RequestManager.init(options.resourceWorkerCount);
+
+		// Read resources from the asset pack if the game ships one
+		if (options.assetPackFile != null)
+			ResourceManager.openAssetPack(options.assetPackFile);
+
 		// Create the runner
 		this._gameRunner = new GameRunner(gameInitializer, options);
 
 		// Create the display but don't show it
 		Display.MAIN.init(title, width, height, options.windowOptions, options.graphicsOptions);
 
+		// Upload in the background if the window shares its context
+		long uploadContextId = Display.MAIN.getWindow().getUploadContextId();
+		if (uploadContextId != 0)
+			RequestManager.startGLUploadThread(uploadContextId);
+
 		// Initialize input
 		Input.init(Display.MAIN.getWindow());
 
 		// Initialize our graphics
 		GraphicsManager.init();
 
+		// Create the ring textures are uploaded through
+		TextureLoader.init();
+
 		// Initialize the scene manager with the game-specific scene loaders
 		// We use this to determine what scenes to load when the game requests
 		// one
@@ -135,6 +157,12 @@ public class Engine {
 		SceneManager.dispose();
 		// Cleans up our shaders & other graphics
 		GraphicsManager.dispose();
+		// Finish background uploads while their shared context still exists
+		RequestManager.disposeGLUploadThread();
+		// Wait for texture uploads still reading the pixel unpack ring
+		TextureLoader.dispose();
+		// Frees every mesh and texture the registry still has resident
+		AssetRegistry.dispose();
 		// Cleans up our window and callbacks
 		Display.MAIN.dispose();
 		// Finish up all graphics requests created by disposing
@@ -173,5 +201,22 @@ public class Engine {
 		 * The max amount of times game state can be updated per second
 		 */
 		public int maxUPS = Defaults.Engine.MAX_UPS;
+
+		/**
+		 * The amount of threads running resource requests
+		 */
+		public int resourceWorkerCount = Defaults.Engine.RESOURCE_WORKER_COUNT;
+
+		/**
+		 * The processor running resource requests, or null to run them on a
+		 * pool of resourceWorkerCount threads
+		 */
+		public IRequestProcessor resourceRequestProcessor = null;
+
+		/**
+		 * The asset pack to read resources from before the classpath, or null
+		 * to only use the classpath
+		 */
+		public String assetPackFile = Defaults.Resources.ASSET_PACK_FILE;
 	}
 }
@@ -1,5 +1,7 @@
 package engine;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 import engine.resources.RequestManager;
@@ -58,21 +60,26 @@ final class GameLoader {
 
 		// Begin loading game resources in separate thread
 		String firstScene = _gameInitializer.getSceneLoaders()[0].sceneName;
-		RequestManager.makeResourceRequest(() -> {
+		CompletableFuture.runAsync(() -> {
 			try {
 				_gameInitializer.loadResources();
-
-				// Wait for all additional resource and graphics requests to
-				// complete before we begin loading the scene
-				RequestManager.waitForAllRequestsOnSeparateThread(() -> {
-					loadFirstScene(firstScene, onLoadingComplete);
-				});
-
 			} catch (Exception e) {
-				e.printStackTrace();
-				onLoadingComplete.accept("Error loading game resources");
+				throw new CompletionException(e);
 			}
-		});
+		}, RequestManager.getResourceExecutor())
+				// Graphics requests made while loading the resources finish
+				// before this barrier, asynchronous loads are covered by the
+				// assets the first scene depends on
+				.thenCompose(v -> RequestManager.whenGLRequestsComplete())
+				.thenCompose(v -> SceneManager.whenSceneAssetsResident(firstScene))
+				.whenCompleteAsync((v, error) -> {
+					if (error != null) {
+						error.printStackTrace();
+						onLoadingComplete.accept("Error loading game resources");
+						return;
+					}
+					loadFirstScene(firstScene, onLoadingComplete);
+				}, RequestManager.getResourceExecutor());
 	}
 
 	/**
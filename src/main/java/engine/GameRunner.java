@@ -1,8 +1,10 @@
 package engine;
 
 import engine.Engine.EngineOptions;
+import engine.common.Defaults;
 import engine.resources.RequestManager;
 import engine.scenes.Scene;
+import engine.utils.TimeUtils;
 
 /**
  * This game runner is ran by the engine to load update the game
@@ -11,9 +13,17 @@ import engine.scenes.Scene;
  *
  */
 class GameRunner {
+	// Weight of the newest frame in the average frame work time
+	private static final double FRAME_WORK_SMOOTHING = 0.1;
+
 	private final EngineOptions _options;
 	private final GameLoader _gameLoader;
 
+	// When the current frame started and the average time (ms) frames spend
+	// on everything but presenting and GL requests
+	private long _frameStartNS;
+	private double _frameWorkMS = 0;
+
 	/**
 	 * Constructs a game runner
 	 * 
@@ -59,6 +69,8 @@ class GameRunner {
 		// (i.e. they click the red x or closes it manually).
 		// This will be updated later to handle game closing logic
 		while (!Display.MAIN.shouldClose()) {
+			_frameStartNS = TimeManager.getTimeNS();
+
 			// 1. Process user input
 			processInput();
 
@@ -132,11 +144,28 @@ class GameRunner {
 			activeScene.render();
 		}
 
+		// Measure the frame's work before presenting, since presenting may
+		// block on v-sync. A slow frame counts straight away, a fast one only
+		// slowly lowers the average.
+		double frameWorkMS = TimeUtils.NanoToMilli(TimeManager.getTimeNS() - _frameStartNS);
+		_frameWorkMS = Math.max(frameWorkMS, _frameWorkMS + FRAME_WORK_SMOOTHING * (frameWorkMS - _frameWorkMS));
+
 		// Updates the display
 		Display.MAIN.refresh();
 
-		// Executes any outstanding OpenGL requests
-		RequestManager.executeSomeGLRequests();
+		// Executes any outstanding OpenGL requests within the time the frame
+		// has left
+		RequestManager.executeSomeGLRequests(getFrameHeadroomMS());
+	}
+
+	/**
+	 * @return the time (ms) left in a frame after its usual work, or the max
+	 *         GL request budget if the frame rate isn't limited
+	 */
+	protected double getFrameHeadroomMS() {
+		if (_options.maxFPS <= 0)
+			return Defaults.Resources.GL_REQUEST_MAX_BUDGET_MS;
+		return 1000.0 / _options.maxFPS - _frameWorkMS;
 	}
 
 	/**
@@ -84,6 +84,13 @@ public abstract class GraphicsController {
 		return inPolygonMode;
 	}
 
+	/**
+	 * @return the options the graphics were initialized with
+	 */
+	public GraphicsOptions getGraphicsOptions() {
+		return graphicsOptions;
+	}
+
 	/**
 	 * Additional options to initialize the graphics
 	 * 
@@ -95,5 +102,23 @@ public abstract class GraphicsController {
 		 * Whether to display every model's vertex without applied texturing
 		 */
 		public boolean polygonMode = Defaults.Graphics.POLYGON_MODE;
+
+		/**
+		 * Whether to validate every shader program once it is linked, which
+		 * is slow and only useful while debugging shaders
+		 */
+		public boolean validateShaders = Defaults.Graphics.VALIDATE_SHADERS;
+
+		/**
+		 * Whether to cull and draw on the GPU when the driver supports it,
+		 * falling back to culling on the CPU when it doesn't
+		 */
+		public boolean gpuCulling = Defaults.Graphics.GPU_CULLING;
+
+		/**
+		 * Whether to compare every GPU cull against the CPU, logging any
+		 * difference. Slow, only useful while debugging the GPU culling.
+		 */
+		public boolean validateGPUCulling = Defaults.Graphics.VALIDATE_GPU_CULLING;
 	}
 }
@@ -6,6 +6,8 @@ import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 
+import engine.graphics.GLStateCache;
+
 /**
  * Controls the graphics for an OpenGL display
  * 
@@ -27,25 +29,26 @@ public class OpenGLGraphicsController extends GraphicsController {
 	public void init() {
 		// Must be done first thing before any OpenGL function is called
 		GL.createCapabilities();
+		GLStateCache.init();
 
 		// Clear the screen
 		clearColor(0, 0, 0, 0);
 
 		// Enable depth test - this allows pixels that are far away
 		// to be drawn first so our 3D objects do not look wack
-		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		GLStateCache.enable(GL11.GL_DEPTH_TEST);
 
 		// Enabling polygon mode shows all the lines that compose a
 		// model
 		setPolygonMode(graphicsOptions.polygonMode);
 
 		// Support for transparencies
-		GL11.glEnable(GL11.GL_BLEND);
-		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+		GLStateCache.enable(GL11.GL_BLEND);
+		GLStateCache.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 		
 		// Culling
-		GL11.glEnable(GL11.GL_CULL_FACE);
-		GL11.glCullFace(GL11.GL_BACK);
+		GLStateCache.enable(GL11.GL_CULL_FACE);
+		GLStateCache.cullFace(GL11.GL_BACK);
 	}
 
 	@Override
@@ -71,7 +74,7 @@ public class OpenGLGraphicsController extends GraphicsController {
 	@Override
 	public void setPolygonMode(boolean polygonMode) {
 		int glMode = polygonMode ? GL11.GL_LINE : GL11.GL_FILL;
-		GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, glMode);
+		GLStateCache.polygonMode(glMode);
 		
 		super.setPolygonMode(polygonMode);
 	}
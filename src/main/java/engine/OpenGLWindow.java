@@ -11,6 +11,9 @@ import org.lwjgl.glfw.GLFWKeyCallback;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.glfw.GLFWWindowSizeCallback;
 
+import engine.graphics.GLStateCache;
+import engine.utils.Debug;
+
 /**
  * An OpenGL window that the user sees when interacting with the game
  * 
@@ -24,6 +27,9 @@ public class OpenGLWindow extends Window {
 	private GLFWKeyCallback _keyCallback;
 	private GLFWWindowSizeCallback _windowSizeCallback;
 
+	// Hidden window sharing our context, used to upload in the background
+	private long _uploadContextId = NULL;
+
 	/**
 	 * Constructs an OpenGL window
 	 * 
@@ -52,11 +58,14 @@ public class OpenGLWindow extends Window {
 
 	@Override
 	public void refresh() {
-		// If enabled, show the FPS in the title bar
+		// If enabled, show the FPS in the title bar along with how many GL
+		// state calls the state cache skipped over the last second
 		if (windowOptions.showFPS) {
 			int fps = TimeManager.getFPS();
 			if (fps > -1) {
-				updateWindowTitle(getTitle() + " - " + fps + " FPS");
+				updateWindowTitle(getTitle() + " - " + fps + " FPS - " + GLStateCache.getSkippedCalls() + "/"
+						+ GLStateCache.getRequestedCalls() + " GL state calls skipped");
+				GLStateCache.resetCounters();
 			}
 		}
 
@@ -65,6 +74,11 @@ public class OpenGLWindow extends Window {
 		glfwPollEvents();
 	}
 
+	@Override
+	public long getUploadContextId() {
+		return _uploadContextId;
+	}
+
 	@Override
 	public boolean shouldClose() {
 		return glfwWindowShouldClose(getWindowId());
@@ -77,6 +91,12 @@ public class OpenGLWindow extends Window {
 
 	@Override
 	public void dispose() {
+		// The upload context has to go first, it shares our context
+		if (_uploadContextId != NULL) {
+			glfwDestroyWindow(_uploadContextId);
+			_uploadContextId = NULL;
+		}
+
 		// Destroy window and free window callbacks
 		long windowId = getWindowId();
 		if (windowId != NULL) {
@@ -106,6 +126,14 @@ public class OpenGLWindow extends Window {
 			throw new RuntimeException("Failed to create the GLFW window");
 		}
 
+		// Create a hidden window sharing the context for background uploads,
+		// we can still run without it
+		if (windowOptions.sharedUploadContext) {
+			_uploadContextId = glfwCreateWindow(1, 1, title + " - Upload Context", NULL, windowId);
+			if (_uploadContextId == NULL)
+				Debug.warn("Failed to create a shared upload context, uploading on the main thread");
+		}
+
 		// Create window callbacks
 		setupCallbacks(windowId);
 
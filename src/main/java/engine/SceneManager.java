@@ -1,5 +1,6 @@
 package engine;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import engine.resources.RequestManager;
@@ -53,7 +54,8 @@ public final class SceneManager {
 	}
 
 	/**
-	 * Attempts to load the scene asynchronously
+	 * Attempts to load the scene asynchronously once all the assets it
+	 * declared are resident
 	 * 
 	 * @param sceneName
 	 *            name of scene to load
@@ -62,16 +64,31 @@ public final class SceneManager {
 	 *            successfully loaded
 	 */
 	public static void loadSceneAsync(String sceneName, Consumer<Boolean> onComplete) {
-		// Attempt to load the scene asynchronously
-		RequestManager.makeResourceRequest(() -> {
+		// Attempt to load the scene asynchronously, continuing on a resource
+		// worker rather than the main thread that finished the last upload
+		whenSceneAssetsResident(sceneName).whenCompleteAsync((v, error) -> {
 			try {
+				if (error != null)
+					throw new Exception("Assets of " + sceneName + " failed to load", error);
+
 				// Execute the complete callback;
 				onComplete.accept(loadScene(sceneName));
 			} catch (Exception e) {
 				e.printStackTrace();
 				Engine.runtimeFailureMsg = "Failed to load " + sceneName + " asynchronously";
 			}
-		});
+		}, RequestManager.getResourceExecutor());
+	}
+
+	/**
+	 * Gets a future for the assets a scene declared it depends on
+	 * 
+	 * @param sceneName
+	 *            name of the scene
+	 * @return a future completing once the scene's assets are resident
+	 */
+	public static CompletableFuture<Void> whenSceneAssetsResident(String sceneName) {
+		return _sceneHandler.whenSceneAssetsResident(sceneName);
 	}
 
 	/**
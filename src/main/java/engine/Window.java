@@ -57,6 +57,16 @@ public abstract class Window {
 		return _id;
 	}
 
+	/**
+	 * Gets the id of a hidden window sharing this window's graphics context,
+	 * used by the background upload thread
+	 * 
+	 * @return the id of the upload context window, or 0 if there is none
+	 */
+	public long getUploadContextId() {
+		return 0;
+	}
+
 	/**
 	 * Checks if the window has been resized recently
 	 * 
@@ -245,6 +255,12 @@ public abstract class Window {
 		 * Whether or not to display the FPS (frames per second) on the window title bar
 		 */
 		public boolean showFPS = Defaults.Window.SHOW_FPS;
+
+		/**
+		 * Whether to create a hidden window sharing the graphics context, so
+		 * buffers and textures can be uploaded on a background thread
+		 */
+		public boolean sharedUploadContext = Defaults.Window.SHARED_UPLOAD_CONTEXT;
 	}
 
 	@FunctionalInterface
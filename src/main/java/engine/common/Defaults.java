@@ -34,6 +34,12 @@ public class Defaults {
 		 */
 		public static final int MAX_UPS = 60;
 
+		/**
+		 * The default amount of threads running resource requests, leaving a
+		 * core for the main thread
+		 */
+		public static final int RESOURCE_WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
 		/*
 		 * Prevent outside classes from creating an instance
 		 */
@@ -85,6 +91,19 @@ public class Defaults {
 		 */
 		public static final Vector3fc OBJECT_FACING_DIRECTION = new Vector3f(0, 0, -1);
 
+		/**
+		 * How far past its bounds an object can move before the scene's
+		 * spatial index has to refit around it
+		 */
+		public static final float SPATIAL_INDEX_MARGIN = 0.2f;
+
+		/**
+		 * Time (in milliseconds) the scene's spatial index may spend per
+		 * update reinserting refit objects, rebalancing it a little at a time
+		 * instead of all at once
+		 */
+		public static final double SPATIAL_INDEX_REBALANCE_BUDGET_MS = 0.25;
+
 		/*
 		 * Prevent outside classes from creating an instance
 		 */
@@ -141,6 +160,53 @@ public class Defaults {
 		 */
 		public static final boolean POLYGON_MODE = false;
 
+		/**
+		 * Whether to validate shader programs once they are linked, only
+		 * useful while debugging shaders
+		 */
+		public static final boolean VALIDATE_SHADERS = false;
+
+		/**
+		 * The least amount of consecutive draws sharing a mesh and material
+		 * that are drawn as instances in a single draw
+		 */
+		public static final int MIN_INSTANCED_DRAWS = 2;
+
+		/**
+		 * The most instances drawn at once, longer runs are split into
+		 * several instanced draws
+		 */
+		public static final int MAX_INSTANCES_PER_DRAW = 1024;
+
+		/**
+		 * Whether to skip drawing objects hidden behind occluder meshes,
+		 * tested against a software depth buffer on the CPU
+		 */
+		public static final boolean OCCLUSION_CULLING = true;
+
+		/**
+		 * Width in pixels of the occlusion culler's depth buffer
+		 */
+		public static final int OCCLUSION_BUFFER_WIDTH = 256;
+
+		/**
+		 * Height in pixels of the occlusion culler's depth buffer
+		 */
+		public static final int OCCLUSION_BUFFER_HEIGHT = 128;
+
+		/**
+		 * Whether to cull and draw with a compute shader and indirect draws
+		 * when the driver supports OpenGL 4.3, instead of culling on the CPU.
+		 * Objects aren't occlusion culled on the GPU.
+		 */
+		public static final boolean GPU_CULLING = false;
+
+		/**
+		 * Whether to read back every GPU cull and compare it against the CPU,
+		 * which stalls every frame and is only useful while debugging
+		 */
+		public static final boolean VALIDATE_GPU_CULLING = false;
+
 		/*
 		 * Prevent outside classes from creating an instance
 		 */
@@ -188,6 +254,12 @@ public class Defaults {
 		 */
 		public static final boolean SHOW_FPS = false;
 
+		/**
+		 * Whether to create a hidden window sharing the graphics context, so
+		 * buffers and textures can be uploaded on a background thread
+		 */
+		public static final boolean SHARED_UPLOAD_CONTEXT = false;
+
 		/*
 		 * Prevent outside classes from creating an instance
 		 */
@@ -247,9 +319,73 @@ public class Defaults {
 		 * The max amount of point lights that can affect a given game object
 		 * each render cycle.
 		 * 
-		 * NOTE: THIS SHOULD MATCH THE SAME CONSTANT "MAX_LIGHTS" DEFINED IN THE
-		 * SHADER FILE
+		 * NOTE: THIS SHOULD MATCH THE SAME CONSTANT "MAX_LIGHTS" DEFINED IN BOTH
+		 * STANDARD SHADER FILES
 		 */
 		public static final int MAX_RENDERED_POINT_LIGHTS_PER_OBJECT = 4;
 	}
+
+	/**
+	 * Defaults for loading resources
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	public static class Resources {
+		/**
+		 * Whether processed resources (i.e. parsed meshes) are cached on disk
+		 * so they can be loaded quickly on the next run
+		 */
+		public static final boolean USE_DISK_CACHE = true;
+
+		/**
+		 * The directory (relative to the working directory) processed
+		 * resources are cached in
+		 */
+		public static final String CACHE_DIRECTORY = ".cache";
+
+		/**
+		 * The asset pack (relative to the working directory) resources are
+		 * read from before the classpath, if it exists
+		 */
+		public static final String ASSET_PACK_FILE = "assets.pack";
+
+		/**
+		 * The size (bytes) the cache directory is kept under, the least
+		 * recently used entries are removed first
+		 */
+		public static final long CACHE_MAX_BYTES = 512L * 1024 * 1024;
+
+		/**
+		 * The least time (ms) spent on GL requests each frame, even if the
+		 * frame has no headroom left, so loading always makes progress
+		 */
+		public static final double GL_REQUEST_MIN_BUDGET_MS = 1.0;
+
+		/**
+		 * The most time (ms) spent on GL requests each frame, no matter how
+		 * much headroom the frame has
+		 */
+		public static final double GL_REQUEST_MAX_BUDGET_MS = 8.0;
+
+		/**
+		 * The size (bytes) of the persistently mapped ring decoded textures
+		 * are written to before uploading, textures that don't fit are
+		 * uploaded from client memory
+		 */
+		public static final long PIXEL_UNPACK_RING_BYTES = 32L * 1024 * 1024;
+
+		/**
+		 * The size (bytes) of graphics memory registry assets (meshes and
+		 * textures) are kept under, unreferenced assets are evicted least
+		 * recently used first once it is exceeded
+		 */
+		public static final long VRAM_BUDGET_BYTES = 256L * 1024 * 1024;
+
+		/*
+		 * Prevent outside classes from creating an instance
+		 */
+		private Resources() {
+		}
+	}
 }
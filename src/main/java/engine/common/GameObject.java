@@ -27,6 +27,7 @@ public class GameObject extends Entity {
 
 	private Scene _scene = null;
 	private Consumer<Component> _onAddedComponentCallback;
+	private Consumer<GameObject> _onChangedCallback;
 	private GameObject _parent = null;
 	private MeshRenderer _renderer = null;
 
@@ -139,10 +140,16 @@ public class GameObject extends Entity {
 	 * @param onAddedComponentCallback
 	 *            this callback is called every time a new component is added to
 	 *            this game object during the active scene.
+	 * @param onChangedCallback
+	 *            this callback is called when the transform of this game object
+	 *            changes after its world matrix was last retrieved, and when
+	 *            this game object is disposed
 	 */
-	public void addedToScene(Scene scene, Consumer<Component> onAddedComponentCallback) {
+	public void addedToScene(Scene scene, Consumer<Component> onAddedComponentCallback,
+			Consumer<GameObject> onChangedCallback) {
 		this._scene = scene;
 		this._onAddedComponentCallback = onAddedComponentCallback;
+		this._onChangedCallback = onChangedCallback;
 	}
 
 	/**
@@ -207,8 +214,22 @@ public class GameObject extends Entity {
 		}
 		_components.clear();
 
+		// Let the scene know to forget about it
+		if (_onChangedCallback != null)
+			_onChangedCallback.accept(this);
+
 		this._scene = null;
 		this._onAddedComponentCallback = null;
+		this._onChangedCallback = null;
+	}
+
+	/**
+	 * Called by the transform when it changes after its world matrix was last
+	 * retrieved
+	 */
+	void transformChanged() {
+		if (_onChangedCallback != null)
+			_onChangedCallback.accept(this);
 	}
 	
 	/**
@@ -306,6 +306,9 @@ public class Transform extends Component {
 
 		this._hasChanged = true;
 
+		// Let the scene know the game object moved
+		getGameObject().transformChanged();
+
 		// Now update each child
 		for (GameObject child : getGameObject().getChildren()) {
 			child.getTransform().setChanged();
@@ -0,0 +1,93 @@
+package engine.graphics;
+
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * The compute shader program culling instances against the camera frustum
+ * and writing the indirect draw commands of the visible ones, see GPUCuller.
+ * Needs GL 4.3. It isn't one of the shader types, the GPU culler owns and
+ * disposes it.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class CullingShaderProgram extends ShaderProgram {
+	private static final String NAME = "culling";
+	private static final String COMPUTE_SHADER = NAME + ".comp";
+
+	private static final String VIEW_MATRIX = "viewMatrix";
+	private static final String FRUSTUM_PLANES = "frustumPlanes";
+	private static final String INSTANCE_COUNT = "instanceCount";
+
+	/**
+	 * The amount of instances culled by each work group, matches the shader's
+	 * local size
+	 */
+	static final int WORK_GROUP_SIZE = 64;
+
+	private final FloatBuffer _planes = BufferUtils.createFloatBuffer(FrustumCuller.PLANE_COUNT * 4);
+	private final Vector4f _plane = new Vector4f();
+
+	// Assigned while the super constructor registers the uniforms, so these
+	// must not have initializers
+	private int _viewMatrixLocation;
+	private int _frustumPlanesLocation;
+	private int _instanceCountLocation;
+
+	/**
+	 * Constructs the culling shader program
+	 * 
+	 * @throws Exception
+	 */
+	CullingShaderProgram() throws Exception {
+		super(NAME);
+	}
+
+	@Override
+	protected void registerShaders() throws Exception {
+		super.registerShader(COMPUTE_SHADER, GL43.GL_COMPUTE_SHADER);
+	}
+
+	@Override
+	protected void registerUniforms() throws Exception {
+		_viewMatrixLocation = super.registerUniform(VIEW_MATRIX);
+		_frustumPlanesLocation = super.registerUniform(FRUSTUM_PLANES);
+		_instanceCountLocation = super.registerUniform(INSTANCE_COUNT);
+	}
+
+	/**
+	 * Sets the view matrix the visible instances are transformed by
+	 * 
+	 * @param view
+	 */
+	void setViewMatrix(Matrix4fc view) {
+		super.setUniform(_viewMatrixLocation, view);
+	}
+
+	/**
+	 * Sets the planes the instances are culled against
+	 * 
+	 * @param frustum
+	 *            the culler holding the camera's frustum planes
+	 */
+	void setFrustumPlanes(FrustumCuller frustum) {
+		for (int i = 0; i < FrustumCuller.PLANE_COUNT; i++)
+			frustum.getPlane(i, _plane).get(i * 4, _planes);
+		GL20.glUniform4fv(_frustumPlanesLocation, _planes);
+	}
+
+	/**
+	 * Sets the amount of instances, invocations past it do nothing
+	 * 
+	 * @param instanceCount
+	 */
+	void setInstanceCount(int instanceCount) {
+		super.setUniform(_instanceCountLocation, instanceCount);
+	}
+}
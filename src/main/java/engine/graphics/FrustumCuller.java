@@ -0,0 +1,240 @@
+package engine.graphics;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import engine.graphics.geometry.BoundingVolume;
+
+/**
+ * Tests the world space bounds of objects against the six planes of a camera
+ * frustum. Bounds are added once per frame, transformed into world space and
+ * packed into one primitive array per component, then every plane is tested
+ * against every object in a plain loop over those arrays. Keeping the loops
+ * branch free and the data contiguous lets the JIT compile them to SIMD
+ * instructions.
+ * 
+ * An object is culled when its box or its sphere is entirely behind any one
+ * plane. This is conservative: an object near a frustum corner can be kept
+ * even though it is out of view, but nothing in view is ever culled.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class FrustumCuller {
+	/**
+	 * The amount of planes of a frustum
+	 */
+	public static final int PLANE_COUNT = 6;
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	// Bounds of objects without any, big enough to never be culled while
+	// keeping the plane math finite
+	private static final float UNBOUNDED = 1e30f;
+
+	// Planes as (x, y, z) normal pointing into the frustum and distance w
+	private final float[] _planeX = new float[PLANE_COUNT];
+	private final float[] _planeY = new float[PLANE_COUNT];
+	private final float[] _planeZ = new float[PLANE_COUNT];
+	private final float[] _planeW = new float[PLANE_COUNT];
+	private final Matrix4f _viewProjection = new Matrix4f();
+	private final Vector3f _center = new Vector3f();
+	private final Vector3f _extents = new Vector3f();
+
+	private float[] _centerX;
+	private float[] _centerY;
+	private float[] _centerZ;
+	private float[] _extentX;
+	private float[] _extentY;
+	private float[] _extentZ;
+	private float[] _radius;
+	private boolean[] _visible;
+	private int _size = 0;
+	private int _visibleCount = 0;
+
+	/**
+	 * Constructs a frustum culler with the default capacity
+	 */
+	public FrustumCuller() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a frustum culler
+	 * 
+	 * @param capacity
+	 *            the starting amount of objects the culler can hold
+	 */
+	public FrustumCuller(int capacity) {
+		capacity = Math.max(1, capacity);
+		this._centerX = new float[capacity];
+		this._centerY = new float[capacity];
+		this._centerZ = new float[capacity];
+		this._extentX = new float[capacity];
+		this._extentY = new float[capacity];
+		this._extentZ = new float[capacity];
+		this._radius = new float[capacity];
+		this._visible = new boolean[capacity];
+	}
+
+	/**
+	 * Extracts the frustum planes from the camera matrices
+	 * 
+	 * @param projection
+	 *            the projection matrix of the camera
+	 * @param view
+	 *            the view matrix of the camera
+	 */
+	public void setFrustum(Matrix4fc projection, Matrix4fc view) {
+		Matrix4f m = projection.mul(view, _viewProjection);
+
+		// Each plane is the fourth row of the matrix plus or minus one of the
+		// other rows (left, right, bottom, top, near, far)
+		setPlane(0, m.m03() + m.m00(), m.m13() + m.m10(), m.m23() + m.m20(), m.m33() + m.m30());
+		setPlane(1, m.m03() - m.m00(), m.m13() - m.m10(), m.m23() - m.m20(), m.m33() - m.m30());
+		setPlane(2, m.m03() + m.m01(), m.m13() + m.m11(), m.m23() + m.m21(), m.m33() + m.m31());
+		setPlane(3, m.m03() - m.m01(), m.m13() - m.m11(), m.m23() - m.m21(), m.m33() - m.m31());
+		setPlane(4, m.m03() + m.m02(), m.m13() + m.m12(), m.m23() + m.m22(), m.m33() + m.m32());
+		setPlane(5, m.m03() - m.m02(), m.m13() - m.m12(), m.m23() - m.m22(), m.m33() - m.m32());
+	}
+
+	/**
+	 * Gets a plane of the frustum, normalized and facing into the frustum
+	 * 
+	 * @param index
+	 *            index of the plane (left, right, bottom, top, near, far)
+	 * @param dest
+	 *            set to the plane's normal (x, y, z) and distance (w)
+	 * @return dest
+	 */
+	public Vector4f getPlane(int index, Vector4f dest) {
+		return dest.set(_planeX[index], _planeY[index], _planeZ[index], _planeW[index]);
+	}
+
+	/**
+	 * @return the amount of objects added since the last clear
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the amount of objects kept by the last cull
+	 */
+	public int getVisibleCount() {
+		return _visibleCount;
+	}
+
+	/**
+	 * @return the amount of objects culled by the last cull
+	 */
+	public int getCulledCount() {
+		return _size - _visibleCount;
+	}
+
+	/**
+	 * Removes every object but keeps the allocated capacity
+	 */
+	public void clear() {
+		_size = 0;
+		_visibleCount = 0;
+	}
+
+	/**
+	 * Adds an object, transforming its local bounds into world space
+	 * 
+	 * @param bounds
+	 *            the local bounds of the object, or null to never cull it
+	 * @param localToWorld
+	 *            the local to world matrix of the object
+	 * @return the index of the object
+	 */
+	public int add(BoundingVolume bounds, Matrix4fc localToWorld) {
+		if (_size == _radius.length)
+			grow(_size + (_size >> 1) + 1);
+
+		int i = _size++;
+		if (bounds == null) {
+			_centerX[i] = _centerY[i] = _centerZ[i] = 0;
+			_extentX[i] = _extentY[i] = _extentZ[i] = UNBOUNDED;
+			_radius[i] = UNBOUNDED;
+			return i;
+		}
+
+		bounds.transform(localToWorld, _center, _extents);
+		_centerX[i] = _center.x;
+		_centerY[i] = _center.y;
+		_centerZ[i] = _center.z;
+		_extentX[i] = _extents.x;
+		_extentY[i] = _extents.y;
+		_extentZ[i] = _extents.z;
+
+		// The sphere grows by the largest scale of any axis
+		Matrix4fc m = localToWorld;
+		float scaleX = m.m00() * m.m00() + m.m01() * m.m01() + m.m02() * m.m02();
+		float scaleY = m.m10() * m.m10() + m.m11() * m.m11() + m.m12() * m.m12();
+		float scaleZ = m.m20() * m.m20() + m.m21() * m.m21() + m.m22() * m.m22();
+		_radius[i] = bounds.radius * (float) Math.sqrt(Math.max(scaleX, Math.max(scaleY, scaleZ)));
+		return i;
+	}
+
+	/**
+	 * Tests every added object against the frustum
+	 */
+	public void cull() {
+		Arrays.fill(_visible, 0, _size, true);
+		for (int p = 0; p < PLANE_COUNT; p++) {
+			float nx = _planeX[p], ny = _planeY[p], nz = _planeZ[p], w = _planeW[p];
+			float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+			for (int i = 0; i < _size; i++) {
+				float distance = nx * _centerX[i] + ny * _centerY[i] + nz * _centerZ[i] + w;
+				// How far the box reaches towards the plane
+				float boxRadius = ax * _extentX[i] + ay * _extentY[i] + az * _extentZ[i];
+				_visible[i] &= distance >= -Math.min(boxRadius, _radius[i]);
+			}
+		}
+
+		int visibleCount = 0;
+		for (int i = 0; i < _size; i++)
+			visibleCount += _visible[i] ? 1 : 0;
+		_visibleCount = visibleCount;
+	}
+
+	/**
+	 * @param index
+	 *            index of the object, as returned by add
+	 * @return true if the object passed the last cull
+	 */
+	public boolean isVisible(int index) {
+		return _visible[index];
+	}
+
+	/*
+	 * Normalizes and stores the plane, so distances to it are in world units
+	 */
+	private void setPlane(int index, float x, float y, float z, float w) {
+		float inverseLength = 1f / (float) Math.sqrt(x * x + y * y + z * z);
+		_planeX[index] = x * inverseLength;
+		_planeY[index] = y * inverseLength;
+		_planeZ[index] = z * inverseLength;
+		_planeW[index] = w * inverseLength;
+	}
+
+	/*
+	 * Grows every array to the capacity
+	 */
+	private void grow(int capacity) {
+		_centerX = Arrays.copyOf(_centerX, capacity);
+		_centerY = Arrays.copyOf(_centerY, capacity);
+		_centerZ = Arrays.copyOf(_centerZ, capacity);
+		_extentX = Arrays.copyOf(_extentX, capacity);
+		_extentY = Arrays.copyOf(_extentY, capacity);
+		_extentZ = Arrays.copyOf(_extentZ, capacity);
+		_radius = Arrays.copyOf(_radius, capacity);
+		_visible = new boolean[capacity];
+	}
+}
@@ -0,0 +1,518 @@
+package engine.graphics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * Shadows the GL state the engine changes (bound program, VAO, textures,
+ * buffers and the depth/blend/cull state) so a call that wouldn't change
+ * anything is skipped before it ever reaches the driver. Every engine GL call
+ * that binds or toggles state should go through here.
+ * 
+ * Only the thread that called init (the main thread) is cached. GL state
+ * belongs to a context, so calls from any other thread (i.e. the upload
+ * thread) are passed straight through. Textures and buffers are shared
+ * between contexts though, so deleting one from another thread forgets every
+ * texture and buffer binding of the main thread.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class GLStateCache {
+	// Bindings the cache doesn't know, the next call always goes through
+	private static final int UNKNOWN = -1;
+
+	// Texture units with a shadowed GL_TEXTURE_2D binding
+	private static final int MAX_TEXTURE_UNITS = 32;
+
+	// Buffer targets with a shadowed binding
+	private static final int[] BUFFER_TARGETS = { GL15.GL_ARRAY_BUFFER, GL15.GL_ELEMENT_ARRAY_BUFFER,
+			GL31.GL_UNIFORM_BUFFER, GL31.GL_COPY_READ_BUFFER, GL31.GL_COPY_WRITE_BUFFER, GL21.GL_PIXEL_UNPACK_BUFFER,
+			GL40.GL_DRAW_INDIRECT_BUFFER, GL43.GL_SHADER_STORAGE_BUFFER };
+	private static final int ELEMENT_ARRAY_BUFFER_INDEX = 1;
+
+	// Capabilities with a shadowed enabled state
+	private static final int[] CAPABILITIES = { GL11.GL_DEPTH_TEST, GL11.GL_BLEND, GL11.GL_CULL_FACE,
+			GL11.GL_SCISSOR_TEST, GL11.GL_STENCIL_TEST };
+
+	private static final int[] _textures = new int[MAX_TEXTURE_UNITS];
+	private static final int[] _buffers = new int[BUFFER_TARGETS.length];
+	private static final int[] _capabilities = new int[CAPABILITIES.length];
+
+	private static Thread _owner = null;
+	private static int _program = UNKNOWN;
+	private static int _vertexArray = UNKNOWN;
+	private static int _activeTexture = UNKNOWN;
+	private static int _blendSrc = UNKNOWN;
+	private static int _blendDst = UNKNOWN;
+	private static int _cullFace = UNKNOWN;
+	private static int _depthFunc = UNKNOWN;
+	private static int _depthMask = UNKNOWN;
+	private static int _polygonMode = UNKNOWN;
+
+	// Deletes of shared objects by other threads the main thread hasn't seen
+	private static final AtomicInteger _sharedDeletes = new AtomicInteger();
+
+	private static long _requestedCalls = 0;
+	private static long _skippedCalls = 0;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private GLStateCache() {
+	}
+
+	/**
+	 * Starts caching the state of the calling thread's context, forgetting
+	 * anything cached before. Call once the context is created. [WARNING] -
+	 * This MUST be called from the main thread.
+	 */
+	public static void init() {
+		_owner = Thread.currentThread();
+		invalidate();
+	}
+
+	/**
+	 * Forgets every cached binding and capability, so the next call of each
+	 * goes through. Call after anything changes GL state without going
+	 * through the cache.
+	 */
+	public static void invalidate() {
+		_program = UNKNOWN;
+		_vertexArray = UNKNOWN;
+		_activeTexture = UNKNOWN;
+		_blendSrc = UNKNOWN;
+		_blendDst = UNKNOWN;
+		_cullFace = UNKNOWN;
+		_depthFunc = UNKNOWN;
+		_depthMask = UNKNOWN;
+		_polygonMode = UNKNOWN;
+		forgetSharedBindings();
+		for (int i = 0; i < _capabilities.length; i++)
+			_capabilities[i] = UNKNOWN;
+	}
+
+	/**
+	 * @return the amount of cached state calls made on the main thread since
+	 *         the counters were last reset
+	 */
+	public static long getRequestedCalls() {
+		return _requestedCalls;
+	}
+
+	/**
+	 * @return the amount of cached state calls skipped because they wouldn't
+	 *         have changed anything, since the counters were last reset
+	 */
+	public static long getSkippedCalls() {
+		return _skippedCalls;
+	}
+
+	/**
+	 * Resets the requested and skipped call counters
+	 */
+	public static void resetCounters() {
+		_requestedCalls = 0;
+		_skippedCalls = 0;
+	}
+
+	/**
+	 * Makes the program the active shader program, see glUseProgram
+	 * 
+	 * @param programId
+	 *            the program, or 0 for none
+	 */
+	public static void useProgram(int programId) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_program == programId) {
+				_skippedCalls++;
+				return;
+			}
+			_program = programId;
+		}
+		GL20.glUseProgram(programId);
+	}
+
+	/**
+	 * Binds the vertex array object, see glBindVertexArray
+	 * 
+	 * @param vertexArrayId
+	 *            the vertex array, or 0 for none
+	 */
+	public static void bindVertexArray(int vertexArrayId) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_vertexArray == vertexArrayId) {
+				_skippedCalls++;
+				return;
+			}
+			_vertexArray = vertexArrayId;
+			// The element array binding is part of the vertex array's state
+			_buffers[ELEMENT_ARRAY_BUFFER_INDEX] = UNKNOWN;
+		}
+		GL30.glBindVertexArray(vertexArrayId);
+	}
+
+	/**
+	 * Makes the texture unit the active one, see glActiveTexture
+	 * 
+	 * @param unit
+	 *            index of the texture unit (i.e. 0 for GL_TEXTURE0)
+	 */
+	public static void activeTexture(int unit) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_activeTexture == unit) {
+				_skippedCalls++;
+				return;
+			}
+			_activeTexture = unit < MAX_TEXTURE_UNITS ? unit : UNKNOWN;
+		}
+		GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+	}
+
+	/**
+	 * Binds the texture to the texture unit, making the unit the active one
+	 * 
+	 * @param unit
+	 *            index of the texture unit (i.e. 0 for GL_TEXTURE0)
+	 * @param target
+	 *            the texture target (i.e. GL_TEXTURE_2D)
+	 * @param textureId
+	 *            the texture, or 0 for none
+	 */
+	public static void bindTexture(int unit, int target, int textureId) {
+		activeTexture(unit);
+		bindTexture(target, textureId);
+	}
+
+	/**
+	 * Binds the texture to the active texture unit, see glBindTexture. Only
+	 * GL_TEXTURE_2D bindings are cached.
+	 * 
+	 * @param target
+	 *            the texture target (i.e. GL_TEXTURE_2D)
+	 * @param textureId
+	 *            the texture, or 0 for none
+	 */
+	public static void bindTexture(int target, int textureId) {
+		if (isCached() && target == GL11.GL_TEXTURE_2D) {
+			syncSharedDeletes();
+			// Without knowing the active unit, any unit's binding could change
+			if (_activeTexture == UNKNOWN) {
+				for (int i = 0; i < _textures.length; i++)
+					_textures[i] = UNKNOWN;
+				GL11.glBindTexture(target, textureId);
+				return;
+			}
+
+			_requestedCalls++;
+			if (_textures[_activeTexture] == textureId) {
+				_skippedCalls++;
+				return;
+			}
+			_textures[_activeTexture] = textureId;
+		}
+		GL11.glBindTexture(target, textureId);
+	}
+
+	/**
+	 * Binds the buffer to the target, see glBindBuffer
+	 * 
+	 * @param target
+	 *            the buffer target (i.e. GL_ARRAY_BUFFER)
+	 * @param bufferId
+	 *            the buffer, or 0 for none
+	 */
+	public static void bindBuffer(int target, int bufferId) {
+		int index = getBufferIndex(target);
+		if (isCached() && index >= 0) {
+			syncSharedDeletes();
+			_requestedCalls++;
+			if (_buffers[index] == bufferId) {
+				_skippedCalls++;
+				return;
+			}
+			_buffers[index] = bufferId;
+		}
+		GL15.glBindBuffer(target, bufferId);
+	}
+
+	/**
+	 * Binds the buffer to an indexed binding point of the target, see
+	 * glBindBufferBase. Always goes through, but also binds the buffer to the
+	 * target itself.
+	 * 
+	 * @param target
+	 *            the buffer target (i.e. GL_UNIFORM_BUFFER)
+	 * @param bindingPoint
+	 *            the binding point
+	 * @param bufferId
+	 *            the buffer, or 0 for none
+	 */
+	public static void bindBufferBase(int target, int bindingPoint, int bufferId) {
+		int index = getBufferIndex(target);
+		if (isCached() && index >= 0) {
+			syncSharedDeletes();
+			_buffers[index] = bufferId;
+		}
+		GL30.glBindBufferBase(target, bindingPoint, bufferId);
+	}
+
+	/**
+	 * Enables the capability, see glEnable
+	 * 
+	 * @param capability
+	 *            the capability (i.e. GL_DEPTH_TEST)
+	 */
+	public static void enable(int capability) {
+		if (setCapability(capability, true))
+			GL11.glEnable(capability);
+	}
+
+	/**
+	 * Disables the capability, see glDisable
+	 * 
+	 * @param capability
+	 *            the capability (i.e. GL_DEPTH_TEST)
+	 */
+	public static void disable(int capability) {
+		if (setCapability(capability, false))
+			GL11.glDisable(capability);
+	}
+
+	/**
+	 * Sets the blend factors, see glBlendFunc
+	 * 
+	 * @param src
+	 *            the source factor
+	 * @param dst
+	 *            the destination factor
+	 */
+	public static void blendFunc(int src, int dst) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_blendSrc == src && _blendDst == dst) {
+				_skippedCalls++;
+				return;
+			}
+			_blendSrc = src;
+			_blendDst = dst;
+		}
+		GL11.glBlendFunc(src, dst);
+	}
+
+	/**
+	 * Sets which faces are culled, see glCullFace
+	 * 
+	 * @param mode
+	 *            the faces to cull (i.e. GL_BACK)
+	 */
+	public static void cullFace(int mode) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_cullFace == mode) {
+				_skippedCalls++;
+				return;
+			}
+			_cullFace = mode;
+		}
+		GL11.glCullFace(mode);
+	}
+
+	/**
+	 * Sets the depth comparison, see glDepthFunc
+	 * 
+	 * @param func
+	 *            the comparison (i.e. GL_LESS)
+	 */
+	public static void depthFunc(int func) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_depthFunc == func) {
+				_skippedCalls++;
+				return;
+			}
+			_depthFunc = func;
+		}
+		GL11.glDepthFunc(func);
+	}
+
+	/**
+	 * Sets whether the depth buffer is written to, see glDepthMask
+	 * 
+	 * @param write
+	 *            true to write depth
+	 */
+	public static void depthMask(boolean write) {
+		int mask = write ? GL11.GL_TRUE : GL11.GL_FALSE;
+		if (isCached()) {
+			_requestedCalls++;
+			if (_depthMask == mask) {
+				_skippedCalls++;
+				return;
+			}
+			_depthMask = mask;
+		}
+		GL11.glDepthMask(write);
+	}
+
+	/**
+	 * Sets how polygons of both faces are rasterized, see glPolygonMode
+	 * 
+	 * @param mode
+	 *            the mode (i.e. GL_FILL)
+	 */
+	public static void polygonMode(int mode) {
+		if (isCached()) {
+			_requestedCalls++;
+			if (_polygonMode == mode) {
+				_skippedCalls++;
+				return;
+			}
+			_polygonMode = mode;
+		}
+		GL11.glPolygonMode(GL11.GL_FRONT_AND_BACK, mode);
+	}
+
+	/**
+	 * Deletes the program, see glDeleteProgram
+	 * 
+	 * @param programId
+	 *            the program
+	 */
+	public static void deleteProgram(int programId) {
+		GL20.glDeleteProgram(programId);
+		// A deleted program stays in use until another is used
+		if (isCached() && _program == programId)
+			_program = UNKNOWN;
+	}
+
+	/**
+	 * Deletes the vertex array object, see glDeleteVertexArrays
+	 * 
+	 * @param vertexArrayId
+	 *            the vertex array
+	 */
+	public static void deleteVertexArray(int vertexArrayId) {
+		GL30.glDeleteVertexArrays(vertexArrayId);
+		// Deleting the bound vertex array binds 0
+		if (isCached() && _vertexArray == vertexArrayId) {
+			_vertexArray = 0;
+			_buffers[ELEMENT_ARRAY_BUFFER_INDEX] = 0;
+		}
+	}
+
+	/**
+	 * Deletes the texture, see glDeleteTextures
+	 * 
+	 * @param textureId
+	 *            the texture
+	 */
+	public static void deleteTexture(int textureId) {
+		GL11.glDeleteTextures(textureId);
+		if (!isCached()) {
+			_sharedDeletes.incrementAndGet();
+			return;
+		}
+
+		// Deleting a bound texture binds 0 to its units
+		for (int i = 0; i < _textures.length; i++) {
+			if (_textures[i] == textureId)
+				_textures[i] = 0;
+		}
+	}
+
+	/**
+	 * Deletes the buffer, see glDeleteBuffers
+	 * 
+	 * @param bufferId
+	 *            the buffer
+	 */
+	public static void deleteBuffer(int bufferId) {
+		GL15.glDeleteBuffers(bufferId);
+		if (!isCached()) {
+			_sharedDeletes.incrementAndGet();
+			return;
+		}
+
+		// Deleting a bound buffer binds 0 to its targets
+		for (int i = 0; i < _buffers.length; i++) {
+			if (_buffers[i] == bufferId)
+				_buffers[i] = 0;
+		}
+	}
+
+	/*
+	 * Only the main thread's context is cached
+	 */
+	private static boolean isCached() {
+		return Thread.currentThread() == _owner;
+	}
+
+	/*
+	 * Forgets the texture & buffer bindings if another thread deleted a
+	 * texture or buffer, whose name the driver is then free to hand out again
+	 */
+	private static void syncSharedDeletes() {
+		// Only write to the counter when there is something to take
+		if (_sharedDeletes.get() != 0 && _sharedDeletes.getAndSet(0) != 0)
+			forgetSharedBindings();
+	}
+
+	/*
+	 * Forgets every texture & buffer binding
+	 */
+	private static void forgetSharedBindings() {
+		for (int i = 0; i < _textures.length; i++)
+			_textures[i] = UNKNOWN;
+		for (int i = 0; i < _buffers.length; i++)
+			_buffers[i] = UNKNOWN;
+	}
+
+	/*
+	 * Returns the index of the target's shadowed binding, or -1 if it isn't
+	 * shadowed
+	 */
+	private static int getBufferIndex(int target) {
+		for (int i = 0; i < BUFFER_TARGETS.length; i++) {
+			if (BUFFER_TARGETS[i] == target)
+				return i;
+		}
+		return -1;
+	}
+
+	/*
+	 * Records the capability's state, returns false if the call can be
+	 * skipped
+	 */
+	private static boolean setCapability(int capability, boolean enabled) {
+		if (!isCached())
+			return true;
+
+		int state = enabled ? 1 : 0;
+		for (int i = 0; i < CAPABILITIES.length; i++) {
+			if (CAPABILITIES[i] != capability)
+				continue;
+
+			_requestedCalls++;
+			if (_capabilities[i] == state) {
+				_skippedCalls++;
+				return false;
+			}
+			_capabilities[i] = state;
+			return true;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,353 @@
+package engine.graphics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joml.Matrix4fc;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLCapabilities;
+
+import engine.graphics.geometry.BoundingVolume;
+import engine.graphics.geometry.Mesh;
+
+/**
+ * Culls instances against the camera frustum on the GPU and draws the visible
+ * ones without their matrices ever going back through the CPU. Instances are
+ * added in batches, one per mesh and material, and every frame their local
+ * to world matrices are uploaded to a shader storage buffer. A compute shader
+ * then tests each instance's bounds the same way FrustumCuller does, writing
+ * the world view matrix of every visible instance into its batch's slice of
+ * an output buffer and counting it into the batch's indirect draw command.
+ * The output buffer is read by the instanced standard shader as its instance
+ * attribute, so each batch is drawn by one indirect draw.
+ * 
+ * Needs GL 4.3 (compute shaders, shader storage buffers and indirect draws
+ * with a base instance), see isSupported.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class GPUCuller {
+	// Binding points of the storage buffers, matching the culling shader
+	private static final int INSTANCES_BINDING = 0;
+	private static final int INSTANCE_BATCHES_BINDING = 1;
+	private static final int BATCHES_BINDING = 2;
+	private static final int COMMANDS_BINDING = 3;
+	private static final int VISIBLE_INSTANCES_BINDING = 4;
+	private static final int VISIBILITY_BINDING = 5;
+
+	// Sizes of each element of the buffers, as laid out by std430
+	private static final int MATRIX_SIZE_BYTES = 16 * Float.BYTES;
+	private static final int BATCH_SIZE_BYTES = 8 * Float.BYTES;
+	// count, instanceCount, firstIndex, baseVertex, baseInstance
+	private static final int COMMAND_SIZE_BYTES = 5 * Integer.BYTES;
+	private static final int INSTANCE_COUNT_OFFSET = Integer.BYTES;
+	private static final int BASE_INSTANCE_OFFSET = 4 * Integer.BYTES;
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private final CullingShaderProgram _program;
+	private final int _instanceBufferId;
+	private final int _instanceBatchBufferId;
+	private final int _batchBufferId;
+	private final int _commandBufferId;
+	private final int _visibleBufferId;
+	private final int _visibilityBufferId;
+
+	// Staging buffers, uploaded whole every cull
+	private ByteBuffer _instances = BufferUtils.createByteBuffer(DEFAULT_CAPACITY * MATRIX_SIZE_BYTES);
+	private ByteBuffer _instanceBatches = BufferUtils.createByteBuffer(DEFAULT_CAPACITY * Integer.BYTES);
+	private ByteBuffer _batches = BufferUtils.createByteBuffer(DEFAULT_CAPACITY * BATCH_SIZE_BYTES);
+	private ByteBuffer _commands = BufferUtils.createByteBuffer(DEFAULT_CAPACITY * COMMAND_SIZE_BYTES);
+	private ByteBuffer _visibility = BufferUtils.createByteBuffer(DEFAULT_CAPACITY * Integer.BYTES);
+
+	private final List<Mesh> _batchMeshes = new ArrayList<>();
+	private int _instanceCount = 0;
+	// Instances the output buffers have room for
+	private int _outputCapacity = 0;
+	private int _visibleCount = 0;
+
+	/**
+	 * Must be called on a thread with a GL context
+	 * 
+	 * @return true if the driver can cull and draw on the GPU
+	 */
+	public static boolean isSupported() {
+		// The culling shader is GLSL 4.30, so the extensions alone aren't
+		// enough
+		GLCapabilities capabilities = GL.getCapabilities();
+		return capabilities.OpenGL43;
+	}
+
+	/**
+	 * Must be called on a thread with a GL context
+	 * 
+	 * @return the renderer and version of the driver, for logging
+	 */
+	public static String getDriverDescription() {
+		return GL11.glGetString(GL11.GL_RENDERER) + ", OpenGL " + GL11.glGetString(GL11.GL_VERSION);
+	}
+
+	/**
+	 * Constructs a GPU culler, compiling the culling shader. [WARNING] - This
+	 * MUST be called from the main thread.
+	 * 
+	 * @throws Exception
+	 */
+	public GPUCuller() throws Exception {
+		this._program = new CullingShaderProgram();
+		this._instanceBufferId = createBuffer();
+		this._instanceBatchBufferId = createBuffer();
+		this._batchBufferId = createBuffer();
+		this._commandBufferId = createBuffer();
+		this._visibleBufferId = createBuffer();
+		this._visibilityBufferId = createBuffer();
+	}
+
+	/**
+	 * @return the amount of batches added since the last clear
+	 */
+	public int getBatchCount() {
+		return _batchMeshes.size();
+	}
+
+	/**
+	 * @return the amount of instances added since the last clear
+	 */
+	public int getInstanceCount() {
+		return _instanceCount;
+	}
+
+	/**
+	 * @return the amount of instances kept by the last cull, only known once
+	 *         the visibility is read back
+	 */
+	public int getVisibleCount() {
+		return _visibleCount;
+	}
+
+	/**
+	 * Removes every batch and instance
+	 */
+	public void clear() {
+		_batchMeshes.clear();
+		_instanceCount = 0;
+		_visibleCount = 0;
+	}
+
+	/**
+	 * Starts a batch, every instance added after it belongs to it until the
+	 * next batch is added
+	 * 
+	 * @param mesh
+	 *            the loaded mesh drawn by the batch
+	 * @return the index of the batch
+	 */
+	public int addBatch(Mesh mesh) {
+		int batch = _batchMeshes.size();
+		_batchMeshes.add(mesh);
+		_batches = ensureCapacity(_batches, (batch + 1) * BATCH_SIZE_BYTES);
+		_commands = ensureCapacity(_commands, (batch + 1) * COMMAND_SIZE_BYTES);
+
+		BoundingVolume bounds = mesh.getBounds();
+		int offset = batch * BATCH_SIZE_BYTES;
+		_batches.putFloat(offset, bounds.centerX);
+		_batches.putFloat(offset + 4, bounds.centerY);
+		_batches.putFloat(offset + 8, bounds.centerZ);
+		_batches.putFloat(offset + 12, bounds.radius);
+		_batches.putFloat(offset + 16, bounds.extentX);
+		_batches.putFloat(offset + 20, bounds.extentY);
+		_batches.putFloat(offset + 24, bounds.extentZ);
+		_batches.putFloat(offset + 28, 0);
+
+		// The instance count is filled in by the culling shader
+		offset = batch * COMMAND_SIZE_BYTES;
+		_commands.putInt(offset, mesh.getVertexCount());
+		_commands.putInt(offset + INSTANCE_COUNT_OFFSET, 0);
+		_commands.putInt(offset + 8, 0);
+		_commands.putInt(offset + 12, 0);
+		_commands.putInt(offset + BASE_INSTANCE_OFFSET, _instanceCount);
+		return batch;
+	}
+
+	/**
+	 * Adds an instance to the last added batch
+	 * 
+	 * @param localToWorld
+	 *            the local to world matrix of the instance
+	 */
+	public void addInstance(Matrix4fc localToWorld) {
+		int instance = _instanceCount++;
+		_instances = ensureCapacity(_instances, _instanceCount * MATRIX_SIZE_BYTES);
+		_instanceBatches = ensureCapacity(_instanceBatches, _instanceCount * Integer.BYTES);
+		localToWorld.get(instance * MATRIX_SIZE_BYTES, _instances);
+		_instanceBatches.putInt(instance * Integer.BYTES, _batchMeshes.size() - 1);
+	}
+
+	/**
+	 * Uploads the instances and culls them on the GPU. The draws wait on the
+	 * culling shader, so this returns without waiting for it.
+	 * 
+	 * @param frustum
+	 *            the culler holding the camera's frustum planes
+	 * @param view
+	 *            the view matrix of the camera
+	 */
+	public void cull(FrustumCuller frustum, Matrix4fc view) {
+		if (_batchMeshes.isEmpty())
+			return;
+
+		upload(_commandBufferId, _commands, _batchMeshes.size() * COMMAND_SIZE_BYTES);
+		if (_instanceCount == 0)
+			return;
+
+		upload(_instanceBufferId, _instances, _instanceCount * MATRIX_SIZE_BYTES);
+		upload(_instanceBatchBufferId, _instanceBatches, _instanceCount * Integer.BYTES);
+		upload(_batchBufferId, _batches, _batchMeshes.size() * BATCH_SIZE_BYTES);
+		if (_instanceCount > _outputCapacity) {
+			_outputCapacity = Math.max(_instanceCount, _outputCapacity * 2);
+			allocate(_visibleBufferId, (long) _outputCapacity * MATRIX_SIZE_BYTES);
+			allocate(_visibilityBufferId, (long) _outputCapacity * Integer.BYTES);
+		}
+
+		GLStateCache.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, INSTANCES_BINDING, _instanceBufferId);
+		GLStateCache.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, INSTANCE_BATCHES_BINDING,
+				_instanceBatchBufferId);
+		GLStateCache.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, BATCHES_BINDING, _batchBufferId);
+		GLStateCache.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, COMMANDS_BINDING, _commandBufferId);
+		GLStateCache.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, VISIBLE_INSTANCES_BINDING, _visibleBufferId);
+		GLStateCache.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, VISIBILITY_BINDING, _visibilityBufferId);
+
+		_program.bind();
+		_program.setViewMatrix(view);
+		_program.setFrustumPlanes(frustum);
+		_program.setInstanceCount(_instanceCount);
+		int groupSize = CullingShaderProgram.WORK_GROUP_SIZE;
+		GL43.glDispatchCompute((_instanceCount + groupSize - 1) / groupSize, 1, 1);
+
+		// The draws read the commands and the visible instances the shader
+		// wrote
+		GL42.glMemoryBarrier(GL42.GL_COMMAND_BARRIER_BIT | GL42.GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT);
+	}
+
+	/**
+	 * Draws the visible instances of a batch with the instanced standard
+	 * shader, which must be bound along with the batch's material
+	 * 
+	 * @param batch
+	 *            index of the batch, as returned by addBatch
+	 */
+	public void draw(int batch) {
+		if (_instanceCount == 0)
+			return;
+
+		// Bind VAO and point the instance attributes at the visible instances,
+		// the command's base instance picks out the batch's slice
+		Mesh mesh = _batchMeshes.get(batch);
+		mesh.getVAO().use();
+		InstanceBuffer.bindAttributes(_visibleBufferId);
+
+		GLStateCache.bindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, _commandBufferId);
+		GL43.glMultiDrawElementsIndirect(GL11.GL_TRIANGLES, mesh.getIndexType(), (long) batch * COMMAND_SIZE_BYTES,
+				1, 0);
+
+		// Unbind the instance attributes, the VAO stays bound
+		InstanceBuffer.unbindAttributes();
+	}
+
+	/**
+	 * Reads back which instances the last cull kept. Stalls until the GPU has
+	 * culled them, so only meant for validating the GPU culling against the
+	 * CPU.
+	 */
+	public void readVisibility() {
+		_visibleCount = 0;
+		if (_instanceCount == 0)
+			return;
+
+		GL42.glMemoryBarrier(GL42.GL_BUFFER_UPDATE_BARRIER_BIT);
+		_visibility = ensureCapacity(_visibility, _instanceCount * Integer.BYTES);
+		_visibility.limit(_instanceCount * Integer.BYTES).position(0);
+		GLStateCache.bindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, _visibilityBufferId);
+		GL15.glGetBufferSubData(GL43.GL_SHADER_STORAGE_BUFFER, 0, _visibility);
+		_visibility.clear();
+
+		for (int i = 0; i < _instanceCount; i++)
+			_visibleCount += isVisible(i) ? 1 : 0;
+	}
+
+	/**
+	 * @param instance
+	 *            index of the instance, in the order they were added
+	 * @return true if the instance was kept by the last cull, as read back by
+	 *         readVisibility
+	 */
+	public boolean isVisible(int instance) {
+		return _visibility.getInt(instance * Integer.BYTES) != 0;
+	}
+
+	/**
+	 * Cleans up the GPU culler
+	 */
+	public void dispose() {
+		_program.dispose();
+		GLStateCache.deleteBuffer(_instanceBufferId);
+		GLStateCache.deleteBuffer(_instanceBatchBufferId);
+		GLStateCache.deleteBuffer(_batchBufferId);
+		GLStateCache.deleteBuffer(_commandBufferId);
+		GLStateCache.deleteBuffer(_visibleBufferId);
+		GLStateCache.deleteBuffer(_visibilityBufferId);
+	}
+
+	/*
+	 * Generates a buffer, throwing if it couldn't be
+	 */
+	private static int createBuffer() throws Exception {
+		int bufferId = GL15.glGenBuffers();
+		if (bufferId == 0) {
+			throw new Exception("Could not create GPU culling buffer");
+		}
+		return bufferId;
+	}
+
+	/*
+	 * Respecifies the buffer with the first bytes of the staging buffer, which
+	 * lets the driver hand out new memory rather than wait on the last frame
+	 */
+	private static void upload(int bufferId, ByteBuffer data, int sizeBytes) {
+		data.limit(sizeBytes).position(0);
+		GLStateCache.bindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, bufferId);
+		GL15.glBufferData(GL43.GL_SHADER_STORAGE_BUFFER, data, GL15.GL_STREAM_DRAW);
+		data.clear();
+	}
+
+	/*
+	 * Allocates the buffer without any data, for the culling shader to write
+	 */
+	private static void allocate(int bufferId, long sizeBytes) {
+		GLStateCache.bindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, bufferId);
+		GL15.glBufferData(GL43.GL_SHADER_STORAGE_BUFFER, sizeBytes, GL15.GL_STREAM_COPY);
+	}
+
+	/*
+	 * Returns the staging buffer, or a copy at least twice as large if it
+	 * can't hold the size
+	 */
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int sizeBytes) {
+		if (buffer.capacity() >= sizeBytes)
+			return buffer;
+
+		ByteBuffer grown = BufferUtils.createByteBuffer(Math.max(sizeBytes, buffer.capacity() * 2));
+		buffer.clear();
+		grown.put(buffer);
+		grown.clear();
+		return grown;
+	}
+}
@@ -36,6 +36,8 @@ public final class GraphicsManager {
 		switch (shaderType) {
 		case STANDARD:
 			return StandardShaderProgram.getInstance();
+		case STANDARD_INSTANCED:
+			return StandardShaderProgram.getInstancedInstance();
 		}
 
 		Debug.error("Trying to retrieve unknown shader");
@@ -48,5 +50,6 @@ public final class GraphicsManager {
 	public static void dispose() {
 		for (ShaderType shaderType : ShaderType.values())
 			getShader(shaderType).dispose();
+		StandardShaderProgram.disposeSceneData();
 	}
 }
@@ -0,0 +1,145 @@
+package engine.graphics;
+
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4fc;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL33;
+
+/**
+ * A vertex buffer of per instance world view matrices, streamed to the GPU
+ * before every instanced draw. While bound, the matrix is read by the
+ * instanced standard shader as a mat4 attribute taking up four attribute
+ * locations, advancing once per instance instead of once per vertex.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public class InstanceBuffer {
+	/**
+	 * The first attribute location of the instance matrix, following the
+	 * position, texture & normal attributes. Matches the instanced standard
+	 * shader.
+	 */
+	public static final int FIRST_ATTRIBUTE_LOCATION = 3;
+
+	private static final int MATRIX_COLUMNS = 4;
+	private static final int MATRIX_FLOATS = 16;
+	private static final int MATRIX_SIZE_BYTES = MATRIX_FLOATS * Float.BYTES;
+	private static final int COLUMN_SIZE_BYTES = MATRIX_SIZE_BYTES / MATRIX_COLUMNS;
+
+	private final int _bufferId;
+	private final int _capacity;
+	private final FloatBuffer _data;
+	private int _count = 0;
+
+	/**
+	 * Constructs an instance buffer
+	 * 
+	 * @param capacity
+	 *            the most instances drawn at once
+	 * @throws Exception
+	 */
+	public InstanceBuffer(int capacity) throws Exception {
+		this._capacity = capacity;
+		this._data = BufferUtils.createFloatBuffer(capacity * MATRIX_FLOATS);
+
+		this._bufferId = GL15.glGenBuffers();
+		if (_bufferId == 0) {
+			throw new Exception("Could not create instance buffer");
+		}
+	}
+
+	/**
+	 * @return the most instances drawn at once
+	 */
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * @return the amount of instances added since the last clear
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	/**
+	 * Removes every instance
+	 */
+	public void clear() {
+		_count = 0;
+	}
+
+	/**
+	 * Adds an instance, ignored once the buffer is at capacity
+	 * 
+	 * @param worldView
+	 *            the world view matrix of the instance
+	 */
+	public void add(Matrix4fc worldView) {
+		if (_count == _capacity)
+			return;
+		worldView.get(_count * MATRIX_FLOATS, _data);
+		_count++;
+	}
+
+	/**
+	 * Uploads the instances and points the instance attributes of the bound
+	 * VAO at them
+	 */
+	public void bind() {
+		_data.limit(_count * MATRIX_FLOATS).position(0);
+		GLStateCache.bindBuffer(GL15.GL_ARRAY_BUFFER, _bufferId);
+		// Respecifying the whole buffer lets the driver hand out new memory
+		// rather than wait on draws still reading the last instances
+		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, _data, GL15.GL_STREAM_DRAW);
+		_data.clear();
+		bindAttributes(_bufferId);
+	}
+
+	/**
+	 * Disables the instance attributes of the bound VAO
+	 */
+	public void unbind() {
+		unbindAttributes();
+	}
+
+	/**
+	 * Points the instance attributes of the bound VAO at a buffer of tightly
+	 * packed column major matrices
+	 * 
+	 * @param bufferId
+	 *            the buffer holding the matrices
+	 */
+	static void bindAttributes(int bufferId) {
+		GLStateCache.bindBuffer(GL15.GL_ARRAY_BUFFER, bufferId);
+		// A mat4 attribute is read as one vec4 attribute per column
+		for (int i = 0; i < MATRIX_COLUMNS; i++) {
+			int location = FIRST_ATTRIBUTE_LOCATION + i;
+			GL20.glVertexAttribPointer(location, MATRIX_COLUMNS, GL11.GL_FLOAT, false, MATRIX_SIZE_BYTES,
+					i * COLUMN_SIZE_BYTES);
+			GL33.glVertexAttribDivisor(location, 1);
+			GL20.glEnableVertexAttribArray(location);
+		}
+		GLStateCache.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Disables the instance attributes of the bound VAO
+	 */
+	static void unbindAttributes() {
+		for (int i = 0; i < MATRIX_COLUMNS; i++)
+			GL20.glDisableVertexAttribArray(FIRST_ATTRIBUTE_LOCATION + i);
+	}
+
+	/**
+	 * Cleans up the instance buffer
+	 */
+	public void dispose() {
+		GLStateCache.deleteBuffer(_bufferId);
+	}
+}
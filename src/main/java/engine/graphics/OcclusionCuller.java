@@ -0,0 +1,401 @@
+package engine.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+import engine.graphics.geometry.BoundingVolume;
+import engine.graphics.geometry.Mesh.MeshVBOData;
+
+/**
+ * Culls objects hidden behind occluders, entirely on the CPU. Each frame the
+ * designated occluder meshes are rasterized into a small software depth
+ * buffer, split into bands of rows across the fork-join pool, and a
+ * hierarchical-Z pyramid is built from it where every texel holds the
+ * farthest depth of the 2x2 texels below it. An object is then tested by
+ * projecting its bounding box to the screen and comparing its nearest depth
+ * against the farthest depth of the at most 2x2 pyramid texels covering it.
+ * 
+ * Occluder triangles crossing the near plane are skipped and boxes crossing
+ * it always pass, so an object is never culled because of clipping. Depths
+ * are NDC depths mapped to [0, 1], with 1 being the far plane.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class OcclusionCuller {
+	// Floats per screen space triangle (x, y, depth of each vertex)
+	private static final int TRIANGLE = 9;
+	// Occluders with fewer triangles are rasterized on the calling thread
+	private static final int MIN_PARALLEL_TRIANGLES = 256;
+	private static final int MIN_ROWS_PER_TASK = 16;
+	private static final float FAR_DEPTH = 1f;
+
+	private final int _width;
+	private final int _height;
+	// Level 0 is the depth buffer itself, every level after is half the size
+	private final float[][] _levels;
+	private final int[] _levelWidths;
+	private final int[] _levelHeights;
+
+	private final Matrix4f _viewProjection = new Matrix4f();
+	private final Matrix4f _worldViewProjection = new Matrix4f();
+	private float[] _triangles = new float[TRIANGLE * 64];
+	private int _triangleCount = 0;
+	// Clip space vertices of the occluder being added
+	private float[] _clip = new float[4 * 64];
+
+	private int _testedCount = 0;
+	private int _occludedCount = 0;
+
+	/**
+	 * Constructs an occlusion culler
+	 * 
+	 * @param width
+	 *            width of the depth buffer in pixels
+	 * @param height
+	 *            height of the depth buffer in pixels
+	 */
+	public OcclusionCuller(int width, int height) {
+		this._width = Math.max(1, width);
+		this._height = Math.max(1, height);
+
+		int levelCount = 32 - Integer.numberOfLeadingZeros(Math.max(_width, _height));
+		this._levels = new float[levelCount][];
+		this._levelWidths = new int[levelCount];
+		this._levelHeights = new int[levelCount];
+		for (int level = 0; level < levelCount; level++) {
+			_levelWidths[level] = Math.max(1, _width >> level);
+			_levelHeights[level] = Math.max(1, _height >> level);
+			_levels[level] = new float[_levelWidths[level] * _levelHeights[level]];
+		}
+	}
+
+	/**
+	 * @return width of the depth buffer in pixels
+	 */
+	public int getWidth() {
+		return _width;
+	}
+
+	/**
+	 * @return height of the depth buffer in pixels
+	 */
+	public int getHeight() {
+		return _height;
+	}
+
+	/**
+	 * @return the amount of occluder triangles rasterized this frame
+	 */
+	public int getOccluderTriangleCount() {
+		return _triangleCount;
+	}
+
+	/**
+	 * @return the amount of objects tested since the frame began
+	 */
+	public int getTestedCount() {
+		return _testedCount;
+	}
+
+	/**
+	 * @return the amount of objects found hidden since the frame began
+	 */
+	public int getOccludedCount() {
+		return _occludedCount;
+	}
+
+	/**
+	 * Starts a new frame, forgetting every occluder and the counts
+	 * 
+	 * @param projection
+	 *            the projection matrix of the camera
+	 * @param view
+	 *            the view matrix of the camera
+	 */
+	public void begin(Matrix4fc projection, Matrix4fc view) {
+		projection.mul(view, _viewProjection);
+		clear();
+	}
+
+	/**
+	 * Forgets every occluder and the counts
+	 */
+	public void clear() {
+		_triangleCount = 0;
+		_testedCount = 0;
+		_occludedCount = 0;
+	}
+
+	/**
+	 * Adds the triangles of an occluder, projected to the screen. Should be a
+	 * simple, solid mesh (i.e. walls or terrain), since every triangle costs.
+	 * 
+	 * @param data
+	 *            the vertex positions and indices of the occluder's mesh
+	 * @param localToWorld
+	 *            the local to world matrix of the occluder
+	 */
+	public void addOccluder(MeshVBOData data, Matrix4fc localToWorld) {
+		_viewProjection.mul(localToWorld, _worldViewProjection);
+		Matrix4f m = _worldViewProjection;
+
+		// Every vertex is transformed once, no matter how many triangles
+		// share it
+		float[] positions = data.vertexPositions;
+		int vertexCount = positions.length / 3;
+		if (_clip.length < vertexCount * 4)
+			_clip = new float[vertexCount * 4];
+		for (int i = 0; i < vertexCount; i++) {
+			float x = positions[i * 3], y = positions[i * 3 + 1], z = positions[i * 3 + 2];
+			_clip[i * 4] = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+			_clip[i * 4 + 1] = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+			_clip[i * 4 + 2] = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+			_clip[i * 4 + 3] = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+		}
+
+		int[] indices = data.indices;
+		for (int i = 0; i + 2 < indices.length; i += 3) {
+			int a = indices[i] * 4, b = indices[i + 1] * 4, c = indices[i + 2] * 4;
+			// Skipping a triangle crossing the near plane only loses
+			// occlusion, clipping it isn't worth it
+			if (isBehindNear(a) || isBehindNear(b) || isBehindNear(c))
+				continue;
+
+			if (_triangles.length < (_triangleCount + 1) * TRIANGLE)
+				_triangles = Arrays.copyOf(_triangles, _triangles.length * 2);
+			int t = _triangleCount * TRIANGLE;
+			project(a, t);
+			project(b, t + 3);
+			project(c, t + 6);
+
+			// Drop triangles entirely off screen or past the far plane
+			float[] tri = _triangles;
+			if (Math.max(tri[t], Math.max(tri[t + 3], tri[t + 6])) < 0
+					|| Math.min(tri[t], Math.min(tri[t + 3], tri[t + 6])) > _width
+					|| Math.max(tri[t + 1], Math.max(tri[t + 4], tri[t + 7])) < 0
+					|| Math.min(tri[t + 1], Math.min(tri[t + 4], tri[t + 7])) > _height
+					|| Math.min(tri[t + 2], Math.min(tri[t + 5], tri[t + 8])) > FAR_DEPTH)
+				continue;
+			_triangleCount++;
+		}
+	}
+
+	/**
+	 * Rasterizes the added occluders into the depth buffer and builds the
+	 * hierarchical-Z pyramid from it. Call after adding the occluders and
+	 * before testing any objects.
+	 */
+	public void rasterize() {
+		if (_triangleCount < MIN_PARALLEL_TRIANGLES) {
+			rasterizeRows(0, _height);
+		} else {
+			// Each task owns a band of rows, so no two write the same pixel
+			int taskCount = Math.max(1,
+					Math.min(_height / MIN_ROWS_PER_TASK, ForkJoinPool.getCommonPoolParallelism() * 4));
+			int rowsPerTask = (_height + taskCount - 1) / taskCount;
+			List<ForkJoinTask<?>> tasks = new ArrayList<>(taskCount);
+			for (int startRow = 0; startRow < _height; startRow += rowsPerTask) {
+				final int start = startRow;
+				final int end = Math.min(_height, startRow + rowsPerTask);
+				tasks.add(ForkJoinTask.adapt(() -> rasterizeRows(start, end)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+		}
+
+		for (int level = 1; level < _levels.length; level++)
+			downsample(level);
+	}
+
+	/**
+	 * Tests whether an object can be seen past the occluders
+	 * 
+	 * @param bounds
+	 *            the local bounds of the object, or null if it has none
+	 * @param localToWorld
+	 *            the local to world matrix of the object
+	 * @return false if the object is entirely hidden, true otherwise
+	 */
+	public boolean isVisible(BoundingVolume bounds, Matrix4fc localToWorld) {
+		_testedCount++;
+		if (bounds == null || _triangleCount == 0)
+			return true;
+
+		_viewProjection.mul(localToWorld, _worldViewProjection);
+		Matrix4f m = _worldViewProjection;
+
+		// Project every corner of the box to find its screen rectangle and
+		// nearest depth
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minDepth = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for (int corner = 0; corner < 8; corner++) {
+			float x = bounds.centerX + ((corner & 1) == 0 ? -bounds.extentX : bounds.extentX);
+			float y = bounds.centerY + ((corner & 2) == 0 ? -bounds.extentY : bounds.extentY);
+			float z = bounds.centerZ + ((corner & 4) == 0 ? -bounds.extentZ : bounds.extentZ);
+			float clipX = m.m00() * x + m.m10() * y + m.m20() * z + m.m30();
+			float clipY = m.m01() * x + m.m11() * y + m.m21() * z + m.m31();
+			float clipZ = m.m02() * x + m.m12() * y + m.m22() * z + m.m32();
+			float clipW = m.m03() * x + m.m13() * y + m.m23() * z + m.m33();
+
+			// A box crossing the near plane could cover the whole screen
+			if (clipW <= 0 || clipZ < -clipW)
+				return true;
+
+			float screenX = (clipX / clipW * 0.5f + 0.5f) * _width;
+			float screenY = (clipY / clipW * 0.5f + 0.5f) * _height;
+			minX = Math.min(minX, screenX);
+			maxX = Math.max(maxX, screenX);
+			minY = Math.min(minY, screenY);
+			maxY = Math.max(maxY, screenY);
+			minDepth = Math.min(minDepth, clipZ / clipW * 0.5f + 0.5f);
+		}
+
+		// Off screen objects are left to the frustum culler
+		if (maxX < 0 || minX >= _width || maxY < 0 || minY >= _height)
+			return true;
+
+		int x0 = Math.max(0, (int) minX);
+		int x1 = Math.min(_width - 1, (int) maxX);
+		int y0 = Math.max(0, (int) minY);
+		int y1 = Math.min(_height - 1, (int) maxY);
+
+		// Pick the first level where the rectangle covers at most 2x2 texels
+		int level = 0;
+		while (level < _levels.length - 1 && ((x1 >> level) - (x0 >> level) > 1 || (y1 >> level) - (y0 >> level) > 1))
+			level++;
+
+		// The last texel of an odd sized level also covers the extra pixels,
+		// so both ends of the rectangle are clamped to it
+		float farthest = 0;
+		float[] depth = _levels[level];
+		int levelWidth = _levelWidths[level];
+		int levelHeight = _levelHeights[level];
+		int texelX0 = Math.min(x0 >> level, levelWidth - 1), texelX1 = Math.min(x1 >> level, levelWidth - 1);
+		int texelY0 = Math.min(y0 >> level, levelHeight - 1), texelY1 = Math.min(y1 >> level, levelHeight - 1);
+		for (int y = texelY0; y <= texelY1; y++) {
+			for (int x = texelX0; x <= texelX1; x++)
+				farthest = Math.max(farthest, depth[y * levelWidth + x]);
+		}
+
+		if (minDepth > farthest) {
+			_occludedCount++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param x
+	 *            column of the pixel, from the left
+	 * @param y
+	 *            row of the pixel, from the bottom
+	 * @return the rasterized depth of the pixel, 1 if no occluder covers it
+	 */
+	public float getDepth(int x, int y) {
+		return _levels[0][y * _width + x];
+	}
+
+	/*
+	 * True if the clip space vertex at the index is behind the near plane
+	 */
+	private boolean isBehindNear(int index) {
+		float w = _clip[index + 3];
+		return w <= 0 || _clip[index + 2] < -w;
+	}
+
+	/*
+	 * Projects the clip space vertex at the index to the screen, storing it at
+	 * the triangle index
+	 */
+	private void project(int index, int t) {
+		float inverseW = 1f / _clip[index + 3];
+		_triangles[t] = (_clip[index] * inverseW * 0.5f + 0.5f) * _width;
+		_triangles[t + 1] = (_clip[index + 1] * inverseW * 0.5f + 0.5f) * _height;
+		_triangles[t + 2] = _clip[index + 2] * inverseW * 0.5f + 0.5f;
+	}
+
+	/*
+	 * Clears the rows [startRow, endRow) of the depth buffer then draws every
+	 * triangle into them, keeping the nearest depth of each pixel center
+	 */
+	private void rasterizeRows(int startRow, int endRow) {
+		float[] depth = _levels[0];
+		Arrays.fill(depth, startRow * _width, endRow * _width, FAR_DEPTH);
+
+		float[] tri = _triangles;
+		for (int t = 0; t < _triangleCount * TRIANGLE; t += TRIANGLE) {
+			float ax = tri[t], ay = tri[t + 1], az = tri[t + 2];
+			float bx = tri[t + 3], by = tri[t + 4], bz = tri[t + 5];
+			float cx = tri[t + 6], cy = tri[t + 7], cz = tri[t + 8];
+
+			// Pixels whose centers could be inside the triangle, within the band
+			int minX = Math.max(0, (int) Math.ceil(Math.min(ax, Math.min(bx, cx)) - 0.5f));
+			int maxX = Math.min(_width - 1, (int) Math.floor(Math.max(ax, Math.max(bx, cx)) - 0.5f));
+			int minY = Math.max(startRow, (int) Math.ceil(Math.min(ay, Math.min(by, cy)) - 0.5f));
+			int maxY = Math.min(endRow - 1, (int) Math.floor(Math.max(ay, Math.max(by, cy)) - 0.5f));
+			if (minX > maxX || minY > maxY)
+				continue;
+
+			// Occluders are drawn double sided, so flip back facing triangles
+			float area = (bx - ax) * (cy - ay) - (cx - ax) * (by - ay);
+			if (area == 0)
+				continue;
+			float sign = area > 0 ? 1 : -1;
+			float inverseArea = 1f / (area * sign);
+
+			// Edge functions, each the weight of the opposite vertex, stepped
+			// along the row rather than evaluated at every pixel
+			float stepA = -(cy - by) * sign, stepB = -(ay - cy) * sign, stepC = -(by - ay) * sign;
+			float px = minX + 0.5f;
+			for (int y = minY; y <= maxY; y++) {
+				float py = y + 0.5f;
+				float wa = ((cx - bx) * (py - by) - (cy - by) * (px - bx)) * sign;
+				float wb = ((ax - cx) * (py - cy) - (ay - cy) * (px - cx)) * sign;
+				float wc = ((bx - ax) * (py - ay) - (by - ay) * (px - ax)) * sign;
+				int row = y * _width;
+				for (int x = minX; x <= maxX; x++, wa += stepA, wb += stepB, wc += stepC) {
+					if (wa < 0 || wb < 0 || wc < 0)
+						continue;
+
+					float z = (wa * az + wb * bz + wc * cz) * inverseArea;
+					if (z < depth[row + x])
+						depth[row + x] = z;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Fills the level with the farthest depth of each 2x2 block of the level
+	 * above, an odd last row or column takes in the extra texels too
+	 */
+	private void downsample(int level) {
+		float[] source = _levels[level - 1];
+		int sourceWidth = _levelWidths[level - 1];
+		int sourceHeight = _levelHeights[level - 1];
+		float[] target = _levels[level];
+		int width = _levelWidths[level];
+		int height = _levelHeights[level];
+
+		for (int y = 0; y < height; y++) {
+			int sy0 = y * 2;
+			int sy1 = y == height - 1 ? sourceHeight - 1 : Math.min(sy0 + 1, sourceHeight - 1);
+			for (int x = 0; x < width; x++) {
+				int sx0 = x * 2;
+				int sx1 = x == width - 1 ? sourceWidth - 1 : Math.min(sx0 + 1, sourceWidth - 1);
+				float farthest = 0;
+				for (int sy = sy0; sy <= sy1; sy++) {
+					for (int sx = sx0; sx <= sx1; sx++)
+						farthest = Math.max(farthest, source[sy * sourceWidth + sx]);
+				}
+				target[y * width + x] = farthest;
+			}
+		}
+	}
+}
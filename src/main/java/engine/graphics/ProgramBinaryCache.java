@@ -0,0 +1,150 @@
+package engine.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL41;
+import org.lwjgl.opengl.GLCapabilities;
+
+import engine.resources.DiskCache;
+import engine.utils.Debug;
+
+/**
+ * Reads and writes linked shader programs as driver specific binaries, so a
+ * program is only compiled and linked the first time it is used with a driver:
+ * 
+ * <pre>
+ * int    magic     "GDPB"
+ * int    version   FORMAT_VERSION
+ * int    format    the driver's binary format
+ * int    length    size of the binary in bytes
+ * byte[] binary    the program binary
+ * </pre>
+ * 
+ * An entry is keyed by the driver vendor, renderer and version along with the
+ * program's sources, so a driver update or any change to a shader gives a new
+ * entry. A driver can still reject a binary, which is treated as a miss.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class ProgramBinaryCache {
+	private static final int MAGIC = ('G' << 24) | ('D' << 16) | ('P' << 8) | 'B';
+	private static final String DIRECTORY = "programs/";
+	private static final String EXTENSION = ".bin";
+	private static final int HEADER_SIZE_BYTES = 4 * 4;
+
+	/**
+	 * Increment whenever the layout of a cached program changes, any older
+	 * entries are then ignored and rebuilt
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private ProgramBinaryCache() {
+	}
+
+	/**
+	 * Program binaries need GL 4.1 (or ARB_get_program_binary) and a driver
+	 * that offers at least one binary format. Must be called on a thread with
+	 * a GL context.
+	 * 
+	 * @return true if programs can be read from and written to the cache
+	 */
+	static boolean isSupported() {
+		if (!DiskCache.isEnabled())
+			return false;
+
+		GLCapabilities capabilities = GL.getCapabilities();
+		if (!capabilities.OpenGL41 && !capabilities.GL_ARB_get_program_binary)
+			return false;
+		return GL11.glGetInteger(GL41.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+	}
+
+	/**
+	 * Must be called on a thread with a GL context
+	 * 
+	 * @param sources
+	 *            the sources of every shader in the program
+	 * @return the cache entry name for the program with the current driver
+	 */
+	static String getEntryName(String sources) {
+		String key = GL11.glGetString(GL11.GL_VENDOR) + '\n' + GL11.glGetString(GL11.GL_RENDERER) + '\n'
+				+ GL11.glGetString(GL11.GL_VERSION) + '\n' + sources;
+		return DIRECTORY + DiskCache.hash(key.getBytes(StandardCharsets.UTF_8)) + EXTENSION;
+	}
+
+	/**
+	 * Loads the cached binary into the program
+	 * 
+	 * @param programId
+	 *            the program to load the binary into
+	 * @param entryName
+	 *            the cache entry name of the program
+	 * @return true if the program is linked from the binary, false if it
+	 *         needs to be compiled
+	 */
+	static boolean read(int programId, String entryName) {
+		ByteBuffer buffer = DiskCache.map(entryName);
+		if (buffer == null)
+			return false;
+		buffer.order(ByteOrder.nativeOrder());
+
+		// Validate the header before trusting any of the sizes
+		if (buffer.remaining() < HEADER_SIZE_BYTES || buffer.getInt() != MAGIC
+				|| buffer.getInt() != FORMAT_VERSION) {
+			Debug.log("Ignoring out of date program cache entry: " + entryName);
+			return false;
+		}
+
+		int format = buffer.getInt();
+		int length = buffer.getInt();
+		if (length <= 0 || buffer.remaining() != length) {
+			Debug.warn("Ignoring corrupt program cache entry: " + entryName);
+			return false;
+		}
+
+		// The binary is handed to the driver straight from the mapped file
+		GL41.glProgramBinary(programId, format, buffer.slice());
+		if (GL20.glGetProgrami(programId, GL20.GL_LINK_STATUS) == 0) {
+			Debug.log("Driver rejected program cache entry: " + entryName);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the binary of a linked program to the cache. The program should
+	 * have been linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set.
+	 * 
+	 * @param programId
+	 *            the linked program
+	 * @param entryName
+	 *            the cache entry name of the program
+	 */
+	static void write(int programId, String entryName) {
+		int length = GL20.glGetProgrami(programId, GL41.GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0)
+			return;
+
+		ByteBuffer binary = BufferUtils.createByteBuffer(length);
+		IntBuffer binaryLength = BufferUtils.createIntBuffer(1);
+		IntBuffer format = BufferUtils.createIntBuffer(1);
+		GL41.glGetProgramBinary(programId, binaryLength, format, binary);
+		binary.limit(binaryLength.get(0));
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES).order(ByteOrder.nativeOrder());
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(format.get(0)).putInt(binary.remaining()).flip();
+
+		if (DiskCache.write(entryName, header, binary))
+			Debug.log("Cached program as: " + entryName);
+	}
+}
@@ -0,0 +1,199 @@
+package engine.graphics;
+
+import java.util.Arrays;
+
+/**
+ * A flat list of draws, each with a 64 bit sort key and the index of the item
+ * to draw. Sorting the keys puts draws that share a shader, texture, material
+ * and mesh next to each other, so state only changes when it has to, and
+ * orders the draws within each group front to back:
+ * 
+ * <pre>
+ * bits 60-63   shader
+ * bits 48-59   texture
+ * bits 32-47   material
+ * bits 16-31   mesh
+ * bits  0-15   quantized depth
+ * </pre>
+ * 
+ * Each field wraps around to fit its bits, which can only cost extra state
+ * changes and never changes what gets drawn. Keys are sorted as unsigned with
+ * a radix sort over primitive arrays, so the queue can be rebuilt every frame.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class RenderQueue {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private static final int SHADER_SHIFT = 60;
+	private static final int TEXTURE_SHIFT = 48;
+	private static final int MATERIAL_SHIFT = 32;
+	private static final int MESH_SHIFT = 16;
+	private static final long SHADER_MASK = 0xFL;
+	private static final long TEXTURE_MASK = 0xFFFL;
+	private static final long FIELD_MASK = 0xFFFFL;
+	private static final int MAX_DEPTH = 0xFFFF;
+
+	// Sorted a byte at a time
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int RADIX_MASK = RADIX - 1;
+
+	private long[] _keys;
+	private int[] _items;
+	private long[] _sortedKeys;
+	private int[] _sortedItems;
+	private final int[] _counts = new int[RADIX];
+	private int _size = 0;
+
+	/**
+	 * Constructs an empty render queue with the default capacity
+	 */
+	public RenderQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty render queue
+	 * 
+	 * @param capacity
+	 *            the starting amount of draws the queue can hold
+	 */
+	public RenderQueue(int capacity) {
+		capacity = Math.max(1, capacity);
+		this._keys = new long[capacity];
+		this._items = new int[capacity];
+		this._sortedKeys = new long[capacity];
+		this._sortedItems = new int[capacity];
+	}
+
+	/**
+	 * Builds the sort key of a draw
+	 * 
+	 * @param shader
+	 *            id of the shader program
+	 * @param texture
+	 *            id of the texture, 0 if untextured
+	 * @param material
+	 *            id of the material
+	 * @param mesh
+	 *            id of the mesh
+	 * @param depth
+	 *            distance from the camera, from 0 (near) to 1 (far). Clamped
+	 *            to that range
+	 * @return the sort key
+	 */
+	public static long makeKey(int shader, int texture, int material, int mesh, float depth) {
+		int quantizedDepth = (int) (Math.min(Math.max(depth, 0f), 1f) * MAX_DEPTH);
+		return ((shader & SHADER_MASK) << SHADER_SHIFT) | ((texture & TEXTURE_MASK) << TEXTURE_SHIFT)
+				| ((material & FIELD_MASK) << MATERIAL_SHIFT) | ((mesh & FIELD_MASK) << MESH_SHIFT) | quantizedDepth;
+	}
+
+	/**
+	 * @return the amount of draws in the queue
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Adds a draw to the end of the queue
+	 * 
+	 * @param key
+	 *            sort key of the draw, see makeKey
+	 * @param item
+	 *            index of the item to draw
+	 */
+	public void add(long key, int item) {
+		if (_size == _keys.length)
+			grow(_size + (_size >> 1) + 1);
+		_keys[_size] = key;
+		_items[_size] = item;
+		_size++;
+	}
+
+	/**
+	 * @param index
+	 *            index of the draw in the queue
+	 * @return the sort key of the draw
+	 */
+	public long getKey(int index) {
+		return _keys[index];
+	}
+
+	/**
+	 * @param index
+	 *            index of the draw in the queue
+	 * @return the index of the item to draw
+	 */
+	public int getItem(int index) {
+		return _items[index];
+	}
+
+	/**
+	 * Removes every draw but keeps the allocated capacity
+	 */
+	public void clear() {
+		_size = 0;
+	}
+
+	/**
+	 * Sorts the draws by their keys, lowest first. The sort is stable, so
+	 * draws with the same key stay in the order they were added.
+	 */
+	public void sort() {
+		// Only bytes that differ between keys need a pass, which skips most
+		// of the state bits when a scene only has a few shaders & textures
+		long differing = 0;
+		for (int i = 1; i < _size; i++)
+			differing |= _keys[i] ^ _keys[0];
+
+		for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+			if (((differing >>> shift) & RADIX_MASK) == 0)
+				continue;
+			sortByByte(shift);
+		}
+	}
+
+	/*
+	 * One stable counting sort pass on the byte of the keys at the shift,
+	 * then swaps the sorted arrays in
+	 */
+	private void sortByByte(int shift) {
+		Arrays.fill(_counts, 0);
+		for (int i = 0; i < _size; i++)
+			_counts[(int) (_keys[i] >>> shift) & RADIX_MASK]++;
+
+		// Turn the counts into the starting index of each byte value
+		int total = 0;
+		for (int i = 0; i < RADIX; i++) {
+			int count = _counts[i];
+			_counts[i] = total;
+			total += count;
+		}
+
+		for (int i = 0; i < _size; i++) {
+			int dst = _counts[(int) (_keys[i] >>> shift) & RADIX_MASK]++;
+			_sortedKeys[dst] = _keys[i];
+			_sortedItems[dst] = _items[i];
+		}
+
+		long[] keys = _keys;
+		_keys = _sortedKeys;
+		_sortedKeys = keys;
+		int[] items = _items;
+		_items = _sortedItems;
+		_sortedItems = items;
+	}
+
+	/*
+	 * Grows every array to the capacity
+	 */
+	private void grow(int capacity) {
+		_keys = Arrays.copyOf(_keys, capacity);
+		_items = Arrays.copyOf(_items, capacity);
+		_sortedKeys = new long[capacity];
+		_sortedItems = new int[capacity];
+	}
+}
@@ -1,14 +1,18 @@
 package engine.graphics;
 
 import java.nio.FloatBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.joml.Matrix4fc;
 import org.joml.Vector3fc;
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL41;
 
+import engine.Display;
 import engine.resources.ResourceManager;
 import engine.utils.Debug;
 
@@ -22,10 +26,12 @@ import engine.utils.Debug;
 public abstract class ShaderProgram {
 	private final int _programId;
 	private final ShaderType _shaderType;
-	private final Map<String, Integer> _uniforms = new HashMap<>();
+	private final String _name;
 
-	private int _vertShaderId;
-	private int _fragShaderId;
+	// Registered shaders, only compiled if the program isn't in the binary
+	// cache
+	private final List<ShaderSource> _shaderSources = new ArrayList<>();
+	private String _binaryEntryName = null;
 
 	private FloatBuffer _fb = BufferUtils.createFloatBuffer(16);
 
@@ -37,28 +43,65 @@ public abstract class ShaderProgram {
 	 * @throws Exception
 	 */
 	public ShaderProgram(ShaderType shaderType) throws Exception {
+		this(shaderType, shaderType.toString().toLowerCase());
+	}
+
+	/**
+	 * Constructs a new shader program that isn't one of the shader types
+	 * materials are drawn with, i.e. a compute program owned by a single
+	 * system
+	 * 
+	 * @param name
+	 *            the name of the program
+	 * @throws Exception
+	 */
+	protected ShaderProgram(String name) throws Exception {
+		this(null, name);
+	}
+
+	/*
+	 * Creates the program, registers its shaders and links it
+	 */
+	private ShaderProgram(ShaderType shaderType, String name) throws Exception {
 		this._shaderType = shaderType;
+		this._name = name;
 		// Creates a shader program with openGL
 		this._programId = GL20.glCreateProgram();
 		if (_programId == 0) {
 			throw new Exception("Could not create shader program");
 		}
 
-		// Next we register the shaders and link the program
-		// TODO: More information on what link does
+		// Next we register the shaders and link the program, a program that
+		// was linked before with the same driver is loaded as a binary
+		// instead, skipping the driver's compiler completely
 		registerShaders();
-		linkProgram();
+		if (!loadProgramBinary()) {
+			compileShaders();
+			linkProgram();
+		}
+
+		// Keep in only while debugging, unnecessary for release
+		if (Display.MAIN.getGraphicsController().getGraphicsOptions().validateShaders)
+			validateProgram();
 
 		// Register any uniforms
 		registerUniforms();
 	}
 
+	/**
+	 * @return the type of shader for this program, null if it isn't one of
+	 *         the shader types
+	 */
+	public ShaderType getShaderType() {
+		return _shaderType;
+	}
+
 	/**
 	 * Binds this shader program to OpenGL as the active shader program for the
 	 * current render/calculation cycle
 	 */
 	public void bind() {
-		GL20.glUseProgram(_programId);
+		GLStateCache.useProgram(_programId);
 	}
 
 	/**
@@ -66,21 +109,42 @@ public abstract class ShaderProgram {
 	 * render/calculation cycle with this as the active program
 	 */
 	public void unbind() {
-		GL20.glUseProgram(0);
+		GLStateCache.useProgram(0);
 	}
 
 	/**
-	 * Links the program TODO: More information on what link does
+	 * Links the program, combining the compiled shaders into one executable
+	 * program. The linked binary is written to the program binary cache if
+	 * it is supported.
 	 * 
 	 * @throws Exception
 	 */
 	protected void linkProgram() throws Exception {
+		if (_binaryEntryName != null)
+			GL41.glProgramParameteri(_programId, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+
 		GL20.glLinkProgram(_programId);
 		if (GL20.glGetProgrami(_programId, GL20.GL_LINK_STATUS) == 0) {
 			throw new Exception("Error linking shader code: " + GL20.glGetProgramInfoLog(_programId, 1024));
 		}
 
-		// Keep in only while debugging, unnecessary for release
+		// The shaders aren't needed once they are linked into the program
+		for (ShaderSource source : _shaderSources) {
+			GL20.glDetachShader(_programId, source.shaderId);
+			GL20.glDeleteShader(source.shaderId);
+			source.shaderId = 0;
+		}
+
+		if (_binaryEntryName != null)
+			ProgramBinaryCache.write(_programId, _binaryEntryName);
+	}
+
+	/**
+	 * Validates the program against the current GL state, logging any
+	 * warnings. Slow, so only done when shader validation is enabled in the
+	 * graphics options.
+	 */
+	protected void validateProgram() {
 		GL20.glValidateProgram(_programId);
 		if (GL20.glGetProgrami(_programId, GL20.GL_VALIDATE_STATUS) == 0) {
 			Debug.warn("Warning validing shader code: " + GL20.glGetProgramInfoLog(_programId, 1024));
@@ -88,119 +152,132 @@ public abstract class ShaderProgram {
 	}
 
 	/**
-	 * Registers a uniform (i.e. global variable) for use within our shaders
+	 * Registers a uniform (i.e. global variable) for use within our shaders.
+	 * Locations are looked up once here and kept by the subclass, so setting a
+	 * uniform never has to look it up by name.
 	 * 
 	 * @param uniform
 	 *            the name of the uniform variable to register
+	 * @return the location of the uniform
 	 * @throws Exception
 	 */
-	protected void registerUniform(String uniform) throws Exception {
+	protected int registerUniform(String uniform) throws Exception {
 		// Try to find the variable name from within our shader code
 		int uniformLocation = GL20.glGetUniformLocation(_programId, uniform);
 		if (uniformLocation < 0) {
 			throw new Exception("Could not find uniform: " + uniform);
 		}
-		// We found it, so add it to the list of uniforms
-		_uniforms.put(uniform, uniformLocation);
+		return uniformLocation;
 	}
 
-	protected int getUniform(String uniform) {
-		int location = _uniforms.get(uniform);
-		if (!_uniforms.containsKey(uniform) || location < 0) {
-			throw new RuntimeException("Uniform [" + uniform + "] has not been created");
+	/**
+	 * Registers a uniform block, pointing it at the binding point its uniform
+	 * buffer is bound to
+	 * 
+	 * @param uniformBlock
+	 *            the name of the uniform block to register
+	 * @param bindingPoint
+	 *            the binding point of the block's uniform buffer
+	 * @throws Exception
+	 */
+	protected void registerUniformBlock(String uniformBlock, int bindingPoint) throws Exception {
+		int blockIndex = GL31.glGetUniformBlockIndex(_programId, uniformBlock);
+		if (blockIndex == GL31.GL_INVALID_INDEX) {
+			throw new Exception("Could not find uniform block: " + uniformBlock);
 		}
-		return location;
+		// Block bindings aren't kept in program binaries, so this is always set
+		GL31.glUniformBlockBinding(_programId, blockIndex, bindingPoint);
 	}
 
 	/**
 	 * Sets a vector uniform
 	 * 
-	 * @param uniform
+	 * @param location
 	 * @param value
 	 */
-	protected void setUniform(String uniform, Vector3fc value) {
-		GL20.glUniform3f(getUniform(uniform), value.x(), value.y(), value.z());
+	protected void setUniform(int location, Vector3fc value) {
+		GL20.glUniform3f(location, value.x(), value.y(), value.z());
 	}
 
 	/**
 	 * Sets a boolean uniform
 	 * 
-	 * @param uniform
+	 * @param location
 	 * @param value
 	 */
-	protected void setUniform(String uniform, boolean value) {
-		GL20.glUniform1i(getUniform(uniform), value ? 1 : 0);
+	protected void setUniform(int location, boolean value) {
+		GL20.glUniform1i(location, value ? 1 : 0);
+	}
+
+	/**
+	 * Sets an int uniform
+	 * 
+	 * @param location
+	 * @param value
+	 */
+	protected void setUniform(int location, int value) {
+		GL20.glUniform1i(location, value);
 	}
 
 	/**
 	 * Sets a float uniform
 	 * 
-	 * @param uniform
+	 * @param location
 	 * @param value
 	 */
-	protected void setUniform(String uniform, float value) {
-		GL20.glUniform1f(getUniform(uniform), value);
+	protected void setUniform(int location, float value) {
+		GL20.glUniform1f(location, value);
 	}
 
 	/**
 	 * Sets a matrix uniform
 	 * 
-	 * @param uniform
+	 * @param location
 	 * @param value
 	 */
-	protected void setUniform(String uniform, Matrix4fc value) {
+	protected void setUniform(int location, Matrix4fc value) {
 		value.get(_fb);
-		GL20.glUniformMatrix4fv(getUniform(uniform), false, _fb);
+		GL20.glUniformMatrix4fv(location, false, _fb);
 	}
 
 	/**
-	 * Loads and compiles the vertex shader for this program
+	 * Loads the vertex shader for this program
 	 * 
 	 * @throws Exception
 	 */
 	protected void registerVertexShader() throws Exception {
-		this._vertShaderId = registerShader(_shaderType.toString().toLowerCase() + ".vert", GL20.GL_VERTEX_SHADER);
+		registerShader(_name + ".vert", GL20.GL_VERTEX_SHADER);
 	}
 
 	/**
-	 * Loads and compiles the fragment shader for this program
+	 * Loads the fragment shader for this program
 	 * 
 	 * @throws Exception
 	 */
 	protected void registerFragmentShader() throws Exception {
-		this._fragShaderId = registerShader(_shaderType.toString().toLowerCase() + ".frag", GL20.GL_FRAGMENT_SHADER);
+		registerShader(_name + ".frag", GL20.GL_FRAGMENT_SHADER);
 	}
 
 	/**
-	 * Loads and compiles a generic shader file and returns the new shaderID
+	 * Loads a generic shader file to be compiled into this program. Shaders
+	 * are only compiled once every shader has been registered, and only if
+	 * the program isn't in the program binary cache.
 	 * 
 	 * @param fileName
+	 *            file name of the shader
 	 * @param glShaderType
-	 * @return
+	 *            the GL type of the shader (i.e. GL_VERTEX_SHADER)
+	 * @param defines
+	 *            names to #define before the shader code, so one file can
+	 *            build several variants of a shader
 	 * @throws Exception
 	 */
-	protected int registerShader(String fileName, int glShaderType) throws Exception {
+	protected void registerShader(String fileName, int glShaderType, String... defines) throws Exception {
 		// Load the shader file into a String
 		String shaderCode = ResourceManager.loadShaderFile(fileName);
-
-		// Register a new shader with OpenGL
-		int shaderId = GL20.glCreateShader(glShaderType);
-		if (shaderId == 0) {
-			throw new Exception("Error creating shader. Code: " + shaderCode);
-		}
-		// Load the shader code into the new registered shader
-		GL20.glShaderSource(shaderId, shaderCode);
-		// Compile the shader code
-		GL20.glCompileShader(shaderId);
-
-		// Verify shader compilation succeeded
-		if (GL20.glGetShaderi(shaderId, GL20.GL_COMPILE_STATUS) == 0) {
-			throw new Exception("Error compiling Shader code: " + GL20.glGetShaderInfoLog(shaderId, 1024));
-		}
-
-		// Attach the shader to this program and return the new shaderId
-		GL20.glAttachShader(_programId, shaderId);
-		return shaderId;
+		if (defines.length > 0)
+			shaderCode = insertDefines(shaderCode, defines);
+		_shaderSources.add(new ShaderSource(fileName, glShaderType, shaderCode));
 	}
 
 	/**
@@ -213,14 +290,79 @@ public abstract class ShaderProgram {
 		if (_programId == 0)
 			return;
 
-		// Cleanup the shaders from the program
-		if (_vertShaderId != 0)
-			GL20.glDetachShader(_programId, _vertShaderId);
-		if (_fragShaderId != 0)
-			GL20.glDetachShader(_programId, _fragShaderId);
+		// Cleanup any shaders that never got linked
+		for (ShaderSource source : _shaderSources) {
+			if (source.shaderId != 0) {
+				GL20.glDetachShader(_programId, source.shaderId);
+				GL20.glDeleteShader(source.shaderId);
+			}
+		}
 
 		// Delete the program from memory
-		GL20.glDeleteProgram(_programId);
+		GLStateCache.deleteProgram(_programId);
+	}
+
+	/*
+	 * Inserts the defines after the #version line, which has to stay first
+	 */
+	private static String insertDefines(String shaderCode, String[] defines) {
+		int lineEnd = shaderCode.indexOf('\n');
+		int insertAt = shaderCode.startsWith("#version") && lineEnd >= 0 ? lineEnd + 1 : 0;
+
+		StringBuilder code = new StringBuilder(shaderCode.length() + defines.length * 32);
+		code.append(shaderCode, 0, insertAt);
+		for (String define : defines)
+			code.append("#define ").append(define).append('\n');
+		return code.append(shaderCode, insertAt, shaderCode.length()).toString();
+	}
+
+	/*
+	 * Loads the program from the program binary cache, returns false if it
+	 * needs to be compiled and linked
+	 */
+	private boolean loadProgramBinary() {
+		if (!ProgramBinaryCache.isSupported())
+			return false;
+
+		// Keyed by every source, so changing any shader gives a new entry
+		StringBuilder sources = new StringBuilder();
+		for (ShaderSource source : _shaderSources)
+			sources.append(source.glShaderType).append(':').append(source.fileName).append('\n')
+					.append(source.code).append('\0');
+		_binaryEntryName = ProgramBinaryCache.getEntryName(sources.toString());
+
+		boolean loaded = ProgramBinaryCache.read(_programId, _binaryEntryName);
+		if (loaded)
+			Debug.log("Loaded " + _name + " shader program from its cached binary");
+		return loaded;
+	}
+
+	/*
+	 * Compiles every registered shader and attaches it to the program
+	 */
+	private void compileShaders() throws Exception {
+		for (ShaderSource source : _shaderSources) {
+			// Register a new shader with OpenGL
+			int shaderId = GL20.glCreateShader(source.glShaderType);
+			if (shaderId == 0) {
+				throw new Exception("Error creating shader. Code: " + source.code);
+			}
+			// Load the shader code into the new registered shader
+			GL20.glShaderSource(shaderId, source.code);
+			// Compile the shader code
+			GL20.glCompileShader(shaderId);
+
+			// Verify shader compilation succeeded
+			if (GL20.glGetShaderi(shaderId, GL20.GL_COMPILE_STATUS) == 0) {
+				String log = GL20.glGetShaderInfoLog(shaderId, 1024);
+				GL20.glDeleteShader(shaderId);
+				throw new Exception("Error compiling Shader code (" + source.fileName + "): " + log);
+			}
+
+			// Attach the shader to this program
+			GL20.glAttachShader(_programId, shaderId);
+			source.shaderId = shaderId;
+		}
 	}
 
 	/**
@@ -234,4 +376,26 @@ public abstract class ShaderProgram {
 	 * Register any uniforms for this shader program
 	 */
 	protected abstract void registerUniforms() throws Exception;
+
+	/**
+	 * The source of a registered shader
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	private static class ShaderSource {
+		final String fileName;
+		final int glShaderType;
+		final String code;
+		int shaderId = 0;
+
+		/*
+		 * Constructs a new shader source
+		 */
+		ShaderSource(String fileName, int glShaderType, String code) {
+			this.fileName = fileName;
+			this.glShaderType = glShaderType;
+			this.code = code;
+		}
+	}
 }
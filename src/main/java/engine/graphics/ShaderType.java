@@ -7,5 +7,7 @@ package engine.graphics;
  *
  */
 public enum ShaderType {
-	STANDARD
+	STANDARD,
+	// The standard shader drawing many instances of a mesh in one draw
+	STANDARD_INSTANCED
 }
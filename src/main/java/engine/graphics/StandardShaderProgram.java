@@ -2,17 +2,24 @@ package engine.graphics;
 
 import org.joml.Matrix4fc;
 import org.joml.Vector3fc;
+import org.lwjgl.opengl.GL20;
 
 import engine.common.Defaults;
 
 /**
- * A Scene shader program to hold all of the scene uniforms and shader data
+ * A Scene shader program to hold all of the scene uniforms and shader data.
+ * There are two variants built from the same shader files, one drawing a
+ * single object at a time and one drawing many instances of a mesh at once
+ * with each instance's world view matrix read from a vertex attribute (see
+ * InstanceBuffer). Both share the scene data uniform buffer.
  * 
  * @author brandon.porter
  *
  */
 public class StandardShaderProgram extends ShaderProgram {
 	private static StandardShaderProgram _instance = null;
+	private static StandardShaderProgram _instancedInstance = null;
+	private static UniformBuffer _sceneData = null;
 
 	/**
 	 * @return instance for the standard shader program
@@ -22,63 +29,115 @@ public class StandardShaderProgram extends ShaderProgram {
 	}
 
 	/**
-	 * Initializes the standard shader program if it hasn't been
+	 * @return instance for the instanced variant of the standard shader
+	 *         program
+	 */
+	protected static StandardShaderProgram getInstancedInstance() {
+		return _instancedInstance;
+	}
+
+	/**
+	 * Initializes both variants of the standard shader program if they
+	 * haven't been
 	 * 
 	 * @return instance for the standard shader program
 	 * @throws Exception
 	 */
 	protected static StandardShaderProgram init() throws Exception {
+		if (_sceneData == null)
+			_sceneData = new UniformBuffer(SCENE_DATA_SIZE, SCENE_DATA_BINDING);
 		if (_instance == null)
-			_instance = new StandardShaderProgram();
+			_instance = new StandardShaderProgram(ShaderType.STANDARD);
+		if (_instancedInstance == null)
+			_instancedInstance = new StandardShaderProgram(ShaderType.STANDARD_INSTANCED);
 		return _instance;
 	}
 
+	/**
+	 * Cleans up the scene data uniform buffer, once both variants are
+	 * disposed
+	 */
+	protected static void disposeSceneData() {
+		if (_sceneData != null)
+			_sceneData.dispose();
+		_sceneData = null;
+	}
+
+	private static final String VERTEX_SHADER = "standard.vert";
+	private static final String FRAGMENT_SHADER = "standard.frag";
+	// Defined in the instanced variant's vertex shader
+	private static final String INSTANCED = "INSTANCED";
+
 	private static final String COLOR = "color";
 	private static final String USE_TEXTURE = "useTexture";
-	private static final String PROJECTION_MATRIX = "projectionMatrix";
 	private static final String WORLD_VIEW_MATRIX = "worldViewMatrix";
-	private static final String AMBIENT_LIGHT = "ambientLight";
-	private static final String DIRECTIONAL_LIGHT = "directionalLight";
-	private static final String POINT_LIGHT = "pointLights";
-	private static final String ATTENUATION = "attenuation";
 	private static final String SHININESS = "shininess";
 	private static final String SPECULAR_COLOR = "specularColor";
+	private static final String SCENE_DATA = "SceneData";
+
+	// Binding point of the scene data uniform buffer
+	private static final int SCENE_DATA_BINDING = 0;
+
+	// Byte offsets of the std140 SceneData block, see the shader files
+	private static final int PROJECTION_MATRIX_OFFSET = 0;
+	private static final int AMBIENT_LIGHT_OFFSET = 64;
+	private static final int DIRECTIONAL_LIGHT_OFFSET = 80;
+	private static final int ATTENUATION_OFFSET = 112;
+	private static final int POINT_LIGHTS_OFFSET = 128;
+	private static final int POINT_LIGHT_STRIDE = 64;
+	private static final int SCENE_DATA_SIZE = POINT_LIGHTS_OFFSET
+			+ POINT_LIGHT_STRIDE * Defaults.Lighting.MAX_RENDERED_POINT_LIGHTS_PER_OBJECT;
+
+	// Byte offsets of the members of a light within its struct
+	private static final int LIGHT_COLOR = 0;
+	private static final int LIGHT_INTENSITY = 12;
+	private static final int DIRECTIONAL_LIGHT_DIRECTION = 16;
+	private static final int POINT_LIGHT_POSITION = 16;
+	private static final int POINT_LIGHT_RANGE = 28;
+	private static final int SPOT_LIGHT_DIRECTION = 32;
+	private static final int SPOT_LIGHT_COS_HALF_ANGLE = 44;
+	private static final int SPOT_LIGHT_IS_SPOT = 48;
+
+	// Assigned while the super constructor registers the uniforms, so these
+	// must not have initializers
+	private int _colorLocation;
+	private int _useTextureLocation;
+	private int _worldViewMatrixLocation;
+	private int _shininessLocation;
+	private int _specularColorLocation;
 
-	// Singleton shader
-	private StandardShaderProgram() throws Exception {
-		super(ShaderType.STANDARD);
+	// Singleton shader per variant
+	private StandardShaderProgram(ShaderType shaderType) throws Exception {
+		super(shaderType);
+	}
+
+	/**
+	 * @return true if this is the instanced variant
+	 */
+	public boolean isInstanced() {
+		return getShaderType() == ShaderType.STANDARD_INSTANCED;
 	}
 
 	@Override
 	protected void registerShaders() throws Exception {
-		super.registerVertexShader();
-		super.registerFragmentShader();
+		if (isInstanced())
+			super.registerShader(VERTEX_SHADER, GL20.GL_VERTEX_SHADER, INSTANCED);
+		else
+			super.registerShader(VERTEX_SHADER, GL20.GL_VERTEX_SHADER);
+		super.registerShader(FRAGMENT_SHADER, GL20.GL_FRAGMENT_SHADER);
 	}
 
 	@Override
 	protected void registerUniforms() throws Exception {
-		super.registerUniform(COLOR);
-		super.registerUniform(USE_TEXTURE);
-		super.registerUniform(PROJECTION_MATRIX);
-		super.registerUniform(WORLD_VIEW_MATRIX);
-		super.registerUniform(AMBIENT_LIGHT);
-		super.registerUniform(DIRECTIONAL_LIGHT + ".color");
-		super.registerUniform(DIRECTIONAL_LIGHT + ".intensity");
-		super.registerUniform(DIRECTIONAL_LIGHT + ".direction");
-		for (int i = 0; i < Defaults.Lighting.MAX_RENDERED_POINT_LIGHTS_PER_OBJECT; i++) {
-			super.registerUniform(POINT_LIGHT + "[" + i + "].color");
-			super.registerUniform(POINT_LIGHT + "[" + i + "].intensity");
-			super.registerUniform(POINT_LIGHT + "[" + i + "].position");
-			super.registerUniform(POINT_LIGHT + "[" + i + "].range");
-			// Spotlight specific
-			super.registerUniform(POINT_LIGHT + "[" + i + "].direction");
-			super.registerUniform(POINT_LIGHT + "[" + i + "].cosHalfAngle");
-			super.registerUniform(POINT_LIGHT + "[" + i + "].isSpot");
-		}
-		super.registerUniform(ATTENUATION + ".constant");
-		super.registerUniform(ATTENUATION + ".quadratic");
-		super.registerUniform(SHININESS);
-		super.registerUniform(SPECULAR_COLOR);
+		_colorLocation = super.registerUniform(COLOR);
+		_useTextureLocation = super.registerUniform(USE_TEXTURE);
+		// The instanced variant reads it from the instance buffer instead
+		if (!isInstanced())
+			_worldViewMatrixLocation = super.registerUniform(WORLD_VIEW_MATRIX);
+		_shininessLocation = super.registerUniform(SHININESS);
+		_specularColorLocation = super.registerUniform(SPECULAR_COLOR);
+		// Everything set once per frame lives in the scene data block
+		super.registerUniformBlock(SCENE_DATA, SCENE_DATA_BINDING);
 	}
 
 	/**
@@ -87,24 +146,24 @@ public class StandardShaderProgram extends ShaderProgram {
 	 * @param color
 	 */
 	public void setColor(Vector3fc color) {
-		super.setUniform(COLOR, color);
+		super.setUniform(_colorLocation, color);
 	}
 
 	/**
-	 * Sets the directional light
+	 * Sets the directional light, uploaded with the rest of the scene data
 	 * 
 	 * @param color
 	 * @param direction
 	 * @param intensity
 	 */
 	public void setDirectionalLight(Vector3fc color, Vector3fc direction, float intensity) {
-		super.setUniform(DIRECTIONAL_LIGHT + ".color", color);
-		super.setUniform(DIRECTIONAL_LIGHT + ".direction", direction);
-		super.setUniform(DIRECTIONAL_LIGHT + ".intensity", intensity);
+		_sceneData.set(DIRECTIONAL_LIGHT_OFFSET + LIGHT_COLOR, color);
+		_sceneData.set(DIRECTIONAL_LIGHT_OFFSET + DIRECTIONAL_LIGHT_DIRECTION, direction);
+		_sceneData.set(DIRECTIONAL_LIGHT_OFFSET + LIGHT_INTENSITY, intensity);
 	}
 
 	/**
-	 * Sets a point light
+	 * Sets a point light, uploaded with the rest of the scene data
 	 * 
 	 * @param idx
 	 * @param color
@@ -113,44 +172,58 @@ public class StandardShaderProgram extends ShaderProgram {
 	 * @param radius
 	 */
 	public void setPointLight(int idx, Vector3fc color, Vector3fc position, float intensity, float range) {
-		super.setUniform(POINT_LIGHT + "[" + idx + "].color", color);
-		super.setUniform(POINT_LIGHT + "[" + idx + "].intensity", intensity);
-		super.setUniform(POINT_LIGHT + "[" + idx + "].position", position);
-		super.setUniform(POINT_LIGHT + "[" + idx + "].range", range);
+		int offset = POINT_LIGHTS_OFFSET + idx * POINT_LIGHT_STRIDE;
+		_sceneData.set(offset + LIGHT_COLOR, color);
+		_sceneData.set(offset + LIGHT_INTENSITY, intensity);
+		_sceneData.set(offset + POINT_LIGHT_POSITION, position);
+		_sceneData.set(offset + POINT_LIGHT_RANGE, range);
+		_sceneData.set(offset + SPOT_LIGHT_IS_SPOT, false);
 	}
 
 	/**
-	 * Sets a spot light
+	 * Sets a spot light, uploaded with the rest of the scene data. The point
+	 * light at the same index must be set first.
 	 * 
 	 * @param idx
 	 * @param direction
 	 * @param cosHalfAngle
 	 */
 	public void setSpotLight(int idx, Vector3fc direction, float cosHalfAngle) {
-		super.setUniform(POINT_LIGHT + "[" + idx + "].direction", direction);
-		super.setUniform(POINT_LIGHT + "[" + idx + "].cosHalfAngle", cosHalfAngle);
-		super.setUniform(POINT_LIGHT + "[" + idx + "].isSpot", true);
+		int offset = POINT_LIGHTS_OFFSET + idx * POINT_LIGHT_STRIDE;
+		_sceneData.set(offset + SPOT_LIGHT_DIRECTION, direction);
+		_sceneData.set(offset + SPOT_LIGHT_COS_HALF_ANGLE, cosHalfAngle);
+		_sceneData.set(offset + SPOT_LIGHT_IS_SPOT, true);
+	}
+
+	/**
+	 * Turns off the directional light and every point & spot light, so lights
+	 * removed since the last frame aren't uploaded again
+	 */
+	public void clearLights() {
+		_sceneData.clear(DIRECTIONAL_LIGHT_OFFSET, ATTENUATION_OFFSET - DIRECTIONAL_LIGHT_OFFSET);
+		_sceneData.clear(POINT_LIGHTS_OFFSET, SCENE_DATA_SIZE - POINT_LIGHTS_OFFSET);
 	}
 
 	/**
-	 * Sets the light attenuation equation constants
+	 * Sets the light attenuation equation constants, uploaded with the rest of
+	 * the scene data
 	 * 
 	 * @param constant
-	 * @param linear
 	 * @param quadratic
 	 */
 	public void setLightAttenuation(float constant, float quadratic) {
-		super.setUniform(ATTENUATION + ".constant", constant);
-		super.setUniform(ATTENUATION + ".quadratic", quadratic);
+		_sceneData.set(ATTENUATION_OFFSET, constant);
+		_sceneData.set(ATTENUATION_OFFSET + Float.BYTES, quadratic);
 	}
 
 	/**
-	 * Sets the ambient light of the scene
+	 * Sets the ambient light of the scene, uploaded with the rest of the scene
+	 * data
 	 * 
 	 * @param ambientLight
 	 */
 	public void setAmbientLight(Vector3fc ambientLight) {
-		super.setUniform(AMBIENT_LIGHT, ambientLight);
+		_sceneData.set(AMBIENT_LIGHT_OFFSET, ambientLight);
 	}
 
 	/**
@@ -160,8 +233,8 @@ public class StandardShaderProgram extends ShaderProgram {
 	 * @param specularColor
 	 */
 	public void setSpecular(float shininess, Vector3fc specularColor) {
-		super.setUniform(SHININESS, shininess);
-		super.setUniform(SPECULAR_COLOR, specularColor);
+		super.setUniform(_shininessLocation, shininess);
+		super.setUniform(_specularColorLocation, specularColor);
 	}
 
 	/**
@@ -170,24 +243,33 @@ public class StandardShaderProgram extends ShaderProgram {
 	 * @param useTexture
 	 */
 	public void useTexture(boolean useTexture) {
-		super.setUniform(USE_TEXTURE, useTexture);
+		super.setUniform(_useTextureLocation, useTexture);
 	}
 
 	/**
-	 * Sets the projection matrix uniform for the object
+	 * Sets the projection matrix, uploaded with the rest of the scene data
 	 * 
 	 * @param projection
 	 */
 	public void setProjectionMatrix(Matrix4fc projection) {
-		super.setUniform(PROJECTION_MATRIX, projection);
+		_sceneData.set(PROJECTION_MATRIX_OFFSET, projection);
+	}
+
+	/**
+	 * Uploads the projection matrix, lights and attenuation set since the last
+	 * upload, once per frame before anything is rendered
+	 */
+	public void uploadSceneData() {
+		_sceneData.upload();
 	}
 
 	/**
-	 * Sets the world view matrix uniform for the object
+	 * Sets the world view matrix uniform for the object, only used by the
+	 * variant that isn't instanced
 	 * 
 	 * @param worldView
 	 */
 	public void setWorldViewMatrix(Matrix4fc worldView) {
-		super.setUniform(WORLD_VIEW_MATRIX, worldView);
+		super.setUniform(_worldViewMatrixLocation, worldView);
 	}
 }
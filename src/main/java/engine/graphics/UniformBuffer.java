@@ -0,0 +1,131 @@
+package engine.graphics;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+
+/**
+ * A uniform buffer object, holding a std140 uniform block shared by every
+ * shader program bound to the same binding point. Values are written into a
+ * staging buffer by their byte offset within the block, then the whole block
+ * is sent to the GPU with a single upload.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public class UniformBuffer {
+	private final int _bufferId;
+	private final int _bindingPoint;
+	private final ByteBuffer _data;
+
+	/**
+	 * Constructs a uniform buffer and binds it to its binding point
+	 * 
+	 * @param sizeBytes
+	 *            size of the uniform block in bytes, as laid out by std140
+	 * @param bindingPoint
+	 *            the binding point shader programs find the block at
+	 * @throws Exception
+	 */
+	public UniformBuffer(int sizeBytes, int bindingPoint) throws Exception {
+		this._bindingPoint = bindingPoint;
+		this._data = BufferUtils.createByteBuffer(sizeBytes);
+
+		this._bufferId = GL15.glGenBuffers();
+		if (_bufferId == 0) {
+			throw new Exception("Could not create uniform buffer");
+		}
+
+		GLStateCache.bindBuffer(GL31.GL_UNIFORM_BUFFER, _bufferId);
+		GL15.glBufferData(GL31.GL_UNIFORM_BUFFER, sizeBytes, GL15.GL_DYNAMIC_DRAW);
+		GLStateCache.bindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+
+		// The binding is global state, so it only has to be made once
+		GLStateCache.bindBufferBase(GL31.GL_UNIFORM_BUFFER, bindingPoint, _bufferId);
+	}
+
+	/**
+	 * @return the binding point shader programs find the block at
+	 */
+	public int getBindingPoint() {
+		return _bindingPoint;
+	}
+
+	/**
+	 * Sets a vector in the block
+	 * 
+	 * @param offset
+	 *            byte offset of the vector within the block
+	 * @param value
+	 */
+	public void set(int offset, Vector3fc value) {
+		value.get(offset, _data);
+	}
+
+	/**
+	 * Sets a float in the block
+	 * 
+	 * @param offset
+	 *            byte offset of the float within the block
+	 * @param value
+	 */
+	public void set(int offset, float value) {
+		_data.putFloat(offset, value);
+	}
+
+	/**
+	 * Sets a boolean in the block, which std140 stores as a 4 byte int
+	 * 
+	 * @param offset
+	 *            byte offset of the boolean within the block
+	 * @param value
+	 */
+	public void set(int offset, boolean value) {
+		_data.putInt(offset, value ? 1 : 0);
+	}
+
+	/**
+	 * Sets a column major matrix in the block
+	 * 
+	 * @param offset
+	 *            byte offset of the matrix within the block
+	 * @param value
+	 */
+	public void set(int offset, Matrix4fc value) {
+		value.get(offset, _data);
+	}
+
+	/**
+	 * Zeroes part of the block
+	 * 
+	 * @param offset
+	 *            byte offset of the first byte to clear
+	 * @param length
+	 *            amount of bytes to clear
+	 */
+	public void clear(int offset, int length) {
+		for (int i = offset; i < offset + length; i += Integer.BYTES)
+			_data.putInt(i, 0);
+	}
+
+	/**
+	 * Sends the whole block to the GPU
+	 */
+	public void upload() {
+		GLStateCache.bindBuffer(GL31.GL_UNIFORM_BUFFER, _bufferId);
+		GL15.glBufferSubData(GL31.GL_UNIFORM_BUFFER, 0, _data);
+		GLStateCache.bindBuffer(GL31.GL_UNIFORM_BUFFER, 0);
+	}
+
+	/**
+	 * Cleans up the uniform buffer
+	 */
+	public void dispose() {
+		GLStateCache.bindBufferBase(GL31.GL_UNIFORM_BUFFER, _bindingPoint, 0);
+		GLStateCache.deleteBuffer(_bufferId);
+	}
+}
@@ -1,8 +1,10 @@
 package engine.graphics.components;
 
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL31;
 
 import engine.common.Component;
+import engine.graphics.InstanceBuffer;
 import engine.graphics.geometry.Material;
 import engine.graphics.geometry.Mesh;
 import engine.utils.Debug;
@@ -16,6 +18,7 @@ import engine.utils.Debug;
 public class MeshRenderer extends Component {
 	private final Mesh _mesh;
 	private final Material _material;
+	private boolean _occluder = false;
 
 	/**
 	 * Constructs a mesh renderer for a mesh and specific material
@@ -52,6 +55,26 @@ public class MeshRenderer extends Component {
 		return _material;
 	}
 
+	/**
+	 * @return true if the mesh hides what is behind it from the occlusion
+	 *         culler
+	 */
+	public boolean isOccluder() {
+		return _occluder;
+	}
+
+	/**
+	 * Sets whether the mesh is drawn into the occlusion culler's depth
+	 * buffer. Best kept to large, solid and simple meshes (i.e. walls,
+	 * buildings and terrain).
+	 * 
+	 * @param occluder
+	 *            true to hide what is behind the mesh
+	 */
+	public void setOccluder(boolean occluder) {
+		this._occluder = occluder;
+	}
+
 	/**
 	 * Add the mesh to the scene renderer
 	 */
@@ -73,11 +96,32 @@ public class MeshRenderer extends Component {
 		// Bind VAO
 		_mesh.getVAO().use();
 
-		// Draw game object
-		GL11.glDrawElements(GL11.GL_TRIANGLES, _mesh.getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+		// Draw game object, the VAO stays bound for the next draw
+		GL11.glDrawElements(GL11.GL_TRIANGLES, _mesh.getVertexCount(), _mesh.getIndexType(), 0);
+	}
+
+	/**
+	 * Renders every instance in the instance buffer with this renderer's mesh
+	 * in a single draw, the instanced standard shader must be bound
+	 * 
+	 * @param instances
+	 *            the world view matrix of each instance
+	 */
+	public void renderInstanced(InstanceBuffer instances) {
+		if (!_mesh.isLoaded()) {
+			Debug.error("Trying to render a mesh that isn't loaded yet: " + _mesh.getName());
+			return;
+		}
+		// Bind VAO and the instance attributes
+		_mesh.getVAO().use();
+		instances.bind();
+
+		// Draw every instance
+		GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, _mesh.getVertexCount(), _mesh.getIndexType(), 0,
+				instances.getCount());
 
-		// Unbind
-		_mesh.getVAO().done();
+		// Unbind the instance attributes, the VAO stays bound
+		instances.unbind();
 	}
 
 	/**
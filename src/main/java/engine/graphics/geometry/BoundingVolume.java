@@ -0,0 +1,138 @@
+package engine.graphics.geometry;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+/**
+ * The local space bounds of a mesh: an axis aligned box, given by its center
+ * and half extents, and a sphere around the same center that encloses every
+ * vertex. The sphere is often tighter than the box's corners (i.e. round
+ * meshes), so both are kept and whichever is tighter is used when culling.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class BoundingVolume {
+	/**
+	 * Bounds of a mesh without any vertices
+	 */
+	public static final BoundingVolume EMPTY = new BoundingVolume(0, 0, 0, 0, 0, 0, 0);
+
+	public final float centerX;
+	public final float centerY;
+	public final float centerZ;
+	public final float extentX;
+	public final float extentY;
+	public final float extentZ;
+	public final float radius;
+
+	/**
+	 * Constructs a new bounding volume
+	 * 
+	 * @param centerX
+	 * @param centerY
+	 * @param centerZ
+	 * @param extentX
+	 *            half the width of the box
+	 * @param extentY
+	 *            half the height of the box
+	 * @param extentZ
+	 *            half the depth of the box
+	 * @param radius
+	 *            radius of the sphere around the center
+	 */
+	public BoundingVolume(float centerX, float centerY, float centerZ, float extentX, float extentY, float extentZ,
+			float radius) {
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.centerZ = centerZ;
+		this.extentX = extentX;
+		this.extentY = extentY;
+		this.extentZ = extentZ;
+		this.radius = radius;
+	}
+
+	/**
+	 * Transforms the box into world space, giving the world aligned box that
+	 * encloses it
+	 * 
+	 * @param localToWorld
+	 *            the local to world matrix of the object
+	 * @param center
+	 *            set to the center of the world box
+	 * @param extents
+	 *            set to the half extents of the world box
+	 */
+	public void transform(Matrix4fc localToWorld, Vector3f center, Vector3f extents) {
+		Matrix4fc m = localToWorld;
+		center.set(m.m00() * centerX + m.m10() * centerY + m.m20() * centerZ + m.m30(),
+				m.m01() * centerX + m.m11() * centerY + m.m21() * centerZ + m.m31(),
+				m.m02() * centerX + m.m12() * centerY + m.m22() * centerZ + m.m32());
+
+		// Each world axis reaches as far as the rotated local axes do along it,
+		// see Arvo's method
+		extents.set(Math.abs(m.m00()) * extentX + Math.abs(m.m10()) * extentY + Math.abs(m.m20()) * extentZ,
+				Math.abs(m.m01()) * extentX + Math.abs(m.m11()) * extentY + Math.abs(m.m21()) * extentZ,
+				Math.abs(m.m02()) * extentX + Math.abs(m.m12()) * extentY + Math.abs(m.m22()) * extentZ);
+	}
+
+	/**
+	 * Computes the bounds of packed (x, y, z) vertex positions
+	 * 
+	 * @param positions
+	 *            the vertex positions
+	 * @return the bounds of the positions
+	 */
+	public static BoundingVolume fromPositions(float[] positions) {
+		int vertexCount = positions.length / 3;
+		if (vertexCount == 0)
+			return EMPTY;
+
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			minX = Math.min(minX, positions[i]);
+			minY = Math.min(minY, positions[i + 1]);
+			minZ = Math.min(minZ, positions[i + 2]);
+			maxX = Math.max(maxX, positions[i]);
+			maxY = Math.max(maxY, positions[i + 1]);
+			maxZ = Math.max(maxZ, positions[i + 2]);
+		}
+
+		float centerX = (minX + maxX) * 0.5f;
+		float centerY = (minY + maxY) * 0.5f;
+		float centerZ = (minZ + maxZ) * 0.5f;
+
+		// The sphere shares the box's center, so culling only needs one
+		// center per object
+		float radiusSquared = 0;
+		for (int i = 0; i < vertexCount * 3; i += 3) {
+			float dx = positions[i] - centerX;
+			float dy = positions[i + 1] - centerY;
+			float dz = positions[i + 2] - centerZ;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+
+		return new BoundingVolume(centerX, centerY, centerZ, (maxX - minX) * 0.5f, (maxY - minY) * 0.5f,
+				(maxZ - minZ) * 0.5f, (float) Math.sqrt(radiusSquared));
+	}
+
+	/**
+	 * Computes the bounds of the vertices of a raw position attribute
+	 * 
+	 * @param position
+	 *            the position attribute
+	 * @param vertexCount
+	 *            the number of vertices described by the attribute
+	 * @return the bounds of the positions
+	 */
+	public static BoundingVolume fromAttribute(VertexAttribute position, int vertexCount) {
+		int size = VBO.POSITION.getAttrSize();
+		float[] positions = new float[vertexCount * size];
+		for (int i = 0; i < vertexCount; i++) {
+			for (int j = 0; j < size; j++)
+				positions[i * size + j] = position.getComponent(i, j);
+		}
+		return fromPositions(positions);
+	}
+}
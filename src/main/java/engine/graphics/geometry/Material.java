@@ -2,10 +2,10 @@ package engine.graphics.geometry;
 
 import org.joml.Vector3f;
 import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL13;
 
 import engine.common.Defaults;
 import engine.common.Entity;
+import engine.graphics.GLStateCache;
 import engine.graphics.ShaderType;
 import engine.graphics.StandardShaderProgram;
 import engine.utils.math.MathUtils;
@@ -82,19 +82,10 @@ public class Material extends Entity {
 		boolean hasTexture = hasTexture();
 		shaderProgram.useTexture(hasTexture);
 
-		if (hasTexture) {
-			GL13.glActiveTexture(GL13.GL_TEXTURE0);
-			GL11.glBindTexture(GL11.GL_TEXTURE_2D, getTexture().getTextureId());
-		}
-	}
-
-	/**
-	 * TEMPORARY
-	 */
-	public final void renderEnd() {
-		if (hasTexture()) {
-			GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-		}
+		// The texture is left bound afterwards, materials sharing it skip
+		// binding it again
+		if (hasTexture)
+			GLStateCache.bindTexture(0, GL11.GL_TEXTURE_2D, getTexture().getTextureId());
 	}
 
 	/**
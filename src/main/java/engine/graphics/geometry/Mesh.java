@@ -1,7 +1,15 @@
 package engine.graphics.geometry;
 
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.lwjgl.opengl.GL11;
+
 import engine.common.Entity;
 import engine.utils.Debug;
+import engine.utils.Utils;
 
 /**
  * Represents the geometric vertices for a game object
@@ -14,8 +22,15 @@ public class Mesh extends Entity {
 
 	private VAO _vao;
 	private MeshVBOData _vboData;
+	private VertexAttribute[] _attributes;
+	private ByteBuffer _indexData;
+	private int _indexType = GL11.GL_UNSIGNED_INT;
+	private int _attributeVertexCount = 0;
 	private int _vertexCount = -1;
 	private int _triangleCount = -1;
+	private BoundingVolume _bounds = null;
+	// Replaced whenever the mesh is unloaded, so it can be loaded again
+	private volatile CompletableFuture<Mesh> _resident = new CompletableFuture<>();
 
 	public Mesh() {
 		super(ENTITY_NAME);
@@ -41,6 +56,27 @@ public class Mesh extends Entity {
 		return _vao != null;
 	}
 
+	/**
+	 * A future that completes as soon as the mesh's VAO has been registered
+	 * with opengl (on the main thread), or exceptionally if loading failed
+	 * 
+	 * @return the residency future of the mesh
+	 */
+	public final CompletableFuture<Mesh> whenResident() {
+		return _resident;
+	}
+
+	/**
+	 * Marks the mesh as failed to load, completing its residency future
+	 * exceptionally
+	 * 
+	 * @param cause
+	 *            why the mesh failed to load
+	 */
+	public void setLoadFailed(Throwable cause) {
+		_resident.completeExceptionally(cause);
+	}
+
 	/**
 	 * @return the number of vertices for this mesh
 	 */
@@ -48,6 +84,14 @@ public class Mesh extends Entity {
 		return _vertexCount;
 	}
 
+	/**
+	 * @return the GL type of the indices (GL_UNSIGNED_INT, GL_UNSIGNED_SHORT
+	 *         or GL_UNSIGNED_BYTE)
+	 */
+	public int getIndexType() {
+		return _indexType;
+	}
+
 	/**
 	 * @return the number of triangles as determined by the index list
 	 */
@@ -55,6 +99,13 @@ public class Mesh extends Entity {
 		return _triangleCount;
 	}
 
+	/**
+	 * @return the local space bounds of the mesh, or null if it isn't loaded
+	 */
+	public BoundingVolume getBounds() {
+		return _bounds;
+	}
+
 	/**
 	 * Registers the vbo data with opengl. [WARNING] - This MUST be called from
 	 * the main thread.
@@ -66,6 +117,7 @@ public class Mesh extends Entity {
 		this._vboData = vboData;
 		this._vertexCount = vboData.indices.length;
 		this._triangleCount = vboData.indices.length / 3;
+		this._bounds = BoundingVolume.fromPositions(vboData.vertexPositions);
 
 		Debug.log("Loading new mesh with Triangles: " + _triangleCount + ", Vertices: " + _vertexCount);
 		
@@ -85,6 +137,149 @@ public class Mesh extends Entity {
 
 		// Unbind and return new vao
 		_vao.done();
+		_resident.complete(this);
+	}
+
+	/**
+	 * Registers already interleaved (position, texture, normal) vbo data with
+	 * opengl, i.e. straight from a memory mapped file. [WARNING] - This MUST
+	 * be called from the main thread.
+	 * 
+	 * @param indexCount
+	 *            the number of indices
+	 * @param interleavedData
+	 *            direct buffer of the interleaved vertex floats
+	 * @param indexData
+	 *            direct buffer of the index ints
+	 */
+	public void loadVAO(int indexCount, ByteBuffer interleavedData, ByteBuffer indexData) {
+		VertexAttribute[] attributes = createInterleavedAttributes(interleavedData);
+		loadVAO(interleavedData.remaining() / attributes[0].stride, attributes, indexCount, GL11.GL_UNSIGNED_INT,
+				indexData);
+	}
+
+	/**
+	 * Describes the attributes of interleaved (position, texture, normal)
+	 * float vertex data
+	 * 
+	 * @param interleavedData
+	 *            direct buffer of the interleaved vertex floats
+	 * @return the position, texture and normal attributes
+	 */
+	public static VertexAttribute[] createInterleavedAttributes(ByteBuffer interleavedData) {
+		// Same order as loadVAO(MeshVBOData), the data is just already
+		// interleaved
+		int stride = (VBO.POSITION.getAttrSize() + VBO.TEXTURE.getAttrSize() + VBO.NORMAL.getAttrSize()) * Utils.FLOAT_SIZE_BYTES;
+		return new VertexAttribute[] {
+				new VertexAttribute(VBO.POSITION, interleavedData, GL11.GL_FLOAT, false, stride, 0),
+				new VertexAttribute(VBO.TEXTURE, interleavedData, GL11.GL_FLOAT, false, stride,
+						VBO.POSITION.getAttrSize() * Utils.FLOAT_SIZE_BYTES),
+				new VertexAttribute(VBO.NORMAL, interleavedData, GL11.GL_FLOAT, false, stride,
+						(VBO.POSITION.getAttrSize() + VBO.TEXTURE.getAttrSize()) * Utils.FLOAT_SIZE_BYTES) };
+	}
+
+	/**
+	 * Registers raw vertex data with opengl, the buffers are uploaded as is
+	 * (i.e. straight from a memory mapped file). Attributes that share the
+	 * same buffer share the same vbo. [WARNING] - This MUST be called from the
+	 * main thread.
+	 * 
+	 * @param vertexCount
+	 *            the number of vertices described by the attributes
+	 * @param attributes
+	 *            the attributes of the mesh
+	 * @param indexCount
+	 *            the number of indices
+	 * @param indexType
+	 *            the GL type of the indices
+	 * @param indexData
+	 *            direct buffer of the indices
+	 */
+	public void loadVAO(int vertexCount, VertexAttribute[] attributes, int indexCount, int indexType,
+			ByteBuffer indexData) {
+		loadVAO(vertexCount, attributes, indexCount, indexType, indexData, null);
+	}
+
+	/**
+	 * Registers raw vertex data with opengl, like above, except any buffer
+	 * found in uploadedBuffers has already been uploaded (i.e. in chunks over
+	 * several frames) and is only attached. [WARNING] - This MUST be called
+	 * from the main thread.
+	 * 
+	 * @param vertexCount
+	 *            the number of vertices described by the attributes
+	 * @param attributes
+	 *            the attributes of the mesh
+	 * @param indexCount
+	 *            the number of indices
+	 * @param indexType
+	 *            the GL type of the indices
+	 * @param indexData
+	 *            direct buffer of the indices
+	 * @param uploadedBuffers
+	 *            ids of the already uploaded buffers by their data, or null
+	 */
+	public void loadVAO(int vertexCount, VertexAttribute[] attributes, int indexCount, int indexType,
+			ByteBuffer indexData, Map<ByteBuffer, Integer> uploadedBuffers) {
+		this._attributes = attributes;
+		this._attributeVertexCount = vertexCount;
+		this._indexData = indexData;
+		this._indexType = indexType;
+		this._vertexCount = indexCount;
+		this._triangleCount = indexCount / 3;
+		this._bounds = computeBounds(vertexCount, attributes);
+
+		Debug.log("Loading new mesh with Triangles: " + _triangleCount + ", Vertices: " + _vertexCount);
+
+		// Create and bind new VAO
+		this._vao = new VAO();
+		_vao.use();
+
+		// Upload each buffer once, no matter how many attributes it holds
+		Map<ByteBuffer, Integer> bufferIds = new IdentityHashMap<>();
+		for (VertexAttribute attribute : attributes) {
+			Integer bufferId = bufferIds.get(attribute.data);
+			if (bufferId == null) {
+				bufferId = uploadedBuffers != null ? uploadedBuffers.get(attribute.data) : null;
+				if (bufferId != null)
+					_vao.attachBuffer(VBO.INTERLEAVED, bufferId);
+				else
+					bufferId = _vao.bindBuffer(VBO.INTERLEAVED, attribute.data);
+				bufferIds.put(attribute.data, bufferId);
+			}
+			_vao.bindAttribute(attribute.vbo, bufferId, attribute.dataType, attribute.normalized, attribute.stride,
+					attribute.offset);
+		}
+
+		Integer indexBufferId = uploadedBuffers != null ? uploadedBuffers.get(indexData) : null;
+		if (indexBufferId != null)
+			_vao.attachBuffer(VBO.INDEX, indexBufferId);
+		else
+			_vao.bindBuffer(VBO.INDEX, indexData);
+
+		// Unbind and return new vao
+		_vao.done();
+		_resident.complete(this);
+	}
+
+	/**
+	 * Frees the VAO/VBOS of the mesh but keeps the mesh itself, so anything
+	 * holding on to it sees it loaded again once it is reloaded. [WARNING] -
+	 * This MUST be called from the main thread.
+	 */
+	public void unload() {
+		if (_vao != null) {
+			_vao.dispose();
+			_vao = null;
+		}
+
+		// Drop the source data too, the next load reads it again
+		_vboData = null;
+		_attributes = null;
+		_bounds = null;
+		_indexData = null;
+		if (_resident.isDone())
+			_resident = new CompletableFuture<>();
 	}
 
 	/**
@@ -98,6 +293,10 @@ public class Mesh extends Entity {
 	 * @return the vertices for this mesh
 	 */
 	public MeshVBOData getVBOData() {
+		// Meshes loaded from raw buffers only read them back into arrays if
+		// it is ever asked for
+		if (_vboData == null && _attributes != null)
+			_vboData = readVBOData(_attributeVertexCount, _attributes, _indexType, _indexData);
 		return _vboData;
 	}
 
@@ -106,7 +305,55 @@ public class Mesh extends Entity {
 	 */
 	@Override
 	protected void onDispose() {
-		_vao.dispose();
+		if (_vao != null)
+			_vao.dispose();
+	}
+
+	/*
+	 * Computes the bounds from the position attribute, a mesh without one is
+	 * treated as empty
+	 */
+	private static BoundingVolume computeBounds(int vertexCount, VertexAttribute[] attributes) {
+		for (VertexAttribute attribute : attributes) {
+			if (attribute.vbo == VBO.POSITION)
+				return BoundingVolume.fromAttribute(attribute, vertexCount);
+		}
+		return BoundingVolume.EMPTY;
+	}
+
+	/*
+	 * Reads raw attribute and index buffers back into vbo data arrays, any
+	 * missing attribute is left as zeros
+	 */
+	private static MeshVBOData readVBOData(int vertexCount, VertexAttribute[] attributes, int indexType,
+			ByteBuffer indexData) {
+		float[] positions = new float[vertexCount * VBO.POSITION.getAttrSize()];
+		float[] texCoords = new float[vertexCount * VBO.TEXTURE.getAttrSize()];
+		float[] normals = new float[vertexCount * VBO.NORMAL.getAttrSize()];
+
+		for (VertexAttribute attribute : attributes) {
+			float[] values = attribute.vbo == VBO.POSITION ? positions
+					: attribute.vbo == VBO.TEXTURE ? texCoords : normals;
+			int size = attribute.vbo.getAttrSize();
+			for (int i = 0; i < vertexCount; i++) {
+				for (int j = 0; j < size; j++)
+					values[i * size + j] = attribute.getComponent(i, j);
+			}
+		}
+
+		int indexSize = VertexAttribute.getComponentSize(indexType);
+		int[] indices = new int[indexData.remaining() / indexSize];
+		for (int i = 0; i < indices.length; i++) {
+			int index = indexData.position() + i * indexSize;
+			if (indexType == GL11.GL_UNSIGNED_BYTE)
+				indices[i] = indexData.get(index) & 0xFF;
+			else if (indexType == GL11.GL_UNSIGNED_SHORT)
+				indices[i] = indexData.getShort(index) & 0xFFFF;
+			else
+				indices[i] = indexData.getInt(index);
+		}
+
+		return new MeshVBOData(positions, texCoords, normals, indices);
 	}
 
 	/**
@@ -1,8 +1,11 @@
 package engine.graphics.geometry;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.lwjgl.opengl.GL11;
 
 import engine.common.Entity;
+import engine.graphics.GLStateCache;
 
 /**
  * Represents a texture being stored in graphics VRAM
@@ -16,6 +19,9 @@ public class Texture extends Entity {
 	private int _id = -1;
 	private int _width;
 	private int _height;
+	private long _sizeBytes = 0;
+	// Replaced whenever the texture is unloaded, so it can be loaded again
+	private volatile CompletableFuture<Texture> _resident = new CompletableFuture<>();
 
 	/**
 	 * Constructs a new texture with the name "Texture"
@@ -44,6 +50,27 @@ public class Texture extends Entity {
 		return getTextureId() >= 0;
 	}
 	
+	/**
+	 * A future that completes as soon as the texture has been uploaded to
+	 * graphics memory (on the main thread), or exceptionally if loading failed
+	 * 
+	 * @return the residency future of the texture
+	 */
+	public final CompletableFuture<Texture> whenResident() {
+		return _resident;
+	}
+
+	/**
+	 * Marks the texture as failed to load, completing its residency future
+	 * exceptionally
+	 * 
+	 * @param cause
+	 *            why the texture failed to load
+	 */
+	public void setLoadFailed(Throwable cause) {
+		_resident.completeExceptionally(cause);
+	}
+
 	/**
 	 * @return OpenGL reference id for the texture
 	 */
@@ -59,6 +86,8 @@ public class Texture extends Entity {
 	 */
 	public void setTextureId(int id) {
 		this._id = id;
+		if (id >= 0)
+			_resident.complete(this);
 	}
 
 	/**
@@ -95,13 +124,45 @@ public class Texture extends Entity {
 		this._height = height;
 	}
 
+	/**
+	 * @return the size of the texture (and its mip chain) in graphics memory
+	 *         in bytes, 0 if it isn't loaded
+	 */
+	public long getSizeBytes() {
+		return _sizeBytes;
+	}
+
+	/**
+	 * Sets the size the texture takes up in graphics memory
+	 * 
+	 * @param sizeBytes
+	 *            size of the texture and its mip chain in bytes
+	 */
+	public void setSizeBytes(long sizeBytes) {
+		this._sizeBytes = sizeBytes;
+	}
+
+	/**
+	 * Removes the texture from graphics vram but keeps the texture itself, so
+	 * anything holding on to it sees it loaded again once it is reloaded.
+	 * [WARNING] - This MUST be called from the main thread.
+	 */
+	public void unload() {
+		if (isLoaded())
+			GLStateCache.deleteTexture(_id);
+		_id = -1;
+		_sizeBytes = 0;
+		if (_resident.isDone())
+			_resident = new CompletableFuture<>();
+	}
+
 	/**
 	 * Removes texture from graphics vram
 	 */
 	@Override
 	protected void onDispose() {
 		if (isLoaded())
-			GL11.glDeleteTextures(_id);
+			GLStateCache.deleteTexture(_id);
 	}
 
 	/**
@@ -147,5 +208,12 @@ public class Texture extends Entity {
 		 * will be used automatically when the object is scaled
 		 */
 		public boolean useMipmap = true;
+
+		/**
+		 * Whether the mipmap levels are averaged in linear space. Should be
+		 * true for colors stored in sRGB and false for data textures (i.e.
+		 * normal maps) whose values are already linear
+		 */
+		public boolean gammaCorrectMipmap = true;
 	}
 }
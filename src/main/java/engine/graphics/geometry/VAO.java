@@ -1,5 +1,6 @@
 package engine.graphics.geometry;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,6 +9,7 @@ import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 
+import engine.graphics.GLStateCache;
 import engine.utils.Debug;
 import engine.utils.Utils;
 
@@ -21,6 +23,7 @@ import engine.utils.Utils;
 public class VAO implements IBindable {
 	private final int _vaoId;
 	private final List<Integer> _vbos = new ArrayList<>();
+	private long _sizeBytes = 0;
 
 	private int _attributeCount = 0;
 
@@ -32,17 +35,12 @@ public class VAO implements IBindable {
 	}
 
 	/**
-	 * Sets this as the active VAO for openGL
+	 * Sets this as the active VAO for openGL. Attributes are enabled as part
+	 * of the VAO's own state when they are stored, so only the VAO is bound.
 	 */
 	@Override
 	public void use() {
-		// Bind the VAO
-		GL30.glBindVertexArray(_vaoId);
-
-		// Bind each attribute
-		for (int i = 0; i < _attributeCount; i++) {
-			GL20.glEnableVertexAttribArray(i);
-		}
+		GLStateCache.bindVertexArray(_vaoId);
 	}
 
 	/**
@@ -53,6 +51,7 @@ public class VAO implements IBindable {
 	 * @throws Exception
 	 */
 	public void bindVBO(VBO vbo, float[] data) {
+		_sizeBytes += (long) data.length * Utils.FLOAT_SIZE_BYTES;
 		_vbos.add(vbo.bindData(data));
 		storeVBO(vbo, GL11.GL_FLOAT);
 	}
@@ -65,6 +64,7 @@ public class VAO implements IBindable {
 	 * @throws Exception
 	 */
 	public void bindVBO(VBO vbo, int[] data) {
+		_sizeBytes += (long) data.length * Integer.BYTES;
 		_vbos.add(vbo.bindData(data));
 		storeVBO(vbo, GL11.GL_INT);
 	}
@@ -88,33 +88,116 @@ public class VAO implements IBindable {
 
 		// Interleave the data
 		float[] interleavedData = interleaveFloatData(vertexCount, data);
+		_sizeBytes += (long) interleavedData.length * Utils.FLOAT_SIZE_BYTES;
 		_vbos.add(VBO.INTERLEAVED.bindData(interleavedData));
-		
-		// Compute the size of an element (holds one of each vbo) in bytes
-		int totalSize = 0;
-		for (int i = 0; i < vbos.length; i++)
-			totalSize += vbos[i].getAttrSize();
-		int vertexByteLength = totalSize * Utils.FLOAT_SIZE_BYTES;
-		
-		// Store the vbo as an attribute
-		for (int i = 0, currOffset = 0; i < vbos.length; i++) {
-			storeVBO(vbos[i], GL11.GL_FLOAT, vertexByteLength, (currOffset * Utils.FLOAT_SIZE_BYTES), (i+1 == vbos.length));
-			currOffset += vbos[i].getAttrSize();
-		}
+		storeInterleavedVBOs(vbos);
+	}
+
+	/**
+	 * Creates a vertex buffer object for this VAO out of already interleaved
+	 * float data, see bindInterleavedVBO(int, VBO[], float[][])
+	 * 
+	 * @param vbos
+	 *            the vbos in the order they are interleaved
+	 * @param data
+	 *            direct buffer of the interleaved floats
+	 */
+	public void bindInterleavedVBO(VBO[] vbos, ByteBuffer data) {
+		_sizeBytes += data.remaining();
+		_vbos.add(VBO.INTERLEAVED.bindData(data));
+		storeInterleavedVBOs(vbos);
+	}
+
+	/**
+	 * Creates a vertex buffer object for this VAO out of raw data. Attribute
+	 * data is expected to be floats and index data to be ints
+	 * 
+	 * @param vbo
+	 * @param data
+	 *            direct buffer of the data
+	 */
+	public void bindVBO(VBO vbo, ByteBuffer data) {
+		_sizeBytes += data.remaining();
+		_vbos.add(vbo.bindData(data));
+		storeVBO(vbo, vbo.isAttribute() ? GL11.GL_FLOAT : GL11.GL_INT);
+	}
+
+	/**
+	 * Creates a buffer for this VAO out of raw data without describing any
+	 * attributes, so the same buffer can back several attributes (see
+	 * bindAttribute). Index buffers are attached to the VAO straight away.
+	 * 
+	 * @param vbo
+	 *            the type of buffer
+	 * @param data
+	 *            direct buffer of the data
+	 * @return the id of the new buffer
+	 */
+	public int bindBuffer(VBO vbo, ByteBuffer data) {
+		_sizeBytes += data.remaining();
+		int bufferId = vbo.bindData(data);
+		_vbos.add(bufferId);
+		return bufferId;
+	}
+
+	/**
+	 * Attaches a buffer that was already created and filled (i.e. uploaded in
+	 * chunks over several frames) to this VAO, which then owns it. Index
+	 * buffers are attached to the VAO straight away.
+	 * 
+	 * @param vbo
+	 *            the type of buffer
+	 * @param bufferId
+	 *            the id of the buffer
+	 */
+	public void attachBuffer(VBO vbo, int bufferId) {
+		GLStateCache.bindBuffer(vbo.getBufferTarget(), bufferId);
+		_sizeBytes += GL15.glGetBufferParameteri(vbo.getBufferTarget(), GL15.GL_BUFFER_SIZE);
+		_vbos.add(bufferId);
+	}
+
+	/**
+	 * Describes an attribute stored in a buffer created by bindBuffer. The
+	 * attribute is stored at the vbo's attribute location.
+	 * 
+	 * @param vbo
+	 *            the attribute
+	 * @param bufferId
+	 *            the buffer holding the attribute
+	 * @param dataType
+	 *            the GL type of each component (i.e. GL_FLOAT)
+	 * @param normalized
+	 *            whether integer components are normalized to [0, 1]
+	 * @param stride
+	 *            bytes between each vertex, or 0 if tightly packed
+	 * @param offset
+	 *            byte offset of the first vertex in the buffer
+	 */
+	public void bindAttribute(VBO vbo, int bufferId, int dataType, boolean normalized, int stride, long offset) {
+		int location = vbo.getAttrLocation();
+		GLStateCache.bindBuffer(GL15.GL_ARRAY_BUFFER, bufferId);
+		GL20.glVertexAttribPointer(location, vbo.getAttrSize(), dataType, normalized, stride, offset);
+		GL20.glEnableVertexAttribArray(location);
+		GLStateCache.bindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+
+		_attributeCount = Math.max(_attributeCount, location + 1);
+	}
+
+	/**
+	 * @return the size of every buffer owned by this VAO in bytes
+	 */
+	public long getSizeBytes() {
+		return _sizeBytes;
 	}
 
 	/**
-	 * Tell OpenGL that we are done rendering this VAO
+	 * Tell OpenGL that we are done with this VAO. Not needed between draws,
+	 * the next draw simply binds its own VAO.
 	 */
 	@Override
 	public void done() {
-		// Unbind each attribute
-		for (int i = 0; i < _attributeCount; i++) {
-			GL20.glDisableVertexAttribArray(i);
-		}
-
 		// Unbind the VAO
-		GL30.glBindVertexArray(0);
+		GLStateCache.bindVertexArray(0);
 	}
 
 	/**
@@ -122,24 +205,21 @@ public class VAO implements IBindable {
 	 */
 	@Override
 	public void dispose() {
-		// Unbind and dispose any attached vbos
-		int attrCount = 0;
-		for (int vbo : _vbos) {
-			// Unbind attribute
-			if (attrCount < _attributeCount)
-				GL20.glDisableVertexAttribArray(attrCount++);
+		// Unbind each attribute and the VAO
+		done();
 
-			// Delete the VBO
-			GL15.glDeleteBuffers(vbo);
+		// Delete any attached vbos
+		for (int vbo : _vbos) {
+			GLStateCache.deleteBuffer(vbo);
 		}
 
 		// clear any vbo data
 		_vbos.clear();
+		_sizeBytes = 0;
 		_attributeCount = 0;
 
-		// Unbind and delete the VAO
-		done();
-		GL30.glDeleteVertexArrays(_vaoId);
+		// Delete the VAO
+		GLStateCache.deleteVertexArray(_vaoId);
 	}
 
 	/**
@@ -180,6 +260,23 @@ public class VAO implements IBindable {
 		return interleavedBuffer;
 	}
 
+	/*
+	 * Stores each of the interleaved vbos as an attribute
+	 */
+	private void storeInterleavedVBOs(VBO[] vbos) {
+		// Compute the size of an element (holds one of each vbo) in bytes
+		int totalSize = 0;
+		for (int i = 0; i < vbos.length; i++)
+			totalSize += vbos[i].getAttrSize();
+		int vertexByteLength = totalSize * Utils.FLOAT_SIZE_BYTES;
+		
+		// Store the vbo as an attribute
+		for (int i = 0, currOffset = 0; i < vbos.length; i++) {
+			storeVBO(vbos[i], GL11.GL_FLOAT, vertexByteLength, (currOffset * Utils.FLOAT_SIZE_BYTES), (i+1 == vbos.length));
+			currOffset += vbos[i].getAttrSize();
+		}
+	}
+
 	/*
 	 * Stores the vbo in memory and adds to attribute list if applicable
 	 */
@@ -193,7 +290,8 @@ public class VAO implements IBindable {
 	private void storeVBO(VBO vbo, int attrType, int stride, long position, boolean finished) {
 		// Check and add vbo to attribute list
 		if (vbo.isAttribute()) {
-			GL20.glVertexAttribPointer(_attributeCount++, vbo.getAttrSize(), attrType, false, stride, position);
+			GL20.glVertexAttribPointer(_attributeCount, vbo.getAttrSize(), attrType, false, stride, position);
+			GL20.glEnableVertexAttribArray(_attributeCount++);
 		}
 		
 		if (finished)
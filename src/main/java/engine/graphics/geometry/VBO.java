@@ -1,10 +1,13 @@
 package engine.graphics.geometry;
 
+import java.nio.ByteBuffer;
+
 import org.lwjgl.opengl.GL15;
 
 import static engine.utils.math.VectorUtils.VECTOR_3D_SIZE;
 import static engine.utils.math.VectorUtils.VECTOR_2D_SIZE;
 
+import engine.graphics.GLStateCache;
 import engine.utils.Utils;
 
 /**
@@ -42,6 +45,23 @@ public enum VBO {
 		return _attrSize > -1;
 	}
 
+	/**
+	 * The attribute location of the vbo, these match the hardcoded locations
+	 * in the shader files (position = 0, texture = 1, normal = 2)
+	 * 
+	 * @return the attribute location of the vbo
+	 */
+	public int getAttrLocation() {
+		return ordinal();
+	}
+
+	/**
+	 * @return the GL buffer target (i.e. GL_ARRAY_BUFFER)
+	 */
+	public int getBufferTarget() {
+		return _bufferTarget;
+	}
+
 	/**
 	 * @return current attribute size
 	 */
@@ -73,12 +93,25 @@ public enum VBO {
 		return vboId;
 	}
 
+	/**
+	 * Creates a new vbo and binds the passed in data. The buffer is uploaded
+	 * as is (i.e. straight from a memory mapped file), it must be a direct
+	 * buffer in the native byte order
+	 * 
+	 * @param data
+	 */
+	public int bindData(ByteBuffer data) {
+		int vboId = createVBO(_bufferTarget);
+		GL15.glBufferData(_bufferTarget, data, GL15.GL_STATIC_DRAW);
+		return vboId;
+	}
+
 	/**
 	 * Tell OpenGL that we are done with this VBO
 	 */
 	public void done() {
 		if (isAttribute())
-			GL15.glBindBuffer(_bufferTarget, 0);
+			GLStateCache.bindBuffer(_bufferTarget, 0);
 	}
 
 	@Override
@@ -92,7 +125,7 @@ public enum VBO {
 	 */
 	private static int createVBO(int bufferTarget) {
 		int vboId = GL15.glGenBuffers();
-		GL15.glBindBuffer(bufferTarget, vboId);
+		GLStateCache.bindBuffer(bufferTarget, vboId);
 		return vboId;
 	}
 }
@@ -0,0 +1,116 @@
+package engine.graphics.geometry;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL11;
+
+/**
+ * Describes where a vertex attribute (position, texture coords or normals) is
+ * stored within a raw buffer of vertex data, i.e. a bufferView of a glTF
+ * file. Several attributes can share the same buffer.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class VertexAttribute {
+	/**
+	 * The attribute (POSITION, TEXTURE or NORMAL)
+	 */
+	public final VBO vbo;
+	/**
+	 * Direct buffer holding the attribute
+	 */
+	public final ByteBuffer data;
+	/**
+	 * The GL type of each component (i.e. GL_FLOAT)
+	 */
+	public final int dataType;
+	/**
+	 * Whether integer components are normalized to [0, 1]
+	 */
+	public final boolean normalized;
+	/**
+	 * Bytes between each vertex, or 0 if tightly packed
+	 */
+	public final int stride;
+	/**
+	 * Byte offset of the first vertex within the buffer
+	 */
+	public final int offset;
+
+	/**
+	 * Constructs a new vertex attribute
+	 * 
+	 * @param vbo
+	 * @param data
+	 * @param dataType
+	 * @param normalized
+	 * @param stride
+	 * @param offset
+	 */
+	public VertexAttribute(VBO vbo, ByteBuffer data, int dataType, boolean normalized, int stride, int offset) {
+		this.vbo = vbo;
+		this.data = data;
+		this.dataType = dataType;
+		this.normalized = normalized;
+		this.stride = stride;
+		this.offset = offset;
+	}
+
+	/**
+	 * @return the amount of bytes between each vertex
+	 */
+	public int getVertexStride() {
+		return stride != 0 ? stride : vbo.getAttrSize() * getComponentSize(dataType);
+	}
+
+	/**
+	 * Reads a single component of the attribute as a float
+	 * 
+	 * @param vertex
+	 *            index of the vertex
+	 * @param component
+	 *            index of the component within the vertex
+	 * @return the component value
+	 */
+	public float getComponent(int vertex, int component) {
+		int index = offset + vertex * getVertexStride() + component * getComponentSize(dataType);
+
+		switch (dataType) {
+		case GL11.GL_FLOAT:
+			return data.getFloat(index);
+		case GL11.GL_UNSIGNED_BYTE:
+			int ubyte = data.get(index) & 0xFF;
+			return normalized ? ubyte / 255f : ubyte;
+		case GL11.GL_UNSIGNED_SHORT:
+			int ushort = data.getShort(index) & 0xFFFF;
+			return normalized ? ushort / 65535f : ushort;
+		case GL11.GL_BYTE:
+			byte sbyte = data.get(index);
+			return normalized ? Math.max(sbyte / 127f, -1f) : sbyte;
+		case GL11.GL_SHORT:
+			short sshort = data.getShort(index);
+			return normalized ? Math.max(sshort / 32767f, -1f) : sshort;
+		default:
+			throw new IllegalStateException("Unsupported vertex attribute type: " + dataType);
+		}
+	}
+
+	/**
+	 * @param dataType
+	 *            a GL data type
+	 * @return the size of the type in bytes
+	 */
+	public static int getComponentSize(int dataType) {
+		switch (dataType) {
+		case GL11.GL_BYTE:
+		case GL11.GL_UNSIGNED_BYTE:
+			return 1;
+		case GL11.GL_SHORT:
+		case GL11.GL_UNSIGNED_SHORT:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package engine.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import engine.graphics.geometry.Material;
+import engine.graphics.geometry.Mesh;
+import engine.graphics.geometry.Texture;
+
+/**
+ * The set of assets (meshes, textures and any other futures) something
+ * depends on, i.e. what a scene needs in graphics memory before it can be
+ * loaded. Completes without polling as soon as the last asset is resident.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AssetDependencies {
+	private final List<CompletableFuture<?>> _dependencies = new ArrayList<>();
+
+	/**
+	 * Constructs an empty set of dependencies
+	 */
+	public AssetDependencies() {
+	}
+
+	/**
+	 * Requires each mesh to be resident
+	 * 
+	 * @param meshes
+	 *            the meshes depended on
+	 * @return this for chaining
+	 */
+	public AssetDependencies require(Mesh... meshes) {
+		for (Mesh mesh : meshes)
+			_dependencies.add(mesh.whenResident());
+		return this;
+	}
+
+	/**
+	 * Requires each texture to be resident
+	 * 
+	 * @param textures
+	 *            the textures depended on
+	 * @return this for chaining
+	 */
+	public AssetDependencies require(Texture... textures) {
+		for (Texture texture : textures)
+			_dependencies.add(texture.whenResident());
+		return this;
+	}
+
+	/**
+	 * Requires each registry asset to be resident, the assets must be
+	 * acquired for them to ever load
+	 * 
+	 * @param handles
+	 *            the handles of the assets depended on
+	 * @return this for chaining
+	 */
+	public AssetDependencies require(AssetHandle<?>... handles) {
+		for (AssetHandle<?> handle : handles)
+			_dependencies.add(handle.whenResident());
+		return this;
+	}
+
+	/**
+	 * Requires the texture of each material (if it has one) to be resident
+	 * 
+	 * @param materials
+	 *            the materials depended on
+	 * @return this for chaining
+	 */
+	public AssetDependencies require(Material... materials) {
+		for (Material material : materials) {
+			if (material.hasTexture())
+				_dependencies.add(material.getTexture().whenResident());
+		}
+		return this;
+	}
+
+	/**
+	 * Requires the future to complete, i.e. a resource request handle's future
+	 * 
+	 * @param future
+	 *            the future depended on
+	 * @return this for chaining
+	 */
+	public AssetDependencies require(CompletableFuture<?> future) {
+		_dependencies.add(future);
+		return this;
+	}
+
+	/**
+	 * @return the amount of dependencies
+	 */
+	public int size() {
+		return _dependencies.size();
+	}
+
+	/**
+	 * A future that completes once every dependency is resident, or
+	 * exceptionally as soon as any of them fails to load
+	 * 
+	 * @return the future of all dependencies
+	 */
+	public CompletableFuture<Void> whenAllResident() {
+		CompletableFuture<Void> all = CompletableFuture
+				.allOf(_dependencies.toArray(new CompletableFuture<?>[_dependencies.size()]));
+
+		// allOf only fails once every future is done, fail on the first error
+		for (CompletableFuture<?> dependency : _dependencies)
+			dependency.whenComplete((value, error) -> {
+				if (error != null)
+					all.completeExceptionally(error);
+			});
+		return all;
+	}
+}
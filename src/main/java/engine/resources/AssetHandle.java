@@ -0,0 +1,147 @@
+package engine.resources;
+
+import java.util.concurrent.CompletableFuture;
+
+import engine.common.Entity;
+
+/**
+ * A reference counted handle to an asset (a mesh or a texture) owned by the
+ * asset registry. There is only ever one handle per asset, anything using the
+ * asset acquires it and releases it once it is done. An asset nothing holds
+ * on to may be evicted from graphics memory, it keeps its identity though and
+ * is loaded again the next time it is acquired.
+ * 
+ * @author Brandon Porter
+ * 
+ * @param <T>
+ *            the type of asset
+ */
+public abstract class AssetHandle<T extends Entity> {
+	static final int UNLOADED = 0;
+	static final int LOADING = 1;
+	static final int RESIDENT = 2;
+	static final int FAILED = 3;
+
+	private final String _fileName;
+	private final T _asset;
+
+	// Only changed by the registry while holding its lock
+	volatile int _state = UNLOADED;
+	volatile int _referenceCount = 0;
+	volatile long _sizeBytes = 0;
+
+	/*
+	 * Constructs a handle to an unloaded asset
+	 */
+	AssetHandle(String fileName, T asset) {
+		this._fileName = fileName;
+		this._asset = asset;
+	}
+
+	/**
+	 * @return the file name the asset is loaded from
+	 */
+	public final String getFileName() {
+		return _fileName;
+	}
+
+	/**
+	 * The asset is the same object for the lifetime of the registry, even
+	 * after it was evicted and loaded again
+	 * 
+	 * @return the asset
+	 */
+	public final T get() {
+		return _asset;
+	}
+
+	/**
+	 * @return true if the asset is currently in graphics memory
+	 */
+	public final boolean isResident() {
+		return _state == RESIDENT;
+	}
+
+	/**
+	 * @return the amount of references held on the asset
+	 */
+	public final int getReferenceCount() {
+		return _referenceCount;
+	}
+
+	/**
+	 * @return the size of the asset in graphics memory in bytes, 0 if it isn't
+	 *         resident
+	 */
+	public final long getSizeBytes() {
+		return _sizeBytes;
+	}
+
+	/**
+	 * Adds a reference to the asset, loading it right away (on the calling
+	 * thread) if it isn't resident or already loading
+	 * 
+	 * @return the asset
+	 * @throws Exception
+	 */
+	public final T acquire() throws Exception {
+		AssetRegistry.acquire(this, false);
+		return _asset;
+	}
+
+	/**
+	 * Adds a reference to the asset, loading it on a resource worker if it
+	 * isn't resident or already loading
+	 * 
+	 * @return a future completing once the asset is resident
+	 */
+	public final CompletableFuture<T> acquireAsync() {
+		try {
+			AssetRegistry.acquire(this, true);
+		} catch (Exception e) {
+			// Asynchronous loads report failures through the future
+		}
+		return whenResident();
+	}
+
+	/**
+	 * Removes a reference to the asset, once nothing references it the asset
+	 * may be evicted
+	 */
+	public final void release() {
+		AssetRegistry.release(this);
+	}
+
+	/**
+	 * A future that completes once the asset is resident, or exceptionally if
+	 * loading failed. Only completes if the asset has been acquired.
+	 * 
+	 * @return the residency future of the asset
+	 */
+	public abstract CompletableFuture<T> whenResident();
+
+	/**
+	 * Loads the asset and makes it resident
+	 * 
+	 * @param async
+	 *            whether to load on a resource worker
+	 * @throws Exception
+	 */
+	abstract void load(boolean async) throws Exception;
+
+	/**
+	 * @return the size of the resident asset in graphics memory in bytes
+	 */
+	abstract long measureSizeBytes();
+
+	/**
+	 * Frees the asset from graphics memory. [WARNING] - This MUST be called
+	 * from the main thread if the asset is resident.
+	 */
+	abstract void unload();
+
+	@Override
+	public String toString() {
+		return _fileName;
+	}
+}
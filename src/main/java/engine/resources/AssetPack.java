@@ -0,0 +1,278 @@
+package engine.resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.lwjgl.BufferUtils;
+
+/**
+ * A single file holding every resource of the game, memory mapped once so a
+ * resource is found with a map lookup and read without touching the
+ * classpath. Entries are either stored as is, in which case reading one is
+ * only a slice of the mapping, or compressed with LZ4 (see AssetPacker):
+ * 
+ * <pre>
+ * int   magic            "GDPK"
+ * int   version          FORMAT_VERSION
+ * int   entry count      number of entries in the index
+ * index, per entry:
+ *   short  name length   bytes in the name
+ *   byte[] name          UTF-8 path relative to the resources folder
+ *   byte   flags         FLAG_COMPRESSED if the entry is LZ4 compressed
+ *   long   offset        byte offset of the entry's data in the pack
+ *   int    size          size of the entry once decompressed
+ *   int    stored size   size of the entry's data in the pack
+ * data of every entry
+ * </pre>
+ * 
+ * Everything is stored big endian so a pack works on any machine.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AssetPack {
+	/**
+	 * Marks the start of every pack
+	 */
+	static final int MAGIC = ('G' << 24) | ('D' << 16) | ('P' << 8) | 'K';
+
+	/**
+	 * Increment whenever the layout of a pack changes
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Set on entries whose data is LZ4 compressed
+	 */
+	static final int FLAG_COMPRESSED = 1;
+
+	private final Path _path;
+	private final ByteBuffer _mapped;
+	private final Map<String, Entry> _entries;
+
+	/*
+	 * Constructs a pack over its mapping and parsed index
+	 */
+	private AssetPack(Path path, ByteBuffer mapped, Map<String, Entry> entries) {
+		this._path = path;
+		this._mapped = mapped;
+		this._entries = entries;
+	}
+
+	/**
+	 * Memory maps the pack and reads its index
+	 * 
+	 * @param path
+	 *            path of the pack file
+	 * @return the opened pack
+	 * @throws IOException
+	 *             if the pack can't be read or isn't a valid pack
+	 */
+	public static AssetPack open(Path path) throws IOException {
+		// The mapping stays valid after the channel is closed
+		ByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (mapped.remaining() < 12 || mapped.getInt() != MAGIC)
+			throw new IOException("Not an asset pack: " + path);
+		int version = mapped.getInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported asset pack version " + version + ": " + path);
+
+		int entryCount = mapped.getInt();
+		Map<String, Entry> entries = new HashMap<>(entryCount * 2);
+		try {
+			for (int i = 0; i < entryCount; i++) {
+				byte[] name = new byte[mapped.getShort() & 0xFFFF];
+				mapped.get(name);
+				int flags = mapped.get();
+				long offset = mapped.getLong();
+				int size = mapped.getInt();
+				int storedSize = mapped.getInt();
+				if (offset < 0 || size < 0 || storedSize < 0 || offset + storedSize > mapped.limit())
+					throw new IOException("Corrupt asset pack entry in: " + path);
+
+				entries.put(new String(name, StandardCharsets.UTF_8),
+						new Entry((int) offset, size, storedSize, (flags & FLAG_COMPRESSED) != 0));
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt asset pack index: " + path, e);
+		}
+
+		return new AssetPack(path, mapped, entries);
+	}
+
+	/**
+	 * @return the path of the pack file
+	 */
+	public Path getPath() {
+		return _path;
+	}
+
+	/**
+	 * @return the names of every entry
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(_entries.keySet());
+	}
+
+	/**
+	 * @param name
+	 *            path of the resource relative to the resources folder
+	 * @return true if the pack holds the resource
+	 */
+	public boolean contains(String name) {
+		return _entries.containsKey(name);
+	}
+
+	/**
+	 * Reads the resource as a buffer. Stored entries share the mapped memory,
+	 * compressed entries are decompressed into a new direct buffer.
+	 * 
+	 * @param name
+	 *            path of the resource relative to the resources folder
+	 * @return read only buffer of the resource, or null if the pack doesn't
+	 *         hold it
+	 * @throws IOException
+	 *             if the entry is corrupt
+	 */
+	public ByteBuffer read(String name) throws IOException {
+		Entry entry = _entries.get(name);
+		if (entry == null)
+			return null;
+		if (!entry.compressed)
+			return slice(entry);
+
+		byte[] bytes = decompress(name, entry);
+		ByteBuffer buffer = BufferUtils.createByteBuffer(bytes.length);
+		buffer.put(bytes).flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Opens the resource as a stream
+	 * 
+	 * @param name
+	 *            path of the resource relative to the resources folder
+	 * @return the resource as an input stream, or null if the pack doesn't
+	 *         hold it
+	 * @throws IOException
+	 *             if the entry is corrupt
+	 */
+	public InputStream openStream(String name) throws IOException {
+		Entry entry = _entries.get(name);
+		if (entry == null)
+			return null;
+		if (!entry.compressed)
+			return new BufferInputStream(slice(entry));
+		return new ByteArrayInputStream(decompress(name, entry));
+	}
+
+	/*
+	 * Slices the data of an entry out of the mapping, safe to call from any
+	 * thread since the mapping itself is never moved
+	 */
+	private ByteBuffer slice(Entry entry) {
+		ByteBuffer slice = _mapped.duplicate();
+		slice.limit(entry.offset + entry.storedSize).position(entry.offset);
+		return slice.slice().asReadOnlyBuffer();
+	}
+
+	/*
+	 * Decompresses the data of an entry
+	 */
+	private byte[] decompress(String name, Entry entry) throws IOException {
+		byte[] compressed = new byte[entry.storedSize];
+		slice(entry).get(compressed);
+
+		byte[] bytes = new byte[entry.size];
+		try {
+			LZ4Codec.decompress(compressed, 0, compressed.length, bytes, 0, bytes.length);
+		} catch (IOException e) {
+			throw new IOException("Could not decompress " + name + " in asset pack " + _path, e);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Where an entry's data is in the pack
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	private static class Entry {
+		final int offset;
+		final int size;
+		final int storedSize;
+		final boolean compressed;
+
+		/*
+		 * Constructs a new entry
+		 */
+		Entry(int offset, int size, int storedSize, boolean compressed) {
+			this.offset = offset;
+			this.size = size;
+			this.storedSize = storedSize;
+			this.compressed = compressed;
+		}
+	}
+
+	/**
+	 * A stream over a buffer, so mapped entries are read without copying them
+	 * first
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer _buffer;
+
+		/*
+		 * Constructs a stream over the remaining bytes of the buffer
+		 */
+		BufferInputStream(ByteBuffer buffer) {
+			this._buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return _buffer.hasRemaining() ? _buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!_buffer.hasRemaining())
+				return -1;
+
+			int count = Math.min(length, _buffer.remaining());
+			_buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long count) {
+			int skipped = (int) Math.max(0, Math.min(count, _buffer.remaining()));
+			_buffer.position(_buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return _buffer.remaining();
+		}
+	}
+}
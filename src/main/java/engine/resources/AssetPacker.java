@@ -0,0 +1,156 @@
+package engine.resources;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import engine.utils.Debug;
+
+/**
+ * Packs a resources folder into a single asset pack (see AssetPack). Each file
+ * is compressed with LZ4 and stored compressed only if that saves enough to
+ * be worth decompressing, already compressed formats (i.e. PNG) are stored as
+ * is. Run it as part of the build:
+ * 
+ * <pre>
+ * java engine.resources.AssetPacker &lt;resources folder&gt; &lt;pack file&gt;
+ * </pre>
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AssetPacker {
+	// An entry must compress to at most 7/8 of its size to be stored
+	// compressed
+	private static final int MIN_SAVINGS_SHIFT = 3;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private AssetPacker() {
+	}
+
+	/**
+	 * Packs the resources folder given as the first argument into the pack
+	 * file given as the second
+	 * 
+	 * @param args
+	 *            the resources folder and the pack file
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: AssetPacker <resources folder> <pack file>");
+			System.exit(1);
+		}
+		pack(Paths.get(args[0]), Paths.get(args[1]));
+	}
+
+	/**
+	 * Packs every file in the folder, named by their path relative to it
+	 * 
+	 * @param directory
+	 *            the resources folder
+	 * @param packFile
+	 *            the pack file to write, replaced if it exists
+	 * @throws IOException
+	 */
+	public static void pack(Path directory, Path packFile) throws IOException {
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			// Sorted so the same folder always gives the same pack
+			files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+
+		List<PackedFile> packed = new ArrayList<>(files.size());
+		long indexSize = 0;
+		for (Path file : files) {
+			PackedFile entry = packFile(directory, file);
+			packed.add(entry);
+			indexSize += 2 + entry.name.length + 1 + 8 + 4 + 4;
+		}
+
+		// Written next to the pack and moved over it, so a running game
+		// never maps a half written pack
+		Path tempFile = packFile.resolveSibling(packFile.getFileName() + ".tmp");
+		long totalSize = 0;
+		long totalStoredSize = 0;
+		try (OutputStream fileOut = Files.newOutputStream(tempFile);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+			out.writeInt(AssetPack.MAGIC);
+			out.writeInt(AssetPack.FORMAT_VERSION);
+			out.writeInt(packed.size());
+
+			long offset = 12 + indexSize;
+			for (PackedFile entry : packed) {
+				out.writeShort(entry.name.length);
+				out.write(entry.name);
+				out.writeByte(entry.compressed ? AssetPack.FLAG_COMPRESSED : 0);
+				out.writeLong(offset);
+				out.writeInt(entry.size);
+				out.writeInt(entry.data.length);
+				offset += entry.data.length;
+			}
+
+			for (PackedFile entry : packed) {
+				out.write(entry.data);
+				totalSize += entry.size;
+				totalStoredSize += entry.data.length;
+			}
+		}
+		Files.move(tempFile, packFile, StandardCopyOption.REPLACE_EXISTING);
+
+		Debug.log(String.format("Packed %d files (%d bytes) into %s (%d bytes)", packed.size(), totalSize, packFile,
+				totalStoredSize));
+	}
+
+	/*
+	 * Reads and compresses a file of the folder
+	 */
+	private static PackedFile packFile(Path directory, Path file) throws IOException {
+		// Resources are always looked up with forward slashes
+		String name = directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > 0xFFFF)
+			throw new IOException("Resource path is too long to pack: " + name);
+
+		byte[] bytes = Files.readAllBytes(file);
+		byte[] compressed = LZ4Codec.compress(bytes, 0, bytes.length);
+		if (compressed.length <= bytes.length - (bytes.length >> MIN_SAVINGS_SHIFT))
+			return new PackedFile(nameBytes, bytes.length, compressed, true);
+		return new PackedFile(nameBytes, bytes.length, bytes, false);
+	}
+
+	/**
+	 * A file ready to be written to the pack
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	private static class PackedFile {
+		final byte[] name;
+		final int size;
+		final byte[] data;
+		final boolean compressed;
+
+		/*
+		 * Constructs a new packed file
+		 */
+		PackedFile(byte[] name, int size, byte[] data, boolean compressed) {
+			this.name = name;
+			this.size = size;
+			this.data = data;
+			this.compressed = compressed;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package engine.resources;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import engine.common.Defaults;
+import engine.graphics.geometry.Mesh;
+import engine.graphics.geometry.Texture;
+import engine.resources.loaders.MeshLoader;
+import engine.resources.loaders.TextureLoader;
+import engine.utils.Debug;
+
+/**
+ * Owns every mesh and texture loaded by file name, so each file is only ever
+ * loaded once no matter how many things use it. Assets are handed out as
+ * reference counted handles and the size of each resident asset's buffers and
+ * textures is tracked. Once the VRAM budget is exceeded the assets nothing
+ * references are evicted, least recently used first, and loaded again the
+ * next time they are acquired.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AssetRegistry {
+	private static final Map<String, MeshHandle> _meshes = new HashMap<>();
+	private static final Map<String, TextureHandle> _textures = new HashMap<>();
+	// Every handle, the least recently used first
+	private static final LinkedHashSet<AssetHandle<?>> _recentlyUsed = new LinkedHashSet<>();
+
+	private static long _budgetBytes = Defaults.Resources.VRAM_BUDGET_BYTES;
+	private static long _residentBytes = 0;
+	private static boolean _evictionQueued = false;
+
+	// Static class
+	private AssetRegistry() {
+	}
+
+	/**
+	 * Gets the handle of the mesh, without acquiring or loading it
+	 * 
+	 * @param fileName
+	 *            file name (with extension) of the mesh
+	 * @return the handle of the mesh
+	 */
+	public static synchronized AssetHandle<Mesh> getMesh(String fileName) {
+		MeshHandle handle = _meshes.get(fileName);
+		if (handle == null) {
+			handle = new MeshHandle(fileName);
+			_meshes.put(fileName, handle);
+			_recentlyUsed.add(handle);
+		}
+		return handle;
+	}
+
+	/**
+	 * Gets the handle of the texture, without acquiring or loading it
+	 * 
+	 * @param fileName
+	 *            file name of the texture
+	 * @return the handle of the texture
+	 */
+	public static AssetHandle<Texture> getTexture(String fileName) {
+		return getTexture(fileName, Texture.TextureOptions.Default);
+	}
+
+	/**
+	 * Gets the handle of the texture, without acquiring or loading it. The
+	 * options are only used if this is the first time the texture is asked
+	 * for.
+	 * 
+	 * @param fileName
+	 *            file name of the texture
+	 * @param textureOptions
+	 *            the options to load the texture with
+	 * @return the handle of the texture
+	 */
+	public static synchronized AssetHandle<Texture> getTexture(String fileName,
+			Texture.TextureOptions textureOptions) {
+		TextureHandle handle = _textures.get(fileName);
+		if (handle == null) {
+			handle = new TextureHandle(fileName, textureOptions);
+			_textures.put(fileName, handle);
+			_recentlyUsed.add(handle);
+		}
+		return handle;
+	}
+
+	/**
+	 * @return the size (bytes) resident assets are kept under
+	 */
+	public static synchronized long getVRAMBudget() {
+		return _budgetBytes;
+	}
+
+	/**
+	 * Sets the size resident assets are kept under, evicting unreferenced
+	 * assets if it is already exceeded
+	 * 
+	 * @param budgetBytes
+	 *            the budget in bytes
+	 */
+	public static synchronized void setVRAMBudget(long budgetBytes) {
+		_budgetBytes = budgetBytes;
+		if (_residentBytes > _budgetBytes)
+			queueEviction();
+	}
+
+	/**
+	 * @return the size (bytes) of every resident asset
+	 */
+	public static synchronized long getResidentBytes() {
+		return _residentBytes;
+	}
+
+	/**
+	 * Frees every asset from graphics memory, should only be called when the
+	 * game closes. [WARNING] - This MUST be called from the main thread.
+	 */
+	public static synchronized void dispose() {
+		for (AssetHandle<?> handle : _recentlyUsed) {
+			handle.unload();
+			handle._state = AssetHandle.UNLOADED;
+			handle._sizeBytes = 0;
+		}
+		_meshes.clear();
+		_textures.clear();
+		_recentlyUsed.clear();
+		_residentBytes = 0;
+	}
+
+	/*
+	 * Adds a reference to the asset and starts loading it if it isn't
+	 * resident or loading already, see AssetHandle.acquire
+	 */
+	static void acquire(AssetHandle<?> handle, boolean async) throws Exception {
+		synchronized (AssetRegistry.class) {
+			handle._referenceCount++;
+			touch(handle);
+			if (handle._state == AssetHandle.LOADING || handle._state == AssetHandle.RESIDENT)
+				return;
+
+			// A failed asset is tried again, which needs a new residency future
+			if (handle._state == AssetHandle.FAILED)
+				handle.unload();
+			handle._state = AssetHandle.LOADING;
+			handle.whenResident().whenComplete((asset, error) -> onLoaded(handle, error));
+		}
+
+		// Loaded outside the lock, a synchronous load may wait on the main
+		// thread
+		handle.load(async);
+	}
+
+	/*
+	 * Removes a reference to the asset, see AssetHandle.release
+	 */
+	static synchronized void release(AssetHandle<?> handle) {
+		if (handle._referenceCount <= 0) {
+			Debug.warn("Releasing an asset that isn't referenced: " + handle);
+			return;
+		}
+
+		handle._referenceCount--;
+		touch(handle);
+		if (handle._referenceCount == 0 && _residentBytes > _budgetBytes)
+			queueEviction();
+	}
+
+	/*
+	 * Moves the handle to the most recently used end
+	 */
+	private static void touch(AssetHandle<?> handle) {
+		if (_recentlyUsed.remove(handle))
+			_recentlyUsed.add(handle);
+	}
+
+	/*
+	 * Tracks the size of an asset once it is resident, called on the main
+	 * thread (or any thread if it failed)
+	 */
+	private static synchronized void onLoaded(AssetHandle<?> handle, Throwable error) {
+		if (handle._state != AssetHandle.LOADING)
+			return;
+		if (error != null) {
+			handle._state = AssetHandle.FAILED;
+			return;
+		}
+
+		handle._state = AssetHandle.RESIDENT;
+		handle._sizeBytes = handle.measureSizeBytes();
+		_residentBytes += handle._sizeBytes;
+		if (_residentBytes > _budgetBytes)
+			queueEviction();
+	}
+
+	/*
+	 * Evicts on the main thread, since the caller may be on any thread
+	 */
+	private static void queueEviction() {
+		if (_evictionQueued)
+			return;
+		_evictionQueued = true;
+		RequestManager.makeGLRequest(AssetRegistry::evictOverBudget);
+	}
+
+	/*
+	 * Evicts unreferenced assets, least recently used first, until the
+	 * resident assets are back under the budget
+	 */
+	private static synchronized void evictOverBudget() {
+		_evictionQueued = false;
+
+		Iterator<AssetHandle<?>> handles = _recentlyUsed.iterator();
+		while (_residentBytes > _budgetBytes && handles.hasNext()) {
+			AssetHandle<?> handle = handles.next();
+			if (handle._state != AssetHandle.RESIDENT || handle._referenceCount > 0)
+				continue;
+
+			handle.unload();
+			handle._state = AssetHandle.UNLOADED;
+			_residentBytes -= handle._sizeBytes;
+			handle._sizeBytes = 0;
+			Debug.log("Evicted unreferenced asset: " + handle);
+		}
+
+		if (_residentBytes > _budgetBytes)
+			Debug.warn(String.format("Referenced assets take up %d bytes, over the VRAM budget of %d bytes",
+					_residentBytes, _budgetBytes));
+	}
+
+	/**
+	 * Handle of a mesh loaded by the mesh loader
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	private static final class MeshHandle extends AssetHandle<Mesh> {
+		/*
+		 * Constructs a handle to an unloaded mesh
+		 */
+		MeshHandle(String fileName) {
+			super(fileName, new Mesh(fileName));
+		}
+
+		@Override
+		public CompletableFuture<Mesh> whenResident() {
+			return get().whenResident();
+		}
+
+		@Override
+		void load(boolean async) throws Exception {
+			if (async) {
+				MeshLoader.loadMeshAsync(get(), getFileName());
+				return;
+			}
+
+			try {
+				MeshLoader.loadMesh(get(), getFileName());
+			} catch (Exception e) {
+				get().setLoadFailed(e);
+				throw e;
+			}
+		}
+
+		@Override
+		long measureSizeBytes() {
+			return get().getVAO().getSizeBytes();
+		}
+
+		@Override
+		void unload() {
+			get().unload();
+		}
+	}
+
+	/**
+	 * Handle of a texture loaded by the texture loader
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	private static final class TextureHandle extends AssetHandle<Texture> {
+		private final Texture.TextureOptions _options;
+
+		/*
+		 * Constructs a handle to an unloaded texture
+		 */
+		TextureHandle(String fileName, Texture.TextureOptions options) {
+			super(fileName, new Texture(fileName));
+			this._options = options;
+		}
+
+		@Override
+		public CompletableFuture<Texture> whenResident() {
+			return get().whenResident();
+		}
+
+		@Override
+		void load(boolean async) throws Exception {
+			if (async) {
+				TextureLoader.loadTextureAsync(get(), getFileName(), _options, RequestPriority.SCENE);
+				return;
+			}
+
+			try {
+				TextureLoader.loadTexture(get(), getFileName(), _options);
+			} catch (Exception e) {
+				get().setLoadFailed(e);
+				throw e;
+			}
+		}
+
+		@Override
+		long measureSizeBytes() {
+			return get().getSizeBytes();
+		}
+
+		@Override
+		void unload() {
+			get().unload();
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package engine.resources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import engine.common.Defaults;
+import engine.utils.Debug;
+
+/**
+ * A cache on disk for resources that are expensive to process (i.e. parsed
+ * meshes). Entries are written once and then memory mapped on every later run.
+ * The cache is purely an optimization, so any error reading or writing an
+ * entry is logged and treated as a cache miss.
+ * 
+ * Reading an entry marks it as used, and once the directory grows past its max
+ * size the least recently used entries are removed. The size of the directory
+ * is only walked on the first write and whenever the written entries push it
+ * past the max size.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class DiskCache {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final long UNKNOWN_SIZE = -1;
+	// Temporary files older than this were left behind by a run that crashed
+	// while writing
+	private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	private static boolean _enabled = Defaults.Resources.USE_DISK_CACHE;
+	private static Path _directory = Paths.get(Defaults.Resources.CACHE_DIRECTORY);
+	private static long _maxSize = Defaults.Resources.CACHE_MAX_BYTES;
+	// Size of every entry in the directory, counted up as entries are written
+	private static final AtomicLong _size = new AtomicLong(UNKNOWN_SIZE);
+
+	/*
+	 * Prevent instantiation
+	 */
+	private DiskCache() {
+	}
+
+	/**
+	 * @return true if resources should be read from and written to the cache
+	 */
+	public static boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * Enables or disables the cache. Disabling the cache does not remove any
+	 * existing entries.
+	 * 
+	 * @param enabled
+	 *            true to use the cache
+	 */
+	public static void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	/**
+	 * Sets the directory the cache entries are stored in
+	 * 
+	 * @param directory
+	 *            path to the cache directory
+	 */
+	public static void setDirectory(String directory) {
+		_directory = Paths.get(directory);
+		_size.set(UNKNOWN_SIZE);
+	}
+
+	/**
+	 * Sets the size the cache directory is trimmed down to once written
+	 * entries grow it past that size
+	 * 
+	 * @param maxSize
+	 *            the max size of all entries in bytes
+	 */
+	public static void setMaxSize(long maxSize) {
+		_maxSize = maxSize;
+	}
+
+	/**
+	 * Creates a key for the cache out of the contents of a source file, so an
+	 * entry is invalidated as soon as its source changes
+	 * 
+	 * @param data
+	 *            the contents of the source file
+	 * @return hex string of the hash of the data
+	 */
+	public static String hash(byte[] data) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every java platform is required to support SHA-1
+			throw new IllegalStateException(e);
+		}
+
+		byte[] hash = digest.digest(data);
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Memory maps the cache entry as a read only buffer
+	 * 
+	 * @param name
+	 *            name of the entry relative to the cache directory
+	 * @return the mapped entry, or null if there is no entry
+	 */
+	public static ByteBuffer map(String name) {
+		Path path = _directory.resolve(name);
+		if (!Files.isRegularFile(path))
+			return null;
+
+		// The mapping stays valid after the channel is closed
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				Debug.warn("Cache entry is too large to map: " + path);
+				return null;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			Debug.warn("Could not read cache entry: " + path + " (" + e.getMessage() + ")");
+			return null;
+		}
+
+		// Access times are often not kept, so the modified time marks when an
+		// entry was last used
+		try {
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException ignored) {
+		}
+		return buffer;
+	}
+
+	/**
+	 * Writes the buffers one after another as a cache entry. The entry is
+	 * written to its own temporary file first so a partially written entry is
+	 * never mapped, even when several threads write the same entry.
+	 * 
+	 * @param name
+	 *            name of the entry relative to the cache directory
+	 * @param buffers
+	 *            the contents of the entry, each buffer is written from its
+	 *            position to its limit
+	 * @return true if the entry was written
+	 */
+	public static boolean write(String name, ByteBuffer... buffers) {
+		Path path = _directory.resolve(name);
+		Path temp = null;
+
+		try {
+			Files.createDirectories(path.getParent());
+			temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_EXTENSION);
+			long written = 0;
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				for (ByteBuffer buffer : buffers) {
+					while (buffer.hasRemaining())
+						written += channel.write(buffer);
+				}
+			}
+
+			long replaced = Files.isRegularFile(path) ? Files.size(path) : 0;
+			try {
+				Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			// Only walk the directory once the entries written since the last
+			// walk may have pushed it past its max size
+			long size = _size.get();
+			if (size != UNKNOWN_SIZE)
+				size = _size.addAndGet(written - replaced);
+			if (size == UNKNOWN_SIZE || size > _maxSize)
+				trim();
+			return true;
+		} catch (IOException e) {
+			Debug.warn("Could not write cache entry: " + path + " (" + e.getMessage() + ")");
+			try {
+				if (temp != null)
+					Files.deleteIfExists(temp);
+			} catch (IOException ignored) {
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * Removes the least recently used entries until the cache directory is
+	 * under its max size, and records the size that is left
+	 */
+	private static synchronized void trim() throws IOException {
+		List<Path> entries = new ArrayList<>();
+		List<Path> temps = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(_directory)) {
+			paths.filter(Files::isRegularFile)
+					.forEach(path -> (path.toString().endsWith(TEMP_EXTENSION) ? temps : entries).add(path));
+		}
+
+		// Another thread may still be writing a recent temporary file
+		long staleTime = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+		for (Path temp : temps) {
+			try {
+				if (Files.getLastModifiedTime(temp).toMillis() < staleTime)
+					Files.deleteIfExists(temp);
+			} catch (IOException ignored) {
+			}
+		}
+
+		// Size and last use of each entry, read once so sorting is stable
+		List<BasicFileAttributes> attributes = new ArrayList<>(entries.size());
+		long totalSize = 0;
+		for (Path entry : entries) {
+			BasicFileAttributes entryAttributes = Files.readAttributes(entry, BasicFileAttributes.class);
+			attributes.add(entryAttributes);
+			totalSize += entryAttributes.size();
+		}
+		if (totalSize <= _maxSize) {
+			_size.set(totalSize);
+			return;
+		}
+
+		List<Integer> order = new ArrayList<>(entries.size());
+		for (int i = 0; i < entries.size(); i++)
+			order.add(i);
+		order.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+
+		for (int i : order) {
+			if (totalSize <= _maxSize)
+				break;
+			try {
+				// May fail while an entry is mapped on some platforms, it's
+				// then removed on a later trim
+				Files.delete(entries.get(i));
+				totalSize -= attributes.get(i).size();
+				Debug.log("Removed least recently used cache entry: " + entries.get(i));
+			} catch (IOException e) {
+				Debug.warn("Could not remove cache entry: " + entries.get(i) + " (" + e.getMessage() + ")");
+			}
+		}
+		_size.set(totalSize);
+	}
+}
@@ -1,74 +1,203 @@
 package engine.resources;
 
 import engine.TimeManager;
+import engine.common.Defaults;
+import engine.utils.Debug;
+import engine.utils.TimeUtils;
 
 /**
- * Manages and processes GL-only related requests on the main thread
+ * Manages and processes GL-only related requests on the main thread. Each
+ * frame it is given a time budget and only starts the next request if its
+ * estimated cost still fits, large uploads are split into chunks sized to the
+ * remaining budget and continued over the next frames.
  * 
  * @author Brandon Porter
  *
  */
-final class GLRequestProcessor implements IRequestProcessor {
-	private static final double MAX_TIME_MS = 8.0;
+final class GLRequestProcessor {
+	// Weight of the newest measurement in the running cost averages
+	private static final double COST_SMOOTHING = 0.2;
+	// Uploads are never split finer than this
+	private static final long MIN_UPLOAD_CHUNK_BYTES = 64 * 1024;
 
 	private final RequestQueue _requestQueue = new RequestQueue();
-	private final TimeManager.Timer _timer;
+	// The upload currently spread over frames, it stays at the head of the
+	// queue until it completes
+	private IGLUpload _activeUpload = null;
+
+	// Running averages of what requests have cost so far
+	private double _requestCostNS = TimeUtils.MilliToNano(0.05);
+	private double _uploadCostNSPerByte = 0.5;
 
 	/*
-	 * Constructs the GL request processor and creates a new timer
+	 * Constructs the GL request processor
 	 */
 	protected GLRequestProcessor() {
-		this._timer = TimeManager.CreateTimer(MAX_TIME_MS);
 	}
-	
+
 	/**
 	 * @return whether or not we have graphic requests to complete
 	 */
 	public boolean hasOutstandingRequests() {
-		return !_requestQueue.isEmpty();
+		return _activeUpload != null || !_requestQueue.isEmpty();
 	}
 
 	/**
 	 * Enqueues a new GL request at the end of the queue which will be executed
 	 * when the main thread has resources available
 	 */
-	@Override
 	public void addRequestToQueue(IRequest request) {
 		_requestQueue.enqueue(request);
 	}
 
 	/**
-	 * Because this is run on the main thread we have to limit the number of
-	 * requests we make unless we specify to explicitly do all of them
+	 * Enqueues a new upload at the end of the queue which will be executed in
+	 * chunks when the main thread has resources available
 	 * 
-	 * @param executeAll
-	 *            If true we execute all remaining requests regardless of the
-	 *            time it takes, otherwise we execute until all requests are
-	 *            completed OR the max time has been reached.
+	 * @param upload
+	 *            the upload to execute
 	 */
-	public void run(boolean executeAll) {
-		if (!executeAll)
-			_timer.start();
+	public void addUploadToQueue(IGLUpload upload) {
+		_requestQueue.enqueue(new UploadRequest(upload));
+	}
 
-		while (!_requestQueue.isEmpty()) {
-			// Removes and executes the top request
-			_requestQueue.dequeue().doRequest();
+	/**
+	 * Executes every remaining request regardless of the time it takes
+	 */
+	public void runAll() {
+		if (_activeUpload != null) {
+			IGLUpload upload = _activeUpload;
+			_activeUpload = null;
+			runToCompletion(upload);
+		}
 
-			// Stop making requests if we've reached
-			// our max limit
-			if (!executeAll && _timer.isDone())
+		// Requests may queue up more requests, so keep draining until empty
+		while (!_requestQueue.isEmpty())
+			_requestQueue.drain(IRequest::doRequest, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Because this is run on the main thread we have to limit the amount of
+	 * work we do. Requests are executed until the next one is estimated to not
+	 * fit the budget, at least one request (or upload chunk) is always
+	 * executed so the queue can't stall.
+	 * 
+	 * @param frameHeadroomMS
+	 *            the time left in the current frame, clamped to the min and
+	 *            max GL request budget
+	 */
+	public void run(double frameHeadroomMS) {
+		double budgetMS = Math.max(Defaults.Resources.GL_REQUEST_MIN_BUDGET_MS,
+				Math.min(frameHeadroomMS, Defaults.Resources.GL_REQUEST_MAX_BUDGET_MS));
+		double budgetNS = TimeUtils.MilliToNano(budgetMS);
+		long startNS = TimeManager.getTimeNS();
+		boolean first = true;
+
+		while (true) {
+			double remainingNS = budgetNS - (TimeManager.getTimeNS() - startNS);
+
+			if (_activeUpload == null) {
+				IRequest request = _requestQueue.peek();
+				if (request == null)
+					break;
+
+				if (request instanceof UploadRequest) {
+					_requestQueue.dequeue();
+					_activeUpload = ((UploadRequest) request).upload;
+					continue;
+				}
+
+				// Stop making requests if the next won't fit
+				if (!first && _requestCostNS > remainingNS)
+					break;
+
+				_requestQueue.dequeue();
+				long requestStartNS = TimeManager.getTimeNS();
+				request.doRequest();
+				_requestCostNS += COST_SMOOTHING * ((TimeManager.getTimeNS() - requestStartNS) - _requestCostNS);
+				first = false;
+				continue;
+			}
+
+			// Upload as much as the remaining budget affords
+			if (!first && remainingNS < MIN_UPLOAD_CHUNK_BYTES * _uploadCostNSPerByte)
 				break;
-		}
+			long maxBytes = Math.max(MIN_UPLOAD_CHUNK_BYTES, (long) (remainingNS / _uploadCostNSPerByte));
+			first = false;
 
-		// Resets the timer
-		_timer.reset();
+			if (!runUploadStep(maxBytes))
+				break;
+		}
 	}
 
 	/**
 	 * Completes all waiting GL requests when disposed
 	 */
-	@Override
 	public void dispose() {
-		this.run(true);
+		this.runAll();
+	}
+
+	/*
+	 * Runs one step of the active upload and updates the cost per byte, returns
+	 * true if the upload is finished (or failed)
+	 */
+	private boolean runUploadStep(long maxBytes) {
+		long remainingBytes = _activeUpload.getRemainingBytes();
+		long stepStartNS = TimeManager.getTimeNS();
+
+		boolean finished;
+		try {
+			finished = _activeUpload.upload(maxBytes);
+			if (finished)
+				_activeUpload.complete();
+		} catch (Exception e) {
+			Debug.error("GL upload failed");
+			e.printStackTrace();
+			_activeUpload.onFailed(e);
+			finished = true;
+		}
+
+		// Small steps are mostly fixed overhead, so they'd skew the estimate
+		long uploadedBytes = remainingBytes - (finished ? 0 : _activeUpload.getRemainingBytes());
+		if (uploadedBytes >= MIN_UPLOAD_CHUNK_BYTES) {
+			double costNSPerByte = (double) (TimeManager.getTimeNS() - stepStartNS) / uploadedBytes;
+			_uploadCostNSPerByte += COST_SMOOTHING * (costNSPerByte - _uploadCostNSPerByte);
+		}
+
+		if (finished)
+			_activeUpload = null;
+		return finished;
+	}
+
+	/*
+	 * Runs every remaining step of an upload, must be on the main thread
+	 */
+	static void runToCompletion(IGLUpload upload) {
+		try {
+			while (!upload.upload(Long.MAX_VALUE))
+				;
+			upload.complete();
+		} catch (Exception e) {
+			Debug.error("GL upload failed");
+			e.printStackTrace();
+			upload.onFailed(e);
+		}
+	}
+
+	/*
+	 * Queues an upload in the same queue as the other requests so it keeps its
+	 * place in line, running it as a request uploads all of it at once
+	 */
+	private static final class UploadRequest implements IRequest {
+		final IGLUpload upload;
+
+		UploadRequest(IGLUpload upload) {
+			this.upload = upload;
+		}
+
+		@Override
+		public void doRequest() {
+			runToCompletion(upload);
+		}
 	}
 }
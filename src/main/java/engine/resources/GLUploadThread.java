@@ -0,0 +1,200 @@
+package engine.resources;
+
+import static org.lwjgl.glfw.GLFW.glfwMakeContextCurrent;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL32;
+
+import engine.utils.Debug;
+
+/**
+ * Runs the data steps of GL uploads on a separate thread with its own context
+ * that shares objects with the main one. Once an upload's data is sent a fence
+ * is placed behind it, and the upload is only completed on the main thread
+ * after the fence has signaled, so the main context never sees half uploaded
+ * buffers or textures.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class GLUploadThread extends Thread {
+	private final long _contextWindowId;
+
+	// Uploads waiting for this thread, and uploads waiting for the main thread
+	private final RequestQueue _uploads = new RequestQueue();
+	private final RequestQueue _finishedUploads = new RequestQueue();
+	// Finished uploads whose fence hasn't signaled yet, main thread only
+	private final List<FencedUpload> _pendingUploads = new ArrayList<>();
+
+	private final AtomicInteger _outstandingCount = new AtomicInteger();
+	private volatile boolean _active = true;
+	private volatile boolean _waiting = false;
+
+	/**
+	 * Constructs the upload thread and starts it
+	 * 
+	 * @param threadName
+	 *            the name of the thread
+	 * @param contextWindowId
+	 *            the hidden window whose context is shared with the main one
+	 */
+	protected GLUploadThread(String threadName, long contextWindowId) {
+		this._contextWindowId = contextWindowId;
+		this.setName(threadName);
+		this.start();
+	}
+
+	/**
+	 * @return true while the thread is accepting uploads
+	 */
+	public boolean isActive() {
+		return _active;
+	}
+
+	/**
+	 * @return whether or not any upload hasn't been completed yet
+	 */
+	public boolean hasOutstandingUploads() {
+		return _outstandingCount.get() > 0;
+	}
+
+	/**
+	 * Adds an upload to the end of the queue
+	 * 
+	 * @param upload
+	 *            the upload to run
+	 */
+	public void addUploadToQueue(IGLUpload upload) {
+		_outstandingCount.incrementAndGet();
+		_uploads.enqueue(new FencedUpload(upload));
+		if (_waiting)
+			LockSupport.unpark(this);
+	}
+
+	/**
+	 * Completes every finished upload whose fence has signaled. Must be called
+	 * on the main thread.
+	 * 
+	 * @param wait
+	 *            whether to wait for fences that haven't signaled yet
+	 */
+	public void completeFinishedUploads(boolean wait) {
+		IRequest finished;
+		while ((finished = _finishedUploads.dequeue()) != null)
+			_pendingUploads.add((FencedUpload) finished);
+
+		Iterator<FencedUpload> iterator = _pendingUploads.iterator();
+		while (iterator.hasNext()) {
+			FencedUpload upload = iterator.next();
+			int status = GL32.glClientWaitSync(upload.fence, wait ? GL32.GL_SYNC_FLUSH_COMMANDS_BIT : 0,
+					wait ? GL32.GL_TIMEOUT_IGNORED : 0);
+			if (status == GL32.GL_TIMEOUT_EXPIRED)
+				continue;
+
+			iterator.remove();
+			GL32.glDeleteSync(upload.fence);
+			if (status == GL32.GL_WAIT_FAILED)
+				upload.upload.onFailed(new Exception("Failed waiting on the upload fence"));
+			else
+				upload.doRequest();
+			_outstandingCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Running in the upload thread with the shared context current, it runs
+	 * every upload in the order they've come in and parks until notified of
+	 * more
+	 */
+	@Override
+	public void run() {
+		glfwMakeContextCurrent(_contextWindowId);
+		GL.createCapabilities();
+
+		while (true) {
+			IRequest request = _uploads.dequeue();
+			if (request == null) {
+				// Finish off any queued uploads before exiting
+				if (!_active)
+					break;
+
+				// Check again after flagging, so an upload added in between
+				// either is found here or unparks us
+				_waiting = true;
+				if (_uploads.isEmpty() && _active)
+					LockSupport.park(this);
+				_waiting = false;
+				continue;
+			}
+
+			FencedUpload upload = (FencedUpload) request;
+			try {
+				while (!upload.upload.upload(Long.MAX_VALUE))
+					;
+			} catch (Exception e) {
+				Debug.error("Background GL upload failed");
+				e.printStackTrace();
+				upload.upload.onFailed(e);
+				_outstandingCount.decrementAndGet();
+				continue;
+			}
+
+			// Flush so the fence is guaranteed to reach the GPU
+			upload.fence = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+			GL11.glFlush();
+			_finishedUploads.enqueue(upload);
+		}
+
+		GL.setCapabilities(null);
+		glfwMakeContextCurrent(NULL);
+	}
+
+	/**
+	 * Stops accepting uploads, waits for the queued ones and completes them.
+	 * Must be called on the main thread while the shared context still
+	 * exists.
+	 */
+	public void dispose() {
+		_active = false;
+		LockSupport.unpark(this);
+		try {
+			this.join();
+		} catch (InterruptedException e) {
+			Debug.error("Interrupted while waiting for the upload thread");
+			e.printStackTrace();
+		}
+		completeFinishedUploads(true);
+	}
+
+	/*
+	 * An upload and the fence placed behind its data, running it as a request
+	 * completes the upload
+	 */
+	private static final class FencedUpload implements IRequest {
+		final IGLUpload upload;
+		long fence = NULL;
+
+		FencedUpload(IGLUpload upload) {
+			this.upload = upload;
+		}
+
+		@Override
+		public void doRequest() {
+			try {
+				upload.complete();
+			} catch (Exception e) {
+				Debug.error("Failed completing a background GL upload");
+				e.printStackTrace();
+				upload.onFailed(e);
+			}
+		}
+	}
+}
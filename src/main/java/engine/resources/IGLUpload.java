@@ -0,0 +1,48 @@
+package engine.resources;
+
+/**
+ * A GL request that moves a large amount of data to the graphics card and can
+ * be split into smaller steps, so it can be spread over several frames
+ * instead of stalling one. The data steps only touch objects that are shared
+ * between contexts (buffers and textures), so they may also run on the
+ * background upload thread, anything else is left for complete.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public interface IGLUpload {
+	/**
+	 * @return the amount of bytes left to upload
+	 */
+	long getRemainingBytes();
+
+	/**
+	 * Uploads the next part of the data. Called on the main thread or the
+	 * background upload thread.
+	 * 
+	 * @param maxBytes
+	 *            the amount of bytes the step should roughly stay under, a
+	 *            step may go over it if it can't be split any finer
+	 * @return true once every byte is uploaded
+	 * @throws Exception
+	 */
+	boolean upload(long maxBytes) throws Exception;
+
+	/**
+	 * Finishes the upload once every byte is uploaded and visible to the main
+	 * context, i.e. creates a VAO and marks the asset as loaded. Always called
+	 * on the main thread.
+	 * 
+	 * @throws Exception
+	 */
+	void complete() throws Exception;
+
+	/**
+	 * Called instead of completing if a step of the upload failed, may be
+	 * called on either thread
+	 * 
+	 * @param cause
+	 *            the exception thrown by the step
+	 */
+	void onFailed(Exception cause);
+}
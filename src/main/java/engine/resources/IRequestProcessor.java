@@ -1,22 +1,48 @@
 package engine.resources;
 
 /**
- * Represents the signatures for a request processor
+ * Represents the signatures for a resource request processor. The request
+ * manager runs its resource requests through one, by default a pool of
+ * worker threads, see RequestManager.init
  * 
  * @author Brandon Porter
  *
  */
 public interface IRequestProcessor {
 	/**
-	 * Adds a new request to the request queue
+	 * Adds a new request to the request queue with scene priority
 	 * 
 	 * @param request
 	 *            the request to execute
 	 */
-	void addRequestToQueue(IRequest request);
+	default void addRequestToQueue(IRequest request) {
+		addRequestToQueue(request, RequestPriority.SCENE);
+	}
 
 	/**
-	 * Disposes of the processor
+	 * Adds a new request to the queue of its priority. Requests of a higher
+	 * priority should run before any waiting requests of a lower priority.
+	 * 
+	 * @param request
+	 *            the request to execute
+	 * @param priority
+	 *            the priority of the request
+	 * @return a handle to check on or cancel the request
+	 */
+	RequestHandle addRequestToQueue(IRequest request, RequestPriority priority);
+
+	/**
+	 * @return whether or not we have requests queued or running
+	 */
+	boolean hasOutstandingRequests();
+
+	/**
+	 * @return a snapshot of the queue depths and latencies of each priority
+	 */
+	RequestStatistics getStatistics();
+
+	/**
+	 * Disposes of the processor, any queued requests should still run
 	 */
 	void dispose();
 }
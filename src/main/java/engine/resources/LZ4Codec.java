@@ -0,0 +1,250 @@
+package engine.resources;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses data in the LZ4 block format. Compression is a
+ * single greedy pass over a hash table of 4 byte sequences, which is fast but
+ * leaves some ratio on the table; it only runs when packing assets, where
+ * decompression speed is what matters.
+ * 
+ * A block is a list of sequences, each made of a token (high 4 bits literal
+ * length, low 4 bits match length - 4, 15 meaning more length bytes follow),
+ * the literals, then a 2 byte little endian offset back to the match. The last
+ * sequence only has literals.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class LZ4Codec {
+	private static final int MIN_MATCH = 4;
+	// The last 5 bytes are always literals and the last match must start 12
+	// bytes before the end, so a decoder can copy in words without checking
+	private static final int LAST_LITERALS = 5;
+	private static final int MATCH_FIND_LIMIT = 12;
+	private static final int MAX_OFFSET = 65535;
+	private static final int RUN_MASK = 15;
+
+	private static final int HASH_LOG = 12;
+	// Skips ahead faster the longer no match is found
+	private static final int SKIP_TRIGGER = 6;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private LZ4Codec() {
+	}
+
+	/**
+	 * @param length
+	 *            size of the data in bytes
+	 * @return the largest size the data can compress to
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses the data into a new LZ4 block
+	 * 
+	 * @param src
+	 *            the data
+	 * @param srcOffset
+	 *            offset of the first byte to compress
+	 * @param length
+	 *            amount of bytes to compress
+	 * @return the compressed block
+	 */
+	public static byte[] compress(byte[] src, int srcOffset, int length) {
+		byte[] dst = new byte[maxCompressedLength(length)];
+		int dstPos = 0;
+
+		int end = srcOffset + length;
+		int anchor = srcOffset;
+		if (length > MATCH_FIND_LIMIT) {
+			int matchLimit = end - LAST_LITERALS;
+			int findLimit = end - MATCH_FIND_LIMIT;
+			int[] table = new int[1 << HASH_LOG];
+			Arrays.fill(table, -1);
+
+			int pos = srcOffset;
+			while (pos < findLimit) {
+				int sequence = readInt(src, pos);
+				int hash = hash(sequence);
+				int ref = table[hash];
+				table[hash] = pos;
+
+				if (ref < 0 || pos - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+					pos += 1 + ((pos - anchor) >>> SKIP_TRIGGER);
+					continue;
+				}
+
+				// Grow the match backwards into the pending literals
+				while (pos > anchor && ref > srcOffset && src[pos - 1] == src[ref - 1]) {
+					pos--;
+					ref--;
+				}
+
+				int matchLength = MIN_MATCH;
+				while (pos + matchLength < matchLimit && src[pos + matchLength] == src[ref + matchLength])
+					matchLength++;
+
+				dstPos = writeSequence(dst, dstPos, src, anchor, pos - anchor, pos - ref, matchLength);
+				pos += matchLength;
+				anchor = pos;
+			}
+		}
+
+		dstPos = writeLiterals(dst, dstPos, src, anchor, end - anchor);
+		return Arrays.copyOf(dst, dstPos);
+	}
+
+	/**
+	 * Decompresses an LZ4 block
+	 * 
+	 * @param src
+	 *            the compressed block
+	 * @param srcOffset
+	 *            offset of the block
+	 * @param srcLength
+	 *            size of the block in bytes
+	 * @param dst
+	 *            receives the decompressed data
+	 * @param dstOffset
+	 *            where the decompressed data starts
+	 * @param dstLength
+	 *            size of the decompressed data in bytes
+	 * @throws IOException
+	 *             if the block is corrupt or doesn't decompress to exactly
+	 *             dstLength bytes
+	 */
+	public static void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset,
+			int dstLength) throws IOException {
+		int srcPos = srcOffset;
+		int srcEnd = srcOffset + srcLength;
+		int dstPos = dstOffset;
+		int dstEnd = dstOffset + dstLength;
+
+		while (srcPos < srcEnd) {
+			int token = src[srcPos++] & 0xFF;
+
+			// Literals
+			int literalLength = token >>> 4;
+			if (literalLength == RUN_MASK) {
+				int lengthByte;
+				do {
+					if (srcPos >= srcEnd)
+						throw new IOException("Corrupt LZ4 block: literal length runs past the end");
+					lengthByte = src[srcPos++] & 0xFF;
+					literalLength += lengthByte;
+				} while (lengthByte == 255);
+			}
+			if (literalLength > srcEnd - srcPos || literalLength > dstEnd - dstPos)
+				throw new IOException("Corrupt LZ4 block: literals run past the end");
+			System.arraycopy(src, srcPos, dst, dstPos, literalLength);
+			srcPos += literalLength;
+			dstPos += literalLength;
+
+			// The last sequence has no match
+			if (srcPos >= srcEnd)
+				break;
+
+			// Match
+			if (srcEnd - srcPos < 2)
+				throw new IOException("Corrupt LZ4 block: missing match offset");
+			int offset = (src[srcPos] & 0xFF) | ((src[srcPos + 1] & 0xFF) << 8);
+			srcPos += 2;
+			if (offset == 0 || offset > dstPos - dstOffset)
+				throw new IOException("Corrupt LZ4 block: match offset out of range");
+
+			int matchLength = token & RUN_MASK;
+			if (matchLength == RUN_MASK) {
+				int lengthByte;
+				do {
+					if (srcPos >= srcEnd)
+						throw new IOException("Corrupt LZ4 block: match length runs past the end");
+					lengthByte = src[srcPos++] & 0xFF;
+					matchLength += lengthByte;
+				} while (lengthByte == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (matchLength > dstEnd - dstPos)
+				throw new IOException("Corrupt LZ4 block: match runs past the end");
+
+			int matchPos = dstPos - offset;
+			if (offset >= matchLength) {
+				System.arraycopy(dst, matchPos, dst, dstPos, matchLength);
+			} else {
+				// Overlapping matches repeat the last offset bytes
+				for (int i = 0; i < matchLength; i++)
+					dst[dstPos + i] = dst[matchPos + i];
+			}
+			dstPos += matchLength;
+		}
+
+		if (dstPos != dstEnd)
+			throw new IOException("Corrupt LZ4 block: decompressed to " + (dstPos - dstOffset) + " bytes, expected "
+					+ dstLength);
+	}
+
+	/*
+	 * Writes a sequence of literals followed by a match, returns the new
+	 * destination position
+	 */
+	private static int writeSequence(byte[] dst, int dstPos, byte[] src, int literalOffset, int literalLength,
+			int offset, int matchLength) {
+		int tokenPos = dstPos++;
+		int matchRun = matchLength - MIN_MATCH;
+		dst[tokenPos] = (byte) ((Math.min(literalLength, RUN_MASK) << 4) | Math.min(matchRun, RUN_MASK));
+
+		dstPos = writeLength(dst, dstPos, literalLength);
+		System.arraycopy(src, literalOffset, dst, dstPos, literalLength);
+		dstPos += literalLength;
+
+		dst[dstPos++] = (byte) offset;
+		dst[dstPos++] = (byte) (offset >>> 8);
+		return writeLength(dst, dstPos, matchRun);
+	}
+
+	/*
+	 * Writes the last sequence, which only has literals
+	 */
+	private static int writeLiterals(byte[] dst, int dstPos, byte[] src, int literalOffset, int literalLength) {
+		dst[dstPos++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+		dstPos = writeLength(dst, dstPos, literalLength);
+		System.arraycopy(src, literalOffset, dst, dstPos, literalLength);
+		return dstPos + literalLength;
+	}
+
+	/*
+	 * Writes the extra bytes of a length that didn't fit in its token
+	 */
+	private static int writeLength(byte[] dst, int dstPos, int length) {
+		if (length < RUN_MASK)
+			return dstPos;
+
+		int remaining = length - RUN_MASK;
+		while (remaining >= 255) {
+			dst[dstPos++] = (byte) 255;
+			remaining -= 255;
+		}
+		dst[dstPos++] = (byte) remaining;
+		return dstPos;
+	}
+
+	/*
+	 * Reads 4 bytes as a little endian int
+	 */
+	private static int readInt(byte[] src, int pos) {
+		return (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8) | ((src[pos + 2] & 0xFF) << 16)
+				| ((src[pos + 3] & 0xFF) << 24);
+	}
+
+	/*
+	 * Hashes a 4 byte sequence into the match table
+	 */
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG);
+	}
+}
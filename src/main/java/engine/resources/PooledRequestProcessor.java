@@ -0,0 +1,249 @@
+package engine.resources;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import engine.utils.Debug;
+
+/**
+ * Processes non-GL related requests on a pool of worker threads. Every
+ * priority has its own queue (lane) and a free worker always takes the next
+ * request from the highest priority lane, so a long running background request
+ * only holds up its own worker rather than everything queued behind it.
+ * 
+ * Adding a request never locks, the workers take turns consuming the lanes and
+ * park while there is nothing to do.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class PooledRequestProcessor implements IRequestProcessor {
+	private static final int LANE_COUNT = RequestPriority.VALUES.length;
+	// One bit per worker in the idle mask
+	private static final int MAX_WORKERS = Long.SIZE;
+
+	private final Thread[] _workers;
+	private final RequestQueue[] _lanes = new RequestQueue[LANE_COUNT];
+	// Only one worker may dequeue from the lanes at a time
+	private final Object _consumerLock = new Object();
+	// Bit i is set while worker i is parked waiting for requests
+	private final AtomicLong _idleWorkers = new AtomicLong();
+	private volatile boolean _active = true;
+
+	// Requests queued (and not cancelled) in each lane
+	private final AtomicInteger[] _queueDepths = new AtomicInteger[LANE_COUNT];
+	private final AtomicInteger _runningCount = new AtomicInteger();
+
+	// Statistics per lane, times are in nanoseconds
+	private final AtomicLong[] _completedCounts = new AtomicLong[LANE_COUNT];
+	private final AtomicLong[] _cancelledCounts = new AtomicLong[LANE_COUNT];
+	private final AtomicLong[] _totalWaitNS = new AtomicLong[LANE_COUNT];
+	private final AtomicLong[] _maxWaitNS = new AtomicLong[LANE_COUNT];
+	private final AtomicLong[] _totalRunNS = new AtomicLong[LANE_COUNT];
+
+	/**
+	 * Constructs the request processor and starts its worker threads
+	 * 
+	 * @param threadName
+	 *            the base name of the worker threads, each is suffixed by its
+	 *            index
+	 * @param workerCount
+	 *            the amount of worker threads, between 1 and 64
+	 */
+	protected PooledRequestProcessor(String threadName, int workerCount) {
+		for (int i = 0; i < LANE_COUNT; i++) {
+			_lanes[i] = new RequestQueue();
+			_queueDepths[i] = new AtomicInteger();
+			_completedCounts[i] = new AtomicLong();
+			_cancelledCounts[i] = new AtomicLong();
+			_totalWaitNS[i] = new AtomicLong();
+			_maxWaitNS[i] = new AtomicLong();
+			_totalRunNS[i] = new AtomicLong();
+		}
+
+		if (workerCount > MAX_WORKERS)
+			Debug.warn("Too many resource request workers, limiting to " + MAX_WORKERS);
+		_workers = new Thread[Math.max(1, Math.min(workerCount, MAX_WORKERS))];
+		for (int i = 0; i < _workers.length; i++) {
+			final int index = i;
+			_workers[i] = new Thread(() -> runWorker(index), threadName + " " + i);
+		}
+		for (Thread worker : _workers)
+			worker.start();
+	}
+
+	/**
+	 * @return whether or not we have requests queued or running
+	 */
+	@Override
+	public boolean hasOutstandingRequests() {
+		if (_runningCount.get() > 0)
+			return true;
+
+		for (AtomicInteger depth : _queueDepths) {
+			if (depth.get() > 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a new request to the queue of its priority
+	 * 
+	 * @param request
+	 *            the request to execute
+	 * @param priority
+	 *            the priority of the request
+	 * @return a handle to check on or cancel the request
+	 */
+	@Override
+	public RequestHandle addRequestToQueue(IRequest request, RequestPriority priority) {
+		if (!_active) {
+			Debug.warn("Resource request made after the request processor was disposed, ignoring it");
+			return RequestHandle.cancelled(request, priority);
+		}
+
+		RequestHandle handle = new RequestHandle(request, priority, this);
+		_queueDepths[priority.ordinal()].incrementAndGet();
+
+		_lanes[priority.ordinal()].enqueue(handle);
+
+		// Only one worker is needed per request
+		wakeIdleWorker();
+		return handle;
+	}
+
+	/**
+	 * @return a snapshot of the queue depths and latencies of each lane
+	 */
+	@Override
+	public RequestStatistics getStatistics() {
+		int[] queueDepths = new int[LANE_COUNT];
+		long[] completedCounts = new long[LANE_COUNT];
+		long[] cancelledCounts = new long[LANE_COUNT];
+		double[] averageWaitMS = new double[LANE_COUNT];
+		double[] maxWaitMS = new double[LANE_COUNT];
+		double[] averageRunMS = new double[LANE_COUNT];
+
+		for (int i = 0; i < LANE_COUNT; i++) {
+			queueDepths[i] = _queueDepths[i].get();
+			completedCounts[i] = _completedCounts[i].get();
+			cancelledCounts[i] = _cancelledCounts[i].get();
+			if (completedCounts[i] > 0) {
+				averageWaitMS[i] = _totalWaitNS[i].get() / 1e6 / completedCounts[i];
+				averageRunMS[i] = _totalRunNS[i].get() / 1e6 / completedCounts[i];
+			}
+			maxWaitMS[i] = _maxWaitNS[i].get() / 1e6;
+		}
+
+		return new RequestStatistics(_workers.length, _runningCount.get(), queueDepths, completedCounts,
+				cancelledCounts, averageWaitMS, maxWaitMS, averageRunMS);
+	}
+
+	/**
+	 * Disposes the processor by setting it to inactive and waking any parked
+	 * workers, which finish off the queued requests before exiting
+	 */
+	@Override
+	public void dispose() {
+		_active = false;
+		for (Thread worker : _workers)
+			LockSupport.unpark(worker);
+	}
+
+	/*
+	 * Called by a handle once it has been taken off the queue to run
+	 */
+	void onStarted(RequestHandle handle) {
+		_queueDepths[handle.getPriority().ordinal()].decrementAndGet();
+		_runningCount.incrementAndGet();
+	}
+
+	/*
+	 * Called by a handle once it has finished running
+	 */
+	void onCompleted(RequestHandle handle, long waitNS, long runNS) {
+		int lane = handle.getPriority().ordinal();
+		_completedCounts[lane].incrementAndGet();
+		_totalWaitNS[lane].addAndGet(waitNS);
+		_totalRunNS[lane].addAndGet(runNS);
+
+		long max = _maxWaitNS[lane].get();
+		while (waitNS > max && !_maxWaitNS[lane].compareAndSet(max, waitNS))
+			max = _maxWaitNS[lane].get();
+
+		_runningCount.decrementAndGet();
+	}
+
+	/*
+	 * Called by a handle that was cancelled while still queued, the handle
+	 * itself is skipped once a worker dequeues it
+	 */
+	void onCancelled(RequestHandle handle) {
+		int lane = handle.getPriority().ordinal();
+		_queueDepths[lane].decrementAndGet();
+		_cancelledCounts[lane].incrementAndGet();
+	}
+
+	/*
+	 * Running on each worker thread, it continues picking off the highest
+	 * priority request until there are none and finally parks until woken up
+	 * for more
+	 */
+	private void runWorker(int index) {
+		long bit = 1L << index;
+		while (true) {
+			IRequest request = takeRequest();
+			if (request == null) {
+				// Finish off any queued requests before exiting
+				if (!_active)
+					return;
+
+				// Mark ourselves idle before checking again, so a request added
+				// in between either is found here or wakes us up
+				_idleWorkers.getAndAccumulate(bit, (mask, b) -> mask | b);
+				request = takeRequest();
+				if (request == null) {
+					// Suspend thread until a producer clears our bit
+					while ((_idleWorkers.get() & bit) != 0 && _active)
+						LockSupport.park(this);
+				}
+				_idleWorkers.getAndAccumulate(bit, (mask, b) -> mask & ~b);
+				if (request == null)
+					continue;
+			}
+
+			// Cancelled handles do nothing when run
+			request.doRequest();
+		}
+	}
+
+	/*
+	 * Unparks one idle worker, if there are any
+	 */
+	private void wakeIdleWorker() {
+		long idle;
+		while ((idle = _idleWorkers.get()) != 0) {
+			long bit = Long.lowestOneBit(idle);
+			if (_idleWorkers.compareAndSet(idle, idle & ~bit)) {
+				LockSupport.unpark(_workers[Long.numberOfTrailingZeros(bit)]);
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Removes the top request of the highest priority lane that has one
+	 */
+	private IRequest takeRequest() {
+		synchronized (_consumerLock) {
+			for (RequestQueue lane : _lanes) {
+				IRequest request = lane.dequeue();
+				if (request != null)
+					return request;
+			}
+			return null;
+		}
+	}
+}
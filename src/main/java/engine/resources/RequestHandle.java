@@ -0,0 +1,141 @@
+package engine.resources;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import engine.utils.Debug;
+
+/**
+ * A handle to a queued resource request, used to check on or cancel the
+ * request
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class RequestHandle implements IRequest {
+	private static final int QUEUED = 0;
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+	private static final int CANCELLED = 3;
+
+	private final IRequest _request;
+	private final RequestPriority _priority;
+	private final PooledRequestProcessor _processor;
+	private final long _queuedTimeNS;
+	private final AtomicInteger _state = new AtomicInteger(QUEUED);
+	private final CompletableFuture<Void> _future = new CompletableFuture<>();
+
+	/**
+	 * Constructs a handle for a request that is about to be queued by a
+	 * request processor, which runs the request through the handle's
+	 * doRequest
+	 * 
+	 * @param request
+	 *            the request to run
+	 * @param priority
+	 *            the priority the request is queued with
+	 */
+	public RequestHandle(IRequest request, RequestPriority priority) {
+		this(request, priority, null);
+	}
+
+	/*
+	 * Constructs a handle reporting to the pooled processor's statistics
+	 */
+	RequestHandle(IRequest request, RequestPriority priority, PooledRequestProcessor processor) {
+		this._request = request;
+		this._priority = priority;
+		this._processor = processor;
+		this._queuedTimeNS = System.nanoTime();
+	}
+
+	/**
+	 * @return the priority the request was queued with
+	 */
+	public RequestPriority getPriority() {
+		return _priority;
+	}
+
+	/**
+	 * A future that completes once the request has run, exceptionally if the
+	 * request threw, or is cancelled along with the request
+	 * 
+	 * @return the completion future of the request
+	 */
+	public CompletableFuture<Void> getFuture() {
+		return _future;
+	}
+
+	/**
+	 * Cancels the request if it hasn't started yet. A request that is already
+	 * running is always finished.
+	 * 
+	 * @return true if the request was cancelled and will never run
+	 */
+	public boolean cancel() {
+		if (!_state.compareAndSet(QUEUED, CANCELLED))
+			return false;
+
+		if (_processor != null)
+			_processor.onCancelled(this);
+		_future.cancel(false);
+		return true;
+	}
+
+	/**
+	 * @return true if the request was cancelled before it could run
+	 */
+	public boolean isCancelled() {
+		return _state.get() == CANCELLED;
+	}
+
+	/**
+	 * @return true once the request has finished running (or failed)
+	 */
+	public boolean isDone() {
+		return _state.get() == DONE;
+	}
+
+	/**
+	 * Runs the request unless it has been cancelled. Normally only called by
+	 * the worker that takes the request off the queue.
+	 */
+	@Override
+	public void doRequest() {
+		if (!_state.compareAndSet(QUEUED, RUNNING))
+			return;
+		if (_processor != null)
+			_processor.onStarted(this);
+
+		long startTimeNS = System.nanoTime();
+		Throwable failure = null;
+		try {
+			_request.doRequest();
+		} catch (Throwable e) {
+			// A failing request must never take its worker down with it
+			Debug.error("Resource request failed on " + Thread.currentThread().getName());
+			e.printStackTrace();
+			failure = e;
+		} finally {
+			_state.set(DONE);
+			if (_processor != null)
+				_processor.onCompleted(this, startTimeNS - _queuedTimeNS, System.nanoTime() - startTimeNS);
+		}
+
+		// Completed last so dependents see the request as done
+		if (failure != null)
+			_future.completeExceptionally(failure);
+		else
+			_future.complete(null);
+	}
+
+	/*
+	 * Creates a handle for a request that will never run
+	 */
+	static RequestHandle cancelled(IRequest request, RequestPriority priority) {
+		RequestHandle handle = new RequestHandle(request, priority, null);
+		handle._state.set(CANCELLED);
+		handle._future.cancel(false);
+		return handle;
+	}
+}
@@ -1,6 +1,10 @@
 package engine.resources;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import engine.Engine;
+import engine.common.Defaults;
 import engine.utils.Debug;
 
 /**
@@ -21,29 +25,150 @@ public final class RequestManager {
 	 * The name of the thread running resource requests
 	 */
 	public static final String RESOURCE_THREAD_NAME = "Resource Thread";
+	/**
+	 * The name of the thread uploading to the shared graphics context
+	 */
+	public static final String UPLOAD_THREAD_NAME = "GL Upload Thread";
 
 	/*
-	 * Processes any resource and/or other related requests in a separate thread
+	 * Processes any resource and/or other related requests, by default on a
+	 * pool of worker threads created on first use if init wasn't called.
+	 * Volatile so requests can be made without taking the class lock once it
+	 * exists
 	 */
-	private static final RequestProcessor REQUEST_PROCESSOR = new RequestProcessor(RESOURCE_THREAD_NAME);
+	private static volatile IRequestProcessor _requestProcessor = null;
 	/*
 	 * Processes only OpenGL-related requests on the main thread
 	 */
 	private static final GLRequestProcessor GL_REQUEST_PROCESSOR = new GLRequestProcessor();
+	/*
+	 * Uploads buffers and textures on a shared context, if there is one
+	 */
+	private static volatile GLUploadThread _uploadThread = null;
+	/*
+	 * Runs future stages as scene priority resource requests
+	 */
+	private static final Executor RESOURCE_EXECUTOR = command -> makeResourceRequest(command::run);
 
 	// Static class
 	private RequestManager() {
 	}
 
 	/**
-	 * Adds a non-GL request to the resource request queue and executes it in a
-	 * separate thread when the request is first on the list
+	 * Starts the resource request workers. Must be called before any resource
+	 * requests are made, otherwise the default amount of workers is used.
+	 * 
+	 * @param workerCount
+	 *            the amount of threads running resource requests
+	 */
+	public static synchronized void init(int workerCount) {
+		if (_requestProcessor != null) {
+			Debug.warn("Resource request workers have already been started, ignoring worker count " + workerCount);
+			return;
+		}
+		_requestProcessor = new PooledRequestProcessor(RESOURCE_THREAD_NAME, workerCount);
+	}
+
+	/**
+	 * Runs the resource requests through the processor instead of the default
+	 * pool of workers. Must be called before any resource requests are made.
+	 * 
+	 * @param requestProcessor
+	 *            the processor running resource requests, it is disposed along
+	 *            with the request manager
+	 */
+	public static synchronized void init(IRequestProcessor requestProcessor) {
+		if (_requestProcessor != null) {
+			Debug.warn("A resource request processor has already been started, ignoring " + requestProcessor);
+			return;
+		}
+		_requestProcessor = requestProcessor;
+	}
+
+	/**
+	 * Starts the background upload thread on a context shared with the main
+	 * one. From then on uploads run there instead of on the main thread, only
+	 * their completion is left for the main thread.
+	 * 
+	 * @param contextWindowId
+	 *            the hidden window whose context is shared with the main one
+	 */
+	public static synchronized void startGLUploadThread(long contextWindowId) {
+		if (_uploadThread != null) {
+			Debug.warn("The GL upload thread has already been started");
+			return;
+		}
+		_uploadThread = new GLUploadThread(UPLOAD_THREAD_NAME, contextWindowId);
+	}
+
+	/**
+	 * Stops the background upload thread, finishing and completing any
+	 * uploads it has. Must be called on the main thread before the shared
+	 * context is destroyed.
+	 */
+	public static synchronized void disposeGLUploadThread() {
+		if (_uploadThread != null) {
+			_uploadThread.dispose();
+			_uploadThread = null;
+		}
+	}
+
+	/**
+	 * Adds a non-GL request to the resource request queue with scene priority
+	 * and executes it on a worker thread when the request is first on the list
 	 * 
 	 * @param request
 	 *            the non-GL request to execute in a separate thread
+	 * @return a handle to check on or cancel the request
+	 */
+	public static RequestHandle makeResourceRequest(IRequest request) {
+		return makeResourceRequest(request, RequestPriority.SCENE);
+	}
+
+	/**
+	 * Adds a non-GL request to the resource request queue of its priority and
+	 * executes it on a worker thread once no higher priority requests are
+	 * waiting
+	 * 
+	 * @param request
+	 *            the non-GL request to execute in a separate thread
+	 * @param priority
+	 *            the priority of the request
+	 * @return a handle to check on or cancel the request
+	 */
+	public static RequestHandle makeResourceRequest(IRequest request, RequestPriority priority) {
+		return getRequestProcessor().addRequestToQueue(request, priority);
+	}
+
+	/**
+	 * An executor that runs each task as a scene priority resource request,
+	 * i.e. to continue a future on a worker thread instead of the thread that
+	 * completed it
+	 * 
+	 * @return the resource request executor
+	 */
+	public static Executor getResourceExecutor() {
+		return RESOURCE_EXECUTOR;
+	}
+
+	/**
+	 * Queues a GL request that completes the returned future. Since GL requests
+	 * are executed in the order they've come in, the future completes once
+	 * every GL request queued before this call has been executed.
+	 * 
+	 * @return a future completing on the main thread
+	 */
+	public static CompletableFuture<Void> whenGLRequestsComplete() {
+		CompletableFuture<Void> barrier = new CompletableFuture<>();
+		makeGLRequest(() -> barrier.complete(null));
+		return barrier;
+	}
+
+	/**
+	 * @return a snapshot of the resource request queue depths and latencies
 	 */
-	public static void makeResourceRequest(IRequest request) {
-		REQUEST_PROCESSOR.addRequestToQueue(request);
+	public static RequestStatistics getResourceRequestStatistics() {
+		return getRequestProcessor().getStatistics();
 	}
 
 	/**
@@ -79,14 +204,66 @@ public final class RequestManager {
 		return false;
 	}
 
+	/**
+	 * Adds an upload to the background upload thread if there is one,
+	 * otherwise to the OpenGL request queue, where it is executed on the MAIN
+	 * thread in chunks sized to fit each frame's GL request budget
+	 * 
+	 * @param upload
+	 *            the upload to execute
+	 */
+	public static void makeGLUpload(IGLUpload upload) {
+		GLUploadThread uploadThread = _uploadThread;
+		if (uploadThread != null && uploadThread.isActive())
+			uploadThread.addUploadToQueue(upload);
+		else
+			GL_REQUEST_PROCESSOR.addUploadToQueue(upload);
+	}
+
+	/**
+	 * Attempts to execute the whole upload immediately ONLY IF we are on the
+	 * main thread, otherwise we just append it to the normal GL request queue.
+	 * 
+	 * @param upload
+	 *            the upload to execute on the main thread
+	 * @return true if the upload was immediate, false if it was added to a
+	 *         queue
+	 */
+	public static boolean makeGLUploadImmediate(IGLUpload upload) {
+		if (Thread.currentThread().getName().equals(GRAPHICS_THREAD_NAME)) {
+			GLRequestProcessor.runToCompletion(upload);
+			return true;
+		}
+
+		makeGLUpload(upload);
+		return false;
+	}
+
 	/**
 	 * Executes the next chunk of GL requests in the order they've come in. This
 	 * is the preferred call over "executeAllGLRequests" as this will execute
-	 * requests on a timer and will pause if it takes too long. This method will
-	 * be called at least once every frame.
+	 * requests within a time budget and continue large uploads next frame.
+	 * This method will be called at least once every frame.
 	 */
 	public static void executeSomeGLRequests() {
-		GL_REQUEST_PROCESSOR.run(false);
+		executeSomeGLRequests(Defaults.Resources.GL_REQUEST_MAX_BUDGET_MS);
+	}
+
+	/**
+	 * Executes the next chunk of GL requests in the order they've come in,
+	 * spending about as much time as the frame has left
+	 * 
+	 * @param frameHeadroomMS
+	 *            the time left before the frame is due, clamped to the min and
+	 *            max GL request budget
+	 */
+	public static void executeSomeGLRequests(double frameHeadroomMS) {
+		// Completing background uploads is cheap, so it happens every frame
+		GLUploadThread uploadThread = _uploadThread;
+		if (uploadThread != null)
+			uploadThread.completeFinishedUploads(false);
+
+		GL_REQUEST_PROCESSOR.run(frameHeadroomMS);
 	}
 
 	/**
@@ -96,7 +273,11 @@ public final class RequestManager {
 	 * remaining GL requests this could take a while.
 	 */
 	public static void executeAllGLRequests() {
-		GL_REQUEST_PROCESSOR.run(true);
+		GLUploadThread uploadThread = _uploadThread;
+		if (uploadThread != null)
+			uploadThread.completeFinishedUploads(false);
+
+		GL_REQUEST_PROCESSOR.runAll();
 	}
 
 	/**
@@ -107,7 +288,11 @@ public final class RequestManager {
 	 * 
 	 * @param request
 	 *            callback to execute once complete
+	 * @deprecated polls the request queues, depend on the futures of the
+	 *             requests and assets instead (see AssetDependencies and
+	 *             whenGLRequestsComplete)
 	 */
+	@Deprecated
 	public static void waitForAllRequestsOnSeparateThread(IRequest request) {
 		// TODO: Creating new objects is bad, have a permanent thread or thread
 		// pool or refactor this out.
@@ -115,7 +300,8 @@ public final class RequestManager {
 
 			// We loop through and see if we have any outstanding requests, if
 			// we do then we wait
-			while (REQUEST_PROCESSOR.hasOutstandingRequests() || GL_REQUEST_PROCESSOR.hasOutstandingRequests()) {
+			while (getRequestProcessor().hasOutstandingRequests() || GL_REQUEST_PROCESSOR.hasOutstandingRequests()
+					|| (_uploadThread != null && _uploadThread.hasOutstandingUploads())) {
 				Debug.log("We have outstanding requests, waiting 10 milliseconds");
 				try {
 					Thread.sleep(10);
@@ -128,7 +314,7 @@ public final class RequestManager {
 			// Execute the request
 			Debug.log("Done waiting for outstanding requests, executing callback");
 			request.doRequest();
-		}).run();
+		}).start();
 	}
 
 	/**
@@ -137,7 +323,26 @@ public final class RequestManager {
 	public static void dispose() {
 		// Dispose request processor first so the separate thread can finish
 		// any resource requests while the main thread finishes GL requests
-		REQUEST_PROCESSOR.dispose();
+		if (_requestProcessor != null)
+			_requestProcessor.dispose();
 		GL_REQUEST_PROCESSOR.dispose();
 	}
+
+	/*
+	 * Gets the resource request processor, starting it with the default amount
+	 * of workers if needed. Only the first calls lock, the processor never
+	 * changes once it is started
+	 */
+	private static IRequestProcessor getRequestProcessor() {
+		IRequestProcessor requestProcessor = _requestProcessor;
+		if (requestProcessor != null)
+			return requestProcessor;
+
+		synchronized (RequestManager.class) {
+			if (_requestProcessor == null)
+				_requestProcessor = new PooledRequestProcessor(RESOURCE_THREAD_NAME,
+						Defaults.Engine.RESOURCE_WORKER_COUNT);
+			return _requestProcessor;
+		}
+	}
 }
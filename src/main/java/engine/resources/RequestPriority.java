@@ -0,0 +1,29 @@
+package engine.resources;
+
+/**
+ * The priority lanes of resource requests. Workers always take the next
+ * request from the highest priority lane that has one, requests within a lane
+ * are executed in the order they've come in
+ * 
+ * @author Brandon Porter
+ *
+ */
+public enum RequestPriority {
+	/**
+	 * Needed right now (i.e. a resource the current frame is waiting on)
+	 */
+	CRITICAL,
+	/**
+	 * Needed by the scene being loaded, the default priority
+	 */
+	SCENE,
+	/**
+	 * Prefetching resources that may be needed later
+	 */
+	BACKGROUND;
+
+	/**
+	 * Every priority, highest priority first
+	 */
+	public static final RequestPriority[] VALUES = values();
+}
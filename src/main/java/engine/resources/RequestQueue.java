@@ -1,41 +1,163 @@
 package engine.resources;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 /**
- * Manages a thread-safe queue of requests for processing by the request manager
+ * Manages a lock-free queue of requests for processing by the request manager.
+ * Any amount of threads can enqueue requests but only a single thread may
+ * dequeue at a time (multi-producer/single-consumer).
+ * 
+ * Requests are stored in fixed size chunks of slots chained together, each
+ * producer claims a slot by incrementing the tail index and the consumer reads
+ * the slots in order, so there is no allocation per request and no locking.
  * 
  * @author Brandon Porter
  *
  */
 public class RequestQueue {
-	private LinkedList<IRequest> _requestQueue = new LinkedList<>();
+	private static final int CHUNK_SIZE = 256;
+
+	// Producer side, the index of the next free slot and the newest chunk
+	private final AtomicLong _tail = new AtomicLong();
+	private final AtomicReference<Chunk> _tailChunk;
+
+	// Consumer side, the index of the next slot to read and its chunk. The
+	// head is volatile so other threads can check whether we're empty.
+	private volatile long _head = 0;
+	private Chunk _headChunk;
 
 	// Prevent instantiation outside of package
 	protected RequestQueue() {
+		_headChunk = new Chunk(0);
+		_tailChunk = new AtomicReference<>(_headChunk);
 	}
 
 	/**
-	 * Adds a new request to the end of the request queue
+	 * Adds a new request to the end of the request queue, safe to call from
+	 * any thread
 	 * 
 	 * @param request
 	 *            the request to add
 	 */
-	public synchronized void enqueue(IRequest request) {
-		_requestQueue.addLast(request);
+	public void enqueue(IRequest request) {
+		// The tail chunk has to be read before claiming the slot, it can only
+		// have moved past slots that were claimed before ours
+		Chunk chunk = _tailChunk.get();
+		long index = _tail.getAndIncrement();
+
+		while (index >= chunk.base + CHUNK_SIZE) {
+			Chunk next = chunk.next.get();
+			if (next == null) {
+				// Chain a new chunk, if another producer beats us we use theirs
+				chunk.next.compareAndSet(null, new Chunk(chunk.base + CHUNK_SIZE));
+				next = chunk.next.get();
+			}
+			chunk = next;
+		}
+
+		// Move the tail chunk forward so later producers don't walk the chain
+		Chunk tailChunk = _tailChunk.get();
+		while (tailChunk.base < chunk.base && !_tailChunk.compareAndSet(tailChunk, chunk))
+			tailChunk = _tailChunk.get();
+
+		chunk.slots.set((int) (index - chunk.base), request);
 	}
 
 	/**
-	 * @return Removes the top request from the queue
+	 * Removes the top request from the queue, must only be called by one
+	 * thread at a time
+	 * 
+	 * @return the top request, or null if the queue is empty (or the top
+	 *         request is still being added)
 	 */
-	public synchronized IRequest dequeue() {
-		return _requestQueue.removeFirst();
+	public IRequest dequeue() {
+		long head = _head;
+		int slot = (int) (head - _headChunk.base);
+
+		if (slot == CHUNK_SIZE) {
+			// The next chunk only exists once a producer claimed a slot in it
+			Chunk next = _headChunk.next.get();
+			if (next == null)
+				return null;
+			_headChunk = next;
+			slot = 0;
+		}
+
+		IRequest request = _headChunk.slots.get(slot);
+		if (request == null)
+			return null;
+
+		// Clear the slot so the request can be collected
+		_headChunk.slots.lazySet(slot, null);
+		_head = head + 1;
+		return request;
+	}
+
+	/**
+	 * Gets the top request without removing it, must only be called by the
+	 * consuming thread
+	 * 
+	 * @return the top request, or null if the queue is empty (or the top
+	 *         request is still being added)
+	 */
+	public IRequest peek() {
+		int slot = (int) (_head - _headChunk.base);
+		if (slot < CHUNK_SIZE)
+			return _headChunk.slots.get(slot);
+
+		Chunk next = _headChunk.next.get();
+		return next != null ? next.slots.get(0) : null;
+	}
+
+	/**
+	 * Removes up to max requests from the top of the queue and hands each to
+	 * the consumer, must only be called by one thread at a time
+	 * 
+	 * @param consumer
+	 *            receives each request in order
+	 * @param max
+	 *            the max amount of requests to remove
+	 * @return the amount of requests removed
+	 */
+	public int drain(Consumer<IRequest> consumer, int max) {
+		int count = 0;
+		IRequest request;
+		while (count < max && (request = dequeue()) != null) {
+			consumer.accept(request);
+			count++;
+		}
+		return count;
 	}
 
 	/**
 	 * @return true if the request queue is empty, false if we have requests
+	 *         (including requests still being added)
+	 */
+	public boolean isEmpty() {
+		return _tail.get() <= _head;
+	}
+
+	/**
+	 * @return the amount of requests in the queue
 	 */
-	public synchronized boolean isEmpty() {
-		return _requestQueue.isEmpty();
+	public int size() {
+		return (int) Math.max(0, _tail.get() - _head);
+	}
+
+	/*
+	 * A fixed size block of request slots, chained to the next block
+	 */
+	private static final class Chunk {
+		// The queue index of the first slot
+		final long base;
+		final AtomicReferenceArray<IRequest> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+		final AtomicReference<Chunk> next = new AtomicReference<>();
+
+		Chunk(long base) {
+			this.base = base;
+		}
 	}
 }
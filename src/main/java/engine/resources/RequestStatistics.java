@@ -0,0 +1,107 @@
+package engine.resources;
+
+/**
+ * A snapshot of the state of the resource request workers. Each array is
+ * indexed by the ordinal of the request priority.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class RequestStatistics {
+	/**
+	 * The amount of worker threads
+	 */
+	public final int workerCount;
+	/**
+	 * The amount of workers currently running a request
+	 */
+	public final int activeWorkerCount;
+	/**
+	 * The amount of requests waiting in each lane
+	 */
+	public final int[] queueDepths;
+	/**
+	 * The amount of requests completed from each lane
+	 */
+	public final long[] completedCounts;
+	/**
+	 * The amount of requests cancelled from each lane
+	 */
+	public final long[] cancelledCounts;
+	/**
+	 * The average time requests of each lane waited in the queue (ms)
+	 */
+	public final double[] averageWaitMS;
+	/**
+	 * The longest time a request of each lane waited in the queue (ms)
+	 */
+	public final double[] maxWaitMS;
+	/**
+	 * The average time requests of each lane took to run (ms)
+	 */
+	public final double[] averageRunMS;
+
+	/**
+	 * Constructs a new snapshot, each array is indexed by the ordinal of the
+	 * request priority
+	 * 
+	 * @param workerCount
+	 *            the amount of worker threads
+	 * @param activeWorkerCount
+	 *            the amount of workers currently running a request
+	 * @param queueDepths
+	 *            the amount of requests waiting in each lane
+	 * @param completedCounts
+	 *            the amount of requests completed from each lane
+	 * @param cancelledCounts
+	 *            the amount of requests cancelled from each lane
+	 * @param averageWaitMS
+	 *            the average queue wait of each lane (ms)
+	 * @param maxWaitMS
+	 *            the longest queue wait of each lane (ms)
+	 * @param averageRunMS
+	 *            the average run time of each lane (ms)
+	 */
+	public RequestStatistics(int workerCount, int activeWorkerCount, int[] queueDepths, long[] completedCounts,
+			long[] cancelledCounts, double[] averageWaitMS, double[] maxWaitMS, double[] averageRunMS) {
+		this.workerCount = workerCount;
+		this.activeWorkerCount = activeWorkerCount;
+		this.queueDepths = queueDepths;
+		this.completedCounts = completedCounts;
+		this.cancelledCounts = cancelledCounts;
+		this.averageWaitMS = averageWaitMS;
+		this.maxWaitMS = maxWaitMS;
+		this.averageRunMS = averageRunMS;
+	}
+
+	/**
+	 * @param priority
+	 * @return the amount of requests waiting with the priority
+	 */
+	public int getQueueDepth(RequestPriority priority) {
+		return queueDepths[priority.ordinal()];
+	}
+
+	/**
+	 * @return the amount of requests waiting across every lane
+	 */
+	public int getTotalQueueDepth() {
+		int total = 0;
+		for (int depth : queueDepths)
+			total += depth;
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("Workers: %d/%d active", activeWorkerCount, workerCount));
+		for (RequestPriority priority : RequestPriority.VALUES) {
+			int i = priority.ordinal();
+			builder.append(String.format(", %s: queued %d, done %d, cancelled %d, wait avg %.2fms max %.2fms, run avg %.2fms",
+					priority, queueDepths[i], completedCounts[i], cancelledCounts[i], averageWaitMS[i], maxWaitMS[i],
+					averageRunMS[i]));
+		}
+		return builder.toString();
+	}
+}
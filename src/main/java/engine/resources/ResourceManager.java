@@ -1,14 +1,27 @@
 package engine.resources;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
+import org.lwjgl.BufferUtils;
+
+import engine.utils.Debug;
+
 /**
  * Anything dealing with the loading of resources
  * 
@@ -26,12 +39,51 @@ public final class ResourceManager {
 	public static final String MODELS_PATH = "models/";
 	public static final String TEXTURES_PATH = "textures/";
 
+	/*
+	 * Resources are read from the pack first if there is one, then the
+	 * classpath
+	 */
+	private static volatile AssetPack _assetPack = null;
+
 	/*
 	 * Prevent instantiation
 	 */
 	private ResourceManager() {
 	}
 
+	/**
+	 * Opens the asset pack resources are read from before falling back to the
+	 * classpath. If the pack doesn't exist resources are only read from the
+	 * classpath.
+	 * 
+	 * @param packFile
+	 *            path of the pack file (relative to the working directory)
+	 * @return true if the pack was opened
+	 */
+	public static boolean openAssetPack(String packFile) {
+		Path path = Paths.get(packFile);
+		if (!Files.isRegularFile(path))
+			return false;
+
+		try {
+			_assetPack = AssetPack.open(path);
+			Debug.log("Reading resources from asset pack: " + path + " (" + _assetPack.getNames().size()
+					+ " entries)");
+			return true;
+		} catch (IOException e) {
+			Debug.warn("Could not open asset pack: " + path + " (" + e.getMessage() + ")");
+			return false;
+		}
+	}
+
+	/**
+	 * @return the asset pack resources are read from, or null if there is
+	 *         none
+	 */
+	public static AssetPack getAssetPack() {
+		return _assetPack;
+	}
+
 	/**
 	 * Loads the found shader file as a String
 	 * 
@@ -84,6 +136,137 @@ public final class ResourceManager {
 		return loadResourceAsStringList(MODELS_PATH + fileName);
 	}
 
+	/**
+	 * Opens the model file as a stream so it can be parsed without loading
+	 * every line into memory first
+	 * 
+	 * @param fileName
+	 *            filename of the model
+	 * @return the model file as an input stream
+	 * @throws FileNotFoundException
+	 */
+	public static InputStream loadModelAsStream(String fileName) throws FileNotFoundException {
+		InputStream in = loadResourceAsStream(MODELS_PATH + fileName);
+		if (in == null)
+			throw new FileNotFoundException("Could not find model: " + fileName);
+		return in;
+	}
+
+	/**
+	 * Loads the complete model file as bytes
+	 * 
+	 * @param fileName
+	 *            filename of the model
+	 * @return all bytes of the model file
+	 * @throws IOException
+	 */
+	public static byte[] loadModelAsBytes(String fileName) throws IOException {
+		try (InputStream in = loadModelAsStream(fileName)) {
+			return readAllBytes(in);
+		}
+	}
+
+	/**
+	 * Loads the complete model file as a direct buffer. Models on the file
+	 * system are memory mapped, otherwise (i.e. inside a jar) they are read
+	 * into a new direct buffer
+	 * 
+	 * @param fileName
+	 *            filename of the model
+	 * @return read only buffer of the model file
+	 * @throws IOException
+	 */
+	public static ByteBuffer loadModelAsBuffer(String fileName) throws IOException {
+		ByteBuffer buffer = loadResourceAsBuffer(MODELS_PATH + fileName);
+		if (buffer == null)
+			throw new FileNotFoundException("Could not find model: " + fileName);
+		return buffer;
+	}
+
+	/**
+	 * Loads the specified texture file as a stream
+	 * 
+	 * @param fileName
+	 *            filename of the texture
+	 * @return the texture file as an input stream
+	 * @throws FileNotFoundException
+	 */
+	public static InputStream loadTextureAsStream(String fileName) throws FileNotFoundException {
+		InputStream in = loadResourceAsStream(TEXTURES_PATH + fileName);
+		if (in == null)
+			throw new FileNotFoundException("Could not find texture: " + fileName);
+		return in;
+	}
+
+	/**
+	 * Loads the complete texture file as bytes
+	 * 
+	 * @param fileName
+	 *            filename of the texture
+	 * @return all bytes of the texture file
+	 * @throws IOException
+	 */
+	public static byte[] loadTextureAsBytes(String fileName) throws IOException {
+		try (InputStream in = loadTextureAsStream(fileName)) {
+			return readAllBytes(in);
+		}
+	}
+
+	/**
+	 * Loads the complete texture file as a direct buffer. Textures on the file
+	 * system are memory mapped, otherwise (i.e. inside a jar) they are read
+	 * into a new direct buffer
+	 * 
+	 * @param fileName
+	 *            filename of the texture
+	 * @return read only buffer of the texture file
+	 * @throws IOException
+	 */
+	public static ByteBuffer loadTextureAsBuffer(String fileName) throws IOException {
+		ByteBuffer buffer = loadResourceAsBuffer(TEXTURES_PATH + fileName);
+		if (buffer == null)
+			throw new FileNotFoundException("Could not find texture: " + fileName);
+		return buffer;
+	}
+
+	/**
+	 * Loads the complete resource file as a direct buffer, memory mapped if it
+	 * is in the asset pack (and not compressed) or on the file system
+	 * 
+	 * @param relFilePath
+	 *            path of resource relative to resources folder
+	 * @return read only buffer of the resource file, or null if it doesn't
+	 *         exist
+	 * @throws IOException
+	 */
+	public static ByteBuffer loadResourceAsBuffer(String relFilePath) throws IOException {
+		AssetPack pack = _assetPack;
+		if (pack != null) {
+			ByteBuffer buffer = pack.read(relFilePath);
+			if (buffer != null)
+				return buffer;
+		}
+
+		URL url = ResourceManager.class.getResource(RESOURCES_PATH + relFilePath);
+		if (url == null)
+			return null;
+
+		if ("file".equals(url.getProtocol())) {
+			try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (URISyntaxException e) {
+				throw new IOException("Invalid resource path: " + url, e);
+			}
+		}
+
+		try (InputStream in = url.openStream()) {
+			byte[] bytes = readAllBytes(in);
+			ByteBuffer buffer = BufferUtils.createByteBuffer(bytes.length);
+			buffer.put(bytes).flip();
+			return buffer.asReadOnlyBuffer();
+		}
+	}
+
 	/**
 	 * Loads and return the resource file as a list of strings
 	 * 
@@ -105,16 +288,44 @@ public final class ResourceManager {
 	}
 
 	/**
-	 * Loads the specified resource as a stream
+	 * Loads the specified resource as a stream, from the asset pack if it
+	 * holds the resource
 	 * 
 	 * @param relFilePath
 	 *            path of resource relative to resources folder
 	 * @return resource as input stream
 	 */
 	public static InputStream loadResourceAsStream(String relFilePath) {
+		AssetPack pack = _assetPack;
+		if (pack != null) {
+			try {
+				InputStream in = pack.openStream(relFilePath);
+				if (in != null)
+					return in;
+			} catch (IOException e) {
+				Debug.warn(e.getMessage() + ", reading it from the classpath instead");
+			}
+		}
 		return ResourceManager.class.getResourceAsStream(RESOURCES_PATH + relFilePath);
 	}
 
+	/**
+	 * Reads every remaining byte of the stream
+	 * 
+	 * @param in
+	 *            stream to read, it is not closed
+	 * @return the bytes of the stream
+	 * @throws IOException
+	 */
+	public static byte[] readAllBytes(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) != -1)
+			out.write(chunk, 0, read);
+		return out.toByteArray();
+	}
+
 	/**
 	 * Checks the filename extensions against our supported file types, and
 	 * returns the first file type with the same file extension, if empty
@@ -148,9 +359,9 @@ public final class ResourceManager {
 	public static enum FileType {
 		UNKNOWN(""),
 		// Game Objects
-		OBJ(".obj"),
+		OBJ(".obj"), GLB(".glb"),
 		// Images
-		PNG(".png"),
+		PNG(".png"), DDS(".dds"), KTX2(".ktx2"),
 		// Shaders
 		VERTEX_SHADER(".vert"), FRAGMENT_SHADER(".frag");
 
@@ -0,0 +1,423 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes block compressed textures to plain RGBA on the CPU, for when the
+ * driver can't sample the compressed format itself (i.e. software renderers
+ * without S3TC or BPTC support). Only used as a fallback, so it favors being
+ * simple over being fast.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class BlockDecoder {
+	private static final int BYTES_PER_PIXEL = 4;
+	private static final int BLOCK_PIXELS = 16;
+
+	// BC7 mode properties, indexed by mode
+	private static final int[] BC7_SUBSETS = { 3, 2, 3, 2, 1, 1, 1, 2 };
+	private static final int[] BC7_PARTITION_BITS = { 4, 6, 6, 6, 0, 0, 0, 6 };
+	private static final int[] BC7_ROTATION_BITS = { 0, 0, 0, 0, 2, 2, 0, 0 };
+	private static final int[] BC7_INDEX_SELECTION_BITS = { 0, 0, 0, 0, 1, 0, 0, 0 };
+	private static final int[] BC7_COLOR_BITS = { 4, 6, 5, 7, 5, 7, 7, 5 };
+	private static final int[] BC7_ALPHA_BITS = { 0, 0, 0, 0, 6, 8, 7, 5 };
+	private static final boolean[] BC7_ENDPOINT_PBITS = { true, false, false, true, false, false, true, true };
+	private static final boolean[] BC7_SHARED_PBITS = { false, true, false, false, false, false, false, false };
+	private static final int[] BC7_INDEX_BITS = { 3, 3, 2, 2, 2, 2, 4, 2 };
+	private static final int[] BC7_SECONDARY_INDEX_BITS = { 0, 0, 0, 0, 3, 2, 0, 0 };
+
+	// Interpolation weights (out of 64), indexed by index bits
+	private static final int[][] BC7_WEIGHTS = { null, null, { 0, 21, 43, 64 },
+			{ 0, 9, 18, 27, 37, 46, 55, 64 }, { 0, 4, 9, 13, 17, 21, 26, 30, 34, 38, 43, 47, 51, 55, 60, 64 } };
+
+	// The subset of each pixel for 2 subset partitions, one bit per pixel
+	private static final int[] BC7_PARTITIONS_2 = { 0xcccc, 0x8888, 0xeeee, 0xecc8, 0xc880, 0xfeec, 0xfec8, 0xec80,
+			0xc800, 0xffec, 0xfe80, 0xe800, 0xffe8, 0xff00, 0xfff0, 0xf000, 0xf710, 0x008e, 0x7100, 0x08ce, 0x008c,
+			0x7310, 0x3100, 0x8cce, 0x088c, 0x3110, 0x6666, 0x366c, 0x17e8, 0x0ff0, 0x718e, 0x399c, 0xaaaa, 0xf0f0,
+			0x5a5a, 0x33cc, 0x3c3c, 0x55aa, 0x9696, 0xa55a, 0x73ce, 0x13c8, 0x324c, 0x3bdc, 0x6996, 0xc33c, 0x9966,
+			0x0660, 0x0272, 0x04e4, 0x4e40, 0x2720, 0xc936, 0x936c, 0x39c6, 0x639c, 0x9336, 0x9cc6, 0x817e, 0xe718,
+			0xccf0, 0x0fcc, 0x7744, 0xee22 };
+
+	// The subset of each pixel for 3 subset partitions, two bits per pixel
+	private static final int[] BC7_PARTITIONS_3 = { 0xaa685050, 0x6a5a5040, 0x5a5a4200, 0x5450a0a8, 0xa5a50000,
+			0xa0a05050, 0x5555a0a0, 0x5a5a5050, 0xaa550000, 0xaa555500, 0xaaaa5500, 0x90909090, 0x94949494,
+			0xa4a4a4a4, 0xa9a59450, 0x2a0a4250, 0xa5945040, 0x0a425054, 0xa5a5a500, 0x55a0a0a0, 0xa8a85454,
+			0x6a6a4040, 0xa4a45000, 0x1a1a0500, 0x0050a4a4, 0xaaa59090, 0x14696914, 0x69691400, 0xa08585a0,
+			0xaa821414, 0x50a4a450, 0x6a5a0200, 0xa9a58000, 0x5090a0a8, 0xa8a09050, 0x24242424, 0x00aa5500,
+			0x24924924, 0x24499224, 0x50a50a50, 0x500aa550, 0xaaaa4444, 0x66660000, 0xa5a0a5a0, 0x50a050a0,
+			0x69286928, 0x44aaaa44, 0x66666600, 0xaa444444, 0x54a854a8, 0x95809580, 0x96969600, 0xa85454a8,
+			0x80959580, 0xaa141414, 0x96960000, 0xaaaa1414, 0xa05050a0, 0xa0a5a5a0, 0x96000000, 0x40804080,
+			0xa9a8a9a8, 0xaaaaaa44, 0x2a4a5254 };
+
+	// The pixel whose index has one bit less, for the second subset of 2
+	// subset partitions and the second and third subset of 3 subset ones
+	private static final int[] BC7_ANCHORS_2 = { 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15,
+			2, 8, 2, 2, 8, 8, 15, 2, 8, 2, 2, 8, 8, 2, 2, 15, 15, 6, 8, 2, 8, 15, 15, 2, 8, 2, 2, 2, 15, 15, 6, 6, 2,
+			6, 8, 15, 15, 2, 2, 15, 15, 15, 15, 15, 2, 2, 15 };
+	private static final int[] BC7_ANCHORS_3_SECOND = { 3, 3, 15, 15, 8, 3, 15, 15, 8, 8, 6, 6, 6, 5, 3, 3, 3, 3, 8,
+			15, 3, 3, 6, 10, 5, 8, 8, 6, 8, 5, 15, 15, 8, 15, 3, 5, 6, 10, 8, 15, 15, 3, 15, 5, 15, 15, 15, 15, 3, 15,
+			5, 5, 5, 8, 5, 10, 5, 10, 8, 13, 15, 12, 3, 3 };
+	private static final int[] BC7_ANCHORS_3_THIRD = { 15, 8, 8, 3, 15, 15, 3, 8, 15, 15, 15, 15, 15, 15, 15, 8, 15,
+			8, 15, 3, 15, 8, 15, 8, 3, 15, 6, 10, 15, 15, 10, 8, 15, 3, 15, 10, 10, 8, 9, 10, 6, 15, 8, 15, 3, 6, 6,
+			8, 15, 3, 15, 15, 15, 15, 15, 15, 15, 15, 15, 15, 3, 15, 15, 8 };
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private BlockDecoder() {
+	}
+
+	/**
+	 * Decodes every level of a block compressed mip chain
+	 * 
+	 * @param format
+	 *            the compressed format of the chain
+	 * @param chain
+	 *            the compressed mip chain, starting at its position
+	 * @param width
+	 *            width of the top level in pixels
+	 * @param height
+	 *            height of the top level in pixels
+	 * @param levels
+	 *            the amount of levels to decode
+	 * @return the RGBA mip chain
+	 */
+	static ByteBuffer decode(TextureFormat format, ByteBuffer chain, int width, int height, int levels) {
+		ByteBuffer out = ByteBuffer.allocateDirect(MipChainBuilder.getChainSize(width, height, levels));
+		byte[] block = new byte[format.getBlockBytes()];
+		byte[] rgba = new byte[BLOCK_PIXELS * BYTES_PER_PIXEL];
+
+		for (int level = 0; level < levels; level++) {
+			int levelWidth = MipChainBuilder.getLevelSize(width, level);
+			int levelHeight = MipChainBuilder.getLevelSize(height, level);
+			int source = chain.position() + format.getLevelOffset(width, height, level);
+			int target = MipChainBuilder.getLevelOffset(width, height, level);
+
+			for (int blockY = 0; blockY < levelHeight; blockY += 4) {
+				for (int blockX = 0; blockX < levelWidth; blockX += 4) {
+					for (int i = 0; i < block.length; i++)
+						block[i] = chain.get(source++);
+					decodeBlock(format, block, rgba);
+
+					// Blocks hang over the edge of levels smaller than 4
+					for (int y = 0; y < 4 && blockY + y < levelHeight; y++) {
+						for (int x = 0; x < 4 && blockX + x < levelWidth; x++) {
+							int pixel = target + ((blockY + y) * levelWidth + blockX + x) * BYTES_PER_PIXEL;
+							for (int c = 0; c < BYTES_PER_PIXEL; c++)
+								out.put(pixel + c, rgba[(y * 4 + x) * BYTES_PER_PIXEL + c]);
+						}
+					}
+				}
+			}
+		}
+		return out;
+	}
+
+	/*
+	 * Decodes a single block into 16 RGBA pixels
+	 */
+	private static void decodeBlock(TextureFormat format, byte[] block, byte[] rgba) {
+		switch (format) {
+		case BC1:
+			decodeColorBlock(block, 0, rgba, true);
+			break;
+		case BC3:
+			decodeColorBlock(block, 8, rgba, false);
+			decodeChannelBlock(block, 0, rgba, 3);
+			break;
+		case BC5:
+			decodeChannelBlock(block, 0, rgba, 0);
+			decodeChannelBlock(block, 8, rgba, 1);
+			for (int i = 0; i < BLOCK_PIXELS; i++) {
+				rgba[i * BYTES_PER_PIXEL + 2] = 0;
+				rgba[i * BYTES_PER_PIXEL + 3] = (byte) 255;
+			}
+			break;
+		case BC7:
+			decodeBC7Block(block, rgba);
+			break;
+		default:
+			throw new IllegalArgumentException("Not a block compressed format: " + format);
+		}
+	}
+
+	/*
+	 * Decodes a BC1 color block, two 565 endpoints and 2 bit indices. In BC1
+	 * an endpoint order of color0 <= color1 selects three colors and
+	 * transparent black instead of four colors.
+	 */
+	private static void decodeColorBlock(byte[] block, int offset, byte[] rgba, boolean allowTransparent) {
+		int color0 = readShort(block, offset);
+		int color1 = readShort(block, offset + 2);
+		int indices = readInt(block, offset + 4);
+
+		int[][] palette = new int[4][];
+		palette[0] = expand565(color0);
+		palette[1] = expand565(color1);
+		if (color0 > color1 || !allowTransparent) {
+			palette[2] = mix(palette[0], palette[1], 2, 1, 3);
+			palette[3] = mix(palette[0], palette[1], 1, 2, 3);
+		} else {
+			palette[2] = mix(palette[0], palette[1], 1, 1, 2);
+			palette[3] = new int[] { 0, 0, 0, 0 };
+		}
+
+		for (int i = 0; i < BLOCK_PIXELS; i++) {
+			int[] color = palette[(indices >>> (i * 2)) & 3];
+			for (int c = 0; c < BYTES_PER_PIXEL; c++)
+				rgba[i * BYTES_PER_PIXEL + c] = (byte) color[c];
+		}
+	}
+
+	/*
+	 * Decodes a BC4 style single channel block (the alpha of BC3 and each
+	 * channel of BC5), two 8 bit endpoints and 3 bit indices
+	 */
+	private static void decodeChannelBlock(byte[] block, int offset, byte[] rgba, int channel) {
+		int value0 = block[offset] & 0xFF;
+		int value1 = block[offset + 1] & 0xFF;
+		long indices = 0;
+		for (int i = 0; i < 6; i++)
+			indices |= (long) (block[offset + 2 + i] & 0xFF) << (i * 8);
+
+		int[] palette = new int[8];
+		palette[0] = value0;
+		palette[1] = value1;
+		if (value0 > value1) {
+			for (int i = 1; i < 7; i++)
+				palette[i + 1] = ((7 - i) * value0 + i * value1 + 3) / 7;
+		} else {
+			for (int i = 1; i < 5; i++)
+				palette[i + 1] = ((5 - i) * value0 + i * value1 + 2) / 5;
+			palette[6] = 0;
+			palette[7] = 255;
+		}
+
+		for (int i = 0; i < BLOCK_PIXELS; i++)
+			rgba[i * BYTES_PER_PIXEL + channel] = (byte) palette[(int) (indices >>> (i * 3)) & 7];
+	}
+
+	/*
+	 * Decodes a BC7 block, which picks one of 8 modes trading off subsets,
+	 * endpoint precision and index precision
+	 */
+	private static void decodeBC7Block(byte[] block, byte[] rgba) {
+		BitReader bits = new BitReader(block);
+		int mode = 0;
+		while (mode < 8 && bits.read(1) == 0)
+			mode++;
+
+		// Reserved mode, decodes to transparent black
+		if (mode == 8) {
+			Arrays.fill(rgba, (byte) 0);
+			return;
+		}
+
+		int subsets = BC7_SUBSETS[mode];
+		int partition = bits.read(BC7_PARTITION_BITS[mode]);
+		int rotation = bits.read(BC7_ROTATION_BITS[mode]);
+		int indexSelection = bits.read(BC7_INDEX_SELECTION_BITS[mode]);
+
+		// Endpoints are stored channel by channel
+		int colorBits = BC7_COLOR_BITS[mode];
+		int alphaBits = BC7_ALPHA_BITS[mode];
+		int[][] endpoints = new int[subsets * 2][BYTES_PER_PIXEL];
+		for (int c = 0; c < 3; c++) {
+			for (int e = 0; e < endpoints.length; e++)
+				endpoints[e][c] = bits.read(colorBits);
+		}
+		if (alphaBits > 0) {
+			for (int e = 0; e < endpoints.length; e++)
+				endpoints[e][3] = bits.read(alphaBits);
+		}
+
+		// P-bits add a shared low bit to every channel of an endpoint
+		int pBits = 0;
+		if (BC7_ENDPOINT_PBITS[mode]) {
+			pBits = 1;
+			for (int e = 0; e < endpoints.length; e++)
+				addPBit(endpoints[e], bits.read(1));
+		} else if (BC7_SHARED_PBITS[mode]) {
+			pBits = 1;
+			for (int s = 0; s < subsets; s++) {
+				int pBit = bits.read(1);
+				addPBit(endpoints[s * 2], pBit);
+				addPBit(endpoints[s * 2 + 1], pBit);
+			}
+		}
+
+		for (int[] endpoint : endpoints) {
+			for (int c = 0; c < 3; c++)
+				endpoint[c] = unquantize(endpoint[c], colorBits + pBits);
+			endpoint[3] = alphaBits > 0 ? unquantize(endpoint[3], alphaBits + pBits) : 255;
+		}
+
+		// Anchor indices are stored with one bit less, their top bit is 0
+		int indexBits = BC7_INDEX_BITS[mode];
+		int secondaryIndexBits = BC7_SECONDARY_INDEX_BITS[mode];
+		int[] indices = new int[BLOCK_PIXELS];
+		int[] secondaryIndices = new int[BLOCK_PIXELS];
+		for (int i = 0; i < BLOCK_PIXELS; i++)
+			indices[i] = bits.read(isAnchor(subsets, partition, i) ? indexBits - 1 : indexBits);
+		if (secondaryIndexBits > 0) {
+			for (int i = 0; i < BLOCK_PIXELS; i++)
+				secondaryIndices[i] = bits.read(i == 0 ? secondaryIndexBits - 1 : secondaryIndexBits);
+		}
+
+		for (int i = 0; i < BLOCK_PIXELS; i++) {
+			int subset = getSubset(subsets, partition, i);
+			int[] endpoint0 = endpoints[subset * 2];
+			int[] endpoint1 = endpoints[subset * 2 + 1];
+
+			// With two index sets, one is for color and the other for alpha
+			int colorWeight = BC7_WEIGHTS[indexBits][indices[i]];
+			int alphaWeight = colorWeight;
+			if (secondaryIndexBits > 0) {
+				int secondaryWeight = BC7_WEIGHTS[secondaryIndexBits][secondaryIndices[i]];
+				if (indexSelection == 0) {
+					alphaWeight = secondaryWeight;
+				} else {
+					alphaWeight = colorWeight;
+					colorWeight = secondaryWeight;
+				}
+			}
+
+			int[] color = new int[BYTES_PER_PIXEL];
+			for (int c = 0; c < 3; c++)
+				color[c] = interpolate(endpoint0[c], endpoint1[c], colorWeight);
+			color[3] = interpolate(endpoint0[3], endpoint1[3], alphaWeight);
+
+			// Rotation swaps alpha with one of the color channels
+			if (rotation > 0) {
+				int swap = color[3];
+				color[3] = color[rotation - 1];
+				color[rotation - 1] = swap;
+			}
+
+			for (int c = 0; c < BYTES_PER_PIXEL; c++)
+				rgba[i * BYTES_PER_PIXEL + c] = (byte) color[c];
+		}
+	}
+
+	/*
+	 * Whether the pixel's index is stored with one bit less
+	 */
+	private static boolean isAnchor(int subsets, int partition, int pixel) {
+		if (pixel == 0)
+			return true;
+		if (subsets == 2)
+			return pixel == BC7_ANCHORS_2[partition];
+		if (subsets == 3)
+			return pixel == BC7_ANCHORS_3_SECOND[partition] || pixel == BC7_ANCHORS_3_THIRD[partition];
+		return false;
+	}
+
+	/*
+	 * The subset the pixel belongs to in the partition
+	 */
+	private static int getSubset(int subsets, int partition, int pixel) {
+		if (subsets == 2)
+			return (BC7_PARTITIONS_2[partition] >>> pixel) & 1;
+		if (subsets == 3)
+			return (BC7_PARTITIONS_3[partition] >>> (pixel * 2)) & 3;
+		return 0;
+	}
+
+	/*
+	 * Appends the p-bit to every channel of the endpoint
+	 */
+	private static void addPBit(int[] endpoint, int pBit) {
+		for (int c = 0; c < endpoint.length; c++)
+			endpoint[c] = (endpoint[c] << 1) | pBit;
+	}
+
+	/*
+	 * Expands a value of the given bits to 8 bits by repeating its top bits
+	 */
+	private static int unquantize(int value, int bits) {
+		if (bits >= 8)
+			return value;
+		value <<= 8 - bits;
+		return value | (value >>> bits);
+	}
+
+	/*
+	 * Interpolates between the endpoints with a weight out of 64
+	 */
+	private static int interpolate(int endpoint0, int endpoint1, int weight) {
+		return ((64 - weight) * endpoint0 + weight * endpoint1 + 32) >> 6;
+	}
+
+	/*
+	 * Expands a 565 color to 8 bits per channel, opaque
+	 */
+	private static int[] expand565(int color) {
+		int r = (color >>> 11) & 0x1F;
+		int g = (color >>> 5) & 0x3F;
+		int b = color & 0x1F;
+		return new int[] { (r << 3) | (r >>> 2), (g << 2) | (g >>> 4), (b << 3) | (b >>> 2), 255 };
+	}
+
+	/*
+	 * Weighted average of two colors
+	 */
+	private static int[] mix(int[] color0, int[] color1, int weight0, int weight1, int total) {
+		int[] color = new int[BYTES_PER_PIXEL];
+		for (int c = 0; c < BYTES_PER_PIXEL; c++)
+			color[c] = (color0[c] * weight0 + color1[c] * weight1) / total;
+		return color;
+	}
+
+	/*
+	 * Reads a little endian unsigned short
+	 */
+	private static int readShort(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+	}
+
+	/*
+	 * Reads a little endian int
+	 */
+	private static int readInt(byte[] bytes, int offset) {
+		return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+	}
+
+	/*
+	 * Reads the bits of a 128 bit block from least significant up
+	 */
+	private static final class BitReader {
+		private final long _low;
+		private final long _high;
+		private int _position = 0;
+
+		BitReader(byte[] block) {
+			long low = 0;
+			long high = 0;
+			for (int i = 0; i < 8; i++) {
+				low |= (long) (block[i] & 0xFF) << (i * 8);
+				high |= (long) (block[i + 8] & 0xFF) << (i * 8);
+			}
+			this._low = low;
+			this._high = high;
+		}
+
+		int read(int count) {
+			if (count == 0)
+				return 0;
+
+			long mask = (1L << count) - 1;
+			long value;
+			if (_position >= 64)
+				value = _high >>> (_position - 64);
+			else if (_position + count <= 64)
+				value = _low >>> _position;
+			else
+				value = (_low >>> _position) | (_high << (64 - _position));
+
+			_position += count;
+			return (int) (value & mask);
+		}
+	}
+}
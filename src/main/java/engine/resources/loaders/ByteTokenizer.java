@@ -0,0 +1,337 @@
+package engine.resources.loaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizes line based text files (i.e. OBJ files) directly from their bytes.
+ * Numbers are parsed in place out of a refillable buffer so no strings are
+ * created per line or per token.
+ * 
+ * A tokenizer either streams from an input stream, or reads a fixed range of
+ * an existing byte array.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class ByteTokenizer {
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	private static final int MAX_FAST_DIGITS = 15;
+	// A float holds every integer up to 2^24 and every power of ten up to
+	// 10^10 exactly, so a single float multiply or divide of the two is
+	// correctly rounded, just like Float.parseFloat. Going through a double
+	// would round twice.
+	private static final long MAX_EXACT_MANTISSA = 1L << 24;
+	private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f,
+			1e10f };
+
+	private final InputStream _in;
+	private byte[] _buffer;
+	private int _pos;
+	private int _limit;
+	private int _lineEnd = -1;
+	private boolean _eof;
+
+	/**
+	 * Constructs a tokenizer that streams through the input stream
+	 * 
+	 * @param in
+	 *            the stream to read from, it is not closed by the tokenizer
+	 */
+	public ByteTokenizer(InputStream in) {
+		this._in = in;
+		this._buffer = new byte[DEFAULT_BUFFER_SIZE];
+		this._pos = 0;
+		this._limit = 0;
+		this._eof = false;
+	}
+
+	/**
+	 * Constructs a tokenizer over a range of an existing byte array
+	 * 
+	 * @param data
+	 *            the bytes to tokenize
+	 * @param offset
+	 *            the first byte of the range
+	 * @param length
+	 *            the amount of bytes in the range
+	 */
+	public ByteTokenizer(byte[] data, int offset, int length) {
+		this._in = null;
+		this._buffer = data;
+		this._pos = offset;
+		this._limit = offset + length;
+		this._lineEnd = offset - 1;
+		this._eof = true;
+	}
+
+	/**
+	 * Moves to the beginning of the next line. All token methods read from
+	 * the current line only.
+	 * 
+	 * @return false once there are no more lines
+	 * @throws IOException
+	 */
+	public boolean nextLine() throws IOException {
+		_pos = Math.min(_lineEnd + 1, _limit);
+		int scan = _pos;
+
+		while (true) {
+			// Look for the end of the current line in what we have buffered
+			for (; scan < _limit; scan++) {
+				if (_buffer[scan] == '\n') {
+					_lineEnd = scan;
+					return true;
+				}
+			}
+
+			// If we can't read anymore, the remaining bytes are the last line
+			if (_eof) {
+				if (_pos >= _limit)
+					return false;
+				_lineEnd = _limit;
+				return true;
+			}
+
+			// Otherwise pull in more bytes and keep searching from where we
+			// left off
+			int scanned = scan - _pos;
+			fill();
+			scan = _pos + scanned;
+		}
+	}
+
+	/**
+	 * Checks if the current line has any tokens left
+	 * 
+	 * @return true if there is another token on the line
+	 */
+	public boolean hasToken() {
+		skipWhitespace();
+		return _pos < _lineEnd;
+	}
+
+	/**
+	 * Checks if the next token on the line matches the keyword exactly. If it
+	 * does the token is consumed.
+	 * 
+	 * @param keyword
+	 *            the ASCII bytes of the keyword
+	 * @return true if the next token was the keyword
+	 */
+	public boolean nextTokenIs(byte[] keyword) {
+		skipWhitespace();
+		int end = _pos + keyword.length;
+		if (end > _lineEnd)
+			return false;
+
+		for (int i = 0; i < keyword.length; i++) {
+			if (_buffer[_pos + i] != keyword[i])
+				return false;
+		}
+
+		// The keyword has to be the whole token
+		if (end < _lineEnd && !isWhitespace(_buffer[end]))
+			return false;
+
+		_pos = end;
+		return true;
+	}
+
+	/**
+	 * Checks if the next byte on the line is the specified character. If it is
+	 * the byte is consumed.
+	 * 
+	 * @param c
+	 *            the ASCII character to check
+	 * @return true if the next byte was the character
+	 */
+	public boolean nextCharIs(char c) {
+		if (_pos < _lineEnd && _buffer[_pos] == c) {
+			_pos++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the next token on the line as a float
+	 * 
+	 * @return the parsed float
+	 * @throws NumberFormatException
+	 *             if the token is not a number
+	 */
+	public float nextFloat() {
+		skipWhitespace();
+		int start = _pos;
+		int i = _pos;
+
+		boolean negative = false;
+		if (i < _lineEnd && (_buffer[i] == '-' || _buffer[i] == '+'))
+			negative = _buffer[i++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+
+		// Integer part
+		for (; i < _lineEnd && isDigit(_buffer[i]); i++) {
+			anyDigits = true;
+			if (mantissa != 0 || _buffer[i] != '0') {
+				mantissa = mantissa * 10 + (_buffer[i] - '0');
+				digits++;
+			}
+		}
+
+		// Fractional part
+		if (i < _lineEnd && _buffer[i] == '.') {
+			for (i++; i < _lineEnd && isDigit(_buffer[i]); i++) {
+				anyDigits = true;
+				if (mantissa != 0 || _buffer[i] != '0') {
+					mantissa = mantissa * 10 + (_buffer[i] - '0');
+					digits++;
+				}
+				exponent--;
+			}
+		}
+
+		// Exponent part
+		if (anyDigits && i < _lineEnd && (_buffer[i] == 'e' || _buffer[i] == 'E')) {
+			int j = i + 1;
+			boolean negativeExp = false;
+			if (j < _lineEnd && (_buffer[j] == '-' || _buffer[j] == '+'))
+				negativeExp = _buffer[j++] == '-';
+
+			int exp = 0;
+			boolean anyExpDigits = false;
+			for (; j < _lineEnd && isDigit(_buffer[j]); j++) {
+				anyExpDigits = true;
+				if (exp < 10000)
+					exp = exp * 10 + (_buffer[j] - '0');
+			}
+			if (anyExpDigits) {
+				exponent += negativeExp ? -exp : exp;
+				i = j;
+			}
+		}
+
+		// Anything that can't be parsed exactly (too many digits, large
+		// exponents, NaN, hex floats, etc.) is handed off to java to get the
+		// exact same result
+		int end = tokenEnd(i);
+		int maxExponent = POWERS_OF_TEN.length - 1;
+		if (!anyDigits || end != i || digits > MAX_FAST_DIGITS || mantissa > MAX_EXACT_MANTISSA
+				|| exponent < -maxExponent || exponent > maxExponent)
+			return slowParseFloat(start, end);
+
+		_pos = i;
+		float value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses the next integer on the line. Unlike floats, the integer ends at
+	 * the first non-digit so it can be used for separated values (i.e. "1/2/3")
+	 * 
+	 * @return the parsed integer
+	 * @throws NumberFormatException
+	 *             if there are no digits
+	 */
+	public int nextInt() {
+		skipWhitespace();
+		int i = _pos;
+
+		boolean negative = false;
+		if (i < _lineEnd && (_buffer[i] == '-' || _buffer[i] == '+'))
+			negative = _buffer[i++] == '-';
+
+		long value = 0;
+		int start = i;
+		for (; i < _lineEnd && isDigit(_buffer[i]); i++) {
+			value = value * 10 + (_buffer[i] - '0');
+			if (value > Integer.MAX_VALUE)
+				throw new NumberFormatException("Integer out of range: " + currentToken());
+		}
+
+		if (i == start)
+			throw new NumberFormatException("Expected an integer but found: " + currentToken());
+
+		_pos = i;
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * @return the remaining text of the current token, only to be used for
+	 *         error messages
+	 */
+	public String currentToken() {
+		return new String(_buffer, _pos, tokenEnd(_pos) - _pos, StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * Parses the float the slow way by creating a string
+	 */
+	private float slowParseFloat(int start, int end) {
+		String token = new String(_buffer, start, end - start, StandardCharsets.US_ASCII);
+		_pos = end;
+		return Float.parseFloat(token);
+	}
+
+	/*
+	 * Finds the end of the token starting at the specified position
+	 */
+	private int tokenEnd(int from) {
+		int i = from;
+		while (i < _lineEnd && !isWhitespace(_buffer[i]))
+			i++;
+		return i;
+	}
+
+	/*
+	 * Moves past any whitespace on the current line
+	 */
+	private void skipWhitespace() {
+		while (_pos < _lineEnd && isWhitespace(_buffer[_pos]))
+			_pos++;
+	}
+
+	/*
+	 * Moves the unread bytes to the front of the buffer (growing it if a single
+	 * line doesn't fit) and reads in as many new bytes as possible
+	 */
+	private void fill() throws IOException {
+		int remaining = _limit - _pos;
+		if (remaining == _buffer.length) {
+			byte[] grown = new byte[_buffer.length * 2];
+			System.arraycopy(_buffer, _pos, grown, 0, remaining);
+			_buffer = grown;
+		} else if (_pos > 0) {
+			System.arraycopy(_buffer, _pos, _buffer, 0, remaining);
+		}
+		_pos = 0;
+		_limit = remaining;
+		_lineEnd = -1;
+
+		int read = _in.read(_buffer, _limit, _buffer.length - _limit);
+		if (read < 0)
+			_eof = true;
+		else
+			_limit += read;
+	}
+
+	/*
+	 * Any character that separates tokens
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+	}
+
+	/*
+	 * 0-9
+	 */
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+}
@@ -0,0 +1,143 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import engine.resources.ResourceManager;
+
+/**
+ * Specific texture loader to load DirectDraw Surface (.dds) files holding
+ * block compressed textures. The file is memory mapped and its mip chain is
+ * already laid out the way we upload it (largest level first), so the texels
+ * are sliced out of the file as is.
+ * 
+ * Only 2D textures in BC1 (DXT1), BC3 (DXT5), BC5 (ATI2) or BC7 are
+ * supported, either with a legacy FourCC or a DX10 header. sRGB variants are
+ * loaded as their UNORM format since the engine doesn't use sRGB textures.
+ * 
+ * @author Brandon Porter
+ *
+ */
+class DDSLoader {
+	private static final int MAGIC = 0x20534444; // "DDS "
+	private static final int HEADER_SIZE = 4 + 124;
+	private static final int DX10_HEADER_SIZE = 20;
+
+	// Header flags and offsets
+	private static final int FLAG_MIPMAP_COUNT = 0x20000;
+	private static final int PIXEL_FORMAT_FOURCC = 0x4;
+	private static final int CAPS2_CUBEMAP = 0x200;
+	private static final int OFFSET_FLAGS = 8;
+	private static final int OFFSET_HEIGHT = 12;
+	private static final int OFFSET_WIDTH = 16;
+	private static final int OFFSET_MIPMAP_COUNT = 28;
+	private static final int OFFSET_PIXEL_FORMAT_FLAGS = 80;
+	private static final int OFFSET_FOURCC = 84;
+	private static final int OFFSET_CAPS2 = 112;
+
+	// DX10 header offsets and values
+	private static final int OFFSET_DXGI_FORMAT = HEADER_SIZE;
+	private static final int OFFSET_RESOURCE_DIMENSION = HEADER_SIZE + 4;
+	private static final int OFFSET_MISC_FLAGS = HEADER_SIZE + 8;
+	private static final int OFFSET_ARRAY_SIZE = HEADER_SIZE + 12;
+	private static final int RESOURCE_DIMENSION_TEXTURE2D = 3;
+	private static final int MISC_TEXTURECUBE = 0x4;
+
+	private static final int FOURCC_DXT1 = fourCC("DXT1");
+	private static final int FOURCC_DXT5 = fourCC("DXT5");
+	private static final int FOURCC_ATI2 = fourCC("ATI2");
+	private static final int FOURCC_BC5U = fourCC("BC5U");
+	private static final int FOURCC_DX10 = fourCC("DX10");
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private DDSLoader() {
+	}
+
+	/**
+	 * Loads the texels of a dds file
+	 * 
+	 * @param fileName
+	 *            name of dds file to load
+	 * @return the compressed texels of every mip level in the file
+	 * @throws Exception
+	 */
+	public static TextureLoader.TextureData loadTextureData(String fileName) throws Exception {
+		ByteBuffer file = ResourceManager.loadTextureAsBuffer(fileName).order(ByteOrder.LITTLE_ENDIAN);
+
+		if (file.remaining() < HEADER_SIZE || file.getInt(0) != MAGIC)
+			throw new Exception("Invalid DDS file: " + fileName);
+		if ((file.getInt(OFFSET_PIXEL_FORMAT_FLAGS) & PIXEL_FORMAT_FOURCC) == 0)
+			throw new Exception("Only block compressed DDS files are supported: " + fileName);
+		if ((file.getInt(OFFSET_CAPS2) & CAPS2_CUBEMAP) != 0)
+			throw new Exception("DDS cube maps are not supported: " + fileName);
+
+		int fourCC = file.getInt(OFFSET_FOURCC);
+		int dataOffset = HEADER_SIZE;
+		TextureFormat format;
+		if (fourCC == FOURCC_DX10) {
+			if (file.remaining() < HEADER_SIZE + DX10_HEADER_SIZE)
+				throw new Exception("Invalid DDS file: " + fileName);
+			if (file.getInt(OFFSET_RESOURCE_DIMENSION) != RESOURCE_DIMENSION_TEXTURE2D
+					|| (file.getInt(OFFSET_MISC_FLAGS) & MISC_TEXTURECUBE) != 0 || file.getInt(OFFSET_ARRAY_SIZE) > 1)
+				throw new Exception("Only single 2D DDS textures are supported: " + fileName);
+			format = getDXGIFormat(fileName, file.getInt(OFFSET_DXGI_FORMAT));
+			dataOffset += DX10_HEADER_SIZE;
+		} else if (fourCC == FOURCC_DXT1) {
+			format = TextureFormat.BC1;
+		} else if (fourCC == FOURCC_DXT5) {
+			format = TextureFormat.BC3;
+		} else if (fourCC == FOURCC_ATI2 || fourCC == FOURCC_BC5U) {
+			format = TextureFormat.BC5;
+		} else {
+			throw new Exception("Unsupported DDS format in: " + fileName);
+		}
+
+		int width = file.getInt(OFFSET_WIDTH);
+		int height = file.getInt(OFFSET_HEIGHT);
+		if (width <= 0 || height <= 0)
+			throw new Exception("Invalid DDS size in: " + fileName);
+
+		int levels = 1;
+		if ((file.getInt(OFFSET_FLAGS) & FLAG_MIPMAP_COUNT) != 0)
+			levels = Math.max(1,
+					Math.min(file.getInt(OFFSET_MIPMAP_COUNT), MipChainBuilder.getLevelCount(width, height)));
+
+		int size = format.getChainSize(width, height, levels);
+		if (dataOffset + size > file.remaining())
+			throw new Exception("DDS mip chain is out of bounds in: " + fileName);
+
+		ByteBuffer texels = file.duplicate();
+		texels.position(dataOffset).limit(dataOffset + size);
+		return new TextureLoader.TextureData(width, height, format, levels, texels.slice(), null);
+	}
+
+	/*
+	 * Maps the DXGI format of a DX10 header to our format
+	 */
+	private static TextureFormat getDXGIFormat(String fileName, int dxgiFormat) throws Exception {
+		switch (dxgiFormat) {
+		case 71: // BC1_UNORM
+		case 72: // BC1_UNORM_SRGB
+			return TextureFormat.BC1;
+		case 77: // BC3_UNORM
+		case 78: // BC3_UNORM_SRGB
+			return TextureFormat.BC3;
+		case 83: // BC5_UNORM
+			return TextureFormat.BC5;
+		case 98: // BC7_UNORM
+		case 99: // BC7_UNORM_SRGB
+			return TextureFormat.BC7;
+		default:
+			throw new Exception("Unsupported DXGI format " + dxgiFormat + " in: " + fileName);
+		}
+	}
+
+	/*
+	 * Packs the four characters as a little endian int
+	 */
+	private static int fourCC(String code) {
+		return code.charAt(0) | code.charAt(1) << 8 | code.charAt(2) << 16 | code.charAt(3) << 24;
+	}
+}
@@ -0,0 +1,303 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import engine.graphics.geometry.VBO;
+import engine.graphics.geometry.VertexAttribute;
+import engine.resources.ResourceManager;
+import engine.utils.Debug;
+import engine.utils.JsonParser;
+
+/**
+ * Specific game object loader to load binary glTF (.glb) file types. The file
+ * is memory mapped and the accessors of the first mesh primitive are sliced
+ * out of the binary chunk as is, so the vertex data is never touched on the
+ * java side before it is uploaded.
+ * 
+ * Only the parts of glTF we render are supported: a single triangle
+ * primitive with POSITION, NORMAL and TEXCOORD_0 attributes stored in the
+ * binary chunk.
+ * 
+ * @author Brandon Porter
+ *
+ */
+class GLBLoader {
+	private static final int MAGIC = 0x46546C67; // "glTF"
+	private static final int VERSION = 2;
+	private static final int CHUNK_JSON = 0x4E4F534A; // "JSON"
+	private static final int CHUNK_BIN = 0x004E4942; // "BIN\0"
+	private static final int HEADER_SIZE = 12;
+	private static final int CHUNK_HEADER_SIZE = 8;
+	private static final int MODE_TRIANGLES = 4;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private GLBLoader() {
+	}
+
+	/**
+	 * Loads the mesh data for a glb file
+	 * 
+	 * @param fileName
+	 *            name of glb file to load
+	 * @return the raw mesh data of the first primitive
+	 * @throws Exception
+	 */
+	public static GLBMesh loadMeshData(String fileName) throws Exception {
+		ByteBuffer file = ResourceManager.loadModelAsBuffer(fileName).order(ByteOrder.LITTLE_ENDIAN);
+
+		if (file.remaining() < HEADER_SIZE || file.getInt(0) != MAGIC)
+			throw new Exception("Invalid GLB file: " + fileName);
+		if (file.getInt(4) != VERSION)
+			throw new Exception("Unsupported glTF version " + file.getInt(4) + " in: " + fileName);
+		int length = Math.min(file.getInt(8), file.remaining());
+
+		// Find the JSON and binary chunks
+		String json = null;
+		ByteBuffer bin = null;
+		for (int pos = HEADER_SIZE; pos + CHUNK_HEADER_SIZE <= length;) {
+			int chunkLength = file.getInt(pos);
+			int chunkType = file.getInt(pos + 4);
+			int chunkStart = pos + CHUNK_HEADER_SIZE;
+			if (chunkLength < 0 || chunkStart + chunkLength > length)
+				throw new Exception("Invalid GLB chunk in: " + fileName);
+
+			if (chunkType == CHUNK_JSON && json == null) {
+				byte[] jsonBytes = new byte[chunkLength];
+				ByteBuffer chunk = file.duplicate();
+				chunk.position(chunkStart);
+				chunk.get(jsonBytes);
+				json = new String(jsonBytes, StandardCharsets.UTF_8);
+			} else if (chunkType == CHUNK_BIN && bin == null) {
+				bin = slice(file, chunkStart, chunkLength);
+			}
+
+			// Chunks are padded to 4 bytes
+			pos = chunkStart + ((chunkLength + 3) & ~3);
+		}
+
+		if (json == null)
+			throw new Exception("GLB file has no JSON chunk: " + fileName);
+		if (bin == null)
+			throw new Exception("GLB file has no binary chunk: " + fileName);
+
+		return parsePrimitive(fileName, JsonParser.parseObject(json), bin);
+	}
+
+	/*
+	 * Slices the vertex attributes and indices of the first primitive of the
+	 * first mesh out of the binary chunk
+	 */
+	private static GLBMesh parsePrimitive(String fileName, Map<String, Object> gltf, ByteBuffer bin)
+			throws Exception {
+		List<Object> meshes = getList(gltf, "meshes");
+		if (meshes.isEmpty())
+			throw new Exception("GLB file has no meshes: " + fileName);
+		if (meshes.size() > 1)
+			Debug.warn("GLB file has more than one mesh, only loading the first: " + fileName);
+
+		List<Object> primitives = getList(getMap(meshes.get(0)), "primitives");
+		if (primitives.isEmpty())
+			throw new Exception("GLB mesh has no primitives: " + fileName);
+		if (primitives.size() > 1)
+			Debug.warn("GLB mesh has more than one primitive, only loading the first: " + fileName);
+
+		Map<String, Object> primitive = getMap(primitives.get(0));
+		if (getInt(primitive, "mode", MODE_TRIANGLES) != MODE_TRIANGLES)
+			throw new Exception("Only triangle primitives are supported: " + fileName);
+
+		List<Object> accessors = getList(gltf, "accessors");
+		List<Object> bufferViews = getList(gltf, "bufferViews");
+		Map<String, Object> attributes = getMap(primitive.get("attributes"));
+		if (!attributes.containsKey("POSITION"))
+			throw new Exception("GLB primitive has no positions: " + fileName);
+
+		// Each buffer view is sliced once so attributes sharing a view also
+		// share its vbo
+		ByteBuffer[] viewSlices = new ByteBuffer[bufferViews.size()];
+
+		String[] names = { "POSITION", "TEXCOORD_0", "NORMAL" };
+		VBO[] vbos = { VBO.POSITION, VBO.TEXTURE, VBO.NORMAL };
+		VertexAttribute[] vertexAttributes = new VertexAttribute[names.length];
+		int attributeCount = 0;
+		int vertexCount = -1;
+		for (int i = 0; i < names.length; i++) {
+			if (!attributes.containsKey(names[i]))
+				continue;
+
+			Map<String, Object> accessor = getMap(accessors, getInt(attributes, names[i], -1));
+			checkAccessor(fileName, accessor, names[i]);
+			if (!("VEC" + vbos[i].getAttrSize()).equals(accessor.get("type")))
+				throw new Exception("GLB attribute " + names[i] + " has an unexpected type in: " + fileName);
+
+			int count = getInt(accessor, "count", 0);
+			vertexCount = vertexCount < 0 ? count : Math.min(vertexCount, count);
+
+			int viewIndex = getInt(accessor, "bufferView", -1);
+			Map<String, Object> bufferView = getMap(bufferViews, viewIndex);
+			if (viewSlices[viewIndex] == null)
+				viewSlices[viewIndex] = sliceBufferView(fileName, bufferView, bin);
+
+			VertexAttribute attribute = new VertexAttribute(vbos[i], viewSlices[viewIndex],
+					getInt(accessor, "componentType", GL11.GL_FLOAT), getBoolean(accessor, "normalized"),
+					getInt(bufferView, "byteStride", 0), getInt(accessor, "byteOffset", 0));
+
+			// Make sure the graphics card never reads past the buffer view
+			long end = attribute.offset + (long) Math.max(count - 1, 0) * attribute.getVertexStride()
+					+ vbos[i].getAttrSize() * VertexAttribute.getComponentSize(attribute.dataType);
+			if (attribute.offset < 0 || (count > 0 && end > attribute.data.capacity()))
+				throw new Exception("GLB attribute " + names[i] + " is out of bounds in: " + fileName);
+
+			vertexAttributes[attributeCount++] = attribute;
+		}
+
+		// The index accessor is sliced exactly, the element buffer only holds
+		// the indices
+		int indexCount;
+		int indexType;
+		ByteBuffer indexData;
+		if (primitive.containsKey("indices")) {
+			Map<String, Object> accessor = getMap(accessors, getInt(primitive, "indices", -1));
+			checkAccessor(fileName, accessor, "indices");
+			indexCount = getInt(accessor, "count", 0);
+			indexType = getInt(accessor, "componentType", GL11.GL_UNSIGNED_INT);
+			if (indexType != GL11.GL_UNSIGNED_INT && indexType != GL11.GL_UNSIGNED_SHORT
+					&& indexType != GL11.GL_UNSIGNED_BYTE)
+				throw new Exception("Invalid index type " + indexType + " in: " + fileName);
+
+			Map<String, Object> bufferView = getMap(bufferViews, getInt(accessor, "bufferView", -1));
+			ByteBuffer view = sliceBufferView(fileName, bufferView, bin);
+			int offset = getInt(accessor, "byteOffset", 0);
+			int length = indexCount * VertexAttribute.getComponentSize(indexType);
+			if (offset < 0 || offset + length > view.capacity())
+				throw new Exception("GLB indices are out of bounds in: " + fileName);
+			indexData = slice(view, offset, length);
+		} else {
+			// Non-indexed primitives just draw each vertex in order
+			indexCount = vertexCount;
+			indexType = GL11.GL_UNSIGNED_INT;
+			indexData = BufferUtils.createByteBuffer(vertexCount * 4);
+			IntBuffer indices = indexData.asIntBuffer();
+			for (int i = 0; i < vertexCount; i++)
+				indices.put(i);
+		}
+
+		VertexAttribute[] result = new VertexAttribute[attributeCount];
+		System.arraycopy(vertexAttributes, 0, result, 0, attributeCount);
+		return new GLBMesh(vertexCount, result, indexCount, indexType, indexData);
+	}
+
+	/*
+	 * Makes sure we can use the accessor straight from the binary chunk
+	 */
+	private static void checkAccessor(String fileName, Map<String, Object> accessor, String name) throws Exception {
+		if (!accessor.containsKey("bufferView"))
+			throw new Exception("GLB accessor " + name + " has no buffer view: " + fileName);
+		if (accessor.containsKey("sparse"))
+			throw new Exception("Sparse GLB accessors are not supported: " + fileName);
+	}
+
+	/*
+	 * Slices the buffer view out of the binary chunk
+	 */
+	private static ByteBuffer sliceBufferView(String fileName, Map<String, Object> bufferView, ByteBuffer bin)
+			throws Exception {
+		if (getInt(bufferView, "buffer", 0) != 0)
+			throw new Exception("Only the embedded GLB buffer is supported: " + fileName);
+
+		int offset = getInt(bufferView, "byteOffset", 0);
+		int length = getInt(bufferView, "byteLength", 0);
+		if (offset < 0 || length < 0 || offset + length > bin.capacity())
+			throw new Exception("GLB buffer view is out of bounds in: " + fileName);
+		return slice(bin, offset, length);
+	}
+
+	/*
+	 * Slices the range out of the buffer without copying it
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset).limit(offset + length);
+		return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/*
+	 * Gets the object at the index of the glTF array
+	 */
+	private static Map<String, Object> getMap(List<Object> list, int index) throws Exception {
+		if (index < 0 || index >= list.size())
+			throw new Exception("Invalid glTF: Index " + index + " is out of bounds");
+		return getMap(list.get(index));
+	}
+
+	/*
+	 * Casts the glTF value to an object
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getMap(Object value) throws Exception {
+		if (!(value instanceof Map))
+			throw new Exception("Invalid glTF: Expected an object");
+		return (Map<String, Object>) value;
+	}
+
+	/*
+	 * Gets the array of the glTF object
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> getList(Map<String, Object> map, String key) throws Exception {
+		Object value = map.get(key);
+		if (!(value instanceof List))
+			throw new Exception("Invalid glTF: Expected an array for " + key);
+		return (List<Object>) value;
+	}
+
+	/*
+	 * Gets the integer of the glTF object, or the default if it isn't set
+	 */
+	private static int getInt(Map<String, Object> map, String key, int defaultValue) {
+		Object value = map.get(key);
+		return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+	}
+
+	/*
+	 * Gets the boolean of the glTF object, false if it isn't set
+	 */
+	private static boolean getBoolean(Map<String, Object> map, String key) {
+		return Boolean.TRUE.equals(map.get(key));
+	}
+
+	/**
+	 * The raw data of a glb mesh, the buffers point directly into the mapped
+	 * file
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	static class GLBMesh {
+		final int vertexCount;
+		final VertexAttribute[] attributes;
+		final int indexCount;
+		final int indexType;
+		final ByteBuffer indexData;
+
+		/*
+		 * Constructs a new glb mesh
+		 */
+		GLBMesh(int vertexCount, VertexAttribute[] attributes, int indexCount, int indexType, ByteBuffer indexData) {
+			this.vertexCount = vertexCount;
+			this.attributes = attributes;
+			this.indexCount = indexCount;
+			this.indexType = indexType;
+			this.indexData = indexData;
+		}
+	}
+}
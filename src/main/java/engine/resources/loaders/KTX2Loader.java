@@ -0,0 +1,116 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import engine.resources.ResourceManager;
+
+/**
+ * Specific texture loader to load Khronos texture (.ktx2) files holding block
+ * compressed textures. KTX2 stores the smallest mip level first, so the levels
+ * are copied out of the memory mapped file into our layout (largest level
+ * first).
+ * 
+ * Only single 2D textures in BC1, BC3, BC5 or BC7 without supercompression
+ * (i.e. no Basis Universal or Zstandard) are supported. sRGB variants are
+ * loaded as their UNORM format since the engine doesn't use sRGB textures.
+ * 
+ * @author Brandon Porter
+ *
+ */
+class KTX2Loader {
+	private static final byte[] IDENTIFIER = { (byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n',
+			0x1A, '\n' };
+	private static final int OFFSET_VK_FORMAT = 12;
+	private static final int OFFSET_PIXEL_WIDTH = 20;
+	private static final int OFFSET_PIXEL_HEIGHT = 24;
+	private static final int OFFSET_PIXEL_DEPTH = 28;
+	private static final int OFFSET_LAYER_COUNT = 32;
+	private static final int OFFSET_FACE_COUNT = 36;
+	private static final int OFFSET_LEVEL_COUNT = 40;
+	private static final int OFFSET_SUPERCOMPRESSION = 44;
+	private static final int OFFSET_LEVEL_INDEX = 80;
+	private static final int LEVEL_INDEX_ENTRY_SIZE = 24;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private KTX2Loader() {
+	}
+
+	/**
+	 * Loads the texels of a ktx2 file
+	 * 
+	 * @param fileName
+	 *            name of ktx2 file to load
+	 * @return the compressed texels of every mip level in the file
+	 * @throws Exception
+	 */
+	public static TextureLoader.TextureData loadTextureData(String fileName) throws Exception {
+		ByteBuffer file = ResourceManager.loadTextureAsBuffer(fileName).order(ByteOrder.LITTLE_ENDIAN);
+
+		if (file.remaining() < OFFSET_LEVEL_INDEX)
+			throw new Exception("Invalid KTX2 file: " + fileName);
+		for (int i = 0; i < IDENTIFIER.length; i++) {
+			if (file.get(i) != IDENTIFIER[i])
+				throw new Exception("Invalid KTX2 file: " + fileName);
+		}
+
+		TextureFormat format = getVkFormat(fileName, file.getInt(OFFSET_VK_FORMAT));
+		int width = file.getInt(OFFSET_PIXEL_WIDTH);
+		int height = file.getInt(OFFSET_PIXEL_HEIGHT);
+		if (width <= 0 || height <= 0 || file.getInt(OFFSET_PIXEL_DEPTH) != 0 || file.getInt(OFFSET_LAYER_COUNT) > 1
+				|| file.getInt(OFFSET_FACE_COUNT) != 1)
+			throw new Exception("Only single 2D KTX2 textures are supported: " + fileName);
+		if (file.getInt(OFFSET_SUPERCOMPRESSION) != 0)
+			throw new Exception("Supercompressed KTX2 files are not supported: " + fileName);
+
+		// A level count of 0 asks the loader to generate mips, which we can't
+		// do for compressed texels, so only the base level is used
+		int levels = Math.max(1,
+				Math.min(file.getInt(OFFSET_LEVEL_COUNT), MipChainBuilder.getLevelCount(width, height)));
+		if (OFFSET_LEVEL_INDEX + levels * LEVEL_INDEX_ENTRY_SIZE > file.remaining())
+			throw new Exception("Invalid KTX2 level index in: " + fileName);
+
+		ByteBuffer texels = ByteBuffer.allocateDirect(format.getChainSize(width, height, levels));
+		for (int level = 0; level < levels; level++) {
+			int entry = OFFSET_LEVEL_INDEX + level * LEVEL_INDEX_ENTRY_SIZE;
+			long offset = file.getLong(entry);
+			long length = file.getLong(entry + 8);
+			if (length != format.getLevelBytes(width, height, level) || offset < 0
+					|| offset + length > file.remaining())
+				throw new Exception("KTX2 level " + level + " is out of bounds in: " + fileName);
+
+			ByteBuffer source = file.duplicate();
+			source.position((int) offset).limit((int) (offset + length));
+			texels.position(format.getLevelOffset(width, height, level));
+			texels.put(source);
+		}
+		texels.clear();
+
+		return new TextureLoader.TextureData(width, height, format, levels, texels, null);
+	}
+
+	/*
+	 * Maps the Vulkan format of the header to our format
+	 */
+	private static TextureFormat getVkFormat(String fileName, int vkFormat) throws Exception {
+		switch (vkFormat) {
+		case 131: // BC1_RGB_UNORM_BLOCK
+		case 132: // BC1_RGB_SRGB_BLOCK
+		case 133: // BC1_RGBA_UNORM_BLOCK
+		case 134: // BC1_RGBA_SRGB_BLOCK
+			return TextureFormat.BC1;
+		case 137: // BC3_UNORM_BLOCK
+		case 138: // BC3_SRGB_BLOCK
+			return TextureFormat.BC3;
+		case 143: // BC5_UNORM_BLOCK
+			return TextureFormat.BC5;
+		case 145: // BC7_UNORM_BLOCK
+		case 146: // BC7_SRGB_BLOCK
+			return TextureFormat.BC7;
+		default:
+			throw new Exception("Unsupported KTX2 format " + vkFormat + " in: " + fileName);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import engine.graphics.geometry.Mesh;
+import engine.graphics.geometry.VAO;
+import engine.graphics.geometry.VBO;
+import engine.resources.DiskCache;
+import engine.utils.Debug;
+import engine.utils.Utils;
+
+/**
+ * Reads and writes meshes in our binary mesh format. A cached mesh is laid out
+ * exactly how it is uploaded to the graphics card so it can be handed straight
+ * from the memory mapped file to its VBOs:
+ * 
+ * <pre>
+ * int   magic            "GDMS"
+ * int   version          FORMAT_VERSION
+ * int   vertex count     number of interleaved vertices
+ * int   index count      number of indices
+ * int   attribute count  number of interleaved attributes
+ * int[] attribute sizes  floats per attribute (position, texture, normal)
+ * float[] vertices       interleaved vertex data
+ * int[] indices          index data
+ * </pre>
+ * 
+ * Everything is stored in the native byte order, so a cache written on a
+ * machine with a different byte order fails the magic check and is rebuilt.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class MeshCache {
+	private static final int MAGIC = ('G' << 24) | ('D' << 16) | ('M' << 8) | 'S';
+	private static final String DIRECTORY = "meshes/";
+	private static final String EXTENSION = ".mesh";
+	private static final int INT_SIZE_BYTES = 4;
+
+	/**
+	 * Increment whenever the layout or the contents of a cached mesh changes,
+	 * any older entries are then ignored and rebuilt
+	 */
+	static final int FORMAT_VERSION = 2;
+
+	/**
+	 * The attributes every cached mesh has, in the order they are interleaved
+	 */
+	static final VBO[] ATTRIBUTES = { VBO.POSITION, VBO.TEXTURE, VBO.NORMAL };
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private MeshCache() {
+	}
+
+	/**
+	 * @param source
+	 *            contents of the source file of the mesh
+	 * @return the cache entry name for the source file
+	 */
+	static String getEntryName(byte[] source) {
+		return DIRECTORY + DiskCache.hash(source) + EXTENSION;
+	}
+
+	/**
+	 * Maps the cached mesh
+	 * 
+	 * @param entryName
+	 *            the cache entry name of the mesh
+	 * @return the cached mesh, or null if it is not cached or out of date
+	 */
+	static CachedMesh read(String entryName) {
+		ByteBuffer buffer = DiskCache.map(entryName);
+		if (buffer == null)
+			return null;
+		buffer.order(ByteOrder.nativeOrder());
+
+		// Validate the header before trusting any of the sizes
+		int headerSize = (5 + ATTRIBUTES.length) * INT_SIZE_BYTES;
+		if (buffer.remaining() < headerSize || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+			Debug.log("Ignoring out of date mesh cache entry: " + entryName);
+			return null;
+		}
+
+		int vertexCount = buffer.getInt();
+		int indexCount = buffer.getInt();
+		int attributeCount = buffer.getInt();
+		if (attributeCount != ATTRIBUTES.length)
+			return null;
+		for (VBO attribute : ATTRIBUTES) {
+			if (buffer.getInt() != attribute.getAttrSize())
+				return null;
+		}
+
+		// Both sizes must fit in the mapped file before they are narrowed to
+		// slice lengths
+		long verticesSize = (long) vertexCount * getVertexSize() * Utils.FLOAT_SIZE_BYTES;
+		long indicesSize = (long) indexCount * INT_SIZE_BYTES;
+		if (vertexCount < 0 || indexCount < 0 || verticesSize > buffer.remaining()
+				|| indicesSize != buffer.remaining() - verticesSize) {
+			Debug.warn("Ignoring corrupt mesh cache entry: " + entryName);
+			return null;
+		}
+
+		// Slice the payload, these share the mapped memory
+		ByteBuffer vertices = slice(buffer, (int) verticesSize);
+		ByteBuffer indices = slice(buffer, (int) indicesSize);
+		return new CachedMesh(vertexCount, indexCount, vertices, indices);
+	}
+
+	/**
+	 * Writes the vbo data to the cache
+	 * 
+	 * @param entryName
+	 *            the cache entry name of the mesh
+	 * @param vboData
+	 *            the parsed vbo data of the mesh
+	 */
+	static void write(String entryName, Mesh.MeshVBOData vboData) {
+		int vertexCount = vboData.vertexPositions.length / VBO.POSITION.getAttrSize();
+		float[] vertices = VAO.interleaveFloatData(vertexCount,
+				new float[][] { vboData.vertexPositions, vboData.textureCoords, vboData.vertexNormals });
+
+		int headerSize = (5 + ATTRIBUTES.length) * INT_SIZE_BYTES;
+		ByteBuffer buffer = ByteBuffer
+				.allocate(headerSize + vertices.length * Utils.FLOAT_SIZE_BYTES + vboData.indices.length * INT_SIZE_BYTES)
+				.order(ByteOrder.nativeOrder());
+
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(vertexCount).putInt(vboData.indices.length)
+				.putInt(ATTRIBUTES.length);
+		for (VBO attribute : ATTRIBUTES)
+			buffer.putInt(attribute.getAttrSize());
+
+		buffer.asFloatBuffer().put(vertices);
+		buffer.position(buffer.position() + vertices.length * Utils.FLOAT_SIZE_BYTES);
+		buffer.asIntBuffer().put(vboData.indices);
+		buffer.position(buffer.limit()).flip();
+
+		if (DiskCache.write(entryName, buffer))
+			Debug.log("Cached mesh as: " + entryName);
+	}
+
+	/**
+	 * @return the amount of floats in each interleaved vertex
+	 */
+	static int getVertexSize() {
+		int size = 0;
+		for (VBO attribute : ATTRIBUTES)
+			size += attribute.getAttrSize();
+		return size;
+	}
+
+	/*
+	 * Slices the next length bytes from the buffer and moves past them
+	 */
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * A mesh mapped from the cache. The buffers point directly into the
+	 * mapped file.
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	static class CachedMesh {
+		final int vertexCount;
+		final int indexCount;
+		final ByteBuffer vertices;
+		final ByteBuffer indices;
+
+		/*
+		 * Constructs a new cached mesh
+		 */
+		CachedMesh(int vertexCount, int indexCount, ByteBuffer vertices, ByteBuffer indices) {
+			this.vertexCount = vertexCount;
+			this.indexCount = indexCount;
+			this.vertices = vertices;
+			this.indices = indices;
+		}
+	}
+}
@@ -1,7 +1,13 @@
 package engine.resources.loaders;
 
+import java.util.concurrent.CompletableFuture;
+
+import org.lwjgl.opengl.GL11;
+
 import engine.graphics.geometry.Mesh;
+import engine.resources.DiskCache;
 import engine.resources.RequestManager;
+import engine.resources.RequestPriority;
 import engine.resources.ResourceManager;
 import engine.utils.Debug;
 
@@ -34,6 +40,45 @@ public class MeshLoader {
 		return mesh;
 	}
 
+	/**
+	 * Loads the existing mesh from disk on a resource worker and registers its
+	 * VAO with scene priority
+	 * 
+	 * @param mesh
+	 *            existing mesh to load
+	 * @param fileName
+	 *            file name (with extension) of the mesh to load
+	 * @return a future completing once the mesh is resident
+	 */
+	public static CompletableFuture<Mesh> loadMeshAsync(Mesh mesh, String fileName) {
+		return loadMeshAsync(mesh, fileName, RequestPriority.SCENE);
+	}
+
+	/**
+	 * Loads the existing mesh from disk on a resource worker and registers its
+	 * VAO
+	 * 
+	 * @param mesh
+	 *            existing mesh to load
+	 * @param fileName
+	 *            file name (with extension) of the mesh to load
+	 * @param priority
+	 *            the priority of the resource request
+	 * @return a future completing once the mesh is resident
+	 */
+	public static CompletableFuture<Mesh> loadMeshAsync(Mesh mesh, String fileName, RequestPriority priority) {
+		RequestManager.makeResourceRequest(() -> {
+			try {
+				loadMesh(mesh, fileName);
+			} catch (Exception e) {
+				Debug.error("Error loading mesh: " + fileName);
+				e.printStackTrace();
+				mesh.setLoadFailed(e);
+			}
+		}, priority);
+		return mesh.whenResident();
+	}
+
 	/**
 	 * Loads the existing mesh from disk and registers its VAO
 	 * 
@@ -54,8 +99,29 @@ public class MeshLoader {
 		// Parses the file type so we can support multiple types
 		switch (ResourceManager.getFileType(fileName)) {
 		case OBJ:
-			vboData = OBJLoader.loadVBOData(fileName);
+			if (!DiskCache.isEnabled()) {
+				vboData = OBJLoader.loadVBOData(fileName);
+				break;
+			}
+
+			// Parsed meshes are cached by the hash of their source, so we
+			// only ever parse an OBJ file once
+			byte[] source = ResourceManager.loadModelAsBytes(fileName);
+			String entryName = MeshCache.getEntryName(source);
+			MeshCache.CachedMesh cachedMesh = MeshCache.read(entryName);
+			if (cachedMesh != null) {
+				loadCachedMesh(mesh, fileName, cachedMesh);
+				return;
+			}
+
+			vboData = OBJLoader.loadVBOData(source);
+			MeshCache.write(entryName, vboData);
 			break;
+		case GLB:
+			// glTF buffers are already in the layout we upload, so they skip
+			// the vbo data arrays completely
+			loadGLBMesh(mesh, fileName, GLBLoader.loadMeshData(fileName));
+			return;
 		default:
 			throw new Exception(String.format("Trying to load an invalid file type: %s as a game object.", fileName));
 		}
@@ -63,6 +129,7 @@ public class MeshLoader {
 		// Should we throw exception here?
 		if (vboData == null) {
 			Debug.error("Could not load vbo data for mesh: " + fileName);
+			mesh.setLoadFailed(new Exception("Could not load vbo data for mesh: " + fileName));
 			return;
 		}
 
@@ -73,12 +140,38 @@ public class MeshLoader {
 			} catch (Exception e) {
 				Debug.error("Error creating VAO for mesh: " + fileName);
 				e.printStackTrace();
+				mesh.setLoadFailed(e);
 			}
 		});
 
 		Debug.log("GL request to register mesh (" + mesh.getName() + ") was immediate: " + wasImmediate);
 	}
 
+	/*
+	 * Registers the VAO of a mesh straight from its mapped cache entry
+	 */
+	private static void loadCachedMesh(Mesh mesh, String fileName, MeshCache.CachedMesh cachedMesh) {
+		// This needs to be on main thread, large meshes are uploaded over
+		// several frames
+		boolean wasImmediate = RequestManager.makeGLUploadImmediate(new MeshUpload(mesh, cachedMesh.vertexCount,
+				Mesh.createInterleavedAttributes(cachedMesh.vertices), cachedMesh.indexCount, GL11.GL_UNSIGNED_INT,
+				cachedMesh.indices));
+
+		Debug.log("GL request to register cached mesh (" + mesh.getName() + ") was immediate: " + wasImmediate);
+	}
+
+	/*
+	 * Registers the VAO of a mesh straight from the buffers of its glb file
+	 */
+	private static void loadGLBMesh(Mesh mesh, String fileName, GLBLoader.GLBMesh glbMesh) {
+		// This needs to be on main thread, large meshes are uploaded over
+		// several frames
+		boolean wasImmediate = RequestManager.makeGLUploadImmediate(new MeshUpload(mesh, glbMesh.vertexCount,
+				glbMesh.attributes, glbMesh.indexCount, glbMesh.indexType, glbMesh.indexData));
+
+		Debug.log("GL request to register glb mesh (" + mesh.getName() + ") was immediate: " + wasImmediate);
+	}
+
 	/**
 	 * Loads each mesh into one big mesh. This MUST BE CALLED FROM THE MAIN
 	 * THREAD
@@ -129,6 +222,7 @@ public class MeshLoader {
 			} catch (Exception e) {
 				Debug.error("Error creating VAO for combined mesh");
 				e.printStackTrace();
+				combinedMesh.setLoadFailed(e);
 			}
 		});
 
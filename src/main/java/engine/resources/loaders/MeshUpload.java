@@ -0,0 +1,142 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL31;
+
+import engine.graphics.GLStateCache;
+import engine.graphics.geometry.Mesh;
+import engine.graphics.geometry.VertexAttribute;
+import engine.resources.IGLUpload;
+
+/**
+ * Uploads the vertex and index buffers of a mesh a range at a time, so a
+ * large mesh can be spread over several frames. Buffers are filled through
+ * the copy write target so no VAO state is touched. VAOs aren't shared
+ * between contexts, so the VAO itself is only created (and the mesh becomes
+ * resident) once completed on the main thread.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class MeshUpload implements IGLUpload {
+	private final Mesh _mesh;
+	private final int _vertexCount;
+	private final VertexAttribute[] _attributes;
+	private final int _indexCount;
+	private final int _indexType;
+	private final ByteBuffer _indexData;
+
+	// Each distinct buffer (attribute buffers then the indices) and its id
+	private final List<ByteBuffer> _buffers = new ArrayList<>();
+	private final Map<ByteBuffer, Integer> _bufferIds = new IdentityHashMap<>();
+	private int _bufferIndex = 0;
+	private int _bufferOffset = 0;
+	private long _remainingBytes = 0;
+
+	/**
+	 * Constructs a new mesh upload, see Mesh.loadVAO
+	 * 
+	 * @param mesh
+	 *            the mesh receiving the VAO once uploaded
+	 * @param vertexCount
+	 *            the number of vertices described by the attributes
+	 * @param attributes
+	 *            the attributes of the mesh
+	 * @param indexCount
+	 *            the number of indices
+	 * @param indexType
+	 *            the GL type of the indices
+	 * @param indexData
+	 *            direct buffer of the indices
+	 */
+	MeshUpload(Mesh mesh, int vertexCount, VertexAttribute[] attributes, int indexCount, int indexType,
+			ByteBuffer indexData) {
+		this._mesh = mesh;
+		this._vertexCount = vertexCount;
+		this._attributes = attributes;
+		this._indexCount = indexCount;
+		this._indexType = indexType;
+		this._indexData = indexData;
+
+		for (VertexAttribute attribute : attributes)
+			addBuffer(attribute.data);
+		addBuffer(indexData);
+	}
+
+	@Override
+	public long getRemainingBytes() {
+		return _remainingBytes;
+	}
+
+	@Override
+	public boolean upload(long maxBytes) throws Exception {
+		long budget = maxBytes;
+		while (_bufferIndex < _buffers.size() && budget > 0) {
+			ByteBuffer data = _buffers.get(_bufferIndex);
+
+			Integer bufferId = _bufferIds.get(data);
+			if (bufferId == null) {
+				// Allocate the whole buffer first, the ranges are filled in
+				// after
+				bufferId = GL15.glGenBuffers();
+				_bufferIds.put(data, bufferId);
+				GLStateCache.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferId);
+				GL15.glBufferData(GL31.GL_COPY_WRITE_BUFFER, data.remaining(), GL15.GL_STATIC_DRAW);
+			} else {
+				GLStateCache.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, bufferId);
+			}
+
+			int length = (int) Math.min(data.remaining() - _bufferOffset, budget);
+			if (length > 0) {
+				ByteBuffer range = data.duplicate();
+				range.position(data.position() + _bufferOffset);
+				range.limit(range.position() + length);
+				GL15.glBufferSubData(GL31.GL_COPY_WRITE_BUFFER, _bufferOffset, range);
+			}
+
+			_bufferOffset += length;
+			_remainingBytes -= length;
+			budget -= length;
+			if (_bufferOffset >= data.remaining()) {
+				_bufferIndex++;
+				_bufferOffset = 0;
+			}
+		}
+		GLStateCache.bindBuffer(GL31.GL_COPY_WRITE_BUFFER, 0);
+
+		return _bufferIndex >= _buffers.size();
+	}
+
+	@Override
+	public void complete() throws Exception {
+		_mesh.loadVAO(_vertexCount, _attributes, _indexCount, _indexType, _indexData, _bufferIds);
+	}
+
+	@Override
+	public void onFailed(Exception cause) {
+		// The VAO never took ownership of the buffers
+		if (!_mesh.isLoaded()) {
+			for (int bufferId : _bufferIds.values())
+				GLStateCache.deleteBuffer(bufferId);
+		}
+		_mesh.setLoadFailed(cause);
+	}
+
+	/*
+	 * Adds the buffer to the upload if it isn't already part of it
+	 */
+	private void addBuffer(ByteBuffer data) {
+		for (ByteBuffer buffer : _buffers) {
+			if (buffer == data)
+				return;
+		}
+		_buffers.add(data);
+		_remainingBytes += data.remaining();
+	}
+}
@@ -0,0 +1,189 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Builds the mip chain of an RGBA texture on the CPU, so it can be uploaded
+ * level by level instead of generated by the driver on the main thread. Every
+ * level is a 2x2 box filter of the one above it, averaged in linear space for
+ * sRGB colors. The rows of each level are split across the fork-join pool.
+ * 
+ * A chain is stored as its levels packed one after another, largest first,
+ * with no padding between rows or levels.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class MipChainBuilder {
+	private static final int BYTES_PER_PIXEL = 4;
+	// Levels smaller than this are filtered on the calling thread
+	private static final int MIN_PARALLEL_PIXELS = 64 * 1024;
+	private static final int MIN_ROWS_PER_TASK = 16;
+
+	// Lookup tables for converting between sRGB bytes and linear intensity
+	private static final int LINEAR_TO_SRGB_SIZE = 1 << 14;
+	private static final float[] SRGB_TO_LINEAR = new float[256];
+	private static final byte[] LINEAR_TO_SRGB = new byte[LINEAR_TO_SRGB_SIZE];
+
+	static {
+		for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+			double c = i / 255.0;
+			SRGB_TO_LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+		}
+		for (int i = 0; i < LINEAR_TO_SRGB_SIZE; i++) {
+			double l = i / (double) (LINEAR_TO_SRGB_SIZE - 1);
+			double c = l <= 0.0031308 ? l * 12.92 : 1.055 * Math.pow(l, 1.0 / 2.4) - 0.055;
+			LINEAR_TO_SRGB[i] = (byte) Math.round(c * 255.0);
+		}
+	}
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private MipChainBuilder() {
+	}
+
+	/**
+	 * @param width
+	 *            width of the top level in pixels
+	 * @param height
+	 *            height of the top level in pixels
+	 * @return the amount of levels in a full chain, down to 1x1
+	 */
+	static int getLevelCount(int width, int height) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+	}
+
+	/**
+	 * @param size
+	 *            width or height of the top level in pixels
+	 * @param level
+	 *            the level
+	 * @return the width or height of the level in pixels
+	 */
+	static int getLevelSize(int size, int level) {
+		return Math.max(1, size >> level);
+	}
+
+	/**
+	 * @param width
+	 *            width of the top level in pixels
+	 * @param height
+	 *            height of the top level in pixels
+	 * @param level
+	 *            the level
+	 * @return the byte offset of the level in the chain
+	 */
+	static int getLevelOffset(int width, int height, int level) {
+		return TextureFormat.RGBA8.getLevelOffset(width, height, level);
+	}
+
+	/**
+	 * @param width
+	 *            width of the top level in pixels
+	 * @param height
+	 *            height of the top level in pixels
+	 * @param levels
+	 *            the amount of levels in the chain
+	 * @return the size of the chain in bytes
+	 */
+	static int getChainSize(int width, int height, int levels) {
+		return TextureFormat.RGBA8.getChainSize(width, height, levels);
+	}
+
+	/**
+	 * Fills in every level below the top one, which has to already be at the
+	 * start of the buffer
+	 * 
+	 * @param chain
+	 *            the buffer holding the chain, at least getChainSize bytes
+	 * @param width
+	 *            width of the top level in pixels
+	 * @param height
+	 *            height of the top level in pixels
+	 * @param levels
+	 *            the amount of levels in the chain
+	 * @param gammaCorrect
+	 *            whether the colors are averaged in linear space
+	 */
+	static void build(ByteBuffer chain, int width, int height, int levels, boolean gammaCorrect) {
+		for (int level = 1; level < levels; level++) {
+			Level source = new Level(chain, width, height, level - 1);
+			Level target = new Level(chain, width, height, level);
+
+			// Each level depends on the one above, only its rows are split
+			if (target.width * target.height < MIN_PARALLEL_PIXELS) {
+				downsample(source, target, 0, target.height, gammaCorrect);
+				continue;
+			}
+
+			int taskCount = Math.min(target.height / MIN_ROWS_PER_TASK, ForkJoinPool.getCommonPoolParallelism() * 4);
+			int rowsPerTask = (target.height + taskCount - 1) / taskCount;
+			List<ForkJoinTask<?>> tasks = new ArrayList<>(taskCount);
+			for (int startRow = 0; startRow < target.height; startRow += rowsPerTask) {
+				final int start = startRow;
+				final int end = Math.min(target.height, startRow + rowsPerTask);
+				tasks.add(ForkJoinTask.adapt(() -> downsample(source, target, start, end, gammaCorrect)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+		}
+	}
+
+	/*
+	 * Box filters the rows [startRow, endRow) of the target level from the 2x2
+	 * blocks of the source level, clamping at the edges of odd sized levels
+	 */
+	private static void downsample(Level source, Level target, int startRow, int endRow, boolean gammaCorrect) {
+		ByteBuffer buffer = source.buffer;
+		int sourceRowBytes = source.width * BYTES_PER_PIXEL;
+
+		for (int y = startRow; y < endRow; y++) {
+			int row0 = source.offset + Math.min(y * 2, source.height - 1) * sourceRowBytes;
+			int row1 = source.offset + Math.min(y * 2 + 1, source.height - 1) * sourceRowBytes;
+			int out = target.offset + y * target.width * BYTES_PER_PIXEL;
+
+			for (int x = 0; x < target.width; x++) {
+				int col0 = Math.min(x * 2, source.width - 1) * BYTES_PER_PIXEL;
+				int col1 = Math.min(x * 2 + 1, source.width - 1) * BYTES_PER_PIXEL;
+
+				for (int c = 0; c < BYTES_PER_PIXEL; c++) {
+					int a = buffer.get(row0 + col0 + c) & 0xFF;
+					int b = buffer.get(row0 + col1 + c) & 0xFF;
+					int d = buffer.get(row1 + col0 + c) & 0xFF;
+					int e = buffer.get(row1 + col1 + c) & 0xFF;
+
+					// Alpha is always linear
+					if (gammaCorrect && c < 3) {
+						float linear = (SRGB_TO_LINEAR[a] + SRGB_TO_LINEAR[b] + SRGB_TO_LINEAR[d] + SRGB_TO_LINEAR[e])
+								* 0.25f;
+						buffer.put(out + c, LINEAR_TO_SRGB[(int) (linear * (LINEAR_TO_SRGB_SIZE - 1) + 0.5f)]);
+					} else {
+						buffer.put(out + c, (byte) ((a + b + d + e + 2) >> 2));
+					}
+				}
+				out += BYTES_PER_PIXEL;
+			}
+		}
+	}
+
+	/*
+	 * Where a level is in the chain
+	 */
+	private static final class Level {
+		final ByteBuffer buffer;
+		final int width;
+		final int height;
+		final int offset;
+
+		Level(ByteBuffer buffer, int chainWidth, int chainHeight, int level) {
+			this.buffer = buffer;
+			this.width = getLevelSize(chainWidth, level);
+			this.height = getLevelSize(chainHeight, level);
+			this.offset = getLevelOffset(chainWidth, chainHeight, level);
+		}
+	}
+}
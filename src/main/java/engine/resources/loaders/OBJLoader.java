@@ -1,13 +1,17 @@
 package engine.resources.loaders;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-
-import org.joml.Vector2f;
-import org.joml.Vector3f;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import engine.graphics.geometry.Mesh;
 import engine.resources.ResourceManager;
+import engine.utils.Debug;
+import engine.utils.FloatList;
+import engine.utils.IntList;
 
 /**
  * Specific game object loader to load OBJ file types
@@ -16,13 +20,23 @@ import engine.resources.ResourceManager;
  *
  */
 class OBJLoader {
-	private static final String VERTEX = "v";
-	private static final String TEXTURE_COORDINATE = "vt";
-	private static final String VERTEX_NORMAL = "vn";
-	private static final String FACE = "f";
+	private static final byte[] VERTEX = "v".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TEXTURE_COORDINATE = "vt".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] VERTEX_NORMAL = "vn".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FACE = "f".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int NO_VALUE = -1;
+	// The order of the values in each face index group
+	private static final int POSITION = 0;
+	private static final int TEXTURE = 1;
+	private static final int NORMAL = 2;
+
+	// Files smaller than two chunks are never split
+	private static final int MIN_CHUNK_SIZE = 1 << 18;
 
 	/**
-	 * Loads the vbo data for a mesh file
+	 * Loads the vbo data for a mesh file. Large files are parsed in parallel
+	 * chunks whenever the common pool has more than one thread
 	 * 
 	 * @param fileName
 	 *            name of OBJ file to load
@@ -30,206 +44,291 @@ class OBJLoader {
 	 * @throws Exception
 	 */
 	public static Mesh.MeshVBOData loadVBOData(String fileName) throws Exception {
-		List<Vector3f> vertices = new ArrayList<>();
-		List<Vector2f> textureCoords = new ArrayList<>();
-		List<Vector3f> normals = new ArrayList<>();
-		List<VertexFace> faces = new ArrayList<>();
+		// Chunks need the whole file in memory, files smaller than two chunks
+		// are still parsed as one
+		if (canParseInChunks())
+			return loadVBOData(ResourceManager.loadModelAsBytes(fileName));
+
+		// Otherwise stream the model straight from the resource, we never
+		// hold onto the lines of the file
+		try (InputStream in = ResourceManager.loadModelAsStream(fileName)) {
+			return loadVBOData(new ByteTokenizer(in));
+		}
+	}
 
-		// Read in the model as a list of strings
-		List<String> lines = ResourceManager.loadModel(fileName);
+	/**
+	 * Parses the vbo data out of the contents of an OBJ file. Large files are
+	 * split at line boundaries and the chunks are parsed in parallel, as long
+	 * as the common pool has more than one thread
+	 * 
+	 * @param data
+	 *            the bytes of the OBJ file
+	 * @return new vbo data representing the OBJ data
+	 * @throws Exception
+	 */
+	public static Mesh.MeshVBOData loadVBOData(byte[] data) throws Exception {
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		int chunkCount = canParseInChunks() ? Math.min(data.length / MIN_CHUNK_SIZE, parallelism * 4) : 1;
+		if (chunkCount < 2)
+			return loadVBOData(new ByteTokenizer(data, 0, data.length));
+
+		// Split the file into roughly equal chunks, each chunk ends just after
+		// a new line so no line is ever split
+		List<ForkJoinTask<OBJChunk>> tasks = new ArrayList<>(chunkCount);
+		int chunkSize = data.length / chunkCount;
+		for (int start = 0; start < data.length;) {
+			int end = Math.min(start + chunkSize, data.length);
+			while (end < data.length && data[end - 1] != '\n')
+				end++;
+
+			final int offset = start, length = end - start;
+			tasks.add(ForkJoinTask.adapt(() -> parseChunk(new ByteTokenizer(data, offset, length))));
+			start = end;
+		}
 
-		for (String line : lines) {
-			// Split on 1 (or more) spaces
-			String[] tokens = line.split("\\s+");
-			switch (tokens[0]) {
+		ForkJoinTask.invokeAll(tasks);
+		OBJChunk[] chunks = new OBJChunk[tasks.size()];
+		for (int i = 0; i < chunks.length; i++) {
+			try {
+				chunks[i] = tasks.get(i).join();
+			} catch (RuntimeException e) {
+				// Rethrow the original parsing error
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
 
-			// vertex e.g. "v 1.000 0.500 -1.000"
-			case VERTEX:
-				vertices.add(new Vector3f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]),
-						Float.parseFloat(tokens[3])));
-				break;
+		Debug.log("Parsed OBJ data in " + chunks.length + " chunks");
+		return parseEachVertexListIntoVBOArrays(mergeChunks(chunks));
+	}
 
-			// texture coordinates e.g. "vt 0.500 1.000"
-			case TEXTURE_COORDINATE:
-				textureCoords.add(new Vector2f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2])));
-				break;
+	/*
+	 * With a single pool thread the chunks would run one after another, which
+	 * is only slower than parsing the whole file at once
+	 */
+	private static boolean canParseInChunks() {
+		return ForkJoinPool.getCommonPoolParallelism() >= 2;
+	}
 
-			// vertex normals e.g. "vn 0.000 1.000 0.000"
-			case VERTEX_NORMAL:
-				normals.add(new Vector3f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]),
-						Float.parseFloat(tokens[3])));
-				break;
+	/**
+	 * Parses the vbo data out of the tokenizer
+	 * 
+	 * @param tokenizer
+	 *            tokenizer positioned at the start of the OBJ data
+	 * @return new vbo data representing the OBJ data
+	 * @throws Exception
+	 */
+	static Mesh.MeshVBOData loadVBOData(ByteTokenizer tokenizer) throws Exception {
+		// A single chunk is the same as merging it on its own
+		return parseEachVertexListIntoVBOArrays(mergeChunks(new OBJChunk[] { parseChunk(tokenizer) }));
+	}
+
+	/*
+	 * Parses every line of the tokenizer into a chunk
+	 */
+	private static OBJChunk parseChunk(ByteTokenizer tokenizer) throws Exception {
+		OBJChunk chunk = new OBJChunk();
 
+		while (tokenizer.nextLine()) {
+			// vertex e.g. "v 1.000 0.500 -1.000"
+			if (tokenizer.nextTokenIs(VERTEX)) {
+				chunk.vertices.add(tokenizer.nextFloat(), tokenizer.nextFloat(), tokenizer.nextFloat());
+			}
+			// texture coordinates e.g. "vt 0.500 1.000"
+			else if (tokenizer.nextTokenIs(TEXTURE_COORDINATE)) {
+				chunk.textureCoords.add(tokenizer.nextFloat(), tokenizer.nextFloat());
+			}
+			// vertex normals e.g. "vn 0.000 1.000 0.000"
+			else if (tokenizer.nextTokenIs(VERTEX_NORMAL)) {
+				chunk.normals.add(tokenizer.nextFloat(), tokenizer.nextFloat(), tokenizer.nextFloat());
+			}
 			// Vertex faces e.g. "f 11/1/1 17/2/1 13/3/1"
 			// (Vertex/Texture/Normal - a face is composed by a list of indices
 			// groups - triangles have 3 indices groups)
 			// For faces with no texture coords: e.g. "f 11//1 17//1 13//1"
-			case FACE:
-				faces.add(new VertexFace(tokens[1], tokens[2], tokens[3]));
-				break;
-
-			// Ignore all other lines
-			default:
-				break;
+			else if (tokenizer.nextTokenIs(FACE)) {
+				for (int i = 0; i < 3; i++)
+					parseGroup(tokenizer, chunk);
 			}
+			// Ignore all other lines
 		}
 
-		// Process each vertex list into a correctly ordered and mapped array
-		// Returns a new vbo containing that data
-		return parseEachVertexListIntoVBOArrays(vertices, textureCoords, normals, faces);
+		return chunk;
 	}
 
 	/*
-	 * Processes each vertex face to map the textures and normals to an index array. This returns
-	 * a container vbo with the wrapped data
+	 * Parse the vertex group into indexes (we have to subtract 1 for each value
+	 * because values in OBJ files are 1-indexed based). Negative values are
+	 * relative to the end of the current lists, these are resolved against the
+	 * chunk and rebased once the chunks are merged
 	 */
-	private static Mesh.MeshVBOData parseEachVertexListIntoVBOArrays(List<Vector3f> positionVectors,
-			List<Vector2f> texCoordVectors, List<Vector3f> normalVectors, List<VertexFace> vertexFaces) {
-
-		// Define empty arrays
-		// Each vertex face has 3 mappings, Positions and normals have 3 values
-		// (x,y,z), textures have 2 values (x,y)
-		int vertexCount = positionVectors.size();
-		int[] indices = new int[vertexFaces.size() * 3];
-		float[] positions = new float[vertexCount * 3];
-		float[] texCoords = new float[vertexCount * 2];
-		float[] normals = new float[vertexCount * 3];
-
-		// MeshLoader.MeshVBOData vboData = new
-		// MeshLoader.MeshVBOData(positions, texCoords, normals);
-
-		// Create position array in the order it has been declared
-		for (int i = 0; i < vertexCount; i++) {
-			Vector3f pos = positionVectors.get(i);
-			positions[i * 3] = pos.x;
-			positions[i * 3 + 1] = pos.y;
-			positions[i * 3 + 2] = pos.z;
+	private static void parseGroup(ByteTokenizer tokenizer, OBJChunk chunk) throws Exception {
+		if (!tokenizer.hasToken())
+			throw new Exception("Invalid Vertex Face: Trying to create vertex face with less than 3 index groups");
+
+		// Every group SHOULD have 3 values (position, texture, normal)
+		int posIdx = chunk.resolveIndex(tokenizer.nextInt(), POSITION);
+		if (!tokenizer.nextCharIs('/'))
+			throw invalidGroup(tokenizer);
+
+		// Texture coordinates are optional
+		int texCoordIdx = NO_VALUE;
+		if (!tokenizer.nextCharIs('/')) {
+			texCoordIdx = chunk.resolveIndex(tokenizer.nextInt(), TEXTURE);
+			if (!tokenizer.nextCharIs('/'))
+				throw invalidGroup(tokenizer);
 		}
 
-		// Loop over each vertex face to load the correct mapped index for each
-		// vertex into each array
-		int i = 0;
-		for (VertexFace face : vertexFaces) {
-			for (IdxGroup idxGroup : face.getFaceVertexIndices())
-				indices[i++] = idxGroup.mapGroup(texCoordVectors, normalVectors, texCoords, normals);
-		}
-
-		// Return the new mesh vbo
-		return new Mesh.MeshVBOData (positions, texCoords, normals, indices);
+		int vecNormalIdx = chunk.resolveIndex(tokenizer.nextInt(), NORMAL);
+		chunk.faces.add(posIdx, texCoordIdx, vecNormalIdx);
 	}
 
 	/*
-	 * Represents a vertex face
-	 * 
-	 * Vertex faces e.g. "f 11/1/1 17/2/1 13/3/1" (Vertex/Texture/Normal - a
-	 * face is composed by a list of indices groups - triangles have 3 indices
-	 * groups) For faces with no texture coords: e.g. "f 11//1 17//1 13//1"
+	 * Appends every chunk in order and rebases any relative indices onto the
+	 * combined lists
 	 */
-	private static class VertexFace {
-		// List of index groups for a face triangle (3 vertices per face)
-		private final IdxGroup[] _idxGroups = new IdxGroup[3];
-
-		/**
-		 * Creates a new vertex face Each vertex group should be in the form
-		 * "Vertex/TextureCoords/Normal"
-		 * 
-		 * @param vg1
-		 *            - x vertex group
-		 * @param vg2
-		 *            - y vertex group
-		 * @param vg3
-		 *            - z vertex group
-		 * @throws Exception
-		 */
-		public VertexFace(String vg1, String vg2, String vg3) throws Exception {
-			_idxGroups[0] = parseGroup(vg1);
-			_idxGroups[1] = parseGroup(vg2);
-			_idxGroups[2] = parseGroup(vg3);
-		}
-
-		/**
-		 * @return the mapped indices for this face
-		 */
-		public IdxGroup[] getFaceVertexIndices() {
-			return _idxGroups;
-		}
+	private static OBJChunk mergeChunks(OBJChunk[] chunks) throws Exception {
+		OBJChunk merged = chunks.length == 1 ? chunks[0] : new OBJChunk();
+		int[] bases = new int[3];
+
+		for (OBJChunk chunk : chunks) {
+			int[] faces = chunk.faces.array();
+			int[] relativeSlots = chunk.relativeSlots.array();
+			for (int i = 0; i < chunk.relativeSlots.size(); i++) {
+				int slot = relativeSlots[i];
+				faces[slot] += bases[slot % 3];
+				if (faces[slot] < 0)
+					throw new Exception("Invalid Vertex Face: Relative index points before the start of the file");
+			}
 
-		/**
-		 * Parse the vertex group into indexes (we have to subtract 1 for each
-		 * value because values in OBJ files are 1-indexed based)
-		 * 
-		 * @param vertGroup
-		 * @return
-		 * @throws Exception
-		 */
-		private IdxGroup parseGroup(String vertGroup) throws Exception {
-			IdxGroup idxGroup = new IdxGroup();
-			String[] tokens = vertGroup.split("/");
-
-			// Every group SHOULD be length 3 (position, texture, normal)
-			if (tokens.length != 3) {
-				throw new Exception(
-						"Invalid Vertex Face: Trying to create vertex face with index group length != 3, act length is: "
-								+ tokens.length);
+			if (chunk != merged) {
+				merged.vertices.addAll(chunk.vertices);
+				merged.textureCoords.addAll(chunk.textureCoords);
+				merged.normals.addAll(chunk.normals);
+				merged.faces.addAll(chunk.faces);
 			}
 
-			// Set position index
-			idxGroup.posIdx = Integer.parseInt(tokens[0]) - 1;
+			for (int component = POSITION; component <= NORMAL; component++)
+				bases[component] = merged.count(component);
+		}
 
-			// Set texture coordinate index
-			String texCoord = tokens[1];
-			idxGroup.texCoordIdx = texCoord.length() > 0 ? Integer.parseInt(texCoord) - 1 : IdxGroup.NO_VALUE;
+		return merged;
+	}
 
-			// Set vertex normal index
-			idxGroup.vecNormalIdx = Integer.parseInt(tokens[2]) - 1;
+	/*
+	 * Creates the exception for a badly formed index group
+	 */
+	private static Exception invalidGroup(ByteTokenizer tokenizer) {
+		return new Exception("Invalid Vertex Face: Expected an index group in the form "
+				+ "Vertex/Texture/Normal, found: " + tokenizer.currentToken());
+	}
 
-			return idxGroup;
+	/*
+	 * Processes each vertex face into the final vbo arrays. Every unique
+	 * (position, texture, normal) combination becomes its own vertex, and
+	 * faces sharing a combination share its index. This returns a container
+	 * vbo with the wrapped data
+	 */
+	private static Mesh.MeshVBOData parseEachVertexListIntoVBOArrays(OBJChunk chunk) {
+		FloatList positionList = chunk.vertices;
+		FloatList texCoordList = chunk.textureCoords;
+		FloatList normalList = chunk.normals;
+		IntList faceList = chunk.faces;
+
+		// Positions and normals have 3 values (x,y,z), textures have 2 values
+		// (x,y)
+		int faceVertexCount = faceList.size() / 3;
+		int[] indices = new int[faceVertexCount];
+		FloatList positions = new FloatList(positionList.size());
+		FloatList texCoords = new FloatList(positionList.size() / 3 * 2);
+		FloatList normals = new FloatList(positionList.size());
+
+		float[] positionValues = positionList.array();
+		float[] texCoordValues = texCoordList.array();
+		float[] normalValues = normalList.array();
+		int[] faces = faceList.array();
+
+		// Weld each face vertex, only vertices we haven't seen before add to
+		// the vbo arrays
+		VertexWelder welder = new VertexWelder(positionList.size() / 3);
+		for (int i = 0; i < faceVertexCount; i++) {
+			int posIdx = faces[i * 3];
+			int texCoordIdx = faces[i * 3 + 1];
+			int vecNormalIdx = faces[i * 3 + 2];
+
+			int vertexCount = welder.size();
+			indices[i] = welder.weld(posIdx, texCoordIdx, vecNormalIdx);
+			if (indices[i] < vertexCount)
+				continue;
+
+			positions.add(positionValues[posIdx * 3], positionValues[posIdx * 3 + 1], positionValues[posIdx * 3 + 2]);
+
+			// texture coordinates are in UV format, so y coordinates need to
+			// be calculated 1 minus the original texture y value
+			if (texCoordIdx >= 0)
+				texCoords.add(texCoordValues[texCoordIdx * 2], 1 - texCoordValues[texCoordIdx * 2 + 1]);
+			else
+				texCoords.add(0, 0);
+
+			if (vecNormalIdx >= 0)
+				normals.add(normalValues[vecNormalIdx * 3], normalValues[vecNormalIdx * 3 + 1],
+						normalValues[vecNormalIdx * 3 + 2]);
+			else
+				normals.add(0, 0, 0);
 		}
+
+		if (faceVertexCount > 0)
+			Debug.log(String.format("Welded %d face vertices into %d unique vertices (%.1f%% reused)", faceVertexCount,
+					welder.size(), 100.0 * (faceVertexCount - welder.size()) / faceVertexCount));
+
+		// Return the new mesh vbo
+		return new Mesh.MeshVBOData(positions.toArray(), texCoords.toArray(), normals.toArray(), indices);
 	}
 
-	/*
-	 * Keeps track of the index mappings for the vertex faces This is necessary
-	 * for storing our indices VBO to reduce vertex duplication
+	/**
+	 * The lists parsed out of a chunk of an OBJ file. Every face corner is
+	 * stored as 3 ints (Vertex/Texture/Normal)
+	 * 
+	 * @author Brandon Porter
+	 *
 	 */
-	private static class IdxGroup {
-		public static final int NO_VALUE = -1;
-
-		public int posIdx = NO_VALUE;
-		public int texCoordIdx = NO_VALUE;
-		public int vecNormalIdx = NO_VALUE;
-
-		/**
-		 * Maps this index group to into a correctly ordered list of the
-		 * correctly mapped textures and normals
-		 * 
-		 * @param texCoordVectors
-		 * @param normalVectors
-		 * @param texCoords
-		 * @param normals
-		 * @return the index position
+	private static class OBJChunk {
+		final FloatList vertices = new FloatList();
+		final FloatList textureCoords = new FloatList();
+		final FloatList normals = new FloatList();
+		final IntList faces = new IntList();
+		// Face slots holding relative indices that still need to be rebased
+		final IntList relativeSlots = new IntList();
+
+		/*
+		 * Converts the OBJ index of the component (position, texture or normal)
+		 * into a 0 based index, relative indices are resolved against the
+		 * amount of values parsed so far by this chunk
 		 */
-		public int mapGroup(List<Vector2f> texCoordVectors, List<Vector3f> normalVectors, float[] texCoords,
-				float[] normals) {
-			// Reorder texture coordinates
-			if (texCoordIdx >= 0) {
-				Vector2f texCoord = texCoordVectors.get(texCoordIdx);
-				texCoords[posIdx * 2] = texCoord.x;
-				// texture coordinates are in UV format, so y coordinates
-				// need to be calculated 1 minus the original texture y
-				// value
-				texCoords[posIdx * 2 + 1] = 1 - texCoord.y;
-			}
+		int resolveIndex(int objIdx, int component) throws Exception {
+			if (objIdx > 0)
+				return objIdx - 1;
+			if (objIdx == 0)
+				throw new Exception("Invalid Vertex Face: OBJ indices start at 1");
+
+			// The face corner is only added once all 3 components are parsed
+			relativeSlots.add(faces.size() + component);
+			return count(component) + objIdx;
+		}
 
-			// Reorder vector normals
-			if (vecNormalIdx >= 0) {
-				Vector3f vecNorm = normalVectors.get(vecNormalIdx);
-				normals[posIdx * 3] = vecNorm.x;
-				normals[posIdx * 3 + 1] = vecNorm.y;
-				normals[posIdx * 3 + 2] = vecNorm.z;
+		/*
+		 * The amount of positions, texture coords or normals in the chunk
+		 */
+		int count(int component) {
+			switch (component) {
+			case POSITION:
+				return vertices.size() / 3;
+			case TEXTURE:
+				return textureCoords.size() / 2;
+			default:
+				return normals.size() / 3;
 			}
-
-			// return position index for the vertex coords
-			return posIdx;
 		}
 	}
 }
@@ -0,0 +1,262 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.opengl.GL44;
+import org.lwjgl.system.MemoryUtil;
+
+import engine.graphics.GLStateCache;
+
+/**
+ * A ring of pixel unpack buffer memory that stays mapped for the lifetime of
+ * the engine. Resource workers reserve a region and write decoded pixels
+ * straight into it, the GL side then only has to issue a texture upload from
+ * the buffer offset, which returns without waiting on the copy. A region is
+ * reused once the fence placed behind its upload has signaled.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class PixelUnpackRing {
+	// Keeps every region start aligned for fast copies
+	private static final long REGION_ALIGNMENT = 64;
+
+	private final int _bufferId;
+	private final long _capacity;
+	private final long _address;
+
+	// Regions in the order they were reserved, the oldest at the front
+	private final ArrayDeque<Region> _regions = new ArrayDeque<>();
+	// Where the next region starts
+	private long _head = 0;
+	private boolean _disposed = false;
+
+	/*
+	 * Constructs the ring over an already mapped buffer
+	 */
+	private PixelUnpackRing(int bufferId, long capacity, long address) {
+		this._bufferId = bufferId;
+		this._capacity = capacity;
+		this._address = address;
+	}
+
+	/**
+	 * Creates the buffer and maps it persistently. [WARNING] - This MUST be
+	 * called from the main thread.
+	 * 
+	 * @param capacity
+	 *            the size of the ring in bytes
+	 * @return the new ring, or null if persistent mapping isn't supported
+	 */
+	static PixelUnpackRing create(long capacity) {
+		GLCapabilities capabilities = GL.getCapabilities();
+		if (!capabilities.OpenGL44 && !capabilities.GL_ARB_buffer_storage)
+			return null;
+
+		int flags = GL30.GL_MAP_WRITE_BIT | GL44.GL_MAP_PERSISTENT_BIT | GL44.GL_MAP_COHERENT_BIT;
+		int bufferId = GL15.glGenBuffers();
+		GLStateCache.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, bufferId);
+		GL44.glBufferStorage(GL21.GL_PIXEL_UNPACK_BUFFER, capacity, flags);
+		ByteBuffer mapped = GL30.glMapBufferRange(GL21.GL_PIXEL_UNPACK_BUFFER, 0, capacity, flags);
+		GLStateCache.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		if (mapped == null) {
+			GLStateCache.deleteBuffer(bufferId);
+			return null;
+		}
+		return new PixelUnpackRing(bufferId, capacity, MemoryUtil.memAddress(mapped));
+	}
+
+	/**
+	 * @return the id of the pixel unpack buffer
+	 */
+	int getBufferId() {
+		return _bufferId;
+	}
+
+	/**
+	 * @return true once the ring is disposed and its regions can't be
+	 *         uploaded from anymore
+	 */
+	synchronized boolean isDisposed() {
+		return _disposed;
+	}
+
+	/**
+	 * Reserves a region of the ring, safe to call from any thread. Never
+	 * waits, if there isn't room the caller should upload from its own memory
+	 * instead.
+	 * 
+	 * @param size
+	 *            the amount of bytes needed
+	 * @return the reserved region, or null if there isn't enough room
+	 */
+	synchronized Region reserve(long size) {
+		if (_disposed || size <= 0 || size > _capacity)
+			return null;
+
+		// Regions released without an upload don't need a fence
+		while (!_regions.isEmpty() && _regions.peekFirst()._released && _regions.peekFirst()._fence == 0)
+			_regions.removeFirst();
+
+		long offset;
+		if (_regions.isEmpty()) {
+			offset = 0;
+		} else {
+			long tail = _regions.peekFirst()._offset;
+			if (_head > tail) {
+				// Free space at the end, and at the start before the oldest
+				if (_capacity - _head >= size)
+					offset = _head;
+				else if (tail >= size)
+					offset = 0;
+				else
+					return null;
+			} else if (_head < tail && tail - _head >= size) {
+				offset = _head;
+			} else {
+				// Either full or the gap is too small
+				return null;
+			}
+		}
+
+		Region region = new Region(this, offset, size);
+		_regions.addLast(region);
+		_head = alignUp(offset + size);
+		if (_head >= _capacity)
+			_head = 0;
+		return region;
+	}
+
+	/**
+	 * Frees every region at the front of the ring whose upload the GPU has
+	 * finished reading. Must be called on a thread with a GL context.
+	 */
+	synchronized void retire() {
+		while (!_regions.isEmpty()) {
+			Region region = _regions.peekFirst();
+			if (!region._released)
+				break;
+
+			if (region._fence != 0) {
+				int status = GL32.glClientWaitSync(region._fence, 0, 0);
+				if (status == GL32.GL_TIMEOUT_EXPIRED)
+					break;
+				GL32.glDeleteSync(region._fence);
+			}
+			_regions.removeFirst();
+		}
+	}
+
+	/**
+	 * Waits for every upload still reading the ring, then unmaps and deletes
+	 * the buffer. [WARNING] - This MUST be called from the main thread.
+	 */
+	synchronized void dispose() {
+		for (Region region : _regions) {
+			if (region._fence != 0) {
+				GL32.glClientWaitSync(region._fence, GL32.GL_SYNC_FLUSH_COMMANDS_BIT, GL32.GL_TIMEOUT_IGNORED);
+				GL32.glDeleteSync(region._fence);
+			}
+		}
+		_regions.clear();
+		_disposed = true;
+
+		GLStateCache.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, _bufferId);
+		GL15.glUnmapBuffer(GL21.GL_PIXEL_UNPACK_BUFFER);
+		GLStateCache.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+		GLStateCache.deleteBuffer(_bufferId);
+	}
+
+	/*
+	 * Marks a region as no longer written to, placing a fence behind its
+	 * upload if there was one
+	 */
+	private synchronized void release(Region region, boolean uploaded) {
+		if (region._released)
+			return;
+		if (uploaded && !_disposed) {
+			region._fence = GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+			GL11.glFlush();
+		}
+		region._released = true;
+	}
+
+	/*
+	 * Rounds the offset up to the region alignment
+	 */
+	private static long alignUp(long offset) {
+		return (offset + REGION_ALIGNMENT - 1) & ~(REGION_ALIGNMENT - 1);
+	}
+
+	/**
+	 * A reserved part of the ring, written to by one loader and uploaded from
+	 * by one texture upload
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	static final class Region {
+		private final PixelUnpackRing _ring;
+		private final long _offset;
+		private final long _size;
+
+		// Guarded by the ring
+		private long _fence = 0;
+		private boolean _released = false;
+
+		/*
+		 * Constructs a region of the ring
+		 */
+		private Region(PixelUnpackRing ring, long offset, long size) {
+			this._ring = ring;
+			this._offset = offset;
+			this._size = size;
+		}
+
+		/**
+		 * @return the ring this region belongs to
+		 */
+		PixelUnpackRing getRing() {
+			return _ring;
+		}
+
+		/**
+		 * @return the offset of the region in the pixel unpack buffer
+		 */
+		long getOffset() {
+			return _offset;
+		}
+
+		/**
+		 * @return the mapped memory of the region, to be written to before
+		 *         uploading
+		 */
+		ByteBuffer getBuffer() {
+			return MemoryUtil.memByteBuffer(_ring._address + _offset, (int) _size);
+		}
+
+		/**
+		 * Releases the region after its upload was issued, must be called on
+		 * a thread with a GL context
+		 */
+		void releaseUploaded() {
+			_ring.release(this, true);
+		}
+
+		/**
+		 * Releases the region without it ever being uploaded
+		 */
+		void releaseUnused() {
+			_ring.release(this, false);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import engine.graphics.geometry.Texture;
+import engine.resources.DiskCache;
+import engine.utils.Debug;
+
+/**
+ * Reads and writes decoded textures in our binary texture format. A cached
+ * texture holds the RGBA texels of every mip level exactly how they are
+ * uploaded, so loading one skips decoding the image and building its mip
+ * chain:
+ * 
+ * <pre>
+ * int    magic     "GDTX"
+ * int    version   FORMAT_VERSION
+ * int    width     width of the top level in pixels
+ * int    height    height of the top level in pixels
+ * int    levels    number of mip levels
+ * byte[] texels    the mip chain, largest level first
+ * </pre>
+ * 
+ * Everything is stored in the native byte order, so a cache written on a
+ * machine with a different byte order fails the magic check and is rebuilt.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class TextureCache {
+	private static final int MAGIC = ('G' << 24) | ('D' << 16) | ('T' << 8) | 'X';
+	private static final String DIRECTORY = "textures/";
+	private static final String EXTENSION = ".tex";
+	private static final int HEADER_SIZE_BYTES = 5 * 4;
+
+	/**
+	 * Increment whenever the layout or the contents of a cached texture
+	 * changes, any older entries are then ignored and rebuilt
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/*
+	 * Private to prevent instantiation
+	 */
+	private TextureCache() {
+	}
+
+	/**
+	 * @param source
+	 *            contents of the source file of the texture
+	 * @param options
+	 *            the options changing the decoded texels
+	 * @return the cache entry name for the source file
+	 */
+	static String getEntryName(byte[] source, Texture.TextureOptions options) {
+		String mipmap = !options.useMipmap ? "" : options.gammaCorrectMipmap ? "-srgbmips" : "-mips";
+		return DIRECTORY + DiskCache.hash(source) + mipmap + EXTENSION;
+	}
+
+	/**
+	 * Maps the cached texture
+	 * 
+	 * @param entryName
+	 *            the cache entry name of the texture
+	 * @return the cached texture, or null if it is not cached or out of date
+	 */
+	static CachedTexture read(String entryName) {
+		ByteBuffer buffer = DiskCache.map(entryName);
+		if (buffer == null)
+			return null;
+		buffer.order(ByteOrder.nativeOrder());
+
+		// Validate the header before trusting any of the sizes
+		if (buffer.remaining() < HEADER_SIZE_BYTES || buffer.getInt() != MAGIC
+				|| buffer.getInt() != FORMAT_VERSION) {
+			Debug.log("Ignoring out of date texture cache entry: " + entryName);
+			return null;
+		}
+
+		int width = buffer.getInt();
+		int height = buffer.getInt();
+		int levels = buffer.getInt();
+		if (width <= 0 || height <= 0 || levels <= 0 || levels > MipChainBuilder.getLevelCount(width, height)
+				|| buffer.remaining() != MipChainBuilder.getChainSize(width, height, levels)) {
+			Debug.warn("Ignoring corrupt texture cache entry: " + entryName);
+			return null;
+		}
+
+		// The texels share the mapped memory
+		return new CachedTexture(width, height, levels, buffer.slice());
+	}
+
+	/**
+	 * Writes the decoded texels to the cache
+	 * 
+	 * @param entryName
+	 *            the cache entry name of the texture
+	 * @param width
+	 *            width of the top level in pixels
+	 * @param height
+	 *            height of the top level in pixels
+	 * @param levels
+	 *            number of mip levels
+	 * @param texels
+	 *            the mip chain, written from its position to its limit
+	 */
+	static void write(String entryName, int width, int height, int levels, ByteBuffer texels) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES).order(ByteOrder.nativeOrder());
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(width).putInt(height).putInt(levels).flip();
+
+		if (DiskCache.write(entryName, header, texels))
+			Debug.log("Cached texture as: " + entryName);
+	}
+
+	/**
+	 * A texture mapped from the cache. The texels point directly into the
+	 * mapped file.
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	static class CachedTexture {
+		final int width;
+		final int height;
+		final int levels;
+		final ByteBuffer texels;
+
+		/*
+		 * Constructs a new cached texture
+		 */
+		CachedTexture(int width, int height, int levels, ByteBuffer texels) {
+			this.width = width;
+			this.height = height;
+			this.levels = levels;
+			this.texels = texels;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package engine.resources.loaders;
+
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * The layouts texels are uploaded in, either plain RGBA bytes or one of the
+ * block compressed formats. A chain of mip levels is always stored packed one
+ * after another, largest first, with every level made of rows of blocks (a
+ * plain texel is treated as a 1x1 block).
+ * 
+ * @author Brandon Porter
+ *
+ */
+enum TextureFormat {
+	RGBA8(GL11.GL_RGBA8, 1, 4),
+	// 4 bits per texel, RGB with 1 bit alpha
+	BC1(EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT, 4, 8),
+	// 8 bits per texel, RGB with interpolated alpha
+	BC3(EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, 4, 16),
+	// 8 bits per texel, two channels (i.e. normal maps)
+	BC5(GL30.GL_COMPRESSED_RG_RGTC2, 4, 16),
+	// 8 bits per texel, high quality RGBA
+	BC7(GL42.GL_COMPRESSED_RGBA_BPTC_UNORM, 4, 16);
+
+	private final int _internalFormat;
+	private final int _blockSize;
+	private final int _blockBytes;
+
+	/*
+	 * Constructs a new texture format
+	 */
+	private TextureFormat(int internalFormat, int blockSize, int blockBytes) {
+		this._internalFormat = internalFormat;
+		this._blockSize = blockSize;
+		this._blockBytes = blockBytes;
+	}
+
+	/**
+	 * @return the GL internal format textures are stored as
+	 */
+	int getInternalFormat() {
+		return _internalFormat;
+	}
+
+	/**
+	 * @return the width and height of a block in texels
+	 */
+	int getBlockSize() {
+		return _blockSize;
+	}
+
+	/**
+	 * @return the size of a block in bytes
+	 */
+	int getBlockBytes() {
+		return _blockBytes;
+	}
+
+	/**
+	 * @return true if the format is block compressed
+	 */
+	boolean isCompressed() {
+		return _blockSize > 1;
+	}
+
+	/**
+	 * @param capabilities
+	 *            the capabilities of the current context
+	 * @return true if textures can be uploaded in this format as is
+	 */
+	boolean isSupported(GLCapabilities capabilities) {
+		switch (this) {
+		case BC1:
+		case BC3:
+			return capabilities.GL_EXT_texture_compression_s3tc;
+		case BC5:
+			return capabilities.OpenGL30 || capabilities.GL_ARB_texture_compression_rgtc
+					|| capabilities.GL_EXT_texture_compression_rgtc;
+		case BC7:
+			return capabilities.OpenGL42 || capabilities.GL_ARB_texture_compression_bptc;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * @param levelHeight
+	 *            height of the level in texels
+	 * @return the amount of block rows in the level
+	 */
+	int getBlockRows(int levelHeight) {
+		return (levelHeight + _blockSize - 1) / _blockSize;
+	}
+
+	/**
+	 * @param levelWidth
+	 *            width of the level in texels
+	 * @return the size of a block row of the level in bytes
+	 */
+	int getBlockRowBytes(int levelWidth) {
+		return (levelWidth + _blockSize - 1) / _blockSize * _blockBytes;
+	}
+
+	/**
+	 * @param width
+	 *            width of the top level in texels
+	 * @param height
+	 *            height of the top level in texels
+	 * @param level
+	 *            the level
+	 * @return the size of the level in bytes
+	 */
+	int getLevelBytes(int width, int height, int level) {
+		return getBlockRows(MipChainBuilder.getLevelSize(height, level))
+				* getBlockRowBytes(MipChainBuilder.getLevelSize(width, level));
+	}
+
+	/**
+	 * @param width
+	 *            width of the top level in texels
+	 * @param height
+	 *            height of the top level in texels
+	 * @param level
+	 *            the level
+	 * @return the byte offset of the level in the chain
+	 */
+	int getLevelOffset(int width, int height, int level) {
+		int offset = 0;
+		for (int i = 0; i < level; i++)
+			offset += getLevelBytes(width, height, i);
+		return offset;
+	}
+
+	/**
+	 * @param width
+	 *            width of the top level in texels
+	 * @param height
+	 *            height of the top level in texels
+	 * @param levels
+	 *            the amount of levels in the chain
+	 * @return the size of the chain in bytes
+	 */
+	int getChainSize(int width, int height, int levels) {
+		return getLevelOffset(width, height, levels);
+	}
+}
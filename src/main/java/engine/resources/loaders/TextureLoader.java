@@ -1,17 +1,26 @@
 package engine.resources.loaders;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL14;
-import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GLCapabilities;
 
 import de.matthiasmann.twl.utils.PNGDecoder;
 import de.matthiasmann.twl.utils.PNGDecoder.Format;
+import engine.common.Defaults;
 import engine.graphics.geometry.Texture;
+import engine.resources.DiskCache;
 import engine.resources.RequestManager;
+import engine.resources.RequestPriority;
 import engine.resources.ResourceManager;
 import engine.utils.Debug;
 
@@ -23,6 +32,10 @@ import engine.utils.Debug;
  *
  */
 public class TextureLoader {
+	// Decoded pixels are written straight into this ring when it's available
+	private static volatile PixelUnpackRing _pixelUnpackRing = null;
+	// Compressed formats the driver can sample, the rest are decoded on the CPU
+	private static volatile Set<TextureFormat> _supportedFormats = EnumSet.of(TextureFormat.RGBA8);
 
 	/*
 	 * Private to prevent instantiation
@@ -30,6 +43,37 @@ public class TextureLoader {
 	private TextureLoader() {
 	}
 
+	/**
+	 * Creates the pixel unpack ring textures are uploaded through, if the
+	 * context supports persistently mapped buffers. Textures are uploaded from
+	 * client memory otherwise. Also checks which compressed formats the
+	 * context supports. [WARNING] - This MUST be called from the main thread.
+	 */
+	public static void init() {
+		_pixelUnpackRing = PixelUnpackRing.create(Defaults.Resources.PIXEL_UNPACK_RING_BYTES);
+		Debug.log("Texture uploads through a pixel unpack ring: " + (_pixelUnpackRing != null));
+
+		GLCapabilities capabilities = GL.getCapabilities();
+		Set<TextureFormat> supportedFormats = EnumSet.noneOf(TextureFormat.class);
+		for (TextureFormat format : TextureFormat.values()) {
+			if (format.isSupported(capabilities))
+				supportedFormats.add(format);
+		}
+		_supportedFormats = supportedFormats;
+		Debug.log("Supported texture formats: " + supportedFormats);
+	}
+
+	/**
+	 * Waits for the uploads still reading the pixel unpack ring and deletes
+	 * it. [WARNING] - This MUST be called from the main thread.
+	 */
+	public static void dispose() {
+		PixelUnpackRing ring = _pixelUnpackRing;
+		_pixelUnpackRing = null;
+		if (ring != null)
+			ring.dispose();
+	}
+
 	/**
 	 * Loads the specified file as a texture
 	 * 
@@ -58,6 +102,48 @@ public class TextureLoader {
 		return texture;
 	}
 
+	/**
+	 * Loads the existing texture from disk on a resource worker and into
+	 * graphics memory with scene priority
+	 * 
+	 * @param texture
+	 *            the existing texture object
+	 * @param fileName
+	 *            file name of the texture
+	 * @return a future completing once the texture is resident
+	 */
+	public static CompletableFuture<Texture> loadTextureAsync(Texture texture, String fileName) {
+		return loadTextureAsync(texture, fileName, Texture.TextureOptions.Default, RequestPriority.SCENE);
+	}
+
+	/**
+	 * Loads the existing texture from disk on a resource worker and into
+	 * graphics memory
+	 * 
+	 * @param texture
+	 *            the existing texture object
+	 * @param fileName
+	 *            file name of the texture
+	 * @param textureOptions
+	 *            the additional options to load the texture with
+	 * @param priority
+	 *            the priority of the resource request
+	 * @return a future completing once the texture is resident
+	 */
+	public static CompletableFuture<Texture> loadTextureAsync(Texture texture, String fileName,
+			Texture.TextureOptions textureOptions, RequestPriority priority) {
+		RequestManager.makeResourceRequest(() -> {
+			try {
+				loadTexture(texture, fileName, textureOptions);
+			} catch (Exception e) {
+				Debug.error("Error loading texture: " + fileName);
+				e.printStackTrace();
+				texture.setLoadFailed(e);
+			}
+		}, priority);
+		return texture.whenResident();
+	}
+
 	/**
 	 * Loads the existing texture from disk and into graphics memory
 	 * 
@@ -81,13 +167,18 @@ public class TextureLoader {
 	public static void loadTexture(Texture texture, String fileName, Texture.TextureOptions textureOptions) throws Exception {
 		TextureData data; // Must be
 
-		// Get the path to the texture file
-		String pathToFile = ResourceManager.TEXTURES_PATH + fileName;
-
 		// Parses the file type so we can support multiple types
 		switch (ResourceManager.getFileType(fileName)) {
 		case PNG:
-			data = decodePNGTexture(ResourceManager.loadResourceAsStream(pathToFile));
+			data = stageTexture(loadPNGTexture(fileName, textureOptions));
+			break;
+		case DDS:
+			data = stageTexture(
+					prepareCompressedTexture(fileName, DDSLoader.loadTextureData(fileName), textureOptions));
+			break;
+		case KTX2:
+			data = stageTexture(
+					prepareCompressedTexture(fileName, KTX2Loader.loadTextureData(fileName), textureOptions));
 			break;
 		default:
 			throw new Exception(String.format("Trying to load an invalid file type: %s as a texture.", fileName));
@@ -96,54 +187,113 @@ public class TextureLoader {
 		texture.setWidth(data.getWidth());
 		texture.setHeight(data.getHeight());
 
-		// This needs to be on main thread
-		boolean wasImmediate = RequestManager.makeGLRequestImmediate(() -> {
-			int id = registerTextureWithOpenGL(data, textureOptions);
-			texture.setTextureId(id);
-		});
-		
+		// This needs to be on main thread, large textures are uploaded a few
+		// rows at a time over several frames
+		TextureUpload upload;
+		if (data.getRegion() != null)
+			upload = new TextureUpload(texture, data.getWidth(), data.getHeight(), data.getFormat(), data.getLevels(),
+					data.getRegion(), textureOptions);
+		else
+			upload = new TextureUpload(texture, data.getWidth(), data.getHeight(), data.getFormat(), data.getLevels(),
+					data.getByteBuffer(), textureOptions);
+		boolean wasImmediate = RequestManager.makeGLUploadImmediate(upload);
+
 		Debug.log("GL request to register texture (" + texture.getName() + ") was immediate: " + wasImmediate);
 	}
 
 	/*
-	 * Helper function to load a png file
+	 * Helper function to load a png file. Decoded textures are cached by the
+	 * hash of their source, so we only ever decode a png file once.
+	 */
+	private static TextureData loadPNGTexture(String fileName, Texture.TextureOptions textureOptions)
+			throws IOException {
+		if (!DiskCache.isEnabled())
+			return decodePNGTexture(ResourceManager.loadTextureAsStream(fileName), textureOptions);
+
+		byte[] source = ResourceManager.loadTextureAsBytes(fileName);
+		String entryName = TextureCache.getEntryName(source, textureOptions);
+		TextureCache.CachedTexture cachedTexture = TextureCache.read(entryName);
+		if (cachedTexture != null)
+			return new TextureData(cachedTexture.width, cachedTexture.height, TextureFormat.RGBA8,
+					cachedTexture.levels, cachedTexture.texels, null);
+
+		TextureData data = decodePNGTexture(new ByteArrayInputStream(source), textureOptions);
+		TextureCache.write(entryName, data.getWidth(), data.getHeight(), data.getLevels(),
+				data.getByteBuffer().duplicate());
+		return data;
+	}
+
+	/*
+	 * Helper function to decode a png file and build its mip chain
 	 */
-	private static TextureData decodePNGTexture(InputStream inputStream) throws IOException {
+	private static TextureData decodePNGTexture(InputStream inputStream, Texture.TextureOptions textureOptions)
+			throws IOException {
 		// Load png file into decoder instance
 		PNGDecoder decoder = new PNGDecoder(inputStream);
+		int width = decoder.getWidth();
+		int height = decoder.getHeight();
 
 		// Load texture contents into a byte buffer(4 bytes per pixel - RGBA)
+		// with room for the mip chain after it
 		int bytesPerPixel = 4;
-		ByteBuffer buffer = ByteBuffer.allocateDirect(bytesPerPixel * decoder.getWidth() * decoder.getHeight());
-		decoder.decode(buffer, decoder.getWidth() * bytesPerPixel, Format.RGBA);
-		buffer.flip();
+		int levels = textureOptions.useMipmap ? MipChainBuilder.getLevelCount(width, height) : 1;
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MipChainBuilder.getChainSize(width, height, levels));
+		decoder.decode(buffer, width * bytesPerPixel, Format.RGBA);
+		MipChainBuilder.build(buffer, width, height, levels, textureOptions.gammaCorrectMipmap);
+		buffer.clear();
 
 		// return the data
-		return new TextureData(decoder.getWidth(), decoder.getHeight(), buffer);
+		return new TextureData(width, height, TextureFormat.RGBA8, levels, buffer, null);
 	}
 
 	/*
-	 * Registers the texture with opengl. [WARNING] - This MUST be called from
-	 * the main thread.
+	 * Drops the mip levels the options don't use, and decodes the texels on
+	 * the CPU if the driver can't sample their compressed format
 	 */
-	private static int registerTextureWithOpenGL(TextureData data, Texture.TextureOptions options) {
-		// Create and bind the new texture
-		int textureId = GL11.glGenTextures();
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureId);
-
-		// Tell OpenGL how to unpack the RGBA bytes. Each component is 1 byte
-		// size
-		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
-
-		// Load texture data to VRAM
-		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA, data.getWidth(), data.getHeight(), 0, GL11.GL_RGBA,
-				GL11.GL_UNSIGNED_BYTE, data.getByteBuffer());
-
-		// Generate a mipmap for texture
-		if (options.useMipmap) {
-			GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+	private static TextureData prepareCompressedTexture(String fileName, TextureData data,
+			Texture.TextureOptions textureOptions) {
+		int levels = textureOptions.useMipmap ? data.getLevels() : 1;
+		TextureFormat format = data.getFormat();
+
+		if (!_supportedFormats.contains(format)) {
+			Debug.log("Decoding " + format + " texture on the CPU, it's not supported by the driver: " + fileName);
+			ByteBuffer texels = BlockDecoder.decode(format, data.getByteBuffer(), data.getWidth(), data.getHeight(),
+					levels);
+			return new TextureData(data.getWidth(), data.getHeight(), TextureFormat.RGBA8, levels, texels, null);
 		}
 
+		ByteBuffer texels = data.getByteBuffer().duplicate();
+		texels.limit(texels.position() + format.getChainSize(data.getWidth(), data.getHeight(), levels));
+		return new TextureData(data.getWidth(), data.getHeight(), format, levels, texels, null);
+	}
+
+	/*
+	 * Copies the texels into the pixel unpack ring if it has room, so the
+	 * upload doesn't have to copy them on the main thread. The texels are
+	 * written in client memory first, since reading back from the ring's
+	 * mapping (i.e. to build mips or write the cache) is very slow.
+	 */
+	private static TextureData stageTexture(TextureData data) {
+		PixelUnpackRing ring = _pixelUnpackRing;
+		ByteBuffer texels = data.getByteBuffer();
+		PixelUnpackRing.Region region = ring != null ? ring.reserve(texels.remaining()) : null;
+		if (region == null)
+			return data;
+
+		ByteBuffer buffer = region.getBuffer();
+		buffer.put(texels.duplicate()).clear();
+		return new TextureData(data.getWidth(), data.getHeight(), data.getFormat(), data.getLevels(), buffer, region);
+	}
+
+	/*
+	 * Applies the options to the bound texture once its pixels are uploaded.
+	 * [WARNING] - This MUST be called from the main thread.
+	 */
+	static void applyTextureOptions(Texture.TextureOptions options, int levels) {
+		// Only sample the levels that were uploaded, the chain is built when
+		// loading instead of generated here
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, levels - 1);
+
 		// Not always necessary: this basically says that when a pixel is drawn
 		// with no direct one to one association to a texture coordinate it will
 		// pick the nearest texture coordinate point.
@@ -154,23 +304,22 @@ public class TextureLoader {
 
 		// Set level of detail bias
 		GL11.glTexParameterf(GL11.GL_TEXTURE_2D, GL14.GL_TEXTURE_LOD_BIAS, options.levelOfDetailBias);
-
-		// Unbind and return the texture
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
-		return textureId;
 	}
 
 	/**
 	 * Container used to hold data for creating a new texture. Only to be used
-	 * by this loader class
+	 * by the texture loader classes
 	 * 
 	 * @author Brandon
 	 *
 	 */
-	private static class TextureData {
+	static class TextureData {
 		private final int _width;
 		private final int _height;
+		private final TextureFormat _format;
+		private final int _levels;
 		private final ByteBuffer _buffer;
+		private final PixelUnpackRing.Region _region;
 
 		/**
 		 * Constructs a new texture data container
@@ -179,13 +328,24 @@ public class TextureLoader {
 		 *            the width of the texture in pixels
 		 * @param height
 		 *            the height of the texture in pixels
+		 * @param format
+		 *            the format of the bytes
+		 * @param levels
+		 *            the amount of mip levels in the buffer
 		 * @param buffer
-		 *            the bytes of the image
+		 *            the bytes of the image and its mip chain
+		 * @param region
+		 *            the region of the pixel unpack ring the buffer maps, or
+		 *            null if it's client memory
 		 */
-		public TextureData(int width, int height, ByteBuffer buffer) {
+		public TextureData(int width, int height, TextureFormat format, int levels, ByteBuffer buffer,
+				PixelUnpackRing.Region region) {
 			this._width = width;
 			this._height = height;
+			this._format = format;
+			this._levels = levels;
 			this._buffer = buffer;
+			this._region = region;
 		}
 
 		/**
@@ -202,11 +362,33 @@ public class TextureLoader {
 			return _height;
 		}
 
+		/**
+		 * @return format of the texture data
+		 */
+		public TextureFormat getFormat() {
+			return _format;
+		}
+
+		/**
+		 * @return amount of mip levels
+		 */
+		public int getLevels() {
+			return _levels;
+		}
+
 		/**
 		 * @return texture data in bytes
 		 */
 		public ByteBuffer getByteBuffer() {
 			return _buffer;
 		}
+
+		/**
+		 * @return the region of the pixel unpack ring holding the bytes, or
+		 *         null if they're in client memory
+		 */
+		public PixelUnpackRing.Region getRegion() {
+			return _region;
+		}
 	}
 }
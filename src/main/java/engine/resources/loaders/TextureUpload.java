@@ -0,0 +1,242 @@
+package engine.resources.loaders;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GLCapabilities;
+
+import engine.graphics.GLStateCache;
+import engine.graphics.geometry.Texture;
+import engine.resources.IGLUpload;
+
+/**
+ * Uploads the texels of a texture and its mip chain a band of rows at a time,
+ * level by level, so a large texture can be spread over several frames. The
+ * texels are either plain RGBA or block compressed, in which case a band is
+ * made of whole block rows. They either come from a region of the pixel
+ * unpack ring, in which case each band is only a non-blocking copy from the
+ * buffer offset, or from client memory. The texture only gets its id (and
+ * becomes resident) once completed on the main thread.
+ *
+ * @author Brandon Porter
+ *
+ */
+final class TextureUpload implements IGLUpload {
+	private final Texture _texture;
+	private final int _width;
+	private final int _height;
+	private final TextureFormat _format;
+	private final int _levels;
+	private final ByteBuffer _pixels;
+	private final PixelUnpackRing.Region _region;
+	private final Texture.TextureOptions _options;
+
+	private int _textureId = -1;
+	private int _level = 0;
+	private int _rowsUploaded = 0;
+
+	/**
+	 * Constructs a new texture upload
+	 *
+	 * @param texture
+	 *            the texture receiving the id once uploaded
+	 * @param width
+	 *            width in pixels
+	 * @param height
+	 *            height in pixels
+	 * @param format
+	 *            the format of the texels
+	 * @param levels
+	 *            the amount of mip levels packed after each other
+	 * @param pixels
+	 *            the texels of the image and its mip chain
+	 * @param options
+	 *            the options applied once the pixels are uploaded
+	 */
+	TextureUpload(Texture texture, int width, int height, TextureFormat format, int levels, ByteBuffer pixels,
+			Texture.TextureOptions options) {
+		this._texture = texture;
+		this._width = width;
+		this._height = height;
+		this._format = format;
+		this._levels = levels;
+		this._pixels = pixels;
+		this._region = null;
+		this._options = options;
+	}
+
+	/**
+	 * Constructs a new texture upload from pixels already written to the pixel
+	 * unpack ring
+	 *
+	 * @param texture
+	 *            the texture receiving the id once uploaded
+	 * @param width
+	 *            width in pixels
+	 * @param height
+	 *            height in pixels
+	 * @param format
+	 *            the format of the texels
+	 * @param levels
+	 *            the amount of mip levels packed after each other
+	 * @param region
+	 *            the region of the ring holding the texels of the image and
+	 *            its mip chain
+	 * @param options
+	 *            the options applied once the pixels are uploaded
+	 */
+	TextureUpload(Texture texture, int width, int height, TextureFormat format, int levels,
+			PixelUnpackRing.Region region, Texture.TextureOptions options) {
+		this._texture = texture;
+		this._width = width;
+		this._height = height;
+		this._format = format;
+		this._levels = levels;
+		this._pixels = null;
+		this._region = region;
+		this._options = options;
+	}
+
+	@Override
+	public long getRemainingBytes() {
+		if (_level >= _levels)
+			return 0;
+		long uploadedBytes = (long) _rowsUploaded
+				* _format.getBlockRowBytes(MipChainBuilder.getLevelSize(_width, _level));
+		return _format.getChainSize(_width, _height, _levels) - _format.getLevelOffset(_width, _height, _level)
+				- uploadedBytes;
+	}
+
+	@Override
+	public boolean upload(long maxBytes) throws Exception {
+		if (_region != null) {
+			if (_region.getRing().isDisposed())
+				throw new Exception("Pixel unpack ring was disposed before the upload finished");
+			// Free up whatever earlier uploads are done reading
+			_region.getRing().retire();
+		}
+
+		if (_textureId < 0) {
+			// Allocate the texture first, the rows are filled in after
+			_textureId = GL11.glGenTextures();
+			GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, _textureId);
+			allocateStorage();
+		} else {
+			GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, _textureId);
+		}
+
+		// Tell OpenGL how to unpack the RGBA bytes. Each component is 1 byte
+		// size
+		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+		if (_region != null)
+			GLStateCache.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, _region.getRing().getBufferId());
+
+		// Keep going through the levels while there's budget, at least one row
+		long budgetBytes = maxBytes;
+		do {
+			budgetBytes -= uploadRows(budgetBytes);
+		} while (_level < _levels && budgetBytes > 0);
+
+		if (_region != null)
+			GLStateCache.bindBuffer(GL21.GL_PIXEL_UNPACK_BUFFER, 0);
+
+		boolean finished = _level >= _levels;
+		if (finished) {
+			// The region is reused once the GPU has read it
+			if (_region != null)
+				_region.releaseUploaded();
+			TextureLoader.applyTextureOptions(_options, _levels);
+		}
+
+		GLStateCache.bindTexture(GL11.GL_TEXTURE_2D, 0);
+		return finished;
+	}
+
+	@Override
+	public void complete() throws Exception {
+		_texture.setSizeBytes(_format.getChainSize(_width, _height, _levels));
+		_texture.setTextureId(_textureId);
+	}
+
+	@Override
+	public void onFailed(Exception cause) {
+		if (_region != null)
+			_region.releaseUnused();
+		if (_textureId >= 0)
+			GLStateCache.deleteTexture(_textureId);
+		_texture.setLoadFailed(cause);
+	}
+
+	/*
+	 * Uploads the next band of (block) rows of the current level, returns the
+	 * amount of bytes uploaded
+	 */
+	private long uploadRows(long maxBytes) {
+		int levelWidth = MipChainBuilder.getLevelSize(_width, _level);
+		int levelHeight = MipChainBuilder.getLevelSize(_height, _level);
+		int rowBytes = _format.getBlockRowBytes(levelWidth);
+		int offset = _format.getLevelOffset(_width, _height, _level) + _rowsUploaded * rowBytes;
+
+		// At least one row, even if it goes over
+		int blockRows = _format.getBlockRows(levelHeight);
+		int rows = (int) Math.max(1, Math.min(blockRows - _rowsUploaded, maxBytes / rowBytes));
+		int y = _rowsUploaded * _format.getBlockSize();
+		int bandHeight = Math.min(levelHeight - y, rows * _format.getBlockSize());
+		int bandBytes = rows * rowBytes;
+
+		if (_region != null) {
+			// Sourced from the bound buffer, so this doesn't wait on the copy
+			long bufferOffset = _region.getOffset() + offset;
+			if (_format.isCompressed())
+				GL13.glCompressedTexSubImage2D(GL11.GL_TEXTURE_2D, _level, 0, y, levelWidth, bandHeight,
+						_format.getInternalFormat(), bandBytes, bufferOffset);
+			else
+				GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, _level, 0, y, levelWidth, bandHeight, GL11.GL_RGBA,
+						GL11.GL_UNSIGNED_BYTE, bufferOffset);
+		} else {
+			ByteBuffer band = _pixels.duplicate();
+			band.position(_pixels.position() + offset);
+			band.limit(band.position() + bandBytes);
+			if (_format.isCompressed())
+				GL13.glCompressedTexSubImage2D(GL11.GL_TEXTURE_2D, _level, 0, y, levelWidth, bandHeight,
+						_format.getInternalFormat(), band);
+			else
+				GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, _level, 0, y, levelWidth, bandHeight, GL11.GL_RGBA,
+						GL11.GL_UNSIGNED_BYTE, band);
+		}
+
+		_rowsUploaded += rows;
+		if (_rowsUploaded >= blockRows) {
+			_level++;
+			_rowsUploaded = 0;
+		}
+		return bandBytes;
+	}
+
+	/*
+	 * Allocates the storage of the bound texture. Immutable storage is used
+	 * when supported so the driver doesn't have to revalidate the texture.
+	 */
+	private void allocateStorage() {
+		GLCapabilities capabilities = GL.getCapabilities();
+		if (capabilities.OpenGL42 || capabilities.GL_ARB_texture_storage) {
+			GL42.glTexStorage2D(GL11.GL_TEXTURE_2D, _levels, _format.getInternalFormat(), _width, _height);
+			return;
+		}
+
+		for (int level = 0; level < _levels; level++) {
+			int levelWidth = MipChainBuilder.getLevelSize(_width, level);
+			int levelHeight = MipChainBuilder.getLevelSize(_height, level);
+			if (_format.isCompressed())
+				GL13.nglCompressedTexImage2D(GL11.GL_TEXTURE_2D, level, _format.getInternalFormat(), levelWidth,
+						levelHeight, 0, _format.getLevelBytes(_width, _height, level), 0L);
+			else
+				GL11.glTexImage2D(GL11.GL_TEXTURE_2D, level, GL11.GL_RGBA, levelWidth, levelHeight, 0, GL11.GL_RGBA,
+						GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		}
+	}
+}
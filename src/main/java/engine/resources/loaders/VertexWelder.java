@@ -0,0 +1,124 @@
+package engine.resources.loaders;
+
+import java.util.Arrays;
+
+/**
+ * Welds together face vertices that share the exact same position, texture
+ * coordinate and normal. Each unique (position, texture, normal) index triple
+ * is given the next output index, so a mesh only stores each unique vertex
+ * once and its index buffer reuses them.
+ * 
+ * The triples are kept in a primitive open addressing hash table (linear
+ * probing) so nothing is boxed per vertex.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class VertexWelder {
+	private static final int EMPTY = -1;
+	private static final float MAX_LOAD_FACTOR = 0.5f;
+
+	private int[] _keys;
+	private int[] _values;
+	private int _mask;
+	private int _size = 0;
+
+	/**
+	 * Constructs a new welder
+	 * 
+	 * @param expectedVertices
+	 *            the amount of unique vertices expected, the table will not
+	 *            need to grow until it has more than this
+	 */
+	VertexWelder(int expectedVertices) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedVertices / MAX_LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * @return the amount of unique vertices welded so far
+	 */
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * Finds the output index of the vertex. If the vertex has not been seen
+	 * before it is given the next output index, which is equal to size()
+	 * before the call.
+	 * 
+	 * @param posIdx
+	 *            index of the position
+	 * @param texCoordIdx
+	 *            index of the texture coordinate, or -1
+	 * @param normalIdx
+	 *            index of the normal, or -1
+	 * @return the output index of the vertex
+	 */
+	int weld(int posIdx, int texCoordIdx, int normalIdx) {
+		int slot = hash(posIdx, texCoordIdx, normalIdx) & _mask;
+		while (_values[slot] != EMPTY) {
+			int key = slot * 3;
+			if (_keys[key] == posIdx && _keys[key + 1] == texCoordIdx && _keys[key + 2] == normalIdx)
+				return _values[slot];
+			slot = (slot + 1) & _mask;
+		}
+
+		int index = _size++;
+		insert(slot, posIdx, texCoordIdx, normalIdx, index);
+
+		if (_size > (_values.length * MAX_LOAD_FACTOR))
+			grow();
+		return index;
+	}
+
+	/*
+	 * Doubles the table and re-inserts every vertex
+	 */
+	private void grow() {
+		int[] oldKeys = _keys;
+		int[] oldValues = _values;
+		allocate(oldValues.length * 2);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] == EMPTY)
+				continue;
+
+			int posIdx = oldKeys[i * 3], texCoordIdx = oldKeys[i * 3 + 1], normalIdx = oldKeys[i * 3 + 2];
+			int slot = hash(posIdx, texCoordIdx, normalIdx) & _mask;
+			while (_values[slot] != EMPTY)
+				slot = (slot + 1) & _mask;
+			insert(slot, posIdx, texCoordIdx, normalIdx, oldValues[i]);
+		}
+	}
+
+	/*
+	 * Creates empty tables of the specified capacity (must be a power of 2)
+	 */
+	private void allocate(int capacity) {
+		_keys = new int[capacity * 3];
+		_values = new int[capacity];
+		Arrays.fill(_values, EMPTY);
+		_mask = capacity - 1;
+	}
+
+	/*
+	 * Stores the triple and its index in the slot
+	 */
+	private void insert(int slot, int posIdx, int texCoordIdx, int normalIdx, int index) {
+		_keys[slot * 3] = posIdx;
+		_keys[slot * 3 + 1] = texCoordIdx;
+		_keys[slot * 3 + 2] = normalIdx;
+		_values[slot] = index;
+	}
+
+	/*
+	 * Mixes the triple so neighbouring indices spread across the table
+	 */
+	private static int hash(int posIdx, int texCoordIdx, int normalIdx) {
+		int h = posIdx * 0x9E3779B1;
+		h = (h ^ texCoordIdx) * 0x85EBCA77;
+		h = (h ^ normalIdx) * 0xC2B2AE3D;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,683 @@
+package engine.scenes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.FrustumIntersection;
+import org.joml.Intersectionf;
+import org.joml.Matrix4fc;
+import org.joml.Vector2f;
+
+import engine.utils.IntList;
+
+/**
+ * A dynamic bounding volume hierarchy of axis aligned boxes. Every item is a
+ * leaf holding its tight box along with a "fat" box grown by a margin, and
+ * every internal node holds a box around both of its children. Queries only
+ * descend into nodes whose box passes the test, so they touch a small part of
+ * the tree rather than every item.
+ * 
+ * Moving an item only changes the tree when its tight box leaves its fat box.
+ * The leaf is then refit in place, growing the boxes of its ancestors just
+ * enough to hold it, and queued to be reinserted. Refitting keeps every move
+ * cheap but loosens the tree, so the queued leaves are reinserted a few at a
+ * time by rebalance, which picks the cheapest sibling by surface area and
+ * rotates nodes on the way back up to keep the tree's height near log2(n).
+ * 
+ * Nodes are stored in primitive arrays and referred to by index, an item's
+ * index (its proxy) stays the same until it is removed.
+ * 
+ * @author Brandon Porter
+ * 
+ * @param <T>
+ *            the type of item stored in the tree
+ */
+public final class AABBTree<T> {
+	private static final int NULL = -1;
+	private static final int DEFAULT_CAPACITY = 64;
+
+	// Floats per box (min x, y, z then max x, y, z)
+	private static final int BOX = 6;
+
+	// How many of its last moves a fat box is stretched ahead of its item
+	private static final float DISPLACEMENT_MULTIPLIER = 4;
+
+	private final float _margin;
+
+	// Fat boxes of every node, tight boxes are only set for leaves
+	private float[] _fat;
+	private float[] _tight;
+	private int[] _parent;
+	private int[] _child1;
+	private int[] _child2;
+	private int[] _height;
+	private Object[] _items;
+	private boolean[] _queued;
+
+	private int _root = NULL;
+	// Freed nodes are linked through their parent index
+	private int _freeList = NULL;
+	private int _nodeCount = 0;
+	private int _leafCount = 0;
+
+	// Leaves refit since they were last inserted, oldest first
+	private final IntList _reinsertQueue = new IntList();
+	private int _reinsertHead = 0;
+
+	private int[] _stack = new int[DEFAULT_CAPACITY];
+	private final FrustumIntersection _frustum = new FrustumIntersection();
+	private final Vector2f _rayHit = new Vector2f();
+
+	/**
+	 * Constructs an empty tree
+	 * 
+	 * @param margin
+	 *            how far each leaf's fat box reaches past its tight box. A
+	 *            larger margin means items can move further before changing
+	 *            the tree, but queries see looser boxes.
+	 */
+	public AABBTree(float margin) {
+		this._margin = margin;
+		this._fat = new float[DEFAULT_CAPACITY * BOX];
+		this._tight = new float[DEFAULT_CAPACITY * BOX];
+		this._parent = new int[DEFAULT_CAPACITY];
+		this._child1 = new int[DEFAULT_CAPACITY];
+		this._child2 = new int[DEFAULT_CAPACITY];
+		this._height = new int[DEFAULT_CAPACITY];
+		this._items = new Object[DEFAULT_CAPACITY];
+		this._queued = new boolean[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * @return the amount of items in the tree
+	 */
+	public int size() {
+		return _leafCount;
+	}
+
+	/**
+	 * @return the height of the tree, 0 if it holds a single item or none
+	 */
+	public int getHeight() {
+		return _root == NULL ? 0 : _height[_root];
+	}
+
+	/**
+	 * @param proxy
+	 *            the proxy of the item, as returned by insert
+	 * @return the item
+	 */
+	@SuppressWarnings("unchecked")
+	public T getItem(int proxy) {
+		return (T) _items[proxy];
+	}
+
+	/**
+	 * Adds an item to the tree
+	 * 
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @param item
+	 *            the item the box belongs to
+	 * @return the proxy of the item, used to move or remove it
+	 */
+	public int insert(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, T item) {
+		int leaf = allocateNode();
+		_items[leaf] = item;
+		_height[leaf] = 0;
+		setTight(leaf, minX, minY, minZ, maxX, maxY, maxZ);
+		fatten(leaf);
+		insertLeaf(leaf);
+		_leafCount++;
+		return leaf;
+	}
+
+	/**
+	 * Removes an item from the tree, its proxy may be handed out again
+	 * 
+	 * @param proxy
+	 *            the proxy of the item, as returned by insert
+	 */
+	public void remove(int proxy) {
+		removeLeaf(proxy);
+		freeNode(proxy);
+		_leafCount--;
+	}
+
+	/**
+	 * Sets the box of an item. If the box has left the item's fat box, the
+	 * fat box is moved and its ancestors grown to hold it, and the item is
+	 * queued to be reinserted by rebalance.
+	 * 
+	 * @param proxy
+	 *            the proxy of the item, as returned by insert
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @return true if the tree was refit, false if the box is still inside the
+	 *         fat box
+	 */
+	public boolean move(int proxy, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int i = proxy * BOX;
+		float dx = minX - _tight[i];
+		float dy = minY - _tight[i + 1];
+		float dz = minZ - _tight[i + 2];
+		setTight(proxy, minX, minY, minZ, maxX, maxY, maxZ);
+		if (_fat[i] <= minX && _fat[i + 1] <= minY && _fat[i + 2] <= minZ && _fat[i + 3] >= maxX
+				&& _fat[i + 4] >= maxY && _fat[i + 5] >= maxZ)
+			return false;
+
+		// Stretch the fat box the way the item is moving, so an item moving
+		// steadily escapes it far less often
+		fatten(proxy);
+		stretch(i, dx * DISPLACEMENT_MULTIPLIER);
+		stretch(i + 1, dy * DISPLACEMENT_MULTIPLIER);
+		stretch(i + 2, dz * DISPLACEMENT_MULTIPLIER);
+
+		// Ancestors above one that already holds the fat box hold it too
+		for (int index = _parent[proxy]; index != NULL && !contains(index, proxy); index = _parent[index])
+			setUnion(index, index, proxy);
+
+		if (!_queued[proxy]) {
+			_queued[proxy] = true;
+			_reinsertQueue.add(proxy);
+		}
+		return true;
+	}
+
+	/**
+	 * Reinserts the leaves refit by move, oldest first, which shrinks the
+	 * boxes their refits left loose and rebalances the tree around them
+	 * 
+	 * @param maxLeaves
+	 *            the most leaves to reinsert, the rest wait for the next call
+	 * @return the amount of leaves reinserted
+	 */
+	public int rebalance(int maxLeaves) {
+		int reinserted = 0;
+		while (reinserted < maxLeaves && _reinsertHead < _reinsertQueue.size()) {
+			int leaf = _reinsertQueue.get(_reinsertHead++);
+			// Removed (or already reinserted) leaves are skipped
+			if (!_queued[leaf])
+				continue;
+
+			_queued[leaf] = false;
+			removeLeaf(leaf);
+			insertLeaf(leaf);
+			reinserted++;
+		}
+
+		// Drop the processed part of the queue once it is most of the queue
+		int size = _reinsertQueue.size();
+		if (_reinsertHead == size) {
+			_reinsertQueue.clear();
+			_reinsertHead = 0;
+		} else if (_reinsertHead > size >> 1) {
+			int[] queue = _reinsertQueue.array();
+			System.arraycopy(queue, _reinsertHead, queue, 0, size - _reinsertHead);
+			_reinsertQueue.truncate(size - _reinsertHead);
+			_reinsertHead = 0;
+		}
+		return reinserted;
+	}
+
+	/**
+	 * Removes every item
+	 */
+	public void clear() {
+		_root = NULL;
+		_freeList = NULL;
+		Arrays.fill(_items, 0, _nodeCount, null);
+		Arrays.fill(_queued, 0, _nodeCount, false);
+		_nodeCount = 0;
+		_leafCount = 0;
+		_reinsertQueue.clear();
+		_reinsertHead = 0;
+	}
+
+	/**
+	 * Finds every item whose box is at least partly inside a camera frustum
+	 * 
+	 * @param viewProjection
+	 *            the projection matrix multiplied by the view matrix
+	 * @param results
+	 *            list the items are added to
+	 */
+	public void queryFrustum(Matrix4fc viewProjection, List<T> results) {
+		_frustum.set(viewProjection);
+		query(results, (b, i) -> {
+			int result = _frustum.intersectAab(b[i], b[i + 1], b[i + 2], b[i + 3], b[i + 4], b[i + 5]);
+			// Anything else is the index of the plane the box is outside of
+			return result == FrustumIntersection.INSIDE || result == FrustumIntersection.INTERSECT ? result
+					: FrustumIntersection.OUTSIDE;
+		});
+	}
+
+	/**
+	 * Finds every item whose box touches a sphere
+	 * 
+	 * @param centerX
+	 * @param centerY
+	 * @param centerZ
+	 * @param radius
+	 * @param results
+	 *            list the items are added to
+	 */
+	public void querySphere(float centerX, float centerY, float centerZ, float radius, List<T> results) {
+		float radiusSquared = radius * radius;
+		query(results, (b, i) -> Intersectionf.testAabSphere(b[i], b[i + 1], b[i + 2], b[i + 3], b[i + 4],
+				b[i + 5], centerX, centerY, centerZ, radiusSquared) ? FrustumIntersection.INTERSECT
+						: FrustumIntersection.OUTSIDE);
+	}
+
+	/**
+	 * Finds every item whose box touches a box
+	 * 
+	 * @param minX
+	 * @param minY
+	 * @param minZ
+	 * @param maxX
+	 * @param maxY
+	 * @param maxZ
+	 * @param results
+	 *            list the items are added to
+	 */
+	public void queryAABB(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, List<T> results) {
+		query(results, (b, i) -> Intersectionf.testAabAab(b[i], b[i + 1], b[i + 2], b[i + 3], b[i + 4], b[i + 5],
+				minX, minY, minZ, maxX, maxY, maxZ) ? FrustumIntersection.INTERSECT : FrustumIntersection.OUTSIDE);
+	}
+
+	/**
+	 * Finds every item whose box is hit by a ray, in no particular order
+	 * 
+	 * @param originX
+	 * @param originY
+	 * @param originZ
+	 * @param dirX
+	 * @param dirY
+	 * @param dirZ
+	 * @param maxDistance
+	 *            how far along the ray to look, in lengths of the direction
+	 * @param results
+	 *            list the items are added to
+	 */
+	public void raycast(float originX, float originY, float originZ, float dirX, float dirY, float dirZ,
+			float maxDistance, List<T> results) {
+		query(results, (b, i) -> Intersectionf.intersectRayAab(originX, originY, originZ, dirX, dirY, dirZ, b[i],
+				b[i + 1], b[i + 2], b[i + 3], b[i + 4], b[i + 5], _rayHit) && _rayHit.x <= maxDistance
+						? FrustumIntersection.INTERSECT : FrustumIntersection.OUTSIDE);
+	}
+
+	/*
+	 * Walks the tree, skipping any node whose fat box is outside and adding
+	 * every leaf below a node whose fat box is inside without testing them
+	 */
+	@SuppressWarnings("unchecked")
+	private void query(List<T> results, BoxTest test) {
+		if (_root == NULL)
+			return;
+
+		int top = 0;
+		_stack[top++] = _root;
+		while (top > 0) {
+			// Nodes below a node inside the query are pushed flipped (~index)
+			// and need no testing
+			int entry = _stack[--top];
+			boolean inside = entry < 0;
+			int index = inside ? ~entry : entry;
+			if (!inside) {
+				int result = test.test(_fat, index * BOX);
+				if (result == FrustumIntersection.OUTSIDE)
+					continue;
+				inside = result == FrustumIntersection.INSIDE;
+
+				// The fat box can pass when the item itself doesn't
+				if (!inside && isLeaf(index) && test.test(_tight, index * BOX) == FrustumIntersection.OUTSIDE)
+					continue;
+			}
+
+			if (isLeaf(index)) {
+				results.add((T) _items[index]);
+				continue;
+			}
+
+			if (top + 2 > _stack.length)
+				_stack = Arrays.copyOf(_stack, _stack.length * 2);
+			_stack[top++] = inside ? ~_child1[index] : _child1[index];
+			_stack[top++] = inside ? ~_child2[index] : _child2[index];
+		}
+	}
+
+	/*
+	 * Places the leaf next to the sibling that grows the tree's surface area
+	 * the least, then refits and rebalances its ancestors
+	 */
+	private void insertLeaf(int leaf) {
+		if (_root == NULL) {
+			_root = leaf;
+			_parent[leaf] = NULL;
+			return;
+		}
+
+		// Descend while moving the leaf further down is cheaper than pairing
+		// it with the current node
+		int index = _root;
+		while (!isLeaf(index)) {
+			int child1 = _child1[index];
+			int child2 = _child2[index];
+
+			float area = getArea(index);
+			float combinedArea = getUnionArea(index, leaf);
+
+			// Cost of a new parent for this node and the leaf
+			float cost = 2 * combinedArea;
+			// Minimum cost of pushing the leaf further down
+			float inheritanceCost = 2 * (combinedArea - area);
+
+			float cost1 = getDescendCost(child1, leaf) + inheritanceCost;
+			float cost2 = getDescendCost(child2, leaf) + inheritanceCost;
+			if (cost < cost1 && cost < cost2)
+				break;
+			index = cost1 < cost2 ? child1 : child2;
+		}
+
+		int sibling = index;
+		int oldParent = _parent[sibling];
+		int newParent = allocateNode();
+		_parent[newParent] = oldParent;
+		_items[newParent] = null;
+		_height[newParent] = _height[sibling] + 1;
+		setUnion(newParent, leaf, sibling);
+
+		if (oldParent != NULL) {
+			if (_child1[oldParent] == sibling)
+				_child1[oldParent] = newParent;
+			else
+				_child2[oldParent] = newParent;
+		} else {
+			_root = newParent;
+		}
+		_child1[newParent] = sibling;
+		_child2[newParent] = leaf;
+		_parent[sibling] = newParent;
+		_parent[leaf] = newParent;
+
+		refitAncestors(_parent[leaf]);
+	}
+
+	/*
+	 * Unlinks the leaf, putting its sibling in place of their parent
+	 */
+	private void removeLeaf(int leaf) {
+		if (leaf == _root) {
+			_root = NULL;
+			return;
+		}
+
+		int parent = _parent[leaf];
+		int grandParent = _parent[parent];
+		int sibling = _child1[parent] == leaf ? _child2[parent] : _child1[parent];
+
+		if (grandParent != NULL) {
+			if (_child1[grandParent] == parent)
+				_child1[grandParent] = sibling;
+			else
+				_child2[grandParent] = sibling;
+			_parent[sibling] = grandParent;
+			freeNode(parent);
+			refitAncestors(grandParent);
+		} else {
+			_root = sibling;
+			_parent[sibling] = NULL;
+			freeNode(parent);
+		}
+	}
+
+	/*
+	 * Rebalances the node and every ancestor, recomputing their boxes and
+	 * heights from their children
+	 */
+	private void refitAncestors(int index) {
+		while (index != NULL) {
+			index = balance(index);
+			int child1 = _child1[index];
+			int child2 = _child2[index];
+			_height[index] = 1 + Math.max(_height[child1], _height[child2]);
+			setUnion(index, child1, child2);
+			index = _parent[index];
+		}
+	}
+
+	/*
+	 * If one child of node A is more than one level taller than the other,
+	 * rotates the taller child up into A's place. Returns the node now in A's
+	 * place.
+	 */
+	private int balance(int a) {
+		if (isLeaf(a) || _height[a] < 2)
+			return a;
+
+		int b = _child1[a];
+		int c = _child2[a];
+		int balance = _height[c] - _height[b];
+		if (balance > 1)
+			return rotateUp(a, c, b, false);
+		if (balance < -1)
+			return rotateUp(a, b, c, true);
+		return a;
+	}
+
+	/*
+	 * Swaps node A with its taller child, which takes A as one child and
+	 * keeps its own taller child. A keeps its other child and takes the
+	 * child's shorter child in place of the child.
+	 */
+	private int rotateUp(int a, int child, int other, boolean childIsFirst) {
+		int f = _child1[child];
+		int g = _child2[child];
+
+		_child1[child] = a;
+		_parent[child] = _parent[a];
+		_parent[a] = child;
+
+		int parent = _parent[child];
+		if (parent != NULL) {
+			if (_child1[parent] == a)
+				_child1[parent] = child;
+			else
+				_child2[parent] = child;
+		} else {
+			_root = child;
+		}
+
+		int taller = _height[f] > _height[g] ? f : g;
+		int shorter = taller == f ? g : f;
+		_child2[child] = taller;
+		if (childIsFirst)
+			_child1[a] = shorter;
+		else
+			_child2[a] = shorter;
+		_parent[shorter] = a;
+
+		setUnion(a, other, shorter);
+		setUnion(child, a, taller);
+		_height[a] = 1 + Math.max(_height[other], _height[shorter]);
+		_height[child] = 1 + Math.max(_height[a], _height[taller]);
+		return child;
+	}
+
+	/*
+	 * Cost of pairing the leaf with somewhere below the node, ignoring the
+	 * cost of the node's ancestors
+	 */
+	private float getDescendCost(int node, int leaf) {
+		if (isLeaf(node))
+			return getUnionArea(node, leaf);
+		return getUnionArea(node, leaf) - getArea(node);
+	}
+
+	/*
+	 * True if the node is a leaf
+	 */
+	private boolean isLeaf(int node) {
+		return _child1[node] == NULL;
+	}
+
+	/*
+	 * True if node a's fat box holds node b's fat box
+	 */
+	private boolean contains(int a, int b) {
+		int i = a * BOX;
+		int j = b * BOX;
+		return _fat[i] <= _fat[j] && _fat[i + 1] <= _fat[j + 1] && _fat[i + 2] <= _fat[j + 2]
+				&& _fat[i + 3] >= _fat[j + 3] && _fat[i + 4] >= _fat[j + 4] && _fat[i + 5] >= _fat[j + 5];
+	}
+
+	/*
+	 * Surface area of the node's fat box
+	 */
+	private float getArea(int node) {
+		int i = node * BOX;
+		return getArea(_fat[i + 3] - _fat[i], _fat[i + 4] - _fat[i + 1], _fat[i + 5] - _fat[i + 2]);
+	}
+
+	/*
+	 * Surface area of the box around both nodes' fat boxes
+	 */
+	private float getUnionArea(int a, int b) {
+		int i = a * BOX;
+		int j = b * BOX;
+		float dx = Math.max(_fat[i + 3], _fat[j + 3]) - Math.min(_fat[i], _fat[j]);
+		float dy = Math.max(_fat[i + 4], _fat[j + 4]) - Math.min(_fat[i + 1], _fat[j + 1]);
+		float dz = Math.max(_fat[i + 5], _fat[j + 5]) - Math.min(_fat[i + 2], _fat[j + 2]);
+		return getArea(dx, dy, dz);
+	}
+
+	/*
+	 * Surface area of a box of the size
+	 */
+	private static float getArea(float dx, float dy, float dz) {
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/*
+	 * Sets the fat box of the node to the box around the fat boxes of a and b
+	 */
+	private void setUnion(int node, int a, int b) {
+		int n = node * BOX;
+		int i = a * BOX;
+		int j = b * BOX;
+		_fat[n] = Math.min(_fat[i], _fat[j]);
+		_fat[n + 1] = Math.min(_fat[i + 1], _fat[j + 1]);
+		_fat[n + 2] = Math.min(_fat[i + 2], _fat[j + 2]);
+		_fat[n + 3] = Math.max(_fat[i + 3], _fat[j + 3]);
+		_fat[n + 4] = Math.max(_fat[i + 4], _fat[j + 4]);
+		_fat[n + 5] = Math.max(_fat[i + 5], _fat[j + 5]);
+	}
+
+	/*
+	 * Sets the tight box of the leaf
+	 */
+	private void setTight(int leaf, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int i = leaf * BOX;
+		_tight[i] = minX;
+		_tight[i + 1] = minY;
+		_tight[i + 2] = minZ;
+		_tight[i + 3] = maxX;
+		_tight[i + 4] = maxY;
+		_tight[i + 5] = maxZ;
+	}
+
+	/*
+	 * Sets the fat box of the leaf to its tight box grown by the margin
+	 */
+	private void fatten(int leaf) {
+		int i = leaf * BOX;
+		for (int k = 0; k < 3; k++) {
+			_fat[i + k] = _tight[i + k] - _margin;
+			_fat[i + k + 3] = _tight[i + k + 3] + _margin;
+		}
+	}
+
+	/*
+	 * Grows one axis of the fat box at the index by the distance, towards max
+	 * if positive or min if negative
+	 */
+	private void stretch(int index, float distance) {
+		if (distance < 0)
+			_fat[index] += distance;
+		else
+			_fat[index + 3] += distance;
+	}
+
+	/*
+	 * Takes a node from the free list, or the end of the arrays
+	 */
+	private int allocateNode() {
+		int node;
+		if (_freeList != NULL) {
+			node = _freeList;
+			_freeList = _parent[node];
+		} else {
+			if (_nodeCount == _parent.length)
+				grow(_nodeCount * 2);
+			node = _nodeCount++;
+		}
+		_parent[node] = NULL;
+		_child1[node] = NULL;
+		_child2[node] = NULL;
+		return node;
+	}
+
+	/*
+	 * Returns the node to the free list
+	 */
+	private void freeNode(int node) {
+		_items[node] = null;
+		_queued[node] = false;
+		_child1[node] = NULL;
+		_height[node] = -1;
+		_parent[node] = _freeList;
+		_freeList = node;
+	}
+
+	/*
+	 * Grows every array to the capacity
+	 */
+	private void grow(int capacity) {
+		_fat = Arrays.copyOf(_fat, capacity * BOX);
+		_tight = Arrays.copyOf(_tight, capacity * BOX);
+		_parent = Arrays.copyOf(_parent, capacity);
+		_child1 = Arrays.copyOf(_child1, capacity);
+		_child2 = Arrays.copyOf(_child2, capacity);
+		_height = Arrays.copyOf(_height, capacity);
+		_items = Arrays.copyOf(_items, capacity);
+		_queued = Arrays.copyOf(_queued, capacity);
+	}
+
+	/**
+	 * Tests a box against a query
+	 * 
+	 * @author Brandon Porter
+	 *
+	 */
+	@FunctionalInterface
+	private interface BoxTest {
+		/**
+		 * @param boxes
+		 *            packed boxes
+		 * @param index
+		 *            index of the box's first float
+		 * @return FrustumIntersection.INSIDE if the box is entirely inside the
+		 *         query, INTERSECT if partly inside or OUTSIDE if not at all
+		 */
+		int test(float[] boxes, int index);
+	}
+}
@@ -7,10 +7,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.joml.Vector3fc;
+
 import engine.common.Camera;
 import engine.common.Component;
 import engine.common.Entity;
 import engine.common.GameObject;
+import engine.graphics.components.MeshRenderer;
 import engine.scenes.EventDispatcher.ExecutionEvent;
 
 /**
@@ -23,6 +26,7 @@ import engine.scenes.EventDispatcher.ExecutionEvent;
  */
 public class Scene extends Entity {
 	private final EventDispatcher _eventDispatcher = new EventDispatcher();
+	private final SpatialIndex _spatialIndex = new SpatialIndex();
 
 	private SceneState _sceneState = SceneState.INACTIVE;
 	private Map<EventDispatcher.ExecutionEvent, Method> _compEvents = new HashMap<>();
@@ -86,7 +90,8 @@ public class Scene extends Entity {
 		
 		// Adds object to scene
 		gameObjects.add(gameObject);
-		gameObject.addedToScene(this, this::processComponent);
+		_spatialIndex.add(gameObject);
+		gameObject.addedToScene(this, this::processComponent, _spatialIndex::markChanged);
 
 		// Loop over and process each component in the added game object
 		for (Component comp : gameObject.getComponents()) {
@@ -98,6 +103,67 @@ public class Scene extends Entity {
 			addGameObject(child);
 	}
 
+	/**
+	 * Finds the game objects whose bounds are at least partly inside the
+	 * camera's view. The bounds are as of the last update.
+	 * 
+	 * @param camera
+	 *            the camera to look through
+	 * @param results
+	 *            list the found game objects are added to
+	 */
+	public void queryFrustum(Camera camera, List<GameObject> results) {
+		_spatialIndex.queryFrustum(camera, results);
+	}
+
+	/**
+	 * Finds the game objects whose bounds touch a sphere. The bounds are as of
+	 * the last update.
+	 * 
+	 * @param center
+	 *            center of the sphere in world space
+	 * @param radius
+	 *            radius of the sphere
+	 * @param results
+	 *            list the found game objects are added to
+	 */
+	public void querySphere(Vector3fc center, float radius, List<GameObject> results) {
+		_spatialIndex.getTree().querySphere(center.x(), center.y(), center.z(), radius, results);
+	}
+
+	/**
+	 * Finds the game objects whose bounds touch a box. The bounds are as of
+	 * the last update.
+	 * 
+	 * @param min
+	 *            minimum corner of the box in world space
+	 * @param max
+	 *            maximum corner of the box in world space
+	 * @param results
+	 *            list the found game objects are added to
+	 */
+	public void queryAABB(Vector3fc min, Vector3fc max, List<GameObject> results) {
+		_spatialIndex.getTree().queryAABB(min.x(), min.y(), min.z(), max.x(), max.y(), max.z(), results);
+	}
+
+	/**
+	 * Finds the game objects whose bounds are hit by a ray, in no particular
+	 * order. The bounds are as of the last update.
+	 * 
+	 * @param origin
+	 *            start of the ray in world space
+	 * @param direction
+	 *            direction of the ray
+	 * @param maxDistance
+	 *            how far along the ray to look, in lengths of the direction
+	 * @param results
+	 *            list the found game objects are added to
+	 */
+	public void raycast(Vector3fc origin, Vector3fc direction, float maxDistance, List<GameObject> results) {
+		_spatialIndex.getTree().raycast(origin.x(), origin.y(), origin.z(), direction.x(), direction.y(),
+				direction.z(), maxDistance, results);
+	}
+
 	/**
 	 * @return the camera for the scene
 	 */
@@ -156,6 +222,9 @@ public class Scene extends Entity {
 	 */
 	public void update() {
 		_eventDispatcher.dispatchEvent(ExecutionEvent.UPDATE);
+
+		// Catch the spatial index up with everything that moved this update
+		_spatialIndex.update();
 	}
 
 	/**
@@ -189,6 +258,7 @@ public class Scene extends Entity {
 			gameObjects.clear();
 		}
 		_gameObjects.clear();
+		_spatialIndex.clear();
 	}
 
 	/**
@@ -200,6 +270,10 @@ public class Scene extends Entity {
 	 */
 	private void processComponent(Component comp) {
 		_compEvents.clear();
+
+		// A new renderer changes the bounds of its game object
+		if (comp instanceof MeshRenderer)
+			_spatialIndex.markChanged(comp.getGameObject());
 		
 		// TODO: Fix to only check classes we have not previously checked before
 		for (Method m : comp.getClass().getDeclaredMethods()) {
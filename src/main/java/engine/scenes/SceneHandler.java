@@ -1,6 +1,7 @@
 package engine.scenes;
 
 import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
 
 import engine.resources.RequestManager;
 
@@ -60,6 +61,19 @@ public final class SceneHandler {
 		return sceneLoader != null ? sceneLoader.getScene() : null;
 	}
 
+	/**
+	 * Gets a future for the assets a scene declared it depends on
+	 * 
+	 * @param sceneName
+	 *            name of the scene
+	 * @return a future completing once the scene's assets are resident, it is
+	 *         already complete if the scene doesn't exist
+	 */
+	public CompletableFuture<Void> whenSceneAssetsResident(String sceneName) {
+		SceneLoader loader = _sceneLoaders.get(sceneName);
+		return loader != null ? loader.whenAssetsResident() : CompletableFuture.completedFuture(null);
+	}
+
 	/**
 	 * Stores the splash loader in memory, and loads the splash scene
 	 * 
@@ -1,8 +1,10 @@
 package engine.scenes;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import engine.common.GameObject;
+import engine.resources.AssetDependencies;
 
 /**
  * A scene loader is what the scene manager uses as a lookup table when trying
@@ -72,6 +74,27 @@ public abstract class SceneLoader {
 		return _scene;
 	}
 
+	/**
+	 * @return a future completing once every asset the scene declared is
+	 *         resident
+	 */
+	protected CompletableFuture<Void> whenAssetsResident() {
+		AssetDependencies dependencies = new AssetDependencies();
+		declareAssetDependencies(dependencies);
+		return dependencies.whenAllResident();
+	}
+
+	/**
+	 * Declares the meshes and textures the scene needs resident before its
+	 * game objects are loaded. Scenes that load their own resources can leave
+	 * this empty.
+	 * 
+	 * @param dependencies
+	 *            the dependencies to add the scene's assets to
+	 */
+	protected void declareAssetDependencies(AssetDependencies dependencies) {
+	}
+
 	/**
 	 * Loads the game objects for the specific scene
 	 * 
@@ -1,28 +1,37 @@
 package engine.scenes;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 import org.joml.Vector3fc;
 
 import engine.Display;
 import engine.common.Camera;
 import engine.common.Defaults;
 import engine.common.Transform;
+import engine.graphics.FrustumCuller;
+import engine.graphics.GLStateCache;
+import engine.graphics.GPUCuller;
 import engine.graphics.GraphicsManager;
+import engine.graphics.InstanceBuffer;
+import engine.graphics.OcclusionCuller;
+import engine.graphics.RenderQueue;
 import engine.graphics.ShaderType;
 import engine.graphics.StandardShaderProgram;
 import engine.graphics.components.MeshRenderer;
 import engine.graphics.geometry.Material;
+import engine.graphics.geometry.Mesh;
 import engine.lighting.Attenuation;
 import engine.lighting.DirectionalLight;
 import engine.lighting.Light;
 import engine.lighting.PointLight;
 import engine.lighting.SpotLight;
+import engine.utils.Debug;
+import engine.utils.IntList;
 import engine.utils.math.Transformation;
 
 /**
@@ -32,6 +41,9 @@ import engine.utils.math.Transformation;
  *
  */
 public class SceneRenderer {
+	// Validated frames between each summary of the GPU culling validation
+	private static final int GPU_CULLING_REPORT_FRAMES = 600;
+
 	private static SceneRenderer _instance = null;
 
 	/**
@@ -44,13 +56,45 @@ public class SceneRenderer {
 	}
 
 	private final Transformation _transformation = new Transformation();
-	private final Map<Long, LinkedList<Long>> _meshMaterials = new LinkedHashMap<>();
-	private final Map<Long, LinkedList<MeshRenderer>> _materialRenderers = new LinkedHashMap<>();
+	private final RenderQueue _renderQueue = new RenderQueue();
+	private final FrustumCuller _frustumCuller = new FrustumCuller();
+	private final OcclusionCuller _occlusionCuller = new OcclusionCuller(Defaults.Graphics.OCCLUSION_BUFFER_WIDTH,
+			Defaults.Graphics.OCCLUSION_BUFFER_HEIGHT);
+
+	// Every submitted renderer, along with the small ids of its material and
+	// mesh used in its sort key
+	private final List<MeshRenderer> _renderers = new ArrayList<>();
+	private final IntList _rendererMaterialIds = new IntList();
+	private final IntList _rendererMeshIds = new IntList();
+	private final Map<Long, Integer> _materialIds = new HashMap<>();
+	private final Map<Long, Integer> _meshIds = new HashMap<>();
 	private final List<PointLight> _pointLights = new ArrayList<PointLight>();
 	private final List<SpotLight> _spotLights = new ArrayList<SpotLight>();
 
+	// Renderers grouped into a batch per mesh and material for the GPU
+	// culler, rebuilt whenever renderers are added or disposed. Each batch
+	// starts at its offset into the order, followed by the order's size.
+	private final IntList _gpuOrder = new IntList();
+	private final IntList _gpuBatchStarts = new IntList();
+	private boolean _gpuBatchesDirty = true;
+	// The renderer of every instance and drawn batch given to the GPU
+	// culler this frame
+	private final IntList _gpuInstances = new IntList();
+	private final IntList _gpuBatchRenderers = new IntList();
+
 	private DirectionalLight _directionalLight = null;
 
+	// Created on the first render, since it needs a GL context
+	private InstanceBuffer _instances = null;
+	private boolean _instancingFailed = false;
+	private GPUCuller _gpuCuller = null;
+	private boolean _gpuCullingFailed = false;
+
+	// Totals of every GPU cull compared against the CPU
+	private int _validatedFrames = 0;
+	private long _validatedInstances = 0;
+	private long _validationMismatches = 0;
+
 	// Singleton class
 	private SceneRenderer() {
 	}
@@ -59,9 +103,43 @@ public class SceneRenderer {
 	 * Clears the stored objects for new scene
 	 */
 	public void reset() {
-		_meshMaterials.clear();
-		_materialRenderers.clear();
+		_renderQueue.clear();
+		_frustumCuller.clear();
+		_renderers.clear();
+		_rendererMaterialIds.clear();
+		_rendererMeshIds.clear();
+		_materialIds.clear();
+		_meshIds.clear();
 		_pointLights.clear();
+		_gpuOrder.clear();
+		_gpuBatchStarts.clear();
+		_gpuBatchesDirty = true;
+	}
+
+	/**
+	 * @return the amount of renderers drawn in the last frame, after
+	 *         frustum and occlusion culling. Only counted on the GPU while
+	 *         validating the GPU culling.
+	 */
+	public int getVisibleCount() {
+		return _frustumCuller.getVisibleCount() - _occlusionCuller.getOccludedCount();
+	}
+
+	/**
+	 * @return the amount of renderers skipped in the last frame because they
+	 *         were outside of the camera's view. Only counted on the GPU while
+	 *         validating the GPU culling.
+	 */
+	public int getCulledCount() {
+		return _frustumCuller.getCulledCount();
+	}
+
+	/**
+	 * @return the amount of renderers in the camera's view skipped in the
+	 *         last frame because they were hidden behind occluders
+	 */
+	public int getOccludedCount() {
+		return _occlusionCuller.getOccludedCount();
 	}
 
 	/**
@@ -70,26 +148,26 @@ public class SceneRenderer {
 	 * @param renderer
 	 */
 	public void submitRendererForRenderering(MeshRenderer renderer) {
-		long meshId = renderer.getMesh().getInstanceId();
+		// Ids are handed out in the order materials and meshes are first seen,
+		// so they stay small enough to pack into a sort key
 		long matId = renderer.getMaterial().getInstanceId();
-
-		// Check if mesh exists
-		LinkedList<Long> materials = _meshMaterials.get(meshId);
-		if (materials == null) {
-			materials = new LinkedList<>();
-			_meshMaterials.put(meshId, materials);
+		Integer materialId = _materialIds.get(matId);
+		if (materialId == null) {
+			materialId = _materialIds.size();
+			_materialIds.put(matId, materialId);
 		}
 
-		// Check if material exists
-		LinkedList<MeshRenderer> renderers = _materialRenderers.get(matId);
-		if (renderers == null) {
-			materials.add(matId);
-			renderers = new LinkedList<>();
-			_materialRenderers.put(matId, renderers);
+		long meshId = renderer.getMesh().getInstanceId();
+		Integer meshKeyId = _meshIds.get(meshId);
+		if (meshKeyId == null) {
+			meshKeyId = _meshIds.size();
+			_meshIds.put(meshId, meshKeyId);
 		}
 
-		// Add Renderer to list
-		renderers.add(renderer);
+		_renderers.add(renderer);
+		_rendererMaterialIds.add(materialId);
+		_rendererMeshIds.add(meshKeyId);
+		_gpuBatchesDirty = true;
 	}
 
 	/**
@@ -150,36 +228,384 @@ public class SceneRenderer {
 		// Adds the scene lightings to the shader
 		renderLighting(shaderProgram, camera.getViewMatrix());
 
-		// For each similar mesh
-		for (long meshId : _meshMaterials.keySet()) {
-			// For each similar material
-			for (long matId : _meshMaterials.get(meshId)) {
-				// For each renderer with the shared mesh & material
-				Material mat = _materialRenderers.get(matId).peekFirst().getMaterial();
-				mat.renderStart(shaderProgram);
+		// Sends the projection and lighting to the GPU in one upload
+		shaderProgram.uploadSceneData();
+
+		// Culls and draws on the GPU when the driver can, otherwise on the CPU
+		GPUCuller gpuCuller = getGPUCuller();
+		if (gpuCuller != null)
+			renderGPUCulled(gpuCuller, camera);
+		else
+			renderQueue(camera, shaderProgram);
+
+		// Ends the rendering process. The program stays bound for the next
+		// frame, but the last VAO is unbound so nothing else changes it
+		GLStateCache.bindVertexArray(0);
+	}
+
+	/**
+	 * Disposes the renderer
+	 */
+	protected void dispose() {
+		reset();
+		if (_instances != null)
+			_instances.dispose();
+		_instances = null;
+		if (_gpuCuller != null)
+			_gpuCuller.dispose();
+		_gpuCuller = null;
+	}
+
+	/*
+	 * Culls everything out of view on the CPU, then sorts every draw by
+	 * shader, texture, material, mesh then depth and draws them in order
+	 */
+	private void renderQueue(Camera camera, StandardShaderProgram shaderProgram) {
+		buildRenderQueue(camera);
+
+		// Draws sharing a mesh and material are next to each other in the
+		// sorted queue, long enough runs of them are drawn as instances
+		StandardShaderProgram instancedProgram = GraphicsManager.getShader(ShaderType.STANDARD_INSTANCED);
+		int maxInstances = getInstances() != null ? _instances.getCapacity() : 1;
+		StandardShaderProgram currentProgram = shaderProgram;
+		Material currentMat = null;
+		int runStart = 0;
+		while (runStart < _renderQueue.size()) {
+			int runEnd = findRunEnd(runStart, maxInstances);
+			MeshRenderer first = _renderers.get(_renderQueue.getItem(runStart));
+			boolean instanced = runEnd - runStart >= Defaults.Graphics.MIN_INSTANCED_DRAWS && _instances != null;
+
+			// Material uniforms belong to the program, so switching the
+			// program means setting the material again
+			StandardShaderProgram program = instanced ? instancedProgram : shaderProgram;
+			Material mat = first.getMaterial();
+			if (program != currentProgram || mat != currentMat) {
+				if (program != currentProgram)
+					program.bind();
+				mat.renderStart(program);
 				// Specular/shininess component
-				shaderProgram.setSpecular(mat.getShininess(), mat.getSpecularColor());
+				program.setSpecular(mat.getShininess(), mat.getSpecularColor());
+				currentProgram = program;
+				currentMat = mat;
+			}
 
-				for (MeshRenderer renderer : _materialRenderers.get(matId)) {
+			if (instanced) {
+				_instances.clear();
+				for (int i = runStart; i < runEnd; i++) {
+					MeshRenderer renderer = _renderers.get(_renderQueue.getItem(i));
+					_instances.add(_transformation.buildWorldViewMatrix(renderer.getGameObject().getTransform(),
+							camera.getViewMatrix()));
+				}
+				// Tell the renderer to render every instance
+				first.renderInstanced(_instances);
+			} else {
+				for (int i = runStart; i < runEnd; i++) {
+					MeshRenderer renderer = _renderers.get(_renderQueue.getItem(i));
 					// Set the transformation matrix
-					shaderProgram.setWorldViewMatrix(_transformation
+					program.setWorldViewMatrix(_transformation
 							.buildWorldViewMatrix(renderer.getGameObject().getTransform(), camera.getViewMatrix()));
 					// Tell the renderer to render
 					renderer.render();
 				}
-				mat.renderEnd();
 			}
+			runStart = runEnd;
 		}
+	}
+
+	/*
+	 * Culls every renderer on the GPU, then draws each batch of renderers
+	 * sharing a mesh and material with one indirect draw of its visible
+	 * instances
+	 */
+	private void renderGPUCulled(GPUCuller gpuCuller, Camera camera) {
+		if (_gpuBatchesDirty)
+			buildGPUBatches();
+
+		// Every matrix is uploaded each frame. Disposed renderers and meshes
+		// that were unloaded are left out until the batches are rebuilt.
+		gpuCuller.clear();
+		_gpuInstances.clear();
+		_gpuBatchRenderers.clear();
+		for (int b = 0; b + 1 < _gpuBatchStarts.size(); b++) {
+			int start = _gpuBatchStarts.get(b);
+			int end = _gpuBatchStarts.get(b + 1);
+			MeshRenderer first = _renderers.get(_gpuOrder.get(start));
+			if (!first.getMesh().isLoaded()) {
+				_gpuBatchesDirty = true;
+				continue;
+			}
 
-		// Ends the rendering process
-		shaderProgram.unbind();
+			gpuCuller.addBatch(first.getMesh());
+			_gpuBatchRenderers.add(_gpuOrder.get(start));
+			for (int i = start; i < end; i++) {
+				MeshRenderer renderer = _renderers.get(_gpuOrder.get(i));
+				if (renderer.isDisposed()) {
+					_gpuBatchesDirty = true;
+					continue;
+				}
+				gpuCuller.addInstance(renderer.getGameObject().getTransform().getLocalToWorldMatrix());
+				_gpuInstances.add(_gpuOrder.get(i));
+			}
+		}
+
+		// The GPU tests against the same planes the CPU would, nothing is
+		// counted on the CPU unless validating
+		_frustumCuller.clear();
+		_occlusionCuller.clear();
+		_frustumCuller.setFrustum(camera.getProjectionMatrix(), camera.getViewMatrix());
+		gpuCuller.cull(_frustumCuller, camera.getViewMatrix());
+		if (Display.MAIN.getGraphicsController().getGraphicsOptions().validateGPUCulling)
+			validateGPUCulling(gpuCuller);
+
+		StandardShaderProgram program = GraphicsManager.getShader(ShaderType.STANDARD_INSTANCED);
+		program.bind();
+		Material currentMat = null;
+		for (int b = 0; b < gpuCuller.getBatchCount(); b++) {
+			Material mat = _renderers.get(_gpuBatchRenderers.get(b)).getMaterial();
+			if (mat != currentMat) {
+				mat.renderStart(program);
+				// Specular/shininess component
+				program.setSpecular(mat.getShininess(), mat.getSpecularColor());
+				currentMat = mat;
+			}
+			gpuCuller.draw(b);
+		}
 	}
 
-	/**
-	 * Disposes the renderer
+	/*
+	 * Drops any disposed renderers, then groups the rest into a batch per
+	 * mesh and material, ordered by shader, texture, material then mesh
 	 */
-	protected void dispose() {
-		reset();
+	private void buildGPUBatches() {
+		int count = compactRenderers();
+		_gpuBatchesDirty = false;
+
+		// Only sorted to group the batches, so depth plays no part
+		_renderQueue.clear();
+		for (int i = 0; i < count; i++) {
+			MeshRenderer renderer = _renderers.get(i);
+			// Meshes still loading are batched once they've loaded
+			if (!renderer.getMesh().isLoaded()) {
+				_gpuBatchesDirty = true;
+				continue;
+			}
+
+			Material mat = renderer.getMaterial();
+			int textureId = mat.hasTexture() ? mat.getTexture().getTextureId() : 0;
+			_renderQueue.add(RenderQueue.makeKey(mat.getShaderType().ordinal(), textureId,
+					_rendererMaterialIds.get(i), _rendererMeshIds.get(i), 0), i);
+		}
+		_renderQueue.sort();
+
+		_gpuOrder.clear();
+		_gpuBatchStarts.clear();
+		for (int i = 0; i < _renderQueue.size(); i++) {
+			int renderer = _renderQueue.getItem(i);
+			int previous = i > 0 ? _gpuOrder.get(i - 1) : -1;
+			if (previous < 0 || _rendererMaterialIds.get(renderer) != _rendererMaterialIds.get(previous)
+					|| _rendererMeshIds.get(renderer) != _rendererMeshIds.get(previous))
+				_gpuBatchStarts.add(i);
+			_gpuOrder.add(renderer);
+		}
+		_gpuBatchStarts.add(_gpuOrder.size());
+		_renderQueue.clear();
+	}
+
+	/*
+	 * Reads back the GPU cull and culls the same instances on the CPU, warning
+	 * if they kept different instances. Every so often the totals are logged,
+	 * so a run without warnings shows the validation did happen.
+	 */
+	private void validateGPUCulling(GPUCuller gpuCuller) {
+		if (_validatedFrames == 0)
+			Debug.log("Validating GPU culling against the CPU on " + GPUCuller.getDriverDescription());
+
+		gpuCuller.readVisibility();
+		for (int i = 0; i < _gpuInstances.size(); i++) {
+			MeshRenderer renderer = _renderers.get(_gpuInstances.get(i));
+			_frustumCuller.add(renderer.getMesh().getBounds(),
+					renderer.getGameObject().getTransform().getLocalToWorldMatrix());
+		}
+		_frustumCuller.cull();
+
+		int mismatches = 0;
+		for (int i = 0; i < _gpuInstances.size(); i++) {
+			if (_frustumCuller.isVisible(i) != gpuCuller.isVisible(i))
+				mismatches++;
+		}
+		if (mismatches > 0)
+			Debug.warn("GPU culling disagreed with the CPU on " + mismatches + " of " + _gpuInstances.size()
+					+ " renderers (GPU kept " + gpuCuller.getVisibleCount() + ", CPU kept "
+					+ _frustumCuller.getVisibleCount() + ")");
+
+		_validatedFrames++;
+		_validatedInstances += _gpuInstances.size();
+		_validationMismatches += mismatches;
+		if (_validatedFrames % GPU_CULLING_REPORT_FRAMES == 0)
+			Debug.log("GPU culling validated over " + _validatedFrames + " frames: " + _validationMismatches
+					+ " mismatches in " + _validatedInstances + " instances");
+	}
+
+	/*
+	 * Gets the GPU culler, creating it on the first render with GPU culling
+	 * enabled. Returns null if it is disabled or couldn't be created, in which
+	 * case everything is culled on the CPU.
+	 */
+	private GPUCuller getGPUCuller() {
+		if (!Display.MAIN.getGraphicsController().getGraphicsOptions().gpuCulling || _gpuCullingFailed)
+			return null;
+
+		if (_gpuCuller == null) {
+			if (!GPUCuller.isSupported()) {
+				_gpuCullingFailed = true;
+				Debug.warn("GPU culling needs OpenGL 4.3 but the driver is " + GPUCuller.getDriverDescription()
+						+ ", culling on the CPU instead");
+				return null;
+			}
+			try {
+				_gpuCuller = new GPUCuller();
+			} catch (Exception e) {
+				_gpuCullingFailed = true;
+				Debug.error("Could not create the GPU culler, culling on the CPU instead: " + e.getMessage());
+			}
+		}
+		return _gpuCuller;
+	}
+
+	/*
+	 * Gets the instance buffer, creating it if this is the first render.
+	 * Returns null if it couldn't be created, in which case nothing is drawn
+	 * instanced.
+	 */
+	private InstanceBuffer getInstances() {
+		if (_instances == null && !_instancingFailed) {
+			try {
+				_instances = new InstanceBuffer(Defaults.Graphics.MAX_INSTANCES_PER_DRAW);
+			} catch (Exception e) {
+				_instancingFailed = true;
+				Debug.error("Could not create the instance buffer, drawing without instancing: " + e.getMessage());
+			}
+		}
+		return _instances;
+	}
+
+	/*
+	 * Finds the end (exclusive) of the run of queued draws sharing the mesh
+	 * and material of the draw at the start, up to the max run length
+	 */
+	private int findRunEnd(int runStart, int maxLength) {
+		MeshRenderer first = _renderers.get(_renderQueue.getItem(runStart));
+		Mesh mesh = first.getMesh();
+		Material mat = first.getMaterial();
+
+		int runEnd = runStart + 1;
+		int end = Math.min(_renderQueue.size(), runStart + maxLength);
+		while (runEnd < end) {
+			MeshRenderer renderer = _renderers.get(_renderQueue.getItem(runEnd));
+			if (renderer.getMesh() != mesh || renderer.getMaterial() != mat)
+				break;
+			runEnd++;
+		}
+		return runEnd;
+	}
+
+	/*
+	 * Drops any disposed renderers, culls the ones outside the camera's
+	 * frustum or hidden behind occluders, then fills the render queue with a
+	 * sort key for every renderer left in view
+	 */
+	private void buildRenderQueue(Camera camera) {
+		Matrix4fc viewMatrix = camera.getViewMatrix();
+		_renderQueue.clear();
+		_frustumCuller.clear();
+		_frustumCuller.setFrustum(camera.getProjectionMatrix(), viewMatrix);
+
+		// The culler's index of each renderer matches its own index
+		int count = compactRenderers();
+		for (int i = 0; i < count; i++) {
+			MeshRenderer renderer = _renderers.get(i);
+			_frustumCuller.add(renderer.getMesh().getBounds(),
+					renderer.getGameObject().getTransform().getLocalToWorldMatrix());
+		}
+
+		_frustumCuller.cull();
+		boolean occlusion = Defaults.Graphics.OCCLUSION_CULLING && drawOccluders(camera, count);
+		for (int i = 0; i < count; i++) {
+			if (!_frustumCuller.isVisible(i))
+				continue;
+
+			MeshRenderer renderer = _renderers.get(i);
+			Matrix4fc world = renderer.getGameObject().getTransform().getLocalToWorldMatrix();
+			// Occluders hide other objects, not each other
+			if (occlusion && !renderer.isOccluder()
+					&& !_occlusionCuller.isVisible(renderer.getMesh().getBounds(), world))
+				continue;
+
+			// Only the view space depth of the object's origin is needed
+			float viewZ = viewMatrix.m02() * world.m30() + viewMatrix.m12() * world.m31()
+					+ viewMatrix.m22() * world.m32() + viewMatrix.m32();
+
+			Material mat = renderer.getMaterial();
+			int textureId = mat.hasTexture() ? mat.getTexture().getTextureId() : 0;
+			_renderQueue.add(RenderQueue.makeKey(mat.getShaderType().ordinal(), textureId,
+					_rendererMaterialIds.get(i), _rendererMeshIds.get(i), -viewZ / camera.FRUSTUM_FAR), i);
+		}
+
+		_renderQueue.sort();
+	}
+
+	/*
+	 * Compacts the renderers over the disposed ones in place, returning how
+	 * many are left
+	 */
+	private int compactRenderers() {
+		int count = 0;
+		for (int i = 0; i < _renderers.size(); i++) {
+			MeshRenderer renderer = _renderers.get(i);
+			if (renderer.isDisposed())
+				continue;
+
+			if (count != i) {
+				_renderers.set(count, renderer);
+				_rendererMaterialIds.set(count, _rendererMaterialIds.get(i));
+				_rendererMeshIds.set(count, _rendererMeshIds.get(i));
+			}
+			count++;
+		}
+
+		// Moving renderers invalidates the indices in the GPU batches
+		if (count != _renderers.size())
+			_gpuBatchesDirty = true;
+		while (_renderers.size() > count)
+			_renderers.remove(_renderers.size() - 1);
+		_rendererMaterialIds.truncate(count);
+		_rendererMeshIds.truncate(count);
+		return count;
+	}
+
+	/*
+	 * Rasterizes every occluder in the camera's view into the occlusion
+	 * culler's depth buffer. Returns false if there were none, in which case
+	 * nothing needs testing.
+	 */
+	private boolean drawOccluders(Camera camera, int count) {
+		_occlusionCuller.begin(camera.getProjectionMatrix(), camera.getViewMatrix());
+		boolean anyOccluders = false;
+		for (int i = 0; i < count; i++) {
+			MeshRenderer renderer = _renderers.get(i);
+			if (!renderer.isOccluder() || !_frustumCuller.isVisible(i) || !renderer.getMesh().isLoaded())
+				continue;
+
+			Mesh.MeshVBOData data = renderer.getMesh().getVBOData();
+			if (data == null)
+				continue;
+			_occlusionCuller.addOccluder(data, renderer.getGameObject().getTransform().getLocalToWorldMatrix());
+			anyOccluders = true;
+		}
+
+		if (anyOccluders)
+			_occlusionCuller.rasterize();
+		return anyOccluders;
 	}
 
 	/*
@@ -187,6 +613,9 @@ public class SceneRenderer {
 	 * program
 	 */
 	private void renderLighting(StandardShaderProgram shaderProgram, Matrix4f viewMatrix) {
+		// Start from no lights, so only the lights set below are uploaded
+		shaderProgram.clearLights();
+
 		// Set ambient light - base color/brightness of every fragment
 		shaderProgram.setAmbientLight(Light.AMBIENT_LIGHT.getLight());
 
@@ -0,0 +1,184 @@
+package engine.scenes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector3f;
+
+import engine.common.Camera;
+import engine.common.Defaults;
+import engine.common.GameObject;
+import engine.graphics.components.MeshRenderer;
+import engine.graphics.geometry.BoundingVolume;
+import engine.graphics.geometry.Mesh;
+import engine.utils.TimeUtils;
+
+/**
+ * Keeps every game object of a scene in an AABB tree by its world space
+ * bounds, so the scene can find the objects in a region without looking at
+ * all of them. An object with a loaded mesh is bounded by the mesh, anything
+ * else by the point at its position.
+ * 
+ * Game objects report when their transform changes or they are disposed, so
+ * each update only refits the objects that changed rather than checking all
+ * of them. Objects whose mesh hasn't loaded yet are checked every update until
+ * it has.
+ * 
+ * @author Brandon Porter
+ *
+ */
+final class SpatialIndex {
+	private static final int REBALANCE_BATCH = 16;
+
+	private final AABBTree<GameObject> _tree = new AABBTree<>(Defaults.Scene.SPATIAL_INDEX_MARGIN);
+	private final Map<GameObject, Integer> _proxies = new IdentityHashMap<>();
+	private final List<GameObject> _changed = new ArrayList<>();
+	// Objects with a renderer whose mesh bounds aren't known yet
+	private final Set<GameObject> _unbounded = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private final Vector3f _center = new Vector3f();
+	private final Vector3f _extents = new Vector3f();
+	private final Matrix4f _viewProjection = new Matrix4f();
+
+	/**
+	 * Adds the game object at its current bounds
+	 * 
+	 * @param gameObject
+	 *            the game object to index
+	 */
+	void add(GameObject gameObject) {
+		if (_proxies.containsKey(gameObject))
+			return;
+
+		computeBox(gameObject);
+		_proxies.put(gameObject, _tree.insert(_center.x - _extents.x, _center.y - _extents.y,
+				_center.z - _extents.z, _center.x + _extents.x, _center.y + _extents.y, _center.z + _extents.z,
+				gameObject));
+	}
+
+	/**
+	 * Marks the game object to be refit (or removed if it was disposed) on the
+	 * next update
+	 * 
+	 * @param gameObject
+	 *            the game object that changed
+	 */
+	void markChanged(GameObject gameObject) {
+		_changed.add(gameObject);
+	}
+
+	/**
+	 * Refits the changed game objects, removes the disposed ones and
+	 * rebalances part of the tree
+	 */
+	void update() {
+		// Refitting retrieves the world matrix, so an object only reports
+		// changing again once it has changed after this
+		for (int i = 0; i < _changed.size(); i++)
+			refit(_changed.get(i));
+		_changed.clear();
+
+		Iterator<GameObject> unbounded = _unbounded.iterator();
+		while (unbounded.hasNext()) {
+			GameObject gameObject = unbounded.next();
+			if (gameObject.isDisposed() || getMeshBounds(gameObject) != null) {
+				unbounded.remove();
+				refit(gameObject);
+			}
+		}
+
+		// Reinsert in small batches until the queue is empty or the time is up
+		long deadlineNS = System.nanoTime()
+				+ (long) TimeUtils.MilliToNano(Defaults.Scene.SPATIAL_INDEX_REBALANCE_BUDGET_MS);
+		int reinserted;
+		do {
+			reinserted = _tree.rebalance(REBALANCE_BATCH);
+		} while (reinserted == REBALANCE_BATCH && System.nanoTime() < deadlineNS);
+	}
+
+	/**
+	 * Removes every game object
+	 */
+	void clear() {
+		_tree.clear();
+		_proxies.clear();
+		_changed.clear();
+		_unbounded.clear();
+	}
+
+	/**
+	 * Finds the game objects at least partly inside the camera's view
+	 * 
+	 * @param camera
+	 *            the camera
+	 * @param results
+	 *            list the game objects are added to
+	 */
+	void queryFrustum(Camera camera, List<GameObject> results) {
+		camera.getProjectionMatrix().mul(camera.getViewMatrix(), _viewProjection);
+		_tree.queryFrustum(_viewProjection, results);
+	}
+
+	/**
+	 * @return the tree of the indexed game objects
+	 */
+	AABBTree<GameObject> getTree() {
+		return _tree;
+	}
+
+	/*
+	 * Moves the game object to its current bounds, or removes it if it was
+	 * disposed
+	 */
+	private void refit(GameObject gameObject) {
+		Integer proxy = _proxies.get(gameObject);
+		if (proxy == null)
+			return;
+
+		if (gameObject.isDisposed()) {
+			_tree.remove(proxy);
+			_proxies.remove(gameObject);
+			_unbounded.remove(gameObject);
+			return;
+		}
+
+		computeBox(gameObject);
+		_tree.move(proxy, _center.x - _extents.x, _center.y - _extents.y, _center.z - _extents.z,
+				_center.x + _extents.x, _center.y + _extents.y, _center.z + _extents.z);
+	}
+
+	/*
+	 * Sets the center and extents to the world box of the game object, and
+	 * keeps track of it if its mesh bounds aren't known yet
+	 */
+	private void computeBox(GameObject gameObject) {
+		Matrix4fc world = gameObject.getTransform().getLocalToWorldMatrix();
+		BoundingVolume bounds = getMeshBounds(gameObject);
+		if (bounds != null) {
+			bounds.transform(world, _center, _extents);
+			return;
+		}
+
+		_center.set(world.m30(), world.m31(), world.m32());
+		_extents.zero();
+		if (gameObject.getRenderer() != null)
+			_unbounded.add(gameObject);
+	}
+
+	/*
+	 * Returns the bounds of the game object's mesh, or null if it has no
+	 * loaded mesh
+	 */
+	private static BoundingVolume getMeshBounds(GameObject gameObject) {
+		MeshRenderer renderer = gameObject.getRenderer();
+		Mesh mesh = renderer != null ? renderer.getMesh() : null;
+		return mesh != null ? mesh.getBounds() : null;
+	}
+}
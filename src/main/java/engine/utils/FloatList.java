@@ -0,0 +1,156 @@
+package engine.utils;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive floats. Used in place of a List<Float> (or a
+ * list of vectors) when we are collecting large amounts of vertex data so no
+ * value ever has to be boxed
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class FloatList {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private float[] _data;
+	private int _size = 0;
+
+	/**
+	 * Constructs an empty float list with the default capacity
+	 */
+	public FloatList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty float list
+	 * 
+	 * @param capacity
+	 *            the starting capacity of the list
+	 */
+	public FloatList(int capacity) {
+		this._data = new float[Math.max(1, capacity)];
+	}
+
+	/**
+	 * @return the amount of values in the list
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return true if the list has no values
+	 */
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * @param index
+	 *            index of the value
+	 * @return the value at the specified index
+	 */
+	public float get(int index) {
+		if (index >= _size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+		return _data[index];
+	}
+
+	/**
+	 * Replaces the value at the specified index
+	 * 
+	 * @param index
+	 *            index of the value
+	 * @param value
+	 *            the new value
+	 */
+	public void set(int index, float value) {
+		if (index >= _size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+		_data[index] = value;
+	}
+
+	/**
+	 * Appends a value to the end of the list
+	 * 
+	 * @param value
+	 *            the value to add
+	 */
+	public void add(float value) {
+		ensureCapacity(_size + 1);
+		_data[_size++] = value;
+	}
+
+	/**
+	 * Appends two values to the end of the list (i.e. a 2D vector)
+	 * 
+	 * @param x
+	 * @param y
+	 */
+	public void add(float x, float y) {
+		ensureCapacity(_size + 2);
+		_data[_size++] = x;
+		_data[_size++] = y;
+	}
+
+	/**
+	 * Appends three values to the end of the list (i.e. a 3D vector)
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public void add(float x, float y, float z) {
+		ensureCapacity(_size + 3);
+		_data[_size++] = x;
+		_data[_size++] = y;
+		_data[_size++] = z;
+	}
+
+	/**
+	 * Appends every value of another list to the end of this list
+	 * 
+	 * @param list
+	 *            the list to copy values from
+	 */
+	public void addAll(FloatList list) {
+		ensureCapacity(_size + list._size);
+		System.arraycopy(list._data, 0, _data, _size, list._size);
+		_size += list._size;
+	}
+
+	/**
+	 * Removes every value from the list but keeps the allocated capacity
+	 */
+	public void clear() {
+		_size = 0;
+	}
+
+	/**
+	 * Makes sure the list can hold at least the specified amount of values
+	 * without growing again
+	 * 
+	 * @param capacity
+	 *            the minimum capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > _data.length)
+			_data = Arrays.copyOf(_data, Math.max(capacity, _data.length + (_data.length >> 1)));
+	}
+
+	/**
+	 * @return the backing array. Only the first size() values are valid
+	 */
+	public float[] array() {
+		return _data;
+	}
+
+	/**
+	 * @return a copy of the values trimmed to the size of the list
+	 */
+	public float[] toArray() {
+		return Arrays.copyOf(_data, _size);
+	}
+}
@@ -0,0 +1,155 @@
+package engine.utils;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive ints. Used in place of a List<Integer> when we
+ * are collecting large amounts of index data so no value ever has to be boxed
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class IntList {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private int[] _data;
+	private int _size = 0;
+
+	/**
+	 * Constructs an empty int list with the default capacity
+	 */
+	public IntList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty int list
+	 * 
+	 * @param capacity
+	 *            the starting capacity of the list
+	 */
+	public IntList(int capacity) {
+		this._data = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 * @return the amount of values in the list
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return true if the list has no values
+	 */
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * @param index
+	 *            index of the value
+	 * @return the value at the specified index
+	 */
+	public int get(int index) {
+		if (index >= _size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+		return _data[index];
+	}
+
+	/**
+	 * Replaces the value at the specified index
+	 * 
+	 * @param index
+	 *            index of the value
+	 * @param value
+	 *            the new value
+	 */
+	public void set(int index, int value) {
+		if (index >= _size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+		_data[index] = value;
+	}
+
+	/**
+	 * Appends a value to the end of the list
+	 * 
+	 * @param value
+	 *            the value to add
+	 */
+	public void add(int value) {
+		ensureCapacity(_size + 1);
+		_data[_size++] = value;
+	}
+
+	/**
+	 * Appends three values to the end of the list (i.e. an index triple)
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public void add(int x, int y, int z) {
+		ensureCapacity(_size + 3);
+		_data[_size++] = x;
+		_data[_size++] = y;
+		_data[_size++] = z;
+	}
+
+	/**
+	 * Appends every value of another list to the end of this list
+	 * 
+	 * @param list
+	 *            the list to copy values from
+	 */
+	public void addAll(IntList list) {
+		ensureCapacity(_size + list._size);
+		System.arraycopy(list._data, 0, _data, _size, list._size);
+		_size += list._size;
+	}
+
+	/**
+	 * Removes every value from the list but keeps the allocated capacity
+	 */
+	public void clear() {
+		_size = 0;
+	}
+
+	/**
+	 * Removes every value past the specified size but keeps the allocated
+	 * capacity
+	 * 
+	 * @param size
+	 *            the amount of values to keep
+	 */
+	public void truncate(int size) {
+		if (size < _size)
+			_size = Math.max(0, size);
+	}
+
+	/**
+	 * Makes sure the list can hold at least the specified amount of values
+	 * without growing again
+	 * 
+	 * @param capacity
+	 *            the minimum capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > _data.length)
+			_data = Arrays.copyOf(_data, Math.max(capacity, _data.length + (_data.length >> 1)));
+	}
+
+	/**
+	 * @return the backing array. Only the first size() values are valid
+	 */
+	public int[] array() {
+		return _data;
+	}
+
+	/**
+	 * @return a copy of the values trimmed to the size of the list
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(_data, _size);
+	}
+}
@@ -0,0 +1,243 @@
+package engine.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON parser, only meant for reading asset metadata (i.e. the JSON
+ * chunk of a glTF file). Objects are parsed as maps, arrays as lists, numbers
+ * as doubles and the rest as strings, booleans and nulls.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class JsonParser {
+	private final String _json;
+	private int _pos = 0;
+
+	/*
+	 * Constructs a parser over the json text
+	 */
+	private JsonParser(String json) {
+		this._json = json;
+	}
+
+	/**
+	 * Parses the json text
+	 * 
+	 * @param json
+	 *            the json text
+	 * @return the parsed value (Map, List, Double, String, Boolean or null)
+	 * @throws Exception
+	 *             if the text is not valid json
+	 */
+	public static Object parse(String json) throws Exception {
+		JsonParser parser = new JsonParser(json);
+		Object value = parser.parseValue();
+		parser.skipWhitespace();
+		if (parser._pos != json.length())
+			throw parser.error("Unexpected trailing characters");
+		return value;
+	}
+
+	/**
+	 * Parses the json text, which must be a json object
+	 * 
+	 * @param json
+	 *            the json text
+	 * @return the parsed object
+	 * @throws Exception
+	 *             if the text is not a valid json object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String json) throws Exception {
+		Object value = parse(json);
+		if (!(value instanceof Map))
+			throw new Exception("Invalid JSON: Expected an object");
+		return (Map<String, Object>) value;
+	}
+
+	/*
+	 * Parses whichever value is next
+	 */
+	private Object parseValue() throws Exception {
+		skipWhitespace();
+		if (_pos >= _json.length())
+			throw error("Unexpected end of input");
+
+		char c = _json.charAt(_pos);
+		switch (c) {
+		case '{':
+			return parseObjectValue();
+		case '[':
+			return parseArray();
+		case '"':
+			return parseString();
+		case 't':
+			expect("true");
+			return Boolean.TRUE;
+		case 'f':
+			expect("false");
+			return Boolean.FALSE;
+		case 'n':
+			expect("null");
+			return null;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return parseNumber();
+			throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	/*
+	 * Parses an object into a map, keeping the order of its keys
+	 */
+	private Map<String, Object> parseObjectValue() throws Exception {
+		Map<String, Object> map = new LinkedHashMap<>();
+		_pos++;
+
+		skipWhitespace();
+		if (consume('}'))
+			return map;
+
+		do {
+			skipWhitespace();
+			if (_pos >= _json.length() || _json.charAt(_pos) != '"')
+				throw error("Expected a key");
+			String key = parseString();
+
+			skipWhitespace();
+			if (!consume(':'))
+				throw error("Expected ':'");
+			map.put(key, parseValue());
+			skipWhitespace();
+		} while (consume(','));
+
+		if (!consume('}'))
+			throw error("Expected ',' or '}'");
+		return map;
+	}
+
+	/*
+	 * Parses an array into a list
+	 */
+	private List<Object> parseArray() throws Exception {
+		List<Object> list = new ArrayList<>();
+		_pos++;
+
+		skipWhitespace();
+		if (consume(']'))
+			return list;
+
+		do {
+			list.add(parseValue());
+			skipWhitespace();
+		} while (consume(','));
+
+		if (!consume(']'))
+			throw error("Expected ',' or ']'");
+		return list;
+	}
+
+	/*
+	 * Parses a string, including any escaped characters
+	 */
+	private String parseString() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		_pos++;
+
+		while (_pos < _json.length()) {
+			char c = _json.charAt(_pos++);
+			if (c == '"')
+				return builder.toString();
+			if (c != '\\') {
+				builder.append(c);
+				continue;
+			}
+
+			if (_pos >= _json.length())
+				break;
+			char escaped = _json.charAt(_pos++);
+			switch (escaped) {
+			case 'b':
+				builder.append('\b');
+				break;
+			case 'f':
+				builder.append('\f');
+				break;
+			case 'n':
+				builder.append('\n');
+				break;
+			case 'r':
+				builder.append('\r');
+				break;
+			case 't':
+				builder.append('\t');
+				break;
+			case 'u':
+				if (_pos + 4 > _json.length())
+					throw error("Invalid unicode escape");
+				builder.append((char) Integer.parseInt(_json.substring(_pos, _pos + 4), 16));
+				_pos += 4;
+				break;
+			default:
+				// Covers \", \\ and \/
+				builder.append(escaped);
+			}
+		}
+
+		throw error("Unterminated string");
+	}
+
+	/*
+	 * Parses a number as a double
+	 */
+	private Double parseNumber() throws Exception {
+		int start = _pos;
+		while (_pos < _json.length() && "+-0123456789.eE".indexOf(_json.charAt(_pos)) >= 0)
+			_pos++;
+
+		try {
+			return Double.valueOf(_json.substring(start, _pos));
+		} catch (NumberFormatException e) {
+			throw error("Invalid number");
+		}
+	}
+
+	/*
+	 * Consumes the literal or throws an exception
+	 */
+	private void expect(String literal) throws Exception {
+		if (!_json.startsWith(literal, _pos))
+			throw error("Expected " + literal);
+		_pos += literal.length();
+	}
+
+	/*
+	 * Consumes the character if it is next
+	 */
+	private boolean consume(char c) {
+		if (_pos < _json.length() && _json.charAt(_pos) == c) {
+			_pos++;
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Moves past any whitespace
+	 */
+	private void skipWhitespace() {
+		while (_pos < _json.length() && Character.isWhitespace(_json.charAt(_pos)))
+			_pos++;
+	}
+
+	/*
+	 * Creates an exception pointing at the current position
+	 */
+	private Exception error(String message) {
+		return new Exception("Invalid JSON: " + message + " at position " + _pos);
+	}
+}
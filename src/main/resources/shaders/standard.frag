@@ -38,11 +38,18 @@ uniform sampler2D modelTexture;
 uniform vec3 color;
 uniform bool useTexture;
 
+// Uniforms set once per frame, uploaded in one uniform buffer. The std140 byte
+// offsets are mirrored in StandardShaderProgram and every stage must declare the
+// block exactly the same
+layout (std140) uniform SceneData {
+	mat4 projectionMatrix; // Matrix representing camera FOV and clipping planes
+	vec3 ambientLight;
+	DirectionalLight directionalLight; // the directional light (our sun)
+	Attenuation attenuation; // the attenuation constants for our point lights
+	PointLight pointLights[MAX_LIGHTS]; // a point light in our scene
+};
+
 // Lighting uniforms
-uniform vec3 ambientLight;
-uniform DirectionalLight directionalLight; // the directional light (our sun)
-uniform PointLight pointLights[MAX_LIGHTS]; // a point light in our scene
-uniform Attenuation attenuation; // the attenuation constants for our point lights
 uniform float shininess; // how shiny something is on scale of [0-1]
 uniform vec3 specularColor; // color of the shininess
 
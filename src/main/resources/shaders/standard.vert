@@ -1,5 +1,7 @@
 #version 330
 
+const int MAX_LIGHTS = 4;
+
 layout (location = 0) in vec3 position;
 layout (location = 1) in vec2 textureCoords;
 layout (location = 2) in vec3 normals;
@@ -8,11 +10,56 @@ out vec2 pass_textureCoords;
 out vec3 pass_viewSpaceNormals;
 out vec3 pass_viewSpacePosition;
 
+// Represents constants for light intensity over distance
+struct Attenuation {
+	float constant;
+	float quadratic;
+};
+
+// Represents a point light in our scene
+struct PointLight {
+	vec3 color;
+	float intensity;
+	vec3 position;
+	float range;
+	// Spotlight specific
+	vec3 direction;
+	float cosHalfAngle;
+	bool isSpot;
+};
+
+// Represents a directional light in our scene
+struct DirectionalLight {
+    vec3 color;
+    float intensity;
+    vec3 direction;
+};
+
+// Uniforms set once per frame, uploaded in one uniform buffer. The std140 byte
+// offsets are mirrored in StandardShaderProgram and every stage must declare the
+// block exactly the same
+layout (std140) uniform SceneData {
+	mat4 projectionMatrix; // Matrix representing camera FOV and clipping planes
+	vec3 ambientLight;
+	DirectionalLight directionalLight; // the directional light (our sun)
+	Attenuation attenuation; // the attenuation constants for our point lights
+	PointLight pointLights[MAX_LIGHTS]; // a point light in our scene
+};
+
+#ifdef INSTANCED
+// Matrix representing the current instance's transformation in relation to camera position,
+// takes up locations 3 to 6 and advances once per instance
+layout (location = 3) in mat4 instanceWorldViewMatrix;
+#else
 // Matrix uniforms
-uniform mat4 projectionMatrix; // Matrix representing camera FOV and clipping planes
 uniform mat4 worldViewMatrix;  // Matrix representing current object transformation in relation to camera position
+#endif
 
 void main() {
+#ifdef INSTANCED
+	mat4 worldViewMatrix = instanceWorldViewMatrix;
+#endif
+
 	// The position in view space
 	vec4 worldViewPosition = worldViewMatrix * vec4(position, 1.0);
 	
@@ -0,0 +1,387 @@
+package engine.graphics;
+
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+
+import engine.graphics.geometry.BoundingVolume;
+import engine.graphics.geometry.Mesh.MeshVBOData;
+
+/**
+ * Checks that OcclusionCuller culls boxes hidden behind occluders and keeps
+ * every box that could be seen: in front of, beside, straddling the edge of or
+ * seen through a hole in an occluder, or crossing the near plane. Occluders
+ * are drawn with either winding, on buffers of odd sizes, and boxes of every
+ * size are checked against the 2x2 pyramid texels they should be tested
+ * against. Run it with its main method, it exits with an error on the first
+ * mismatch.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class OcclusionCullerTest {
+	private static final Matrix4fc IDENTITY = new Matrix4f();
+	private static final int RANDOM_BOXES = 20000;
+
+	private OcclusionCullerTest() {
+	}
+
+	/**
+	 * Runs the tests
+	 * 
+	 * @param args
+	 *            unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		testScene();
+		testWinding();
+		testOddSizes();
+		testLevelSelection(new Random(29));
+		testParallelRasterize();
+		System.out.println("OcclusionCullerTest passed");
+	}
+
+	/*
+	 * Tests boxes around a wall 10 units in front of a perspective camera
+	 */
+	private static void testScene() {
+		OcclusionCuller culler = new OcclusionCuller(64, 48);
+		culler.begin(perspective(64, 48), IDENTITY);
+		expect(culler, box(0, 0, -20, 1), true, "box with no occluders");
+
+		// A unit quad scaled and moved into place by its matrix
+		culler.addOccluder(quads(false, rect(-0.5f, -0.5f, 0.5f, 0.5f, 0)),
+				new Matrix4f().translate(0, 0, -10).scale(10));
+		culler.rasterize();
+		if (culler.getOccluderTriangleCount() != 2)
+			throw new AssertionError("Wall has " + culler.getOccluderTriangleCount() + " triangles but expected 2");
+
+		expect(culler, box(0, 0, -20, 1), false, "box behind the wall");
+		expect(culler, box(2, -2, -50, 3), false, "large box far behind the wall");
+		expect(culler, new BoundingVolume(0, 0, 0, 1, 1, 1, 2), new Matrix4f().translate(1, 1, -30), false,
+				"box moved behind the wall by its matrix");
+		expect(culler, box(0, 0, -5, 1), true, "box in front of the wall");
+		expect(culler, box(0, 0, -10, 1), true, "box through the wall");
+		expect(culler, new BoundingVolume(0, 0, -15, 1, 1, 5.01f, 6), true, "box just in front of the wall");
+		expect(culler, new BoundingVolume(0, 0, -15.01f, 1, 1, 4.99f, 6), false, "box just behind the wall");
+		expect(culler, box(20, 0, -20, 1), true, "box beside the wall");
+		expect(culler, box(0, -16, -20, 1), true, "box below the wall");
+		expect(culler, box(10, 0, -20, 1), true, "box straddling the side of the wall");
+		expect(culler, box(0, 10, -20, 1), true, "box straddling the top of the wall");
+		expect(culler, box(0, 0, 0, 1), true, "box around the camera");
+		expect(culler, box(0, 0, -0.5f, 0.45f), true, "box crossing the near plane");
+		expect(culler, box(0, 0, 5, 1), true, "box behind the camera");
+		expect(culler, box(100, 0, -20, 1), true, "box off screen");
+		expect(culler, null, IDENTITY, true, "object without bounds");
+
+		if (culler.getTestedCount() != 17 || culler.getOccludedCount() != 4)
+			throw new AssertionError("Counted " + culler.getTestedCount() + " tested and " + culler.getOccludedCount()
+					+ " occluded but expected 17 and 4");
+
+		// Occluder triangles crossing the near plane, here a floor running
+		// under the camera, or entirely behind the camera are skipped
+		float[] floor = { -5, -2, 5, 5, -2, 5, 5, -2, -20, -5, -2, -20 };
+		culler.begin(perspective(64, 48), IDENTITY);
+		culler.addOccluder(quads(false, floor, rect(-5, -5, 5, 5, 1), rect(-5, -5, 5, 5, -10)), IDENTITY);
+		culler.rasterize();
+		if (culler.getOccluderTriangleCount() != 2 || culler.getTestedCount() != 0)
+			throw new AssertionError("Kept " + culler.getOccluderTriangleCount() + " triangles and "
+					+ culler.getTestedCount() + " tested but expected 2 and 0");
+		expect(culler, box(0, 0, -20, 1), false, "box behind the wall past a skipped floor");
+	}
+
+	/*
+	 * Draws the wall facing the camera, facing away from it, and half of each,
+	 * which must all cover the same pixels at the same depths and cull the
+	 * same boxes
+	 */
+	private static void testWinding() {
+		float[] reference = null;
+		for (int winding = 0; winding < 3; winding++) {
+			OcclusionCuller culler = new OcclusionCuller(64, 48);
+			culler.begin(perspective(64, 48), IDENTITY);
+			if (winding < 2) {
+				culler.addOccluder(quads(winding == 1, rect(-5, -5, 5, 5, -10)), IDENTITY);
+			} else {
+				// Two triangles of opposite windings, sharing the diagonal
+				MeshVBOData wall = quads(false, rect(-5, -5, 5, 5, -10));
+				MeshVBOData mixed = new MeshVBOData(wall.vertexPositions, null, null, new int[] { 0, 1, 2, 0, 3, 2 });
+				culler.addOccluder(mixed, IDENTITY);
+			}
+			culler.rasterize();
+
+			String name = winding == 0 ? "front facing" : winding == 1 ? "back facing" : "mixed winding";
+			expect(culler, box(0, 0, -20, 1), false, "box behind a " + name + " wall");
+			expect(culler, box(10, 0, -20, 1), true, "box straddling a " + name + " wall");
+
+			float[] depths = getDepths(culler);
+			if (reference == null) {
+				reference = depths;
+				continue;
+			}
+			for (int i = 0; i < depths.length; i++) {
+				// The weights are summed in another order, so may round apart
+				if (Math.abs(depths[i] - reference[i]) > 1e-6f || (depths[i] == 1f) != (reference[i] == 1f))
+					throw new AssertionError("Depth of pixel " + i + " of a " + name + " wall is " + depths[i]
+							+ " but the front facing wall's is " + reference[i]);
+			}
+		}
+	}
+
+	/*
+	 * Leaves only the last column or row of an odd sized buffer uncovered,
+	 * which every pyramid level must take into its last texel
+	 */
+	private static void testOddSizes() {
+		int[][] sizes = { { 33, 17 }, { 17, 33 }, { 33, 33 }, { 65, 5 }, { 3, 3 } };
+		for (int[] size : sizes) {
+			int width = size[0], height = size[1];
+			String name = width + "x" + height;
+
+			// A box behind the wall reaching past the right edge
+			BoundingVolume right = pixelBox(Math.max(0, width - 6), 1, width + 3, height - 2, -30, -20);
+			// A box behind the wall reaching past the top edge
+			BoundingVolume top = pixelBox(1, Math.max(0, height - 6), width - 2, height + 3, -30, -20);
+
+			OcclusionCuller culler = new OcclusionCuller(width, height);
+			culler.begin(orthographic(width, height), IDENTITY);
+			culler.addOccluder(quads(false, rect(-1, -1, width - 0.75f, height + 1, -10)), IDENTITY);
+			culler.rasterize();
+			checkDepth(culler, width - 1, height / 2, 1f, name + " last column");
+			checkDepth(culler, width - 2, height / 2, -1, name + " second to last column");
+			expect(culler, right, IDENTITY, true, name + " box seen through the last column");
+
+			culler.begin(orthographic(width, height), IDENTITY);
+			culler.addOccluder(quads(true, rect(-1, -1, width + 1, height - 0.75f, -10)), IDENTITY);
+			culler.rasterize();
+			checkDepth(culler, width / 2, height - 1, 1f, name + " last row");
+			checkDepth(culler, width / 2, height - 2, -1, name + " second to last row");
+			expect(culler, top, IDENTITY, true, name + " box seen through the last row");
+
+			// With nothing uncovered both are hidden
+			culler.begin(orthographic(width, height), IDENTITY);
+			culler.addOccluder(quads(false, rect(-1, -1, width + 1, height + 1, -10)), IDENTITY);
+			culler.rasterize();
+			expect(culler, right, IDENTITY, false, name + " box behind the right edge of a full wall");
+			expect(culler, top, IDENTITY, false, name + " box behind the top edge of a full wall");
+			// Off screen boxes are left to the frustum culler, even ones behind
+			// a wall reaching past the edge
+			expect(culler, pixelBox(width + 2, 0, width + 5, height - 1, -30, -20), IDENTITY, true,
+					name + " box off the right edge");
+			expect(culler, pixelBox(0, height + 2, width - 1, height + 5, -30, -20), IDENTITY, true,
+					name + " box off the top edge");
+		}
+	}
+
+	/*
+	 * Covers an odd sized buffer except for one pixel and tests boxes of every
+	 * size behind it. A box must be kept exactly when the hole is inside the
+	 * at most 2x2 texels covering it on the first pyramid level where it
+	 * covers no more than that.
+	 */
+	private static void testLevelSelection(Random random) {
+		int width = 61, height = 45;
+		int levelCount = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+		OcclusionCuller culler = new OcclusionCuller(width, height);
+		for (int i = 0; i < RANDOM_BOXES; i++) {
+			if (i % 500 == 0) {
+				culler.begin(orthographic(width, height), IDENTITY);
+				culler.addOccluder(holeWall(random, random.nextInt(width), random.nextInt(height)), IDENTITY);
+				culler.rasterize();
+			}
+			int holeX = -1, holeY = -1;
+			for (int y = 0; y < height && holeX < 0; y++) {
+				for (int x = 0; x < width && holeX < 0; x++) {
+					if (culler.getDepth(x, y) == 1f) {
+						holeX = x;
+						holeY = y;
+					}
+				}
+			}
+
+			// Mostly small boxes, some reaching past the edges of the screen
+			int sizeX = random.nextInt(random.nextBoolean() ? 4 : width + 4);
+			int sizeY = random.nextInt(random.nextBoolean() ? 4 : height + 4);
+			int x0 = random.nextInt(width + 2) - 2, y0 = random.nextInt(height + 2) - 2;
+			int x1 = x0 + sizeX, y1 = y0 + sizeY;
+			if (x1 < 0 || y1 < 0)
+				continue;
+
+			// The rectangle the culler sees, then the level it should pick
+			int cx0 = Math.max(0, x0), cx1 = Math.min(width - 1, x1);
+			int cy0 = Math.max(0, y0), cy1 = Math.min(height - 1, y1);
+			int level = 0;
+			while (level < levelCount - 1
+					&& ((cx1 >> level) - (cx0 >> level) > 1 || (cy1 >> level) - (cy0 >> level) > 1))
+				level++;
+
+			// Every level's last texel takes in what is left of the level
+			// above, so the hole, and the box, land in the last one of an odd
+			// sized level
+			int levelWidth = Math.max(1, width >> level), levelHeight = Math.max(1, height >> level);
+			int texelX = Math.min(holeX >> level, levelWidth - 1), texelY = Math.min(holeY >> level, levelHeight - 1);
+			boolean expected = texelX >= Math.min(cx0 >> level, levelWidth - 1)
+					&& texelX <= Math.min(cx1 >> level, levelWidth - 1)
+					&& texelY >= Math.min(cy0 >> level, levelHeight - 1)
+					&& texelY <= Math.min(cy1 >> level, levelHeight - 1);
+
+			boolean containsHole = holeX >= cx0 && holeX <= cx1 && holeY >= cy0 && holeY <= cy1;
+			if (containsHole && !expected)
+				throw new AssertionError("Expected result culls a box around the hole");
+			expect(culler, pixelBox(x0, y0, x1, y1, -30, -20), IDENTITY, expected, "box " + x0 + "," + y0 + " to "
+					+ x1 + "," + y1 + " (level " + level + ") with the hole at " + holeX + "," + holeY);
+		}
+	}
+
+	/*
+	 * Draws a wall of enough triangles to be split into bands across threads,
+	 * which must give the same depths as the wall drawn as one quad
+	 */
+	private static void testParallelRasterize() {
+		int width = 64, height = 64;
+		int columns = 17, rows = 22;
+		// Cells 4 by 3 pixels, so no pixel center lands on a diagonal
+		float[][] cells = new float[columns * rows][];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				float x = column * 4 - 0.75f, y = row * 3 - 0.75f;
+				cells[row * columns + column] = rect(x, y, x + 4, y + 3, 0);
+			}
+		}
+		float[] whole = rect(-0.75f, -0.75f, columns * 4 - 0.75f, rows * 3 - 0.75f, 0);
+
+		// Sheared in depth, so the depth changes across every triangle
+		Matrix4f slope = new Matrix4f().translate(0, 0, -10).m02(0.05f).m12(-0.03f);
+		float[][] depths = new float[2][];
+		for (int pass = 0; pass < 2; pass++) {
+			OcclusionCuller culler = new OcclusionCuller(width, height);
+			culler.begin(orthographic(width, height), IDENTITY);
+			culler.addOccluder(pass == 0 ? quads(false, whole) : quads(true, cells), slope);
+			culler.rasterize();
+			depths[pass] = getDepths(culler);
+			if (pass == 1 && culler.getOccluderTriangleCount() != columns * rows * 2)
+				throw new AssertionError("Split wall has " + culler.getOccluderTriangleCount()
+						+ " triangles but expected " + columns * rows * 2);
+		}
+		for (int i = 0; i < depths[0].length; i++) {
+			if (Math.abs(depths[0][i] - depths[1][i]) > 1e-5f)
+				throw new AssertionError("Depth of pixel " + i + " of the split wall is " + depths[1][i]
+						+ " but the whole wall's is " + depths[0][i]);
+		}
+	}
+
+	/*
+	 * Fails unless the object is visible or hidden as expected
+	 */
+	private static void expect(OcclusionCuller culler, BoundingVolume bounds, boolean expected, String name) {
+		expect(culler, bounds, IDENTITY, expected, name);
+	}
+
+	/*
+	 * Fails unless the object is visible or hidden as expected
+	 */
+	private static void expect(OcclusionCuller culler, BoundingVolume bounds, Matrix4fc localToWorld,
+			boolean expected, String name) {
+		if (culler.isVisible(bounds, localToWorld) != expected)
+			throw new AssertionError("The " + name + " was " + (expected ? "culled" : "kept"));
+	}
+
+	/*
+	 * Fails unless the pixel has the depth, or is covered if the depth is
+	 * negative
+	 */
+	private static void checkDepth(OcclusionCuller culler, int x, int y, float expected, String name) {
+		float depth = culler.getDepth(x, y);
+		if (expected < 0 ? depth >= 1f : depth != expected)
+			throw new AssertionError("Depth of the " + name + " is " + depth);
+	}
+
+	/*
+	 * Copies the depth buffer
+	 */
+	private static float[] getDepths(OcclusionCuller culler) {
+		float[] depths = new float[culler.getWidth() * culler.getHeight()];
+		for (int y = 0; y < culler.getHeight(); y++) {
+			for (int x = 0; x < culler.getWidth(); x++)
+				depths[y * culler.getWidth() + x] = culler.getDepth(x, y);
+		}
+		return depths;
+	}
+
+	/*
+	 * Creates a wall covering every pixel of the screen but one, out of
+	 * quads of random windings
+	 */
+	private static MeshVBOData holeWall(Random random, int holeX, int holeY) {
+		float z = -10;
+		float[][] parts = { rect(-1, -1, holeX + 0.25f, 100, z), rect(holeX + 0.75f, -1, 100, 100, z),
+				rect(holeX, -1, holeX + 1, holeY + 0.25f, z), rect(holeX, holeY + 0.75f, holeX + 1, 100, z) };
+		MeshVBOData wall = quads(false, parts);
+		int[] indices = wall.indices;
+		for (int i = 0; i < indices.length; i += 3) {
+			if (random.nextBoolean()) {
+				int swap = indices[i + 1];
+				indices[i + 1] = indices[i + 2];
+				indices[i + 2] = swap;
+			}
+		}
+		return wall;
+	}
+
+	/*
+	 * Creates a mesh of quads, each split into two triangles facing the
+	 * camera, or facing away if flipped
+	 */
+	private static MeshVBOData quads(boolean flip, float[]... quads) {
+		float[] positions = new float[quads.length * 12];
+		int[] indices = new int[quads.length * 6];
+		int[] order = flip ? new int[] { 0, 2, 1, 0, 3, 2 } : new int[] { 0, 1, 2, 0, 2, 3 };
+		for (int i = 0; i < quads.length; i++) {
+			System.arraycopy(quads[i], 0, positions, i * 12, 12);
+			for (int j = 0; j < 6; j++)
+				indices[i * 6 + j] = i * 4 + order[j];
+		}
+		return new MeshVBOData(positions, null, null, indices);
+	}
+
+	/*
+	 * Creates the corners of a rectangle at the depth, counter clockwise seen
+	 * from in front
+	 */
+	private static float[] rect(float x0, float y0, float x1, float y1, float z) {
+		return new float[] { x0, y0, z, x1, y0, z, x1, y1, z, x0, y1, z };
+	}
+
+	/*
+	 * Creates a cube around the point
+	 */
+	private static BoundingVolume box(float x, float y, float z, float extent) {
+		return new BoundingVolume(x, y, z, extent, extent, extent, extent * (float) Math.sqrt(3));
+	}
+
+	/*
+	 * Creates a box projecting onto the pixels [x0, x1] by [y0, y1] of an
+	 * orthographic camera
+	 */
+	private static BoundingVolume pixelBox(int x0, int y0, int x1, int y1, float z0, float z1) {
+		float minX = x0 + 0.25f, maxX = x1 + 0.75f, minY = y0 + 0.25f, maxY = y1 + 0.75f;
+		return new BoundingVolume((minX + maxX) / 2, (minY + maxY) / 2, (z0 + z1) / 2, (maxX - minX) / 2,
+				(maxY - minY) / 2, (z1 - z0) / 2, 0);
+	}
+
+	/*
+	 * A camera at the origin looking down -z
+	 */
+	private static Matrix4f perspective(int width, int height) {
+		return new Matrix4f().perspective((float) Math.toRadians(90), width / (float) height, 0.1f, 100);
+	}
+
+	/*
+	 * A camera looking down -z where a world unit is a pixel
+	 */
+	private static Matrix4f orthographic(int width, int height) {
+		return new Matrix4f().ortho(0, width, 0, height, 0.1f, 100);
+	}
+}
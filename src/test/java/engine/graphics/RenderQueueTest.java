@@ -0,0 +1,131 @@
+package engine.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that RenderQueue sorts its keys exactly like an unsigned sort, keeps
+ * draws with equal keys in the order they were added and skips only the
+ * bytes every key shares. Run it with its main method, it exits with an error
+ * on the first mismatch.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class RenderQueueTest {
+	private static final int RANDOM_QUEUES = 2000;
+
+	private RenderQueueTest() {
+	}
+
+	/**
+	 * Runs the tests
+	 * 
+	 * @param args
+	 *            unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		testMakeKey();
+
+		// Empty and single draw queues have nothing to sort
+		check(new RenderQueue(), new long[0]);
+		check(new RenderQueue(), new long[] { -1L });
+
+		// Keys differing only in the top bit, i.e. shaders 8-15 against 0-7,
+		// must sort as unsigned
+		check(new RenderQueue(), new long[] { RenderQueue.makeKey(15, 0, 0, 0, 0f),
+				RenderQueue.makeKey(0, 0, 0, 0, 0f), RenderQueue.makeKey(8, 0, 0, 0, 0f),
+				RenderQueue.makeKey(7, 0, 0, 0, 0f) });
+
+		// Every key the same, which skips every pass and must keep the order
+		long[] same = new long[50];
+		Arrays.fill(same, RenderQueue.makeKey(3, 17, 4, 9, 0.5f));
+		check(new RenderQueue(), same);
+
+		// One queue reused so it grows and is cleared between sorts
+		Random random = new Random(19);
+		RenderQueue reused = new RenderQueue(1);
+		for (int i = 0; i < RANDOM_QUEUES; i++) {
+			long[] keys = randomKeys(random, random.nextInt(600));
+			check(random.nextBoolean() ? reused : new RenderQueue(), keys);
+		}
+		System.out.println("RenderQueueTest passed");
+	}
+
+	/*
+	 * Checks the fields land in their bits, wrap and clamp
+	 */
+	private static void testMakeKey() {
+		expect(RenderQueue.makeKey(0xA, 0xBCD, 0x1234, 0x5678, 0f), 0xABCD123456780000L, "fields");
+		expect(RenderQueue.makeKey(0x1A, 0x1BCD, 0x11234, 0x15678, 0f), 0xABCD123456780000L, "wrapped fields");
+		expect(RenderQueue.makeKey(0, 0, 0, 0, 1f), 0xFFFFL, "far depth");
+		expect(RenderQueue.makeKey(0, 0, 0, 0, 2f), 0xFFFFL, "clamped far depth");
+		expect(RenderQueue.makeKey(0, 0, 0, 0, -1f), 0L, "clamped near depth");
+		if (RenderQueue.makeKey(0, 0, 0, 0, 0.25f) >= RenderQueue.makeKey(0, 0, 0, 0, 0.75f))
+			throw new AssertionError("Nearer draws must have lower keys");
+	}
+
+	/*
+	 * Fails unless the key matches
+	 */
+	private static void expect(long actual, long expected, String name) {
+		if (actual != expected)
+			throw new AssertionError("Key of " + name + " is " + Long.toHexString(actual) + " but expected "
+					+ Long.toHexString(expected));
+	}
+
+	/*
+	 * Adds the keys with their index as the item, sorts them and compares the
+	 * result to a stable unsigned sort of the same draws
+	 */
+	private static void check(RenderQueue queue, long[] keys) {
+		queue.clear();
+		List<Integer> expected = new ArrayList<>(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			queue.add(keys[i], i);
+			expected.add(i);
+		}
+
+		// List.sort is stable, so equal keys keep their order
+		expected.sort((a, b) -> Long.compareUnsigned(keys[a], keys[b]));
+		queue.sort();
+
+		if (queue.size() != keys.length)
+			throw new AssertionError("Sorted queue has " + queue.size() + " draws but expected " + keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			int item = expected.get(i);
+			if (queue.getItem(i) != item || queue.getKey(i) != keys[item])
+				throw new AssertionError("Draw " + i + " of " + keys.length + " is item " + queue.getItem(i) + " (key "
+						+ Long.toHexString(queue.getKey(i)) + ") but expected item " + item + " (key "
+						+ Long.toHexString(keys[item]) + ")");
+		}
+	}
+
+	/*
+	 * Creates keys like a scene does, a few shaders, textures, materials and
+	 * meshes and many depths, so many bytes are shared and many keys repeat
+	 */
+	private static long[] randomKeys(Random random, int count) {
+		int shaders = 1 + random.nextInt(16);
+		int textures = 1 + random.nextInt(random.nextBoolean() ? 4 : 5000);
+		int materials = 1 + random.nextInt(random.nextBoolean() ? 2 : 70000);
+		int meshes = 1 + random.nextInt(random.nextBoolean() ? 3 : 70000);
+		int depths = 1 + random.nextInt(random.nextBoolean() ? 8 : 1000);
+
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			// Any shader from 0-15, so the top bit is set in some scenes
+			int shader = (random.nextInt(shaders) + shaders) & 0xF;
+			keys[i] = RenderQueue.makeKey(shader, random.nextInt(textures), random.nextInt(materials),
+					random.nextInt(meshes), random.nextInt(depths) / (float) depths);
+
+			// Some fully random keys as well
+			if (random.nextInt(50) == 0)
+				keys[i] = random.nextLong();
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,219 @@
+package engine.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Times reading many small resources out of a jar on the classpath against
+ * reading them out of an asset pack built by AssetPacker. Run it with its
+ * main method, optionally passing the amount of files to generate.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AssetPackBenchmark {
+	private static final int DEFAULT_FILE_COUNT = 5000;
+	private static final int WARMUP_RUNS = 3;
+	private static final int MEASURED_RUNS = 7;
+
+	private AssetPackBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args
+	 *            optionally the amount of files to generate
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_COUNT;
+		Path directory = Files.createTempDirectory("asset-pack-benchmark");
+		try {
+			Path resources = directory.resolve("resources");
+			List<String> names = generateFiles(resources, fileCount);
+			Path jar = directory.resolve("resources.jar");
+			writeJar(resources, names, jar);
+			Path packFile = directory.resolve("assets.pack");
+			AssetPacker.pack(resources, packFile);
+
+			System.out.println(String.format(Locale.ROOT, "%d files, %dKB, jar %dKB, pack %dKB", names.size(),
+					totalSize(resources, names) >> 10, Files.size(jar) >> 10, Files.size(packFile) >> 10));
+			verify(resources, names, jar, packFile);
+
+			// A new class loader or pack per run includes opening the jar or
+			// mapping the pack, reusing one only times the reads
+			report("jar, opened per run", () -> {
+				try (URLClassLoader loader = openJar(jar)) {
+					return readAll(loader, names);
+				}
+			});
+			try (URLClassLoader loader = openJar(jar)) {
+				report("jar, already open", () -> readAll(loader, names));
+			}
+			report("pack, opened per run", () -> readAll(AssetPack.open(packFile), names));
+			AssetPack pack = AssetPack.open(packFile);
+			report("pack, already open", () -> readAll(pack, names));
+		} finally {
+			try (Stream<Path> paths = Files.walk(directory)) {
+				for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+					Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/*
+	 * Times the reads and prints the median and fastest run
+	 */
+	private static void report(String name, Reader reader) throws Exception {
+		for (int i = 0; i < WARMUP_RUNS; i++)
+			reader.read();
+
+		long[] times = new long[MEASURED_RUNS];
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long start = System.nanoTime();
+			reader.read();
+			times[i] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(times);
+		System.out.println(String.format(Locale.ROOT, "%-22s median %7.2fms, best %7.2fms", name,
+				times[MEASURED_RUNS / 2] / 1e6, times[0] / 1e6));
+	}
+
+	/*
+	 * Reads every resource out of the jar, returns the total amount of bytes
+	 */
+	private static long readAll(ClassLoader loader, List<String> names) throws IOException {
+		long total = 0;
+		for (String name : names) {
+			try (InputStream in = loader.getResourceAsStream(name)) {
+				total += ResourceManager.readAllBytes(in).length;
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * Reads every resource out of the pack into an array like the classpath
+	 * reads do, returns the total amount of bytes
+	 */
+	private static long readAll(AssetPack pack, List<String> names) throws IOException {
+		long total = 0;
+		for (String name : names) {
+			ByteBuffer buffer = pack.read(name);
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			total += bytes.length;
+		}
+		return total;
+	}
+
+	/*
+	 * Checks that the jar and the pack give back every file unchanged
+	 */
+	private static void verify(Path resources, List<String> names, Path jar, Path packFile) throws IOException {
+		AssetPack pack = AssetPack.open(packFile);
+		try (URLClassLoader loader = openJar(jar)) {
+			for (String name : names) {
+				byte[] expected = Files.readAllBytes(resources.resolve(name));
+				byte[] fromJar;
+				try (InputStream in = loader.getResourceAsStream(name)) {
+					fromJar = ResourceManager.readAllBytes(in);
+				}
+				ByteBuffer buffer = pack.read(name);
+				byte[] fromPack = new byte[buffer.remaining()];
+				buffer.get(fromPack);
+
+				if (!Arrays.equals(expected, fromJar) || !Arrays.equals(expected, fromPack))
+					throw new AssertionError("Read back a different " + name);
+			}
+		}
+	}
+
+	/*
+	 * Generates small text and binary files spread over a few folders, about
+	 * the size of shaders, materials and small meshes
+	 */
+	private static List<String> generateFiles(Path resources, int fileCount) throws IOException {
+		Random random = new Random(3);
+		String[] folders = { "shaders", "materials", "models", "textures" };
+		List<String> names = new ArrayList<>(fileCount);
+		for (int i = 0; i < fileCount; i++) {
+			String folder = folders[i % folders.length];
+			String name = folder + "/" + (i / 100) + "/file" + i + (folder.equals("textures") ? ".bin" : ".txt");
+			Path file = resources.resolve(name);
+			Files.createDirectories(file.getParent());
+
+			int size = 256 + random.nextInt(4096);
+			byte[] bytes;
+			if (folder.equals("textures")) {
+				// Already compressed data, stored as is in the pack
+				bytes = new byte[size];
+				random.nextBytes(bytes);
+			} else {
+				StringBuilder text = new StringBuilder(size);
+				while (text.length() < size)
+					text.append("uniform vec4 value").append(random.nextInt(64)).append(" = vec4(")
+							.append(random.nextInt(10)).append(".0);\n");
+				bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+			}
+			Files.write(file, bytes);
+			names.add(name);
+		}
+		return names;
+	}
+
+	/*
+	 * Writes the files into a compressed jar, like a shipped game
+	 */
+	private static void writeJar(Path resources, List<String> names, Path jar) throws IOException {
+		try (OutputStream fileOut = Files.newOutputStream(jar); JarOutputStream out = new JarOutputStream(fileOut)) {
+			for (String name : names) {
+				out.putNextEntry(new JarEntry(name));
+				out.write(Files.readAllBytes(resources.resolve(name)));
+				out.closeEntry();
+			}
+		}
+	}
+
+	/*
+	 * Opens the jar as its own classpath
+	 */
+	private static URLClassLoader openJar(Path jar) throws IOException {
+		return new URLClassLoader(new URL[] { jar.toUri().toURL() }, null);
+	}
+
+	/*
+	 * Sums the sizes of the files
+	 */
+	private static long totalSize(Path resources, List<String> names) throws IOException {
+		long total = 0;
+		for (String name : names)
+			total += Files.size(resources.resolve(name));
+		return total;
+	}
+
+	/*
+	 * The reads being timed, returns the amount of bytes read
+	 */
+	private interface Reader {
+		long read() throws Exception;
+	}
+}
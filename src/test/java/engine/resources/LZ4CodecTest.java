@@ -0,0 +1,204 @@
+package engine.resources;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that LZ4Codec round trips data of every shape, decodes hand written
+ * blocks (including overlapping matches) and rejects corrupt blocks with an
+ * IOException instead of reading or writing out of bounds. Run it with its
+ * main method, it exits with an error on the first failure.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class LZ4CodecTest {
+	private static final int FUZZ_CASES = 20000;
+
+	private LZ4CodecTest() {
+	}
+
+	/**
+	 * Runs the tests
+	 * 
+	 * @param args
+	 *            unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		testRoundTrips();
+		testOverlappingMatches();
+		testCorruptBlocks();
+		testFuzzedBlocks();
+		System.out.println("LZ4CodecTest passed");
+	}
+
+	/*
+	 * Compresses and decompresses empty, tiny, random, repetitive and large
+	 * data, plus data compressed from an offset into its array
+	 */
+	private static void testRoundTrips() throws Exception {
+		Random random = new Random(7);
+		for (int length = 0; length <= 64; length++)
+			roundTrip(randomBytes(random, length, 4), 0, length);
+
+		roundTrip(new byte[100000], 0, 100000);
+		roundTrip(randomBytes(random, 100000, 256), 0, 100000);
+		roundTrip(randomBytes(random, 100000, 3), 0, 100000);
+
+		// Matches further back than the max offset can't be used
+		byte[] farRepeat = randomBytes(random, 200000, 256);
+		System.arraycopy(farRepeat, 0, farRepeat, 100000, 50000);
+		roundTrip(farRepeat, 0, farRepeat.length);
+
+		// Literal and match runs long enough for several length bytes
+		byte[] runs = new byte[5000];
+		byte[] noise = randomBytes(random, 1000, 256);
+		System.arraycopy(noise, 0, runs, 0, noise.length);
+		System.arraycopy(noise, 0, runs, 3000, noise.length);
+		roundTrip(runs, 0, runs.length);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			text.append("v ").append(i % 37).append(".000000 1.000000 -").append(i % 11).append(".500000\n");
+		byte[] textBytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+		roundTrip(textBytes, 0, textBytes.length);
+		roundTrip(textBytes, 1234, textBytes.length - 2000);
+	}
+
+	/*
+	 * Decodes blocks whose matches overlap the bytes they produce, which have
+	 * to repeat the last offset bytes instead of copying in one go
+	 */
+	private static void testOverlappingMatches() throws Exception {
+		// "ab", then 10 bytes from 2 back, then 5 literals
+		expectDecoded(block(0x26, 'a', 'b', 2, 0, 0x50, '1', '2', '3', '4', '5'), "abababababab12345");
+
+		// "x", then 19 + 4 bytes from 1 back using a length byte, then 5
+		// literals
+		expectDecoded(block(0x1F, 'x', 1, 0, 4, 0x50, 'e', 'n', 'd', '!', '!'), "xxxxxxxxxxxxxxxxxxxxxxxxend!!");
+
+		// A match exactly as long as its offset doesn't overlap
+		expectDecoded(block(0x40, 'w', 'x', 'y', 'z', 4, 0, 0x50, '1', '2', '3', '4', '5'), "wxyzwxyz12345");
+	}
+
+	/*
+	 * Feeds blocks that break each of the decoder's checks
+	 */
+	private static void testCorruptBlocks() throws Exception {
+		// Literal length bytes run past the end of the block
+		expectCorrupt(block(0xF0, 255), 300);
+		// More literals than there are bytes left in the block
+		expectCorrupt(block(0x50, 'a', 'b'), 5);
+		// More literals than fit in the destination
+		expectCorrupt(block(0x50, 'a', 'b', 'c', 'd', 'e'), 4);
+		// Only one byte of the match offset
+		expectCorrupt(block(0x10, 'a', 1), 10);
+		// A zero offset, and an offset before the start of the output
+		expectCorrupt(block(0x10, 'a', 0, 0, 0x50, '1', '2', '3', '4', '5'), 10);
+		expectCorrupt(block(0x10, 'a', 2, 0, 0x50, '1', '2', '3', '4', '5'), 10);
+		// Match length bytes run past the end of the block
+		expectCorrupt(block(0x1F, 'a', 1, 0, 255), 300);
+		// A match longer than the rest of the destination
+		expectCorrupt(block(0x1F, 'a', 1, 0, 100), 20);
+		// Decompressing to fewer bytes than expected
+		expectCorrupt(block(0x50, '1', '2', '3', '4', '5'), 6);
+	}
+
+	/*
+	 * Truncates and flips bytes of valid blocks, which must either decode or
+	 * throw an IOException
+	 */
+	private static void testFuzzedBlocks() throws Exception {
+		Random random = new Random(11);
+		byte[] data = randomBytes(random, 4000, 6);
+		byte[] compressed = LZ4Codec.compress(data, 0, data.length);
+
+		byte[] dst = new byte[data.length];
+		for (int i = 0; i < FUZZ_CASES; i++) {
+			byte[] corrupt = Arrays.copyOf(compressed, compressed.length);
+			int length = random.nextBoolean() ? corrupt.length : random.nextInt(corrupt.length);
+			for (int flips = 1 + random.nextInt(4); flips > 0; flips--)
+				corrupt[random.nextInt(corrupt.length)] = (byte) random.nextInt(256);
+
+			try {
+				LZ4Codec.decompress(corrupt, 0, length, dst, 0, dst.length);
+			} catch (IOException expected) {
+			} catch (RuntimeException e) {
+				throw new AssertionError("Corrupt block threw " + e + " instead of an IOException", e);
+			}
+		}
+	}
+
+	/*
+	 * Compresses the range, decompresses it into the middle of a larger array
+	 * and fails if any byte differs or the bytes around it were touched
+	 */
+	private static void roundTrip(byte[] data, int offset, int length) throws Exception {
+		byte[] compressed = LZ4Codec.compress(data, offset, length);
+		if (compressed.length > LZ4Codec.maxCompressedLength(length))
+			throw new AssertionError("Compressed " + length + " bytes past the max compressed length");
+
+		byte[] dst = new byte[length + 16];
+		Arrays.fill(dst, (byte) 0x5A);
+		LZ4Codec.decompress(compressed, 0, compressed.length, dst, 8, length);
+
+		for (int i = 0; i < length; i++) {
+			if (dst[8 + i] != data[offset + i])
+				throw new AssertionError("Round trip of " + length + " bytes differs at byte " + i);
+		}
+		for (int i = 0; i < 8; i++) {
+			if (dst[i] != 0x5A || dst[dst.length - 1 - i] != 0x5A)
+				throw new AssertionError("Round trip of " + length + " bytes wrote outside its range");
+		}
+	}
+
+	/*
+	 * Decompresses the block and fails unless it gives the expected text
+	 */
+	private static void expectDecoded(byte[] block, String expected) throws Exception {
+		byte[] expectedBytes = expected.getBytes(StandardCharsets.US_ASCII);
+		byte[] dst = new byte[expectedBytes.length];
+		LZ4Codec.decompress(block, 0, block.length, dst, 0, dst.length);
+		if (!Arrays.equals(dst, expectedBytes))
+			throw new AssertionError("Decoded \"" + new String(dst, StandardCharsets.US_ASCII) + "\" but expected \""
+					+ expected + "\"");
+	}
+
+	/*
+	 * Decompresses the block and fails unless it is rejected as corrupt
+	 */
+	private static void expectCorrupt(byte[] block, int dstLength) {
+		try {
+			LZ4Codec.decompress(block, 0, block.length, new byte[dstLength], 0, dstLength);
+		} catch (IOException expected) {
+			return;
+		} catch (RuntimeException e) {
+			throw new AssertionError("Corrupt block " + Arrays.toString(block) + " threw " + e, e);
+		}
+		throw new AssertionError("Corrupt block " + Arrays.toString(block) + " was not rejected");
+	}
+
+	/*
+	 * Creates a block out of the bytes
+	 */
+	private static byte[] block(int... values) {
+		byte[] block = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			block[i] = (byte) values[i];
+		return block;
+	}
+
+	/*
+	 * Creates random bytes using only the specified amount of distinct values,
+	 * fewer values compress better
+	 */
+	private static byte[] randomBytes(Random random, int length, int values) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) random.nextInt(values);
+		return bytes;
+	}
+}
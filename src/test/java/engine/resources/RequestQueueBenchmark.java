@@ -0,0 +1,181 @@
+package engine.resources;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times producers enqueueing requests while a single consumer drains them,
+ * through RequestQueue and through a synchronized linked list like the queue
+ * used to be. Also times making resource requests through RequestManager
+ * from several threads at once. Run it with its main method, optionally
+ * passing the amount of requests per producer.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class RequestQueueBenchmark {
+	private static final int DEFAULT_REQUESTS_PER_PRODUCER = 1000000;
+	private static final int[] PRODUCER_COUNTS = { 1, 2, 4, 8 };
+	private static final int WARMUP_RUNS = 3;
+	private static final int MEASURED_RUNS = 5;
+
+	private static final IRequest NO_OP = () -> {
+	};
+
+	private RequestQueueBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args
+	 *            optionally the amount of requests each producer makes
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int requestsPerProducer = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REQUESTS_PER_PRODUCER;
+		System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+
+		for (int producers : PRODUCER_COUNTS) {
+			report("lock-free queue", producers, requestsPerProducer, () -> runQueue(new QueueAdapter() {
+				private final RequestQueue _queue = new RequestQueue();
+
+				@Override
+				public void enqueue(IRequest request) {
+					_queue.enqueue(request);
+				}
+
+				@Override
+				public IRequest dequeue() {
+					return _queue.dequeue();
+				}
+			}, producers, requestsPerProducer));
+
+			report("locked list", producers, requestsPerProducer, () -> runQueue(new QueueAdapter() {
+				private final LinkedList<IRequest> _queue = new LinkedList<>();
+
+				@Override
+				public synchronized void enqueue(IRequest request) {
+					_queue.add(request);
+				}
+
+				@Override
+				public synchronized IRequest dequeue() {
+					return _queue.poll();
+				}
+			}, producers, requestsPerProducer));
+
+			report("request manager", producers, requestsPerProducer,
+					() -> runRequestManager(producers, requestsPerProducer));
+		}
+		RequestManager.dispose();
+	}
+
+	/*
+	 * Times the run and prints the median and fastest time per request
+	 */
+	private static void report(String name, int producers, int requestsPerProducer, Run run) throws Exception {
+		for (int i = 0; i < WARMUP_RUNS; i++)
+			run.run();
+
+		long[] times = new long[MEASURED_RUNS];
+		for (int i = 0; i < MEASURED_RUNS; i++)
+			times[i] = run.run();
+
+		Arrays.sort(times);
+		double requests = (double) producers * requestsPerProducer;
+		System.out.println(String.format(Locale.ROOT, "%-16s %d producers: median %6.1fns, best %6.1fns per request",
+				name, producers, times[MEASURED_RUNS / 2] / requests, times[0] / requests));
+	}
+
+	/*
+	 * Enqueues from each producer while one consumer dequeues everything,
+	 * returns the time taken in nanoseconds
+	 */
+	private static long runQueue(QueueAdapter queue, int producers, int requestsPerProducer) throws Exception {
+		long total = (long) producers * requestsPerProducer;
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int i = 0; i < producers; i++) {
+			threads[i] = new Thread(() -> {
+				awaitQuietly(start);
+				for (int j = 0; j < requestsPerProducer; j++)
+					queue.enqueue(NO_OP);
+			});
+			threads[i].start();
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (long consumed = 0; consumed < total;) {
+			if (queue.dequeue() != null)
+				consumed++;
+			else
+				Thread.yield();
+		}
+		long time = System.nanoTime() - startTime;
+
+		for (Thread thread : threads)
+			thread.join();
+		return time;
+	}
+
+	/*
+	 * Makes no-op resource requests from each producer and waits for all of
+	 * them to run, returns the time taken in nanoseconds
+	 */
+	private static long runRequestManager(int producers, int requestsPerProducer) throws Exception {
+		long total = (long) producers * requestsPerProducer;
+		AtomicLong completed = new AtomicLong();
+		IRequest request = completed::incrementAndGet;
+
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int i = 0; i < producers; i++) {
+			threads[i] = new Thread(() -> {
+				awaitQuietly(start);
+				for (int j = 0; j < requestsPerProducer; j++)
+					RequestManager.makeResourceRequest(request);
+			});
+			threads[i].start();
+		}
+
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		while (completed.get() < total)
+			Thread.yield();
+		return System.nanoTime() - startTime;
+	}
+
+	/*
+	 * Waits for the latch, ignoring interrupts
+	 */
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * The queue operations being timed
+	 */
+	private interface QueueAdapter {
+		void enqueue(IRequest request);
+
+		IRequest dequeue();
+	}
+
+	/*
+	 * A timed run returning its time in nanoseconds
+	 */
+	private interface Run {
+		long run() throws Exception;
+	}
+}
@@ -0,0 +1,139 @@
+package engine.resources.loaders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that ByteTokenizer parses floats to the exact same bits as
+ * Float.parseFloat, both on the fast path and around its boundaries. Run it
+ * with its main method, it exits with an error on the first mismatch.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class ByteTokenizerTest {
+	private static final int RANDOM_CASES = 200000;
+
+	private static final String[] BOUNDARY_CASES = {
+			// Zeros and signs
+			"0", "-0", "+0", "0.0", "-0.0", "000.000", "1", "-1", "+1",
+			// Mantissas around 2^24, the largest exact float integer
+			"16777215", "16777216", "16777217", "16777218", "16777219", "1677721.7", "167772.17e2",
+			"-16777217", "33554431", "33554433",
+			// Exponents around the largest exact float power of ten
+			"1e10", "1e11", "1e-10", "1e-11", "9e10", "9e-10", "16777216e10", "16777216e-10", "16777217e10",
+			"1.5e+10", "1.5E-10", "0.0000000001", "0.00000000001",
+			// Decimals that aren't exact in binary
+			"0.1", "0.2", "0.3", "0.7", "1.1", "3.14159265", "2.7182818", "0.333333", "0.6666667",
+			// Many digits, including ones that only double rounding gets wrong
+			"123456789012345", "1234567890123456", "12345678901234567890", "0.1000000000000000055511151231257827",
+			"1.00000005960464477539062", "1.00000017881393432617187", "0.500000029802322387695312",
+			"7.038531e-26", "8.589973e9", "33554435", "1.0000001", "2.9999998", "0.411287859082222",
+			"0.613090842962265", "8.11359453201294", "2.17638623714447", "0.0014728854293935", "8.52263879776001",
+			// Extremes
+			"3.4028235e38", "3.4028236e38", "1e39", "-1e39", "1.4e-45", "7e-46", "1e-50", "1.17549435e-38",
+			// Values OBJ exporters commonly write
+			"0.000000", "1.000000", "-0.500000", "0.707107", "-0.577350", "123.456789", "-9999.9999",
+			// Java's own forms
+			"NaN", "Infinity", "-Infinity", "1f", "2.5d", "0x1p3", "1.", ".5", "-.5" };
+
+	private ByteTokenizerTest() {
+	}
+
+	/**
+	 * Runs the tests
+	 * 
+	 * @param args
+	 *            unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		for (String token : BOUNDARY_CASES)
+			check(token);
+
+		// Random floats printed the shortest way, with a fixed amount of
+		// decimals like OBJ exporters do, and random digit strings
+		Random random = new Random(42);
+		for (int i = 0; i < RANDOM_CASES; i++) {
+			float value = Float.intBitsToFloat(random.nextInt());
+			if (!Float.isNaN(value))
+				check(Float.toString(value));
+
+			float coordinate = (random.nextFloat() - 0.5f) * (float) Math.pow(10, random.nextInt(8) - 2);
+			check(String.format(Locale.ROOT, "%." + random.nextInt(10) + "f", coordinate));
+
+			check(randomDigits(random));
+		}
+
+		// Several tokens on one line must also be parsed in order
+		checkLine("v 0.1 -16777217 1e-11 3.4028235e38");
+		System.out.println("ByteTokenizerTest passed " + (BOUNDARY_CASES.length + RANDOM_CASES * 3) + " cases");
+	}
+
+	/*
+	 * Parses the token with both parsers and fails if the bits differ
+	 */
+	private static void check(String token) throws Exception {
+		float expected;
+		try {
+			expected = Float.parseFloat(token);
+		} catch (NumberFormatException e) {
+			expected = Float.NaN;
+		}
+
+		byte[] bytes = ("v " + token + "\n").getBytes(StandardCharsets.US_ASCII);
+		ByteTokenizer tokenizer = new ByteTokenizer(bytes, 0, bytes.length);
+		tokenizer.nextLine();
+		tokenizer.nextTokenIs(new byte[] { 'v' });
+		float actual;
+		try {
+			actual = tokenizer.nextFloat();
+		} catch (NumberFormatException e) {
+			actual = Float.NaN;
+		}
+
+		if (Float.floatToIntBits(actual) != Float.floatToIntBits(expected))
+			throw new AssertionError("Parsed \"" + token + "\" as " + actual + " but expected " + expected);
+		if (tokenizer.hasToken())
+			throw new AssertionError("Parsing \"" + token + "\" did not consume the token");
+	}
+
+	/*
+	 * Parses every float on the line and checks each of them
+	 */
+	private static void checkLine(String line) throws Exception {
+		byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+		ByteTokenizer tokenizer = new ByteTokenizer(bytes, 0, bytes.length);
+		tokenizer.nextLine();
+		tokenizer.nextTokenIs(new byte[] { 'v' });
+
+		String[] tokens = line.split("\\s+");
+		for (int i = 1; i < tokens.length; i++) {
+			float actual = tokenizer.nextFloat();
+			if (Float.floatToIntBits(actual) != Float.floatToIntBits(Float.parseFloat(tokens[i])))
+				throw new AssertionError("Parsed \"" + tokens[i] + "\" as " + actual + " in \"" + line + "\"");
+		}
+	}
+
+	/*
+	 * Creates a random decimal with up to 20 digits and an optional exponent
+	 */
+	private static String randomDigits(Random random) {
+		StringBuilder builder = new StringBuilder();
+		if (random.nextBoolean())
+			builder.append('-');
+
+		int digits = 1 + random.nextInt(20);
+		int point = random.nextInt(digits + 1);
+		for (int i = 0; i < digits; i++) {
+			if (i == point && i > 0)
+				builder.append('.');
+			builder.append((char) ('0' + random.nextInt(10)));
+		}
+
+		if (random.nextInt(4) == 0)
+			builder.append('e').append(random.nextInt(30) - 15);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,154 @@
+package engine.resources.loaders;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+/**
+ * Times parsing a generated OBJ file through OBJLoader against splitting
+ * every line into strings the way the loader used to, and parsing it as one
+ * chunk against parsing it in parallel chunks. Run it with its main method,
+ * optionally passing the grid size of the generated mesh.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class OBJParseBenchmark {
+	private static final int DEFAULT_GRID_SIZE = 400;
+	private static final int WARMUP_RUNS = 10;
+	private static final int MEASURED_RUNS = 15;
+
+	private OBJParseBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args
+	 *            optionally the amount of quads along each side of the mesh
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int gridSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GRID_SIZE;
+		byte[] data = generateGrid(gridSize);
+		System.out.println("OBJ data: " + (data.length >> 10) + "KB, " + (gridSize * gridSize * 2) + " faces");
+
+		report("split strings", () -> parseBySplitting(data));
+		report("byte tokenizer", () -> OBJLoader.loadVBOData(new ByteTokenizer(new ByteArrayInputStream(data))));
+		report("single chunk", () -> OBJLoader.loadVBOData(new ByteTokenizer(data, 0, data.length)));
+		report("parallel chunks", () -> OBJLoader.loadVBOData(data));
+	}
+
+	/*
+	 * Times the parser and prints the median and fastest run
+	 */
+	private static void report(String name, Parser parser) throws Exception {
+		for (int i = 0; i < WARMUP_RUNS; i++)
+			parser.parse();
+
+		long[] times = new long[MEASURED_RUNS];
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long start = System.nanoTime();
+			parser.parse();
+			times[i] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(times);
+		System.out.println(String.format(Locale.ROOT, "%-16s median %7.2fms, best %7.2fms", name,
+				times[MEASURED_RUNS / 2] / 1e6, times[0] / 1e6));
+	}
+
+	/*
+	 * Parses the lines the way the loader used to, every line and every index
+	 * group is split into strings
+	 */
+	private static Object parseBySplitting(byte[] data) throws Exception {
+		List<Vector3f> positions = new ArrayList<>();
+		List<Vector2f> texCoords = new ArrayList<>();
+		List<Vector3f> normals = new ArrayList<>();
+		List<int[]> faces = new ArrayList<>();
+
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.US_ASCII))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+				lines.add(line);
+		}
+
+		for (String line : lines) {
+			String[] tokens = line.split("\\s+");
+			switch (tokens[0]) {
+			case "v":
+				positions.add(new Vector3f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]),
+						Float.parseFloat(tokens[3])));
+				break;
+			case "vt":
+				texCoords.add(new Vector2f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2])));
+				break;
+			case "vn":
+				normals.add(new Vector3f(Float.parseFloat(tokens[1]), Float.parseFloat(tokens[2]),
+						Float.parseFloat(tokens[3])));
+				break;
+			case "f":
+				int[] face = new int[9];
+				for (int i = 0; i < 3; i++) {
+					String[] group = tokens[i + 1].split("/");
+					for (int j = 0; j < 3; j++)
+						face[i * 3 + j] = Integer.parseInt(group[j]) - 1;
+				}
+				faces.add(face);
+				break;
+			default:
+				break;
+			}
+		}
+		return faces;
+	}
+
+	/*
+	 * Generates a bumpy grid of quads split into triangles, written with six
+	 * decimals like most exporters
+	 */
+	private static byte[] generateGrid(int gridSize) {
+		StringBuilder builder = new StringBuilder();
+		int side = gridSize + 1;
+		for (int z = 0; z < side; z++) {
+			for (int x = 0; x < side; x++) {
+				float height = (float) (Math.sin(x * 0.1) * Math.cos(z * 0.1));
+				builder.append(String.format(Locale.ROOT, "v %.6f %.6f %.6f\n", x * 0.5f, height, z * -0.5f));
+				builder.append(String.format(Locale.ROOT, "vt %.6f %.6f\n", (float) x / gridSize,
+						(float) z / gridSize));
+				builder.append(String.format(Locale.ROOT, "vn %.6f %.6f %.6f\n", -height * 0.1f, 0.994987f,
+						height * 0.1f));
+			}
+		}
+
+		for (int z = 0; z < gridSize; z++) {
+			for (int x = 0; x < gridSize; x++) {
+				int a = z * side + x + 1, b = a + 1, c = a + side, d = c + 1;
+				builder.append("f ").append(a).append('/').append(a).append('/').append(a).append(' ').append(b)
+						.append('/').append(b).append('/').append(b).append(' ').append(d).append('/').append(d)
+						.append('/').append(d).append('\n');
+				builder.append("f ").append(a).append('/').append(a).append('/').append(a).append(' ').append(d)
+						.append('/').append(d).append('/').append(d).append(' ').append(c).append('/').append(c)
+						.append('/').append(c).append('\n');
+			}
+		}
+		return builder.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * A parser being timed
+	 */
+	private interface Parser {
+		Object parse() throws Exception;
+	}
+}
@@ -0,0 +1,171 @@
+package engine.scenes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.joml.Matrix4f;
+
+import engine.common.Defaults;
+import engine.utils.TimeUtils;
+
+/**
+ * Times keeping an AABBTree of many objects up to date while some of them
+ * move every frame, refitting the moved objects and reinserting them within
+ * the scene's time budget the way the scene's spatial index does, and times a
+ * frustum query against the result. Run it with its main method, optionally
+ * passing the amount of objects and the amount moving per frame.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AABBTreeBenchmark {
+	private static final int DEFAULT_OBJECT_COUNT = 100000;
+	private static final int DEFAULT_MOVING_COUNT = 1000;
+	private static final float WORLD_SIZE = 2000;
+	private static final int REBALANCE_BATCH = 16;
+	private static final int WARMUP_FRAMES = 300;
+	private static final int MEASURED_FRAMES = 1000;
+
+	private AABBTreeBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * 
+	 * @param args
+	 *            optionally the amount of objects, then the amount of them
+	 *            moving each frame
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int objectCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OBJECT_COUNT;
+		int movingCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MOVING_COUNT;
+		Random random = new Random(17);
+
+		// Objects of a few units spread over the world, the first ones move
+		float[] positions = new float[objectCount * 3];
+		float[] sizes = new float[objectCount];
+		float[] velocities = new float[movingCount * 3];
+		for (int i = 0; i < objectCount; i++) {
+			for (int k = 0; k < 3; k++)
+				positions[i * 3 + k] = (random.nextFloat() - 0.5f) * WORLD_SIZE * (k == 1 ? 0.05f : 1);
+			sizes[i] = 0.5f + random.nextFloat() * 3;
+		}
+		for (int i = 0; i < velocities.length; i++)
+			velocities[i] = (random.nextFloat() - 0.5f) * 0.5f;
+
+		AABBTree<Integer> tree = new AABBTree<>(Defaults.Scene.SPATIAL_INDEX_MARGIN);
+		int[] proxies = new int[objectCount];
+		long buildStart = System.nanoTime();
+		for (int i = 0; i < objectCount; i++)
+			proxies[i] = insert(tree, positions, sizes, i);
+		long buildTime = System.nanoTime() - buildStart;
+		System.out.println(String.format(Locale.ROOT, "%d objects, %d moving per frame, built in %.1fms, height %d",
+				objectCount, movingCount, buildTime / 1e6, tree.getHeight()));
+
+		long deadline = (long) TimeUtils.MilliToNano(Defaults.Scene.SPATIAL_INDEX_REBALANCE_BUDGET_MS);
+		long[] times = new long[MEASURED_FRAMES];
+		long[] moveTimes = new long[MEASURED_FRAMES];
+		long refits = 0, reinserts = 0;
+		int maxHeight = 0;
+		for (int frame = -WARMUP_FRAMES; frame < MEASURED_FRAMES; frame++) {
+			long start = System.nanoTime();
+			int frameRefits = 0, frameReinserts = 0;
+			for (int i = 0; i < movingCount; i++) {
+				for (int k = 0; k < 3; k++)
+					positions[i * 3 + k] += velocities[i * 3 + k];
+				if (move(tree, positions, sizes, proxies[i], i))
+					frameRefits++;
+			}
+			long moveTime = System.nanoTime() - start;
+
+			long deadlineNS = System.nanoTime() + deadline;
+			int reinserted;
+			do {
+				reinserted = tree.rebalance(REBALANCE_BATCH);
+				frameReinserts += reinserted;
+			} while (reinserted == REBALANCE_BATCH && System.nanoTime() < deadlineNS);
+			long time = System.nanoTime() - start;
+
+			if (frame >= 0) {
+				times[frame] = time;
+				moveTimes[frame] = moveTime;
+				refits += frameRefits;
+				reinserts += frameReinserts;
+				maxHeight = Math.max(maxHeight, tree.getHeight());
+			}
+			// Turn around at the edge of the world
+			for (int i = 0; i < velocities.length; i++) {
+				if (Math.abs(positions[i]) > WORLD_SIZE * 0.5f)
+					velocities[i] = -Math.copySign(Math.abs(velocities[i]), positions[i]);
+			}
+		}
+
+		report("moves per frame", moveTimes);
+		report("maintenance per frame", times);
+		System.out.println(String.format(Locale.ROOT, "per frame: %.1f refits, %.1f reinserts, max height %d",
+				refits / (double) MEASURED_FRAMES, reinserts / (double) MEASURED_FRAMES, maxHeight));
+
+		// Whatever the budget left queued
+		long drainStart = System.nanoTime();
+		int drained = tree.rebalance(Integer.MAX_VALUE);
+		System.out.println(String.format(Locale.ROOT, "reinserted the %d still queued in %.3fms, height %d", drained,
+				(System.nanoTime() - drainStart) / 1e6, tree.getHeight()));
+
+		reportQuery(tree);
+	}
+
+	/*
+	 * Prints the median, 99th percentile and fastest of the times
+	 */
+	private static void report(String name, long[] times) {
+		Arrays.sort(times);
+		System.out.println(String.format(Locale.ROOT, "%-22s median %.3fms, 99th percentile %.3fms, best %.3fms", name,
+				times[times.length / 2] / 1e6, times[times.length * 99 / 100] / 1e6, times[0] / 1e6));
+	}
+
+	/*
+	 * Times a camera's frustum query over the tree
+	 */
+	private static void reportQuery(AABBTree<Integer> tree) {
+		Matrix4f viewProjection = new Matrix4f().perspective((float) Math.toRadians(70), 16 / 9f, 0.1f, 500)
+				.lookAt(0, 20, 0, 1, 20, 1, 0, 1, 0);
+		List<Integer> results = new ArrayList<>();
+		long[] times = new long[MEASURED_FRAMES];
+		for (int i = -WARMUP_FRAMES; i < MEASURED_FRAMES; i++) {
+			results.clear();
+			long start = System.nanoTime();
+			tree.queryFrustum(viewProjection, results);
+			if (i >= 0)
+				times[i] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(times);
+		System.out.println(String.format(Locale.ROOT, "frustum query of %d objects: median %.3fms, best %.3fms",
+				results.size(), times[MEASURED_FRAMES / 2] / 1e6, times[0] / 1e6));
+	}
+
+	/*
+	 * Inserts the object's box, returns its proxy
+	 */
+	private static int insert(AABBTree<Integer> tree, float[] positions, float[] sizes, int object) {
+		int i = object * 3;
+		float extent = sizes[object] * 0.5f;
+		return tree.insert(positions[i] - extent, positions[i + 1] - extent, positions[i + 2] - extent,
+				positions[i] + extent, positions[i + 1] + extent, positions[i + 2] + extent, object);
+	}
+
+	/*
+	 * Moves the object's box to its position, returns whether the tree was
+	 * refit
+	 */
+	private static boolean move(AABBTree<Integer> tree, float[] positions, float[] sizes, int proxy, int object) {
+		int i = object * 3;
+		float extent = sizes[object] * 0.5f;
+		return tree.move(proxy, positions[i] - extent, positions[i + 1] - extent, positions[i + 2] - extent,
+				positions[i] + extent, positions[i + 1] + extent, positions[i + 2] + extent);
+	}
+}
@@ -0,0 +1,317 @@
+package engine.scenes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.joml.FrustumIntersection;
+import org.joml.Intersectionf;
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+
+/**
+ * Checks that every AABBTree query finds exactly the items a brute force scan
+ * of their boxes finds, while items are inserted, moved, removed and
+ * reinserted, including proxies handed out again while their old leaf is
+ * still queued for reinsertion. Run it with its main method, it exits with an
+ * error on the first mismatch.
+ * 
+ * @author Brandon Porter
+ *
+ */
+public final class AABBTreeTest {
+	private static final float MARGIN = 0.2f;
+	private static final float WORLD_SIZE = 200;
+	private static final int STEPS = 3000;
+	private static final int QUERIES_PER_STEP = 4;
+
+	private final AABBTree<Integer> _tree = new AABBTree<>(MARGIN);
+	// Tight box and proxy of every item in the tree, by item
+	private final Map<Integer, float[]> _boxes = new HashMap<>();
+	private final Map<Integer, Integer> _proxies = new HashMap<>();
+	private int _nextItem = 0;
+
+	private AABBTreeTest() {
+	}
+
+	/**
+	 * Runs the tests
+	 * 
+	 * @param args
+	 *            unused
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		new AABBTreeTest().testEmptyTree();
+		new AABBTreeTest().testQueuedProxyReuse();
+		new AABBTreeTest().testRandomChanges(new Random(23));
+		System.out.println("AABBTreeTest passed");
+	}
+
+	/*
+	 * Queries and rebalances an empty tree, one emptied by removes and one
+	 * emptied by clear
+	 */
+	private void testEmptyTree() {
+		Random random = new Random(1);
+		checkQueries(random);
+		if (_tree.rebalance(Integer.MAX_VALUE) != 0 || _tree.getHeight() != 0)
+			throw new AssertionError("Empty tree rebalanced leaves or has a height");
+
+		for (int i = 0; i < 20; i++)
+			insert(random);
+		for (int item : new ArrayList<>(_boxes.keySet()))
+			remove(item);
+		checkQueries(random);
+
+		for (int i = 0; i < 20; i++)
+			move(insert(random), random, true);
+		_tree.clear();
+		_boxes.clear();
+		_proxies.clear();
+		checkQueries(random);
+		if (_tree.rebalance(Integer.MAX_VALUE) != 0)
+			throw new AssertionError("Cleared tree still had leaves queued");
+		for (int i = 0; i < 20; i++)
+			insert(random);
+		checkAll(random);
+	}
+
+	/*
+	 * Removes a leaf queued for reinsertion and inserts items into its freed
+	 * node (and its freed parent) before rebalancing, which must skip the
+	 * stale queue entry rather than reinsert the new item or an internal node
+	 */
+	private void testQueuedProxyReuse() {
+		Random random = new Random(5);
+		for (int i = 0; i < 50; i++)
+			insert(random);
+
+		int moved = 10;
+		if (!move(moved, random, true))
+			throw new AssertionError("Moving an item out of its fat box didn't refit the tree");
+		int proxy = _proxies.get(moved);
+		remove(moved);
+
+		// The leaf is freed last, so the next insert gets it back
+		int reused = insert(random);
+		if (_proxies.get(reused) != proxy)
+			throw new AssertionError("Insert after remove got proxy " + _proxies.get(reused) + " instead of " + proxy);
+		if (_tree.rebalance(Integer.MAX_VALUE) != 0)
+			throw new AssertionError("Rebalance reinserted the removed item's queue entry");
+		checkAll(random);
+
+		// Queue the reused proxy again, so it is in the queue twice
+		move(reused, random, true);
+		if (_tree.rebalance(Integer.MAX_VALUE) != 1)
+			throw new AssertionError("Rebalance didn't reinsert the reused proxy exactly once");
+		checkAll(random);
+
+		// Queue several leaves, remove them and reuse their nodes for both
+		// leaves and internal nodes before any of them are reinserted
+		List<Integer> queued = new ArrayList<>();
+		for (int item : new ArrayList<>(_boxes.keySet())) {
+			if (queued.size() < 8 && move(item, random, true))
+				queued.add(item);
+		}
+		for (int i = 0; i < queued.size(); i += 2)
+			remove(queued.get(i));
+		for (int i = 0; i < queued.size(); i++)
+			insert(random);
+		int reinserted = _tree.rebalance(Integer.MAX_VALUE);
+		if (reinserted != queued.size() / 2)
+			throw new AssertionError("Rebalance reinserted " + reinserted + " leaves but " + queued.size() / 2
+					+ " were still queued");
+		checkAll(random);
+	}
+
+	/*
+	 * Makes random changes in random amounts, rebalancing part of the queue
+	 * each step, and compares every query to a brute force scan
+	 */
+	private void testRandomChanges(Random random) {
+		for (int i = 0; i < 500; i++)
+			insert(random);
+
+		for (int step = 0; step < STEPS; step++) {
+			List<Integer> items = new ArrayList<>(_boxes.keySet());
+			Collections.shuffle(items, random);
+			int changes = random.nextInt(random.nextInt(10) == 0 ? 200 : 20);
+			for (int i = 0; i < changes && i < items.size(); i++) {
+				int item = items.get(i);
+				int change = random.nextInt(10);
+				if (change < 6)
+					move(item, random, random.nextInt(4) == 0);
+				else if (change < 8)
+					remove(item);
+				else
+					insert(random);
+			}
+			// Keep the tree from emptying or growing without bound
+			while (_boxes.size() < 100)
+				insert(random);
+
+			int maxLeaves = random.nextInt(3) == 0 ? Integer.MAX_VALUE : random.nextInt(16);
+			int reinserted = _tree.rebalance(maxLeaves);
+			if (reinserted > maxLeaves)
+				throw new AssertionError("Rebalance reinserted " + reinserted + " of at most " + maxLeaves);
+
+			for (int i = 0; i < QUERIES_PER_STEP; i++)
+				checkQueries(random);
+			if (step % 100 == 0)
+				checkAll(random);
+		}
+
+		_tree.rebalance(Integer.MAX_VALUE);
+		checkAll(random);
+		// A balanced tree of n leaves is about log2(n) high, rebalancing
+		// should keep it well below twice that
+		int limit = 2 * (32 - Integer.numberOfLeadingZeros(_boxes.size()));
+		if (_tree.getHeight() > limit)
+			throw new AssertionError("Tree of " + _boxes.size() + " items is " + _tree.getHeight() + " high");
+	}
+
+	/*
+	 * Inserts a new item with a random box, returns the item
+	 */
+	private int insert(Random random) {
+		int item = _nextItem++;
+		float[] box = randomBox(random);
+		_boxes.put(item, box);
+		_proxies.put(item, _tree.insert(box[0], box[1], box[2], box[3], box[4], box[5], item));
+		return item;
+	}
+
+	/*
+	 * Moves the item a little, so it often stays inside its fat box, or
+	 * somewhere else entirely. Returns whether the tree was refit.
+	 */
+	private boolean move(int item, Random random, boolean far) {
+		float[] box = _boxes.get(item);
+		if (far) {
+			box = randomBox(random);
+		} else {
+			float dx = (random.nextFloat() - 0.5f) * MARGIN;
+			float dy = (random.nextFloat() - 0.5f) * MARGIN;
+			float dz = (random.nextFloat() - 0.5f) * MARGIN;
+			box = new float[] { box[0] + dx, box[1] + dy, box[2] + dz, box[3] + dx, box[4] + dy, box[5] + dz };
+		}
+		_boxes.put(item, box);
+		return _tree.move(_proxies.get(item), box[0], box[1], box[2], box[3], box[4], box[5]);
+	}
+
+	/*
+	 * Removes the item
+	 */
+	private void remove(int item) {
+		_boxes.remove(item);
+		_tree.remove(_proxies.remove(item));
+	}
+
+	/*
+	 * Checks the size, every proxy's item, and a batch of queries
+	 */
+	private void checkAll(Random random) {
+		if (_tree.size() != _boxes.size())
+			throw new AssertionError("Tree holds " + _tree.size() + " items but expected " + _boxes.size());
+		for (Map.Entry<Integer, Integer> entry : _proxies.entrySet()) {
+			if (!entry.getKey().equals(_tree.getItem(entry.getValue())))
+				throw new AssertionError("Proxy " + entry.getValue() + " holds item " + _tree.getItem(entry.getValue())
+						+ " but expected " + entry.getKey());
+		}
+		for (int i = 0; i < 20; i++)
+			checkQueries(random);
+	}
+
+	/*
+	 * Runs a random query of each kind through the tree and a brute force
+	 * scan, which must find the same items
+	 */
+	private void checkQueries(Random random) {
+		float[] query = randomBox(random, 1 + random.nextFloat() * WORLD_SIZE * 0.3f);
+		List<Integer> results = new ArrayList<>();
+		_tree.queryAABB(query[0], query[1], query[2], query[3], query[4], query[5], results);
+		compare("box", results, b -> Intersectionf.testAabAab(b[0], b[1], b[2], b[3], b[4], b[5], query[0],
+				query[1], query[2], query[3], query[4], query[5]));
+
+		float x = randomCoordinate(random), y = randomCoordinate(random), z = randomCoordinate(random);
+		float radius = random.nextFloat() * WORLD_SIZE * 0.2f;
+		results.clear();
+		_tree.querySphere(x, y, z, radius, results);
+		compare("sphere", results,
+				b -> Intersectionf.testAabSphere(b[0], b[1], b[2], b[3], b[4], b[5], x, y, z, radius * radius));
+
+		// Some frustums hold the whole world, so nodes inside it are tested
+		Matrix4f viewProjection = new Matrix4f()
+				.perspective((float) Math.toRadians(30 + random.nextInt(120)), 1 + random.nextFloat(), 0.1f,
+						random.nextBoolean() ? 50 : 1000)
+				.lookAt(x, y, z, randomCoordinate(random), randomCoordinate(random), randomCoordinate(random), 0, 1, 0);
+		FrustumIntersection frustum = new FrustumIntersection(viewProjection);
+		results.clear();
+		_tree.queryFrustum(viewProjection, results);
+		compare("frustum", results, b -> {
+			int result = frustum.intersectAab(b[0], b[1], b[2], b[3], b[4], b[5]);
+			return result == FrustumIntersection.INSIDE || result == FrustumIntersection.INTERSECT;
+		});
+
+		float dx = random.nextFloat() - 0.5f, dy = random.nextFloat() - 0.5f, dz = random.nextFloat() - 0.5f;
+		float maxDistance = random.nextBoolean() ? Float.POSITIVE_INFINITY : random.nextFloat() * WORLD_SIZE;
+		Vector2f hit = new Vector2f();
+		results.clear();
+		_tree.raycast(x, y, z, dx, dy, dz, maxDistance, results);
+		compare("ray", results, b -> Intersectionf.intersectRayAab(x, y, z, dx, dy, dz, b[0], b[1], b[2], b[3], b[4],
+				b[5], hit) && hit.x <= maxDistance);
+	}
+
+	/*
+	 * Fails unless the results hold exactly the items whose box passes the
+	 * test, each once
+	 */
+	private void compare(String name, List<Integer> results, BoxTest test) {
+		List<Integer> expected = new ArrayList<>();
+		for (Map.Entry<Integer, float[]> entry : _boxes.entrySet()) {
+			if (test.test(entry.getValue()))
+				expected.add(entry.getKey());
+		}
+		Collections.sort(expected);
+		List<Integer> actual = new ArrayList<>(results);
+		Collections.sort(actual);
+		if (!actual.equals(expected))
+			throw new AssertionError("The " + name + " query found " + actual.size() + " items " + actual
+					+ " but expected " + expected.size() + " items " + expected);
+	}
+
+	/*
+	 * Creates a box of a size from a point to a few units, somewhere in the
+	 * world
+	 */
+	private static float[] randomBox(Random random) {
+		return randomBox(random, random.nextInt(8) == 0 ? 0 : random.nextFloat() * 4);
+	}
+
+	/*
+	 * Creates a box of about the size somewhere in the world
+	 */
+	private static float[] randomBox(Random random, float size) {
+		float x = randomCoordinate(random), y = randomCoordinate(random), z = randomCoordinate(random);
+		return new float[] { x, y, z, x + size * random.nextFloat(), y + size * random.nextFloat(),
+				z + size * random.nextFloat() };
+	}
+
+	/*
+	 * Creates a coordinate in the world, which is centered on the origin
+	 */
+	private static float randomCoordinate(Random random) {
+		return (random.nextFloat() - 0.5f) * WORLD_SIZE;
+	}
+
+	/*
+	 * Tests a box in the brute force scan
+	 */
+	private interface BoxTest {
+		boolean test(float[] box);
+	}
+}